@@ -1,5 +1,6 @@
 package org.apereo.portal.start.gradle.plugins
 
+import org.apereo.portal.start.shell.PortalShellInvoker
 import org.gradle.api.Plugin
 import org.gradle.api.Project
 
@@ -9,6 +10,7 @@ class GradleImportExportPlugin implements Plugin<Project> {
         project.task('dataInit') {
             group 'Data'
             dependsOn project.rootProject.tasks.portalProperties, project.tasks.tomcatDeploy
+            mustRunAfter 'dataShellStart'
             doFirst {
                 if (project.tasks.dataInit.actions.size() == 1) {
                     logger.lifecycle('No actions have been defined for this task in this project')
@@ -18,6 +20,7 @@ class GradleImportExportPlugin implements Plugin<Project> {
         project.task('dataImport') {
             group 'Data'
             dependsOn project.rootProject.tasks.portalProperties, project.tasks.tomcatDeploy
+            mustRunAfter 'dataShellStart'
             doFirst {
                 if (project.tasks.dataImport.actions.size() == 1) {
                     logger.lifecycle('No actions have been defined for this task in this project')
@@ -27,6 +30,7 @@ class GradleImportExportPlugin implements Plugin<Project> {
         project.task('dataExport') {
             group 'Data'
             dependsOn project.rootProject.tasks.portalProperties, project.tasks.tomcatDeploy
+            mustRunAfter 'dataShellStart'
             doFirst {
                 if (project.tasks.dataExport.actions.size() == 1) {
                     logger.lifecycle('No actions have been defined for this task in this project')
@@ -36,6 +40,7 @@ class GradleImportExportPlugin implements Plugin<Project> {
         project.task('dataDelete') {
             group 'Data'
             dependsOn project.rootProject.tasks.portalProperties, project.tasks.tomcatDeploy
+            mustRunAfter 'dataShellStart'
             doFirst {
                 if (project.tasks.dataDelete.actions.size() == 1) {
                     logger.lifecycle('No actions have been defined for this task in this project')
@@ -45,11 +50,28 @@ class GradleImportExportPlugin implements Plugin<Project> {
         project.task('dataList') {
             group 'Data'
             dependsOn project.rootProject.tasks.portalProperties, project.tasks.tomcatDeploy
+            mustRunAfter 'dataShellStart'
             doFirst {
                 if (project.tasks.dataList.actions.size() == 1) {
                     logger.lifecycle('No actions have been defined for this task in this project')
                 }
             }
         }
+        project.task('dataShellStart') {
+            group 'Data'
+            description 'Starts a portal shell that keeps the uPortal context loaded and runs the scripts of the other Data tasks, so they need not fork a JVM each;  it is replaced after a redeploy that changed the webapp'
+            dependsOn project.rootProject.tasks.portalProperties, project.tasks.tomcatDeploy
+            doLast {
+                new PortalShellInvoker().startDaemon(project)
+            }
+        }
+        project.task('dataShellStop') {
+            group 'Data'
+            description 'Stops the portal shell started by dataShellStart'
+            dependsOn project.rootProject.tasks.portalProperties
+            doLast {
+                new PortalShellInvoker().stopDaemon(project)
+            }
+        }
     }
 }
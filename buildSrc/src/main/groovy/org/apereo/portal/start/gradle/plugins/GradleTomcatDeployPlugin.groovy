@@ -1,5 +1,7 @@
 package org.apereo.portal.start.gradle.plugins
 
+import java.security.MessageDigest
+import org.apereo.portal.start.tomcat.IncrementalWarDeployer
 import org.gradle.api.Plugin
 import org.gradle.api.Project
 import org.gradle.api.tasks.Delete
@@ -12,12 +14,20 @@ class GradleTomcatDeployPlugin implements Plugin<Project> {
             description 'Removes this project from the integrated Tomcat servlet container'
             dependsOn project.rootProject.tasks.portalProperties
             mustRunAfter project.rootProject.tasks.tomcatInstall
+            mustRunAfter 'assemble'
+
+            // An incremental tomcatDeploy updates the deployed application in place, and any
+            // tomcatDeploy leaves the application alone when the WAR is the one deployed already
+            onlyIf {
+                !project.gradle.taskGraph.hasTask(project.tasks.tomcatDeploy) ||
+                        (!isIncremental(project) && !isDeployed(project))
+            }
 
             doFirst {
                 File serverBase = project.rootProject.file(project.rootProject.ext['buildProperties'].getProperty('server.base'))
                 File deployDir = new File (serverBase, "webapps/${project.name}")
                 logger.lifecycle("Removing deployed application from servlet container at location:  ${deployDir}")
-                delete deployDir
+                delete deployDir, deployMarker(project)
             }
         }
         project.task('tomcatDeploy') {
@@ -31,16 +41,71 @@ class GradleTomcatDeployPlugin implements Plugin<Project> {
                 File deployDir = new File (serverBase, "webapps/${project.name}")
                 logger.lifecycle("Deploying assembled application to servlet container at location:  ${deployDir}")
 
-                String artifactDir = project.plugins.hasPlugin(GradlePlutoPlugin) ? 'pluto' : 'libs'
-                File warFile = new File("${project.buildDir}/${artifactDir}/${project.name}.war")
+                File warFile = warFile(project)
+                String warDigest = digest(warFile)
 
-                project.copy {
-                    with project.copySpec {
-                        from project.zipTree(warFile)
+                if (isIncremental(project)) {
+                    IncrementalWarDeployer.Result result = IncrementalWarDeployer.deploy(warFile, deployDir)
+                    logger.lifecycle("Deployed ${project.name} incrementally:  ${result}")
+                    if (result.written == 0 && result.removed == 0) {
+                        return
+                    }
+                } else if (isDeployed(project)) {
+                    logger.lifecycle("Deployed ${project.name} is up to date with ${warFile.name}")
+                    return
+                } else {
+                    project.copy {
+                        with project.copySpec {
+                            from project.zipTree(warFile)
+                        }
+                        into deployDir
                     }
-                    into deployDir
                 }
+
+                File marker = deployMarker(project)
+                marker.parentFile.mkdirs()
+                marker.text = "${warDigest}\n"
             }
         }
     }
+
+    /**
+     * @return a file holding the digest of the WAR last deployed, rewritten only by a tomcatDeploy
+     *     that changed the deployed application, so that anything started from the application can
+     *     tell it has been deployed again;  the deployed files keep their WAR entry times, which
+     *     need not change
+     */
+    static File deployMarker(Project project) {
+        return project.file("${project.buildDir}/tomcat/deployed")
+    }
+
+    /**
+     * @return true if the deployed application was extracted from a WAR identical to the one
+     *     assembled now
+     */
+    private static boolean isDeployed(Project project) {
+        File serverBase = project.rootProject.file(project.rootProject.ext['buildProperties'].getProperty('server.base'))
+        File deployDir = new File (serverBase, "webapps/${project.name}")
+        File marker = deployMarker(project)
+        File warFile = warFile(project)
+        return deployDir.isDirectory() && marker.isFile() && warFile.isFile() &&
+                marker.text.trim() == digest(warFile)
+    }
+
+    private static File warFile(Project project) {
+        String artifactDir = project.plugins.hasPlugin(GradlePlutoPlugin) ? 'pluto' : 'libs'
+        return new File("${project.buildDir}/${artifactDir}/${project.name}.war")
+    }
+
+    private static String digest(File file) {
+        MessageDigest digest = MessageDigest.getInstance('SHA-1')
+        file.eachByte(64 * 1024) { byte[] buffer, int length ->
+            digest.update(buffer, 0, length)
+        }
+        return digest.digest().encodeHex().toString()
+    }
+
+    private static boolean isIncremental(Project project) {
+        return Boolean.parseBoolean(project.rootProject.ext['buildProperties'].getProperty('tomcat.deploy.incremental'))
+    }
 }
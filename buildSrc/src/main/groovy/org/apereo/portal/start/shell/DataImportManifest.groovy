@@ -0,0 +1,94 @@
+package org.apereo.portal.start.shell
+
+import java.security.MessageDigest
+
+/**
+ * Remembers the SHA-256 hash of every entity file imported into a database, so that later imports
+ * can skip the files that have not changed since.  Each database, identified by the
+ * hibernate.connection.url in portal.home, has its own manifest file under the manifest directory.
+ */
+class DataImportManifest {
+
+    final File file
+    private final Properties hashes = new Properties()
+
+    private DataImportManifest(File file) {
+        this.file = file
+        if (file.exists()) {
+            file.withInputStream { hashes.load(it) }
+        }
+    }
+
+    /**
+     * @return the manifest of the database in the portal.home global.properties and
+     *     uPortal.properties files (the latter takes precedence)
+     */
+    static DataImportManifest load(File manifestDir, File portalHome) {
+        return new DataImportManifest(new File(manifestDir, "${databaseKey(databaseUrl(portalHome))}.properties"))
+    }
+
+    static String databaseUrl(File portalHome) {
+        String url = 'default'
+        ['global.properties', 'uPortal.properties'].each { name ->
+            File propertiesFile = new File(portalHome, name)
+            if (propertiesFile.exists()) {
+                Properties properties = new Properties()
+                propertiesFile.withInputStream { properties.load(it) }
+                url = properties.getProperty('hibernate.connection.url', url)
+            }
+        }
+        return url
+    }
+
+    private static String databaseKey(String databaseUrl) {
+        return databaseUrl.replaceAll(/[^A-Za-z0-9.-]+/, '_')
+    }
+
+    /**
+     * @return the files that are not in the manifest or whose content changed since they were
+     *     imported
+     */
+    List<File> changed(Collection<File> files) {
+        return files.findAll { hashes.getProperty(key(it)) != hash(it) } as List
+    }
+
+    /**
+     * @return the files in the manifest below the directory that no longer exist;  their entities
+     *     are still in the database
+     */
+    List<File> removed(File dir) {
+        String prefix = key(dir) + File.separator
+        return hashes.stringPropertyNames().findAll { it.startsWith(prefix) && !new File(it).exists() }
+                .sort().collect { new File(it) }
+    }
+
+    /**
+     * Records the current content of the files as imported.
+     */
+    void record(Collection<File> files) {
+        files.each { hashes.setProperty(key(it), hash(it)) }
+    }
+
+    /**
+     * Forgets every file, e.g. because the database was dropped.
+     */
+    void clear() {
+        hashes.clear()
+    }
+
+    void save() {
+        file.parentFile.mkdirs()
+        file.withOutputStream { hashes.store(it, 'SHA-256 hashes of the entity files imported into this database') }
+    }
+
+    private static String key(File file) {
+        return file.canonicalPath
+    }
+
+    private static String hash(File file) {
+        MessageDigest digest = MessageDigest.getInstance('SHA-256')
+        file.eachByte(8192) { byte[] buffer, int length -> digest.update(buffer, 0, length) }
+        return digest.digest().encodeHex().toString()
+    }
+
+}
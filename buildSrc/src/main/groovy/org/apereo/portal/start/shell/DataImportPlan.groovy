@@ -0,0 +1,281 @@
+package org.apereo.portal.start.shell
+
+/**
+ * Orders the entity files of a data set into tiers that may each be imported concurrently.  Files
+ * are grouped by entity type (the root element of the XML), and a type is placed after every type
+ * it refers to, e.g. portlet-definition after portlet-type and group.  Within a type, files that
+ * refer to one another by name (a group listing its child groups, a PAGS group its members, a user
+ * its template user) are split over further tiers.  Every file in a tier depends only on files in
+ * earlier tiers.
+ */
+class DataImportPlan {
+
+    /**
+     * Entity types and the types their files may refer to.  Types without entries here (portlet
+     * data such as predefined-news or predefined-calendar) are imported after all of these, each
+     * in tiers of its own since nothing is known of what they refer to.
+     */
+    static final Map<String,List<String>> TYPE_DEPENDENCIES = [
+            'entity-type': [],
+            'stylesheet-descriptor': [],
+            'portlet-type': [],
+            'permission-owner': [],
+            'user': [],
+            'pags-group': ['entity-type'],
+            'group': ['entity-type', 'user', 'pags-group'],
+            'event-aggregation': ['group', 'pags-group'],
+            'portlet-definition': ['portlet-type', 'group', 'pags-group'],
+            'fragment-definition': ['user', 'group', 'pags-group'],
+            'profile': ['user', 'stylesheet-descriptor'],
+            'layout': ['user', 'profile', 'stylesheet-descriptor', 'portlet-definition', 'fragment-definition'],
+            'permission-set': ['permission-owner', 'user', 'group', 'pags-group', 'portlet-definition'],
+            'topic': [],
+            'announcement': ['topic']
+    ]
+
+    /**
+     * For the types whose files refer to other files of the same type, the element holding the
+     * name a file defines and the path of the elements naming the files it refers to.
+     */
+    private static final Map<String,Map<String,String>> SELF_REFERENCES = [
+            'user': [name: 'username', refs: 'default-user'],
+            'group': [name: 'name', refs: 'children.group'],
+            'pags-group': [name: 'name', refs: 'members.member-name']
+    ]
+
+    final File location
+    final List<Tier> tiers
+
+    private DataImportPlan(File location, List<Tier> tiers) {
+        this.location = location
+        this.tiers = tiers
+    }
+
+    /**
+     * Reads the root element, and for self-referencing types the names, of every XML file below
+     * the location and orders them into tiers.
+     */
+    static DataImportPlan create(File location) {
+        List<Entity> entities = entityFiles(location).collect { readEntity(it) }
+        return new DataImportPlan(location, createTiers(entities))
+    }
+
+    /**
+     * @return the XML files below the location, sorted by path
+     */
+    static List<File> entityFiles(File location) {
+        List<File> files = []
+        location.eachFileRecurse { file ->
+            if (file.isFile() && file.name.endsWith('.xml')) {
+                files << file
+            }
+        }
+        return files.sort { it.path }
+    }
+
+    /**
+     * @return every file in the plan, tier by tier
+     */
+    List<File> getFiles() {
+        return tiers.collectMany { it.entities*.file }
+    }
+
+    /**
+     * @return the plan for the given files alone, e.g. the ones changed since the last import,
+     *     keeping their tiers but dropping the tiers left empty
+     */
+    DataImportPlan retain(Collection<File> files) {
+        Set<File> retained = files as Set
+        List<Tier> retainedTiers = tiers.collect { tier ->
+            Tier retainedTier = new Tier()
+            retainedTier.entities.addAll(tier.entities.findAll { retained.contains(it.file) })
+            return retainedTier
+        }.findAll { it.entities }
+        return new DataImportPlan(location, retainedTiers)
+    }
+
+    private static Entity readEntity(File file) {
+        def root = new XmlSlurper(false, false).parse(file)
+        String type = root.name()
+        Entity entity = new Entity(file: file, type: type)
+        Map<String,String> selfReferences = SELF_REFERENCES[type]
+        if (selfReferences) {
+            entity.name = root."${selfReferences.name}".text().trim()
+            def refs = root
+            selfReferences.refs.tokenize('.').each { refs = refs."${it}" }
+            entity.refs = refs.collect { it.text().trim() }
+        }
+        return entity
+    }
+
+    private static List<Tier> createTiers(List<Entity> entities) {
+        Map<String,List<Entity>> byType = entities.groupBy { it.type }
+
+        // Unknown types may refer to any other type, so each comes after every known type and
+        // every unknown type before it, in a tier of its own
+        List<String> knownTypes = byType.keySet().findAll { TYPE_DEPENDENCIES.containsKey(it) } as List
+        List<String> unknownTypes = (byType.keySet() - knownTypes).sort()
+        Map<String,List<String>> typeDependencies = knownTypes.collectEntries { type ->
+            [(type): TYPE_DEPENDENCIES[type]]
+        }
+        unknownTypes.eachWithIndex { type, index ->
+            typeDependencies[type] = knownTypes + unknownTypes.take(index)
+        }
+
+        Map<String,Integer> typeEnd = [:]  // One past the last tier of each type
+        Map<Integer,Tier> tiers = new TreeMap<>()
+        orderTypes(typeDependencies).each { type ->
+            int start = typeDependencies[type].collect { typeEnd[it] ?: 0 }.max() ?: 0
+            int end = start
+            levels(byType[type]).each { entity, level ->
+                Tier tier = tiers.computeIfAbsent(start + level) { new Tier() }
+                tier.entities << entity
+                end = Math.max(end, start + level + 1)
+            }
+            typeEnd[type] = end
+        }
+        return tiers.values() as List
+    }
+
+    /**
+     * @return the types, each after the types it depends on
+     */
+    private static List<String> orderTypes(Map<String,List<String>> typeDependencies) {
+        List<String> ordered = []
+        Closure visit
+        visit = { String type ->
+            if (!ordered.contains(type)) {
+                typeDependencies[type].findAll { typeDependencies.containsKey(it) }.each { visit(it) }
+                ordered << type
+            }
+        }
+        typeDependencies.keySet().sort().each { visit(it) }
+        return ordered
+    }
+
+    /**
+     * @return the entities of one type, each with its tier counted from the first of the type
+     */
+    private static Map<Entity,Integer> levels(List<Entity> entities) {
+        Map<String,Entity> byName = entities.findAll { it.name }.collectEntries { [(it.name): it] }
+        Map<Entity,Integer> levels = [:]
+        Set<Entity> visiting = [] as Set
+        Closure<Integer> level
+        level = { Entity entity ->
+            Integer known = levels[entity]
+            if (known != null) {
+                return known
+            }
+            if (!visiting.add(entity)) {
+                throw new IllegalStateException("${entity.file} is part of a cycle of ${entity.type} references")
+            }
+            int result = 0
+            entity.refs.each { ref ->
+                // References to entities outside the data set are expected to exist already
+                Entity referenced = byName[ref]
+                if (referenced != null && referenced != entity) {
+                    result = Math.max(result, level(referenced) + 1)
+                }
+            }
+            visiting.remove(entity)
+            levels[entity] = result
+            return result
+        }
+        entities.each { level(it) }
+        return levels
+    }
+
+    /**
+     * @return a PortalShell script that imports each tier's files on a pool of threads, waiting for
+     *     a tier to finish before starting the next, and stops after a tier with failures
+     */
+    static String createScript(List<DataImportPlan> plans, int threads, String logDir) {
+        StringBuilder tiers = new StringBuilder()
+        plans.each { plan ->
+            plan.tiers.eachWithIndex { tier, index ->
+                tiers.append("""\
+    [location: '${escape(plan.location.path)}', index: ${index + 1}, count: ${plan.tiers.size()},
+     types: '${tier.types.join(', ')}', files: [
+""")
+                tier.entities.each { entity ->
+                    tiers.append("        '${escape(entity.file.path)}',\n")
+                }
+                tiers.append('    ]],\n')
+            }
+        }
+
+        return """
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+def tiers = [
+${tiers}]
+
+def pool = Executors.newFixedThreadPool(${threads})
+try {
+    long importStart = System.currentTimeMillis()
+    tiers.each { tier ->
+        long tierStart = System.currentTimeMillis()
+        def futures = tier.files.collect { file ->
+            pool.submit({
+                try {
+                    //dataImport(String target, String dataDir, String pattern, String filesList, String archive, String logDir)
+                    portalShellBuildHelper.dataImport('data-import',
+                        ' ',
+                        ' ',
+                        portalShellBuildHelper.getFilesListStringFromInput(file, ' ', ' '),
+                        ' ',
+                        '${escape(logDir)}');
+                    return null
+                } catch (Throwable t) {
+                    return t
+                }
+            } as Callable)
+        }
+        def failures = [:]
+        futures.eachWithIndex { future, i ->
+            Throwable failure = future.get()
+            if (failure != null) {
+                failures[tier.files[i]] = failure
+            }
+        }
+
+        println "Imported tier \${tier.index}/\${tier.count} of \${tier.location} (\${tier.types}):  " +
+            "\${tier.files.size() - failures.size()} succeeded, \${failures.size()} failed in " +
+            "\${System.currentTimeMillis() - tierStart}ms"
+        if (failures) {
+            failures.each { file, failure ->
+                println "  -> FAILED \${file}:  \${failure}"
+            }
+            throw new IllegalStateException("\${failures.size()} of \${tier.files.size()} files failed " +
+                "to import in tier \${tier.index} of \${tier.location};  later tiers were not imported")
+        }
+    }
+    println "Imported \${tiers.sum { it.files.size() }} files in \${tiers.size()} tiers with ${threads} " +
+        "threads in \${System.currentTimeMillis() - importStart}ms"
+} finally {
+    pool.shutdownNow()
+}
+"""
+    }
+
+    private static String escape(String path) {
+        return PortalShellInvoker.createGroovySafePath(path).replace("'", "\\'")
+    }
+
+    static class Entity {
+        File file
+        String type
+        String name
+        List<String> refs = []
+    }
+
+    static class Tier {
+        final List<Entity> entities = []
+
+        List<String> getTypes() {
+            return entities*.type.unique()
+        }
+    }
+
+}
@@ -1,29 +1,46 @@
 package org.apereo.portal.start.shell
 
+import java.security.MessageDigest
+import org.apereo.portal.start.gradle.plugins.GradleTomcatDeployPlugin
+import org.gradle.api.GradleException
 import org.gradle.api.Project
+import org.gradle.api.Task
 
 /**
  * This class knows how to invoke org.apereo.portal.shell.PortalShell within the overlays:uPortal
  * project.  (It can't do anything in any other project.)
+ *
+ * <p>Each invocation normally forks a JVM, which spends most of its time loading the uPortal
+ * context.  The dataShellStart task instead starts a PortalShell that keeps its context and runs
+ * scripts sent to it over a loopback socket;  invocations use it while it is running and was
+ * started from the deployed webapp and portal.home that are there now, and fork otherwise.
  */
 class PortalShellInvoker {
 
+    private static final String DAEMON_FILE = 'shell/daemon.properties'
+    private static final String EXIT_PREFIX = 'EXIT '
+    private static final int CONNECT_TIMEOUT = 1000
+
     void invoke(Project project, String scriptLocation, String... args) {
-        File serverBase = project.rootProject.file(project.rootProject.ext['buildProperties'].getProperty('server.base'))
-        File deployDir = new File (serverBase, "webapps/${project.name}")
+        if (args.length == 0 && invokeDaemon(project, scriptLocation)) {
+            return
+        }
+        // A daemon started in this very build must not be bypassed without anyone noticing
+        Task shellStart = project.tasks.findByName('dataShellStart')
+        if (shellStart != null && project.gradle.taskGraph.hasTask(shellStart)) {
+            throw new GradleException("dataShellStart ran in this build, but ${scriptLocation} could not be run in its portal shell daemon")
+        }
 
         project.ant.setLifecycleLogLevel('INFO')
         project.ant.java(fork: true, failonerror: true, dir: project.rootProject.projectDir, classname: 'org.apereo.portal.shell.PortalShell') {
             classpath {
-                pathelement(location: "${deployDir}/WEB-INF/classes")
-                pathelement(location: "${deployDir}/WEB-INF/lib/*")
-                project.configurations.shell.files.each {
-                    pathelement(location: it.absolutePath)
+                shellClasspath(project).each {
+                    pathelement(location: it)
                 }
             }
-            sysproperty(key: 'portal.home', value: project.rootProject.ext['buildProperties'].getProperty('portal.home'))
-            sysproperty(key: 'logback.configurationFile', value: 'command-line.logback.xml')
-            sysproperty(key: 'java.awt.headless', value: 'true')
+            shellSystemProperties(project).each { key, value ->
+                sysproperty(key: key, value: value)
+            }
             arg(value: '-s')
             arg(value: scriptLocation)
             args.each {
@@ -32,6 +49,237 @@ class PortalShellInvoker {
         }
     }
 
+    /**
+     * Starts a PortalShell that runs the scripts of later invocations, and waits until its
+     * context is loaded.  Its output goes to shell/daemon.log in the build directory.
+     */
+    void startDaemon(Project project) {
+        Properties daemon = readDaemon(project)
+        if (daemon != null && send(daemon, 'PING', null)) {
+            if (daemon.getProperty('stamp') == stamp(project)) {
+                project.logger.lifecycle("Portal shell daemon already running on port ${daemon.getProperty('port')}")
+                return
+            }
+            stopDaemon(project)
+        }
+
+        File daemonFile = project.file("${project.buildDir}/${DAEMON_FILE}")
+        File scriptFile = new File(daemonFile.parentFile, 'daemon.groovy')
+        File logFile = new File(daemonFile.parentFile, 'daemon.log')
+        daemonFile.parentFile.mkdirs()
+        daemonFile.delete()
+        scriptFile.text = daemonScript(daemonFile, UUID.randomUUID().toString(), stamp(project))
+
+        List<String> command = [new File(System.getProperty('java.home'), 'bin/java').path]
+        shellSystemProperties(project).each { key, value ->
+            command << "-D${key}=${value}".toString()
+        }
+        command.addAll(['-cp', shellClasspath(project).join(File.pathSeparator),
+                'org.apereo.portal.shell.PortalShell', '-s', scriptFile.absolutePath])
+        Process process = new ProcessBuilder(command)
+                .directory(project.rootProject.projectDir)
+                .redirectErrorStream(true)
+                .redirectOutput(logFile)
+                .start()
+
+        project.logger.lifecycle("Starting portal shell daemon;  see ${logFile}")
+        while (!daemonFile.exists()) {
+            if (!process.isAlive()) {
+                throw new GradleException("Portal shell daemon exited with status ${process.exitValue()};  see ${logFile}")
+            }
+            Thread.sleep(500)
+        }
+        project.logger.lifecycle("Portal shell daemon started on port ${readDaemon(project).getProperty('port')}")
+    }
+
+    /**
+     * Stops the daemon started by {@link #startDaemon(Project)}, if it is running.
+     */
+    void stopDaemon(Project project) {
+        Properties daemon = readDaemon(project)
+        if (daemon != null && send(daemon, 'STOP', null)) {
+            project.logger.lifecycle("Stopped portal shell daemon on port ${daemon.getProperty('port')}")
+        }
+        project.file("${project.buildDir}/${DAEMON_FILE}").delete()
+    }
+
+    /**
+     * @return true if the script was run by a live daemon that is not stale, false to fork instead
+     */
+    private boolean invokeDaemon(Project project, String scriptLocation) {
+        Properties daemon = readDaemon(project)
+        if (daemon == null) {
+            return false
+        }
+        if (daemon.getProperty('stamp') != stamp(project)) {
+            project.logger.lifecycle('Portal shell daemon predates the deployed webapp or portal.home;  stopping it and forking instead')
+            stopDaemon(project)
+            return false
+        }
+
+        project.logger.lifecycle("Running ${scriptLocation} in the portal shell daemon on port ${daemon.getProperty('port')}")
+        String status = null
+        if (!send(daemon, new File(scriptLocation).absolutePath, { String line ->
+            if (line.startsWith(EXIT_PREFIX)) {
+                status = line.substring(EXIT_PREFIX.length())
+            } else {
+                project.logger.lifecycle(line)
+            }
+        })) {
+            project.logger.lifecycle('Portal shell daemon is not running;  forking instead')
+            project.file("${project.buildDir}/${DAEMON_FILE}").delete()
+            return false
+        }
+        if (status == null) {
+            throw new GradleException("Portal shell daemon exited while running ${scriptLocation}")
+        }
+        if (status != '0') {
+            throw new GradleException("${scriptLocation} failed in the portal shell daemon")
+        }
+        return true
+    }
+
+    /**
+     * @return false if the daemon could not be reached
+     */
+    private static boolean send(Properties daemon, String command, Closure lineHandler) {
+        Socket socket = new Socket()
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), daemon.getProperty('port') as int), CONNECT_TIMEOUT)
+        } catch (IOException e) {
+            return false
+        }
+        socket.withStreams { input, output ->
+            output.write("${daemon.getProperty('token')}\n${command}\n".getBytes('UTF-8'))
+            output.flush()
+            input.newReader('UTF-8').eachLine { line ->
+                if (lineHandler != null) {
+                    lineHandler(line)
+                }
+            }
+        }
+        return true
+    }
+
+    private static Properties readDaemon(Project project) {
+        File daemonFile = project.file("${project.buildDir}/${DAEMON_FILE}")
+        if (!daemonFile.exists()) {
+            return null
+        }
+        Properties daemon = new Properties()
+        daemonFile.withInputStream { daemon.load(it) }
+        return daemon
+    }
+
+    /**
+     * @return a fingerprint of the deployed webapp and portal.home;  a daemon started before either
+     *     changed has stale classes or configuration
+     */
+    private static String stamp(Project project) {
+        List<File> files = []
+        File webInf = new File(deployDir(project), 'WEB-INF')
+        if (webInf.exists()) {
+            webInf.eachFileRecurse { if (it.isFile()) files << it }
+        }
+        // The configuration files only, not what the portal writes below portal.home
+        portalHome(project).listFiles()?.findAll { it.isFile() }?.each { files << it }
+
+        // Every file's size and time, as a replaced file may well be older than the one before it,
+        // and the marker a tomcatDeploy rewrites when it changes the webapp, as WAR entries may
+        // all carry the same time
+        MessageDigest digest = MessageDigest.getInstance('SHA-1')
+        files.sort { it.path }.each {
+            digest.update("${it.path}\t${it.length()}\t${it.lastModified()}\n".getBytes('UTF-8'))
+        }
+        File marker = GradleTomcatDeployPlugin.deployMarker(project)
+        if (marker.exists()) {
+            digest.update(marker.bytes)
+        }
+        return digest.digest().encodeHex().toString()
+    }
+
+    private static File deployDir(Project project) {
+        File serverBase = project.rootProject.file(project.rootProject.ext['buildProperties'].getProperty('server.base'))
+        return new File(serverBase, "webapps/${project.name}")
+    }
+
+    private static File portalHome(Project project) {
+        return project.rootProject.file(project.rootProject.ext['buildProperties'].getProperty('portal.home'))
+    }
+
+    private static List<String> shellClasspath(Project project) {
+        File deployDir = deployDir(project)
+        List<String> classpath = ["${deployDir}/WEB-INF/classes", "${deployDir}/WEB-INF/lib/*"]*.toString()
+        project.configurations.shell.files.each {
+            classpath << it.absolutePath
+        }
+        return classpath
+    }
+
+    private static Map<String,String> shellSystemProperties(Project project) {
+        return [
+                'portal.home': project.rootProject.ext['buildProperties'].getProperty('portal.home'),
+                'logback.configurationFile': 'command-line.logback.xml',
+                'java.awt.headless': 'true'
+        ]
+    }
+
+    /**
+     * @return a PortalShell script that accepts connections on a loopback port, writes the port to
+     *     the daemon file once listening, and runs each script path it is sent with the shell's
+     *     bindings, sending back the output and an exit status
+     */
+    private static String daemonScript(File daemonFile, String token, String stamp) {
+        return """
+def server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())
+def daemonFile = new File('${createGroovySafePath(daemonFile.absolutePath)}')
+def temporaryFile = new File(daemonFile.path + '.tmp')
+temporaryFile.text = "port=\${server.localPort}\\ntoken=${token}\\nstamp=${stamp}\\n"
+temporaryFile.renameTo(daemonFile)
+
+def shellBinding = binding
+boolean running = true
+while (running) {
+    server.accept().withStreams { input, output ->
+        def reader = input.newReader('UTF-8')
+        def writer = new PrintStream(output, true, 'UTF-8')
+        if (reader.readLine() != '${token}') {
+            return
+        }
+        String command = reader.readLine()
+        if (command == 'PING') {
+            return
+        }
+        if (command == 'STOP') {
+            running = false
+            return
+        }
+
+        // Each script gets its own variables, with the shell's beans, and its output is sent back
+        def scriptBinding = new Binding(new HashMap(shellBinding.variables))
+        scriptBinding.setVariable('out', writer)
+        PrintStream systemOut = System.out
+        PrintStream systemErr = System.err
+        System.setOut(writer)
+        System.setErr(writer)
+        try {
+            new GroovyShell(getClass().classLoader, scriptBinding).evaluate(new File(command))
+            writer.println('${EXIT_PREFIX}0')
+        } catch (Throwable t) {
+            t.printStackTrace(writer)
+            writer.println('${EXIT_PREFIX}1')
+        } finally {
+            System.setOut(systemOut)
+            System.setErr(systemErr)
+        }
+    }
+}
+server.close()
+daemonFile.delete()
+System.exit(0)
+"""
+    }
+
     static String createGroovySafePath(String rawPath) {
         return rawPath.replaceAll('\\\\', '/')
     }
@@ -0,0 +1,163 @@
+package org.apereo.portal.start.tomcat
+
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.zip.CRC32
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+
+/**
+ * Brings an exploded webapp directory up to date with a WAR file by writing only the entries whose
+ * size or CRC differ from the file already deployed and removing the files no longer in the WAR.
+ *
+ * <p>Tomcat reloads a context when its WEB-INF/web.xml changes.  That file is therefore written
+ * last, and when its content is unchanged it is touched only if something else below WEB-INF
+ * (classes, libraries, configuration) changed;  static resources and JSPs are picked up without a
+ * reload, so deploying only those leaves the running context alone.
+ *
+ * <p>Each changed file is written to a temporary file beside it and moved over it atomically,
+ * never rewritten in place:  the running Tomcat keeps the libraries it has open memory-mapped,
+ * and those handles go on reading the old file until the context is reloaded.
+ */
+class IncrementalWarDeployer {
+
+    private static final String WEB_XML = 'WEB-INF/web.xml'
+    private static final String WEB_INF = 'WEB-INF/'
+
+    /** What a deployment changed. */
+    static class Result {
+        int written
+        int unchanged
+        int removed
+        boolean reloaded
+
+        @Override
+        String toString() {
+            return "${written} files written, ${unchanged} unchanged, ${removed} removed;  " +
+                    (reloaded ? 'the context will be reloaded' : 'no reload needed')
+        }
+    }
+
+    static Result deploy(File warFile, File deployDir) {
+        Result result = new Result()
+        boolean webInfChanged = false
+        Set<String> entryNames = new HashSet<>()
+
+        new ZipFile(warFile).withCloseable { ZipFile zip ->
+            ZipEntry webXml = null
+            zip.entries().each { ZipEntry entry ->
+                if (entry.isDirectory()) {
+                    return
+                }
+                entryNames << entry.name
+                if (entry.name == WEB_XML) {
+                    webXml = entry
+                } else if (write(zip, entry, deployDir)) {
+                    result.written++
+                    webInfChanged |= entry.name.startsWith(WEB_INF)
+                } else {
+                    result.unchanged++
+                }
+            }
+
+            // Anything left over was removed from the WAR
+            List<File> deletedFiles = []
+            if (deployDir.exists()) {
+                deployDir.eachFileRecurse { file ->
+                    if (file.isFile() && !entryNames.contains(relativePath(deployDir, file))) {
+                        deletedFiles << file
+                    }
+                }
+            }
+            deletedFiles.each { file ->
+                webInfChanged |= relativePath(deployDir, file).startsWith(WEB_INF)
+                file.delete()
+                result.removed++
+            }
+            removeEmptyDirectories(deployDir)
+
+            if (webXml != null) {
+                if (write(zip, webXml, deployDir)) {
+                    result.written++
+                    result.reloaded = true
+                } else {
+                    result.unchanged++
+                    if (webInfChanged) {
+                        new File(deployDir, WEB_XML).setLastModified(System.currentTimeMillis())
+                        result.reloaded = true
+                    }
+                }
+            }
+        }
+        return result
+    }
+
+    /**
+     * @return true if the deployed file differed from the entry and was replaced
+     */
+    private static boolean write(ZipFile zip, ZipEntry entry, File deployDir) {
+        File file = new File(deployDir, entry.name)
+        if (isCurrent(zip, entry, file)) {
+            return false
+        }
+        file.parentFile.mkdirs()
+        File temporaryFile = new File(file.parentFile, ".${file.name}.deploying")
+        try {
+            zip.getInputStream(entry).withCloseable { input ->
+                temporaryFile.withOutputStream { output -> output << input }
+            }
+            if (entry.time != -1) {
+                temporaryFile.setLastModified(entry.time)
+            }
+            Files.move(temporaryFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        } finally {
+            temporaryFile.delete()
+        }
+        return true
+    }
+
+    private static boolean isCurrent(ZipFile zip, ZipEntry entry, File file) {
+        if (!file.isFile() || (entry.size != -1 && file.length() != entry.size)) {
+            return false
+        }
+        // Files written by a previous deployment carry the entry's time;  same size and time is
+        // taken to be the same content without reading the file
+        if (entry.time != -1 && file.lastModified() == entry.time) {
+            return true
+        }
+        long expectedCrc = entry.crc
+        if (expectedCrc == -1) {
+            CRC32 entryCrc = new CRC32()
+            zip.getInputStream(entry).withCloseable { input -> update(entryCrc, input) }
+            expectedCrc = entryCrc.value
+        }
+        CRC32 fileCrc = new CRC32()
+        file.withInputStream { input -> update(fileCrc, input) }
+        return fileCrc.value == expectedCrc
+    }
+
+    private static void update(CRC32 crc, InputStream input) {
+        byte[] buffer = new byte[8192]
+        int length
+        while ((length = input.read(buffer)) != -1) {
+            crc.update(buffer, 0, length)
+        }
+    }
+
+    private static String relativePath(File dir, File file) {
+        return dir.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/' as char)
+    }
+
+    private static void removeEmptyDirectories(File dir) {
+        dir.listFiles()?.each { file ->
+            if (file.isDirectory()) {
+                removeEmptyDirectories(file)
+                if (file.list().length == 0) {
+                    file.delete()
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of {@link FailedLoginThrottle} under a credential stuffing attack spreading failed logins
+ * over many distinct usernames from a few hundred addresses: each operation checks whether a login
+ * is blocked and records its failure. The time per operation and the throttle's footprint, printed
+ * at the end of each trial, should not depend on the number of usernames beyond the cost of
+ * fetching the attack's strings, measured by {@link #baseline()}; run with -prof gc to see that
+ * nothing is allocated either.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class FailedLoginThrottleBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int usernames;
+
+    private FailedLoginThrottle throttle;
+    private String[] usernamePool;
+    private String[] addressPool;
+
+    @Setup
+    public void setUp() {
+        this.throttle = new FailedLoginThrottle();
+        this.throttle.afterPropertiesSet();
+
+        this.usernamePool = new String[this.usernames];
+        for (int i = 0; i < this.usernames; i++) {
+            this.usernamePool[i] = "user" + i;
+        }
+        this.addressPool = new String[256];
+        for (int i = 0; i < this.addressPool.length; i++) {
+            this.addressPool[i] = "203.0.113." + i;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println(
+                "\nThrottle footprint "
+                        + this.throttle.getFootprint()
+                        + " bytes, "
+                        + this.throttle.getBlockedCount()
+                        + " logins blocked");
+    }
+
+    /** Picking a username and address and reading their characters, without the throttle. */
+    @Benchmark
+    public int baseline() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final String username = this.usernamePool[random.nextInt(this.usernamePool.length)];
+        final String address = this.addressPool[random.nextInt(this.addressPool.length)];
+        int sum = 0;
+        for (int i = 0; i < username.length(); i++) {
+            sum += username.charAt(i);
+        }
+        for (int i = 0; i < address.length(); i++) {
+            sum += address.charAt(i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public boolean failedLogin() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final String username = this.usernamePool[random.nextInt(this.usernamePool.length)];
+        final String address = this.addressPool[random.nextInt(this.addressPool.length)];
+        if (this.throttle.isBlocked(username, address)) {
+            return true;
+        }
+        this.throttle.recordFailure(username, address);
+        return false;
+    }
+}
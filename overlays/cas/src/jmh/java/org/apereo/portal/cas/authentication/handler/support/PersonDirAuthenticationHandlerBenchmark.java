@@ -0,0 +1,101 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.util.concurrent.TimeUnit;
+import org.jasig.cas.authentication.principal.UsernamePasswordCredentials;
+import org.jasypt.digest.config.SimpleDigesterConfig;
+import org.jasypt.util.password.ConfigurablePasswordEncryptor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Password verification cost of {@link PersonDirAuthenticationHandler} for each supported hash
+ * format, with the hash lookup stubbed out.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersonDirAuthenticationHandlerBenchmark {
+    private static final String PASSWORD = "correct horse battery staple";
+
+    @Param({"MD5", "SHA256"})
+    public String hashFormat;
+
+    private PersonDirAuthenticationHandler handler;
+    private UsernamePasswordCredentials validCredentials;
+    private UsernamePasswordCredentials invalidCredentials;
+
+    @Setup
+    public void setUp() {
+        final String passwordHash;
+        if ("MD5".equals(this.hashFormat)) {
+            passwordHash = "(MD5)" + encryptor("MD5", 1).encryptPassword(PASSWORD);
+        } else {
+            passwordHash = "(SHA256)" + encryptor("SHA-256", 1000).encryptPassword(PASSWORD);
+        }
+
+        this.handler = new PersonDirAuthenticationHandler();
+        this.handler.setUserPasswordDao(
+                new UserPasswordDao() {
+                    public String getPasswordHash(String userName) {
+                        return passwordHash;
+                    }
+                });
+
+        this.validCredentials = credentials(PASSWORD);
+        this.invalidCredentials = credentials("wrong password");
+    }
+
+    @Benchmark
+    public boolean validPassword() throws Exception {
+        return this.handler.authenticateUsernamePasswordInternal(this.validCredentials);
+    }
+
+    @Benchmark
+    public boolean invalidPassword() throws Exception {
+        return this.handler.authenticateUsernamePasswordInternal(this.invalidCredentials);
+    }
+
+    private static UsernamePasswordCredentials credentials(String password) {
+        final UsernamePasswordCredentials credentials = new UsernamePasswordCredentials();
+        credentials.setUsername("student");
+        credentials.setPassword(password);
+        return credentials;
+    }
+
+    private static ConfigurablePasswordEncryptor encryptor(String algorithm, int iterations) {
+        final ConfigurablePasswordEncryptor encryptor = new ConfigurablePasswordEncryptor();
+        final SimpleDigesterConfig config = new SimpleDigesterConfig();
+        config.setIterations(iterations);
+        config.setAlgorithm(algorithm);
+        config.setSaltSizeBytes(8);
+        encryptor.setConfig(config);
+        return encryptor;
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.dbcp.BasicDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Password hash lookup cost against an in-process HSQLDB UP_PERSON_DIR seeded with {@code users}
+ * rows, for the plain JDBC DAO and the DAOs layered on top of it. Usernames are drawn uniformly from
+ * the seeded population plus a share of unknown names.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserPasswordDaoBenchmark {
+    private static final String HASH = "(MD5)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16Vt";
+
+    /** Number of rows seeded into UP_PERSON_DIR. */
+    @Param({"1000", "100000"})
+    public int users;
+
+    /** Percentage of lookups for usernames that do not exist. */
+    @Param({"10"})
+    public int unknownPercent;
+
+    @Param({"jdbc", "cached", "preloaded"})
+    public String dao;
+
+    private BasicDataSource dataSource;
+    private UserPasswordDao userPasswordDao;
+
+    @Setup
+    public void setUp() {
+        this.dataSource = new BasicDataSource();
+        this.dataSource.setDriverClassName("org.hsqldb.jdbc.JDBCDriver");
+        this.dataSource.setUrl("jdbc:hsqldb:mem:CasBenchmark" + System.nanoTime());
+        this.dataSource.setUsername("sa");
+        this.dataSource.setPassword("");
+        this.dataSource.setMaxActive(16);
+
+        final JdbcTemplate jdbcTemplate = new JdbcTemplate(this.dataSource);
+        jdbcTemplate.execute(
+                "CREATE TABLE UP_PERSON_DIR (USER_NAME VARCHAR(100) PRIMARY KEY, "
+                        + "ENCRPTD_PSWD VARCHAR(256), LST_PSWD_CGH_DT TIMESTAMP)");
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO UP_PERSON_DIR (USER_NAME, ENCRPTD_PSWD) VALUES (?, ?)",
+                new BatchPreparedStatementSetter() {
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        ps.setString(1, "user" + i);
+                        ps.setString(2, HASH);
+                    }
+
+                    public int getBatchSize() {
+                        return users;
+                    }
+                });
+
+        final PortalPersonDirUserPasswordDao jdbcDao = new PortalPersonDirUserPasswordDao();
+        jdbcDao.setDataSource(this.dataSource);
+
+        if ("cached".equals(this.dao)) {
+            final CoalescingUserPasswordDao coalescingDao = new CoalescingUserPasswordDao();
+            coalescingDao.setUserPasswordDao(jdbcDao);
+            final CachingUserPasswordDao cachingDao = new CachingUserPasswordDao();
+            cachingDao.setUserPasswordDao(coalescingDao);
+            this.userPasswordDao = cachingDao;
+        } else if ("preloaded".equals(this.dao)) {
+            final PreloadedUserPasswordDao preloadedDao = new PreloadedUserPasswordDao();
+            preloadedDao.setDataSource(this.dataSource);
+            preloadedDao.setUserPasswordDao(jdbcDao);
+            preloadedDao.afterPropertiesSet();
+            this.userPasswordDao = preloadedDao;
+        } else {
+            this.userPasswordDao = jdbcDao;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        new JdbcTemplate(this.dataSource).execute("SHUTDOWN");
+        this.dataSource.close();
+    }
+
+    @Benchmark
+    public String getPasswordHash() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final String userName;
+        if (random.nextInt(100) < this.unknownPercent) {
+            userName = "unknown" + random.nextInt(this.users);
+        } else {
+            userName = "user" + random.nextInt(this.users);
+        }
+        return this.userPasswordDao.getPasswordHash(userName);
+    }
+}
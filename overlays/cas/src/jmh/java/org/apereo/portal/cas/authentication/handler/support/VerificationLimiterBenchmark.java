@@ -0,0 +1,140 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.util.concurrent.TimeUnit;
+import org.jasig.cas.authentication.ImmutableAuthentication;
+import org.jasig.cas.authentication.principal.SimplePrincipal;
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl;
+import org.jasig.cas.authentication.principal.UsernamePasswordCredentials;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.jasig.cas.ticket.registry.DefaultTicketRegistry;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.jasig.cas.ticket.support.TimeoutExpirationPolicy;
+import org.jasypt.digest.config.SimpleDigesterConfig;
+import org.jasypt.util.password.ConfigurablePasswordEncryptor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Service validation latency during a login storm. 32 threads check SHA-256 passwords as fast as
+ * they can, enough to saturate the CPU, while one thread validates service tickets the way
+ * /serviceValidate does: grant, look up, check against the service and delete. Compare the
+ * serviceValidate percentiles with verification unbounded and limited to one per core by a
+ * {@link VerificationLimiter}; with the limiter p99 should stay near its unloaded value.
+ *
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VerificationLimiterBenchmark {
+    private static final String PASSWORD = "correct horse battery staple";
+
+    private static final SimpleWebApplicationServiceImpl SERVICE =
+            new SimpleWebApplicationServiceImpl("https://portal.example.org/uPortal/Login");
+
+    @Param({"unbounded", "cores"})
+    public String verification;
+
+    private PersonDirAuthenticationHandler handler;
+    private UsernamePasswordCredentials credentials;
+
+    private TicketRegistry ticketRegistry;
+    private TicketGrantingTicket ticketGrantingTicket;
+    private TimeoutExpirationPolicy serviceTicketExpirationPolicy;
+    private long serviceTicketCount;
+
+    @Setup
+    public void setUp() {
+        final ConfigurablePasswordEncryptor encryptor = new ConfigurablePasswordEncryptor();
+        final SimpleDigesterConfig config = new SimpleDigesterConfig();
+        config.setIterations(1000);
+        config.setAlgorithm("SHA-256");
+        config.setSaltSizeBytes(8);
+        encryptor.setConfig(config);
+        final String passwordHash = "(SHA256)" + encryptor.encryptPassword(PASSWORD);
+
+        this.handler = new PersonDirAuthenticationHandler();
+        this.handler.setUserPasswordDao(
+                new UserPasswordDao() {
+                    public String getPasswordHash(String userName) {
+                        return passwordHash;
+                    }
+                });
+        if ("cores".equals(this.verification)) {
+            this.handler.setVerificationLimiter(new VerificationLimiter());
+        }
+
+        this.credentials = new UsernamePasswordCredentials();
+        this.credentials.setUsername("student");
+        this.credentials.setPassword(PASSWORD);
+
+        this.ticketRegistry = new DefaultTicketRegistry();
+        this.ticketGrantingTicket =
+                new TicketGrantingTicketImpl(
+                        "TGT-1-benchmark",
+                        new ImmutableAuthentication(new SimplePrincipal("student")),
+                        new TimeoutExpirationPolicy(7200000));
+        this.ticketRegistry.addTicket(this.ticketGrantingTicket);
+        this.serviceTicketExpirationPolicy = new TimeoutExpirationPolicy(10000);
+    }
+
+    @Benchmark
+    @Group("loginStorm")
+    @GroupThreads(32)
+    public boolean login() throws Exception {
+        try {
+            return this.handler.authenticateUsernamePasswordInternal(this.credentials);
+        } catch (VerificationOverloadedException e) {
+            // the user would be asked to try again
+            return false;
+        }
+    }
+
+    @Benchmark
+    @Group("loginStorm")
+    @GroupThreads(1)
+    public boolean serviceValidate() {
+        final ServiceTicket serviceTicket =
+                this.ticketGrantingTicket.grantServiceTicket(
+                        "ST-" + this.serviceTicketCount++ + "-benchmark",
+                        SERVICE,
+                        this.serviceTicketExpirationPolicy,
+                        false);
+        this.ticketRegistry.addTicket(serviceTicket);
+
+        final ServiceTicket validated =
+                (ServiceTicket) this.ticketRegistry.getTicket(serviceTicket.getId());
+        final boolean valid = validated.isValidFor(SERVICE);
+        this.ticketRegistry.deleteTicket(validated.getId());
+        return valid;
+    }
+}
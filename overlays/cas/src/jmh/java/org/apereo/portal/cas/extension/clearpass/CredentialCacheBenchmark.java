@@ -0,0 +1,151 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.extension.clearpass;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import net.sf.ehcache.CacheManager;
+import org.jasig.cas.extension.clearpass.EhcacheBackedMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Put and get throughput of the ClearPass credentials cache, {@link CredentialCache} against the
+ * stock EhcacheBackedMap over ehcacheClearPass.xml, holding the passwords of a steady population of
+ * sessions. Each session is set up the way ClearPass does it at login: the password is cached,
+ * then its TGT recorded, which the stock TicketRegistryDecorator does by putting the TGT id in the
+ * same map. Setup prints the heap and direct memory the populated cache takes and how many of the
+ * passwords it still holds.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class CredentialCacheBenchmark {
+    /** Number of concurrent sessions. */
+    @Param({"100000"})
+    public int sessions;
+
+    @Param({"encrypted", "ehcache"})
+    public String cache;
+
+    private Map<String, String> credentialsCache;
+    private CacheManager cacheManager;
+    private String[] usernames;
+    private String[] passwords;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.usernames = new String[this.sessions];
+        this.passwords = new String[this.sessions];
+        for (int i = 0; i < this.sessions; i++) {
+            this.usernames[i] = "user" + i;
+            this.passwords[i] = "Password-" + i + "!";
+        }
+
+        final long heapBefore = usedHeap();
+        final long directBefore = usedDirectMemory();
+        CredentialCache credentialCache = null;
+        if ("ehcache".equals(this.cache)) {
+            this.cacheManager = new CacheManager(getClass().getResource("/ehcacheClearPass.xml"));
+            this.credentialsCache =
+                    new EhcacheBackedMap(this.cacheManager.getCache("clearPassCache"));
+        } else {
+            credentialCache = new CredentialCache();
+            credentialCache.setCapacity(this.sessions);
+            credentialCache.afterPropertiesSet();
+            this.credentialsCache = credentialCache;
+        }
+        for (int i = 0; i < this.sessions; i++) {
+            final String ticketId = "TGT-" + i + "-benchmark";
+            this.credentialsCache.put(this.usernames[i], this.passwords[i]);
+            if (credentialCache != null) {
+                credentialCache.addTicket(ticketId, this.usernames[i]);
+            } else {
+                this.credentialsCache.put(ticketId, this.usernames[i]);
+            }
+        }
+
+        int held = 0;
+        for (int i = 0; i < this.sessions; i++) {
+            if (this.passwords[i].equals(this.credentialsCache.get(this.usernames[i]))) {
+                held++;
+            }
+        }
+        System.out.printf(
+                "%n%s cache of %d sessions: %.1f MB heap, %.1f MB direct, %d passwords held%n",
+                this.cache,
+                this.sessions,
+                (usedHeap() - heapBefore) / 1048576.0,
+                (usedDirectMemory() - directBefore) / 1048576.0,
+                held);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (this.cacheManager != null) {
+            this.cacheManager.shutdown();
+        }
+    }
+
+    @Benchmark
+    public String put() {
+        final int i = ThreadLocalRandom.current().nextInt(this.sessions);
+        return this.credentialsCache.put(this.usernames[i], this.passwords[i]);
+    }
+
+    @Benchmark
+    public String get() {
+        return this.credentialsCache.get(
+                this.usernames[ThreadLocalRandom.current().nextInt(this.sessions)]);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long usedDirectMemory() {
+        long used = 0;
+        for (final BufferPoolMXBean pool :
+                ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                used += pool.getMemoryUsed();
+            }
+        }
+        return used;
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.monitor;
+
+import java.util.concurrent.TimeUnit;
+import org.apereo.portal.cas.monitor.AuthenticationMetrics.FailureReason;
+import org.apereo.portal.cas.monitor.AuthenticationMetrics.HashAlgorithm;
+import org.apereo.portal.cas.monitor.AuthenticationMetrics.Stage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the instrumentation added to one login: timing the authentication, password lookup,
+ * query and hash stages and counting the hash algorithm and outcome, with threads recording into
+ * the same {@link AuthenticationMetrics} as they would under load.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class AuthenticationMetricsBenchmark {
+    private final AuthenticationMetrics metrics = new AuthenticationMetrics();
+
+    @Benchmark
+    public void login() {
+        final long authentication = System.nanoTime();
+        final long lookup = System.nanoTime();
+        final long query = System.nanoTime();
+        this.metrics.recordSince(Stage.PASSWORD_QUERY, query);
+        this.metrics.recordSince(Stage.PASSWORD_LOOKUP, lookup);
+        this.metrics.countHashAlgorithm(HashAlgorithm.SHA256);
+        final long hash = System.nanoTime();
+        this.metrics.recordSince(Stage.PASSWORD_HASH, hash);
+        this.metrics.countFailure(FailureReason.BAD_PASSWORD);
+        this.metrics.recordSince(Stage.AUTHENTICATION, authentication);
+    }
+
+    @Benchmark
+    public String snapshot() {
+        return this.metrics.getSummary();
+    }
+}
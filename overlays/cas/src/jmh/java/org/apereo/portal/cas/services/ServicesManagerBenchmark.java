@@ -0,0 +1,122 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl;
+import org.jasig.cas.services.DefaultServicesManagerImpl;
+import org.jasig.cas.services.InMemoryServiceRegistryDaoImpl;
+import org.jasig.cas.services.RegexRegisteredService;
+import org.jasig.cas.services.RegisteredService;
+import org.jasig.cas.services.ServicesManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link ServicesManager#findServiceBy(Service)} cost as the number of registered services grows,
+ * for CAS's DefaultServicesManagerImpl and the {@link IndexedServicesManager}. The registry holds
+ * one service per application host, a few host-wildcard services that cannot be indexed, and the
+ * usual catch-all last; a share of lookups only match the catch-all.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServicesManagerBenchmark {
+    private static final int WILDCARD_SERVICES = 5;
+
+    /** Number of per-host registered services. */
+    @Param({"10", "1000", "5000"})
+    public int services;
+
+    @Param({"default", "indexed"})
+    public String manager;
+
+    private ServicesManager servicesManager;
+    private Service[] lookups;
+
+    @Setup
+    public void setUp() {
+        final List<RegisteredService> registered = new ArrayList<RegisteredService>();
+        long id = 0;
+        for (int i = 0; i < this.services; i++) {
+            registered.add(
+                    service(id++, "^https?://app" + i + "\\.example\\.org/.*", 1000 + i));
+        }
+        for (int i = 0; i < WILDCARD_SERVICES; i++) {
+            registered.add(
+                    service(
+                            id++,
+                            "^https://([A-Za-z0-9_-]+\\.)*dept" + i + "\\.example\\.edu/.*",
+                            100 + i));
+        }
+        registered.add(service(id++, "^(https?|imaps?)://.*", 10000001));
+
+        final InMemoryServiceRegistryDaoImpl dao = new InMemoryServiceRegistryDaoImpl();
+        dao.setRegisteredServices(registered);
+        this.servicesManager =
+                "indexed".equals(this.manager)
+                        ? new IndexedServicesManager(dao)
+                        : new DefaultServicesManagerImpl(dao);
+
+        this.lookups = new Service[1024];
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < this.lookups.length; i++) {
+            final String url;
+            switch (i % 10) {
+                case 0:
+                    url = "https://www.dept" + random.nextInt(WILDCARD_SERVICES) + ".example.edu/";
+                    break;
+                case 1:
+                    url = "https://unregistered" + i + ".example.com/login";
+                    break;
+                default:
+                    url = "https://app" + random.nextInt(this.services) + ".example.org/Login";
+            }
+            this.lookups[i] = new SimpleWebApplicationServiceImpl(url);
+        }
+    }
+
+    @Benchmark
+    public RegisteredService findServiceBy() {
+        final int i = ThreadLocalRandom.current().nextInt(this.lookups.length);
+        return this.servicesManager.findServiceBy(this.lookups[i]);
+    }
+
+    private static RegisteredService service(long id, String pattern, int evaluationOrder) {
+        final RegexRegisteredService service = new RegexRegisteredService();
+        service.setId(id);
+        service.setName("service" + id);
+        service.setServiceId(pattern);
+        service.setEvaluationOrder(evaluationOrder);
+        return service;
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.services.web;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+/**
+ * Cost of {@link ConfigurableUserAgentOverrideThemeResolver#resolveThemeName} for a corpus of
+ * real-world user agents, with {@code rules} override patterns configured for the default theme.
+ * The first rules are the usual mobile overrides; the rest are patterns that never match, which is
+ * the worst case for rule evaluation.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConfigurableUserAgentOverrideThemeResolverBenchmark {
+    private static final String DEFAULT_THEME = "cas-theme-default";
+
+    private static final String[] USER_AGENTS = {
+        "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) "
+                + "Chrome/70.0.3538.102 Safari/537.36",
+        "Mozilla/5.0 (Windows NT 10.0; Win64; x64; rv:63.0) Gecko/20100101 Firefox/63.0",
+        "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_14_1) AppleWebKit/605.1.15 (KHTML, like Gecko) "
+                + "Version/12.0.1 Safari/605.1.15",
+        "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) "
+                + "Chrome/64.0.3282.140 Safari/537.36 Edge/17.17134",
+        "Mozilla/5.0 (Windows NT 6.1; WOW64; Trident/7.0; rv:11.0) like Gecko",
+        "Mozilla/5.0 (iPhone; CPU iPhone OS 12_1 like Mac OS X) AppleWebKit/605.1.15 "
+                + "(KHTML, like Gecko) Version/12.0 Mobile/15E148 Safari/604.1",
+        "Mozilla/5.0 (iPad; CPU OS 12_1 like Mac OS X) AppleWebKit/605.1.15 (KHTML, like Gecko) "
+                + "Version/12.0 Mobile/15E148 Safari/604.1",
+        "Mozilla/5.0 (Linux; Android 9; Pixel 3) AppleWebKit/537.36 (KHTML, like Gecko) "
+                + "Chrome/70.0.3538.110 Mobile Safari/537.36",
+        "Mozilla/5.0 (Linux; Android 8.0.0; SM-G960F Build/R16NW) AppleWebKit/537.36 "
+                + "(KHTML, like Gecko) Chrome/62.0.3202.84 Mobile Safari/537.36",
+        "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) "
+                + "Chrome/70.0.3538.77 Safari/537.36",
+        "Mozilla/5.0 (X11; CrOS x86_64 11151.29.0) AppleWebKit/537.36 (KHTML, like Gecko) "
+                + "Chrome/71.0.3578.30 Safari/537.36",
+        "Mozilla/5.0 (BlackBerry; U; BlackBerry 9900; en) AppleWebKit/534.11+ (KHTML, like Gecko) "
+                + "Version/7.1.0.346 Mobile Safari/534.11+"
+    };
+
+    private static final String[][] MOBILE_RULES = {
+        {".*iPhone.*", "cas-theme-mobile"},
+        {".*Android.*Mobile.*", "cas-theme-mobile"},
+        {".*BlackBerry.*", "cas-theme-mobile"},
+        {".*iPad.*", "cas-theme-tablet"},
+        {".*Android.*", "cas-theme-tablet"}
+    };
+
+    /** Number of override rules configured for the default theme. */
+    @Param({"5", "20", "50"})
+    public int rules;
+
+    /** Per-theme user agent result cache size; 0 measures the regex evaluation alone. */
+    @Param({"1000", "0"})
+    public int userAgentCacheSize;
+
+    private ConfigurableUserAgentOverrideThemeResolver resolver;
+    private MockHttpServletRequest[] requests;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        final Map<String, String> themeRules = new LinkedHashMap<String, String>();
+        for (int i = 0; i < this.rules; i++) {
+            if (i < MOBILE_RULES.length) {
+                themeRules.put(MOBILE_RULES[i][0], MOBILE_RULES[i][1]);
+            } else {
+                themeRules.put(".*UnlistedDevice" + i + "/[0-9.]+.*", "cas-theme-device" + i);
+            }
+        }
+        final Map<String, Map<String, String>> overrides =
+                new HashMap<String, Map<String, String>>();
+        overrides.put(DEFAULT_THEME, themeRules);
+
+        this.resolver = new ConfigurableUserAgentOverrideThemeResolver();
+        this.resolver.setDefaultThemeName(DEFAULT_THEME);
+        this.resolver.setUserAgentCacheSize(this.userAgentCacheSize);
+        this.resolver.setOverrides(overrides);
+
+        this.requests = new MockHttpServletRequest[USER_AGENTS.length];
+        for (int i = 0; i < USER_AGENTS.length; i++) {
+            this.requests[i] = new MockHttpServletRequest("GET", "/cas/login");
+            this.requests[i].addHeader("User-Agent", USER_AGENTS[i]);
+        }
+    }
+
+    @Benchmark
+    public String resolveThemeName() {
+        // a benign race between benchmark threads only perturbs the order of user agents
+        final int i = this.next;
+        this.next = i + 1 == this.requests.length ? 0 : i + 1;
+        return this.resolver.resolveThemeName(this.requests[i]);
+    }
+}
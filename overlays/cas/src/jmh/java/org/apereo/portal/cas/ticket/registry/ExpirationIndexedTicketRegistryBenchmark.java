@@ -0,0 +1,135 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.ticket.registry;
+
+import java.util.concurrent.TimeUnit;
+import org.jasig.cas.authentication.ImmutableAuthentication;
+import org.jasig.cas.authentication.principal.SimplePrincipal;
+import org.jasig.cas.ticket.ExpirationPolicy;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.jasig.cas.ticket.TicketState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of {@link ExpirationIndexedTicketRegistry#clean()} with a large population of TGTs: a run
+ * when no ticket is due, which should not depend on the population, and draining every ticket
+ * once all of them have expired, each run evicting at most maxTicketsPerClean. The registry's
+ * clock, and the tickets' expiration policy, run ahead of the system clock by a settable offset.
+ *
+ */
+@Fork(1)
+public class ExpirationIndexedTicketRegistryBenchmark {
+    private static final long TIME_TO_KILL = 7200000;
+
+    /** Registry whose clock runs offset ahead of the system clock, filled with fresh TGTs. */
+    abstract static class Population {
+        volatile long offset;
+        ExpirationIndexedTicketRegistry registry;
+
+        void populate(int tickets) {
+            this.offset = 0;
+            this.registry =
+                    new ExpirationIndexedTicketRegistry() {
+                        @Override
+                        long currentTimeMillis() {
+                            return now();
+                        }
+                    };
+            this.registry.setTicketGrantingTicketTimeToKill(TIME_TO_KILL);
+            this.registry.setLogUserOutOfServices(false);
+
+            final ExpirationPolicy expirationPolicy =
+                    new ExpirationPolicy() {
+                        private static final long serialVersionUID = 1L;
+
+                        public boolean isExpired(TicketState ticketState) {
+                            return ticketState.getLastTimeUsed() + TIME_TO_KILL <= now();
+                        }
+                    };
+            for (int i = 0; i < tickets; i++) {
+                this.registry.addTicket(
+                        new TicketGrantingTicketImpl(
+                                "TGT-" + i + "-benchmark",
+                                new ImmutableAuthentication(new SimplePrincipal("user" + i)),
+                                expirationPolicy));
+            }
+        }
+
+        long now() {
+            return System.currentTimeMillis() + this.offset;
+        }
+    }
+
+    /** Populated once; none of its tickets come due while the benchmark runs. */
+    @State(Scope.Benchmark)
+    public static class Idle extends Population {
+        /** Number of TGTs in the registry. */
+        @Param({"1000000"})
+        public int tickets;
+
+        @Setup
+        public void setUp() {
+            this.populate(this.tickets);
+        }
+    }
+
+    /** Populated again before each drain, then moved past every ticket's expiry. */
+    @State(Scope.Benchmark)
+    public static class Expired extends Population {
+        /** Number of TGTs in the registry. */
+        @Param({"1000000"})
+        public int tickets;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            this.populate(this.tickets);
+            this.offset = TIME_TO_KILL + 60000;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public void idleClean(Idle idle) {
+        idle.registry.clean();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public int drain(Expired expired) {
+        int cleans = 0;
+        while (expired.registry.size() > 0) {
+            expired.registry.clean();
+            cleans++;
+        }
+        return cleans;
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.ticket.registry;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.jasig.cas.authentication.ImmutableAuthentication;
+import org.jasig.cas.authentication.principal.SimplePrincipal;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.jasig.cas.ticket.registry.DefaultTicketRegistry;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.jasig.cas.ticket.support.TimeoutExpirationPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Add, get and delete throughput of CAS's in-memory DefaultTicketRegistry, the {@link
+ * ExpirationIndexedTicketRegistry} and the file-backed {@link MappedTicketRegistry}, with the
+ * registry holding a steady population of TGTs. Adds replace
+ * an existing ticket so the population stays the same; each delete is paired with adding the
+ * ticket back. The mapped registry is compacted between iterations.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class TicketRegistryBenchmark {
+    /** Number of TGTs in the registry. */
+    @Param({"100000"})
+    public int tickets;
+
+    @Param({"default", "indexed", "mapped"})
+    public String registry;
+
+    private TicketRegistry ticketRegistry;
+    private File directory;
+    private Ticket[] population;
+
+    @Setup
+    public void setUp() throws Exception {
+        if ("mapped".equals(this.registry)) {
+            this.directory = Files.createTempDirectory("tickets").toFile();
+            final MappedTicketRegistry mapped = new MappedTicketRegistry();
+            mapped.setDirectory(this.directory);
+            mapped.afterPropertiesSet();
+            this.ticketRegistry = mapped;
+        } else if ("indexed".equals(this.registry)) {
+            this.ticketRegistry = new ExpirationIndexedTicketRegistry();
+        } else {
+            this.ticketRegistry = new DefaultTicketRegistry();
+        }
+
+        this.population = new Ticket[this.tickets];
+        for (int i = 0; i < this.tickets; i++) {
+            this.population[i] =
+                    new TicketGrantingTicketImpl(
+                            "TGT-" + i + "-benchmark",
+                            new ImmutableAuthentication(new SimplePrincipal("user" + i)),
+                            new TimeoutExpirationPolicy(7200000));
+            this.ticketRegistry.addTicket(this.population[i]);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void compact() {
+        if (this.ticketRegistry instanceof MappedTicketRegistry) {
+            ((MappedTicketRegistry) this.ticketRegistry).compact();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (this.ticketRegistry instanceof MappedTicketRegistry) {
+            ((MappedTicketRegistry) this.ticketRegistry).destroy();
+            for (final File file : this.directory.listFiles()) {
+                file.delete();
+            }
+            this.directory.delete();
+        }
+    }
+
+    @Benchmark
+    public void addTicket() {
+        this.ticketRegistry.addTicket(this.randomTicket());
+    }
+
+    @Benchmark
+    public Ticket getTicket() {
+        return this.ticketRegistry.getTicket(this.randomTicket().getId());
+    }
+
+    @Benchmark
+    public boolean deleteTicket() {
+        final Ticket ticket = this.randomTicket();
+        final boolean deleted = this.ticketRegistry.deleteTicket(ticket.getId());
+        this.ticketRegistry.addTicket(ticket);
+        return deleted;
+    }
+
+    private Ticket randomTicket() {
+        return this.population[ThreadLocalRandom.current().nextInt(this.population.length)];
+    }
+}
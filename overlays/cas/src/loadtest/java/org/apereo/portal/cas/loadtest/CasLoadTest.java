@@ -0,0 +1,117 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.loadtest;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Logs the seeded load test users in to a running CAS and validates their service tickets from a
+ * fixed number of threads, each running one flow after another. The first loadtest.warmup seconds
+ * are not measured, then the latencies and failures of loadtest.duration seconds are written to
+ * loadtest.results and compared against loadtest.baseline, if one is given.
+ *
+ * <p>Exits with status 1 if any flow failed or the run regressed from the baseline, so the load
+ * test can gate a build.
+ *
+ */
+public class CasLoadTest {
+
+    /**
+     * Runs the load test described by the loadtest.* system properties.
+     *
+     * @param args unused
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final LoadTestConfig config = LoadTestConfig.fromSystemProperties();
+        final LoadTestReport report = new LoadTestReport();
+        System.out.println(
+                String.format(
+                        Locale.ENGLISH,
+                        "Logging %d users in to %s from %d threads, %ds warm up and %ds measured",
+                        config.getUsers(),
+                        config.getCasUrl(),
+                        config.getThreads(),
+                        config.getWarmupSeconds(),
+                        config.getDurationSeconds()));
+
+        final long start = System.nanoTime();
+        final long measureFrom = start + TimeUnit.SECONDS.toNanos(config.getWarmupSeconds());
+        final long end = measureFrom + TimeUnit.SECONDS.toNanos(config.getDurationSeconds());
+        final AtomicInteger nextUser = new AtomicInteger();
+
+        final ExecutorService threads = Executors.newFixedThreadPool(config.getThreads());
+        for (int i = 0; i < config.getThreads(); i++) {
+            threads.execute(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            final LoginClient client = new LoginClient(config, report);
+                            long now = System.nanoTime();
+                            while (now < end) {
+                                final int user =
+                                        (nextUser.getAndIncrement() & Integer.MAX_VALUE)
+                                                % config.getUsers();
+                                // a flow that straddles the end of the warm up is not measured
+                                client.login(LoadTestUsers.username(user), now >= measureFrom);
+                                now = System.nanoTime();
+                            }
+                        }
+                    });
+        }
+        threads.shutdown();
+        threads.awaitTermination(
+                config.getWarmupSeconds() + config.getDurationSeconds() + 60L, TimeUnit.SECONDS);
+        threads.shutdownNow();
+
+        final Properties results = report.toProperties(config.getDurationSeconds());
+        LoadTestReport.store(results, config.getResultsFile());
+        System.out.println(
+                String.format(
+                        Locale.ENGLISH,
+                        "%s flows/s, %s%% errors, login p50 %sms p99 %sms, flow p50 %sms p99 %sms;"
+                                + "  results in %s",
+                        results.getProperty("throughput"),
+                        results.getProperty("errorRate"),
+                        results.getProperty("login.p50"),
+                        results.getProperty("login.p99"),
+                        results.getProperty("flow.p50"),
+                        results.getProperty("flow.p99"),
+                        config.getResultsFile()));
+
+        boolean passed = "0".equals(results.getProperty("failures"));
+        if (!passed) {
+            System.out.println(results.getProperty("failures") + " flows failed");
+        }
+        if (config.getBaselineFile() != null) {
+            final List<String> regressions =
+                    LoadTestReport.compare(
+                            results,
+                            LoadTestReport.load(config.getBaselineFile()),
+                            config.getMaxRegression());
+            for (final String regression : regressions) {
+                System.out.println("Regressed " + regression);
+            }
+            passed &= regressions.isEmpty();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.loadtest;
+
+import java.io.File;
+
+/**
+ * Settings of a load test run, read from loadtest.* system properties so that the Gradle tasks can
+ * pass on -D arguments.
+ *
+ */
+final class LoadTestConfig {
+    private String casUrl = "http://localhost:8080/cas";
+    private String service = "http://localhost:8080/uPortal/Login";
+    private String jdbcUrl = "jdbc:hsqldb:hsql://localhost:8887/uPortal";
+    private String jdbcUser = "sa";
+    private String jdbcPassword = "";
+    private int users = 1000;
+    private double sha256Fraction = 0.5;
+    private int threads = 16;
+    private int warmupSeconds = 10;
+    private int durationSeconds = 60;
+    private int timeout = 10000;
+    private File resultsFile = new File("build/reports/loadtest/results.properties");
+    private File baselineFile;
+    private double maxRegression = 10;
+
+    static LoadTestConfig fromSystemProperties() {
+        final LoadTestConfig config = new LoadTestConfig();
+        config.casUrl = System.getProperty("loadtest.casUrl", config.casUrl);
+        config.service = System.getProperty("loadtest.service", config.service);
+        config.jdbcUrl = System.getProperty("loadtest.jdbcUrl", config.jdbcUrl);
+        config.jdbcUser = System.getProperty("loadtest.jdbcUser", config.jdbcUser);
+        config.jdbcPassword = System.getProperty("loadtest.jdbcPassword", config.jdbcPassword);
+        config.users = Integer.getInteger("loadtest.users", config.users);
+        config.sha256Fraction =
+                Double.parseDouble(
+                        System.getProperty(
+                                "loadtest.sha256Fraction", Double.toString(config.sha256Fraction)));
+        config.threads = Integer.getInteger("loadtest.threads", config.threads);
+        config.warmupSeconds = Integer.getInteger("loadtest.warmup", config.warmupSeconds);
+        config.durationSeconds = Integer.getInteger("loadtest.duration", config.durationSeconds);
+        config.timeout = Integer.getInteger("loadtest.timeout", config.timeout);
+        final String results = System.getProperty("loadtest.results");
+        if (results != null) {
+            config.resultsFile = new File(results);
+        }
+        final String baseline = System.getProperty("loadtest.baseline");
+        if (baseline != null && baseline.trim().length() > 0) {
+            config.baselineFile = new File(baseline);
+        }
+        config.maxRegression =
+                Double.parseDouble(
+                        System.getProperty(
+                                "loadtest.maxRegression", Double.toString(config.maxRegression)));
+
+        if (config.users < 1 || config.threads < 1 || config.durationSeconds < 1) {
+            throw new IllegalArgumentException(
+                    "loadtest.users, loadtest.threads and loadtest.duration must be at least 1");
+        }
+        return config;
+    }
+
+    /** @return base URL of the CAS server, e.g. http://localhost:8080/cas */
+    String getCasUrl() {
+        return this.casUrl;
+    }
+
+    /** @return service the logins request tickets for, it must be in the services registry */
+    String getService() {
+        return this.service;
+    }
+
+    /** @return JDBC URL of the database CAS reads UP_PERSON_DIR from */
+    String getJdbcUrl() {
+        return this.jdbcUrl;
+    }
+
+    /** @return the jdbcUser */
+    String getJdbcUser() {
+        return this.jdbcUser;
+    }
+
+    /** @return the jdbcPassword */
+    String getJdbcPassword() {
+        return this.jdbcPassword;
+    }
+
+    /** @return number of synthetic users */
+    int getUsers() {
+        return this.users;
+    }
+
+    /** @return share of the users with SHA256 rather than MD5 password hashes */
+    double getSha256Fraction() {
+        return this.sha256Fraction;
+    }
+
+    /** @return number of concurrent clients */
+    int getThreads() {
+        return this.threads;
+    }
+
+    /** @return seconds of load before measuring starts */
+    int getWarmupSeconds() {
+        return this.warmupSeconds;
+    }
+
+    /** @return seconds of measured load */
+    int getDurationSeconds() {
+        return this.durationSeconds;
+    }
+
+    /** @return connect and read timeout of each request in milliseconds */
+    int getTimeout() {
+        return this.timeout;
+    }
+
+    /** @return where the results of the run are written */
+    File getResultsFile() {
+        return this.resultsFile;
+    }
+
+    /** @return results of an earlier run to compare against, null for none */
+    File getBaselineFile() {
+        return this.baselineFile;
+    }
+
+    /** @return percentage by which a metric may be worse than the baseline */
+    double getMaxRegression() {
+        return this.maxRegression;
+    }
+}
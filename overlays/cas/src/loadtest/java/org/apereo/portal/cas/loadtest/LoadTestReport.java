@@ -0,0 +1,183 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.loadtest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+import org.apereo.portal.cas.monitor.LatencyHistogram;
+
+/**
+ * Latencies and failures of the measured part of a load test run, per step of the login flow.
+ * Results are written as a properties file that a later run can compare against as its baseline.
+ *
+ * <p>Latencies are in milliseconds. A run regresses when the throughput drops, or a latency
+ * percentile grows, by more than the allowed percentage of the baseline value, or when the error
+ * rate grows by more than that many percentage points.
+ *
+ */
+final class LoadTestReport {
+    /** Steps of the login flow, FLOW being the whole of it. */
+    enum Step {
+        LOGIN_FORM,
+        LOGIN,
+        VALIDATE,
+        FLOW
+    }
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] QUANTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private final Map<Step, LatencyHistogram> latencies =
+            new EnumMap<Step, LatencyHistogram>(Step.class);
+    private final Map<Step, LongAdder> failures = new EnumMap<Step, LongAdder>(Step.class);
+
+    LoadTestReport() {
+        for (final Step step : Step.values()) {
+            this.latencies.put(step, new LatencyHistogram());
+            this.failures.put(step, new LongAdder());
+        }
+    }
+
+    /**
+     * @param nanos duration of the step
+     * @param measured false during warm up, when nothing is recorded
+     */
+    void record(Step step, long nanos, boolean measured) {
+        if (measured) {
+            this.latencies.get(step).record(nanos);
+        }
+    }
+
+    /**
+     * Counts a failed flow against the step that failed, and against FLOW.
+     *
+     * @param measured false during warm up, when nothing is recorded
+     */
+    void fail(Step step, boolean measured) {
+        if (measured) {
+            this.failures.get(step).increment();
+            this.failures.get(Step.FLOW).increment();
+        }
+    }
+
+    /** @return the results of a run that measured for the given number of seconds */
+    Properties toProperties(int durationSeconds) {
+        final Properties results = new Properties();
+        final long flows = this.latencies.get(Step.FLOW).getCount();
+        final long failed = this.failures.get(Step.FLOW).sum();
+        results.setProperty("flows", Long.toString(flows));
+        results.setProperty("failures", Long.toString(failed));
+        results.setProperty("throughput", format((double) flows / durationSeconds));
+        results.setProperty(
+                "errorRate", format(flows + failed == 0 ? 0 : 100.0 * failed / (flows + failed)));
+
+        for (final Step step : Step.values()) {
+            final String prefix = step.name().toLowerCase(Locale.ENGLISH) + ".";
+            final LatencyHistogram.Snapshot snapshot = this.latencies.get(step).snapshot();
+            results.setProperty(prefix + "count", Long.toString(snapshot.getCount()));
+            results.setProperty(prefix + "failures", Long.toString(this.failures.get(step).sum()));
+            results.setProperty(prefix + "mean", format(snapshot.getMean() / 1000000.0));
+            for (int i = 0; i < QUANTILES.length; i++) {
+                results.setProperty(
+                        prefix + QUANTILE_NAMES[i],
+                        format(snapshot.getValueAtQuantile(QUANTILES[i]) / 1000000.0));
+            }
+            results.setProperty(prefix + "max", format(snapshot.getMax() / 1000000.0));
+        }
+        return results;
+    }
+
+    /**
+     * @param maxRegression allowed regression, in percent of the baseline value or percentage
+     *     points of the error rate
+     * @return a description of every regression from the baseline, empty if there are none
+     */
+    static List<String> compare(Properties results, Properties baseline, double maxRegression) {
+        final List<String> regressions = new ArrayList<String>();
+        for (final String key : baseline.stringPropertyNames()) {
+            final String value = results.getProperty(key);
+            if (value == null) {
+                continue;
+            }
+            final double expected = Double.parseDouble(baseline.getProperty(key));
+            final double actual = Double.parseDouble(value);
+            final boolean regressed;
+            if (key.equals("throughput")) {
+                regressed = actual < expected * (1 - maxRegression / 100);
+            } else if (key.equals("errorRate")) {
+                regressed = actual > expected + maxRegression;
+            } else if (isLatency(key)) {
+                regressed = actual > expected * (1 + maxRegression / 100);
+            } else {
+                regressed = false;
+            }
+            if (regressed) {
+                regressions.add(
+                        String.format(Locale.ENGLISH, "%s: %s, baseline %s", key, value, expected));
+            }
+        }
+        Collections.sort(regressions);
+        return regressions;
+    }
+
+    private static boolean isLatency(String key) {
+        for (final String quantile : QUANTILE_NAMES) {
+            if (key.endsWith("." + quantile)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static Properties load(File file) throws IOException {
+        final Properties properties = new Properties();
+        final InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return properties;
+    }
+
+    static void store(Properties properties, File file) throws IOException {
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, "CAS login load test results, latencies in milliseconds");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ENGLISH, "%.3f", value);
+    }
+}
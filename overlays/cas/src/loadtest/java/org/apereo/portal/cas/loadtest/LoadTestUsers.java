@@ -0,0 +1,118 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.loadtest;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Locale;
+import org.jasypt.digest.config.SimpleDigesterConfig;
+import org.jasypt.util.password.ConfigurablePasswordEncryptor;
+
+/**
+ * Replaces the synthetic load test accounts in UP_PERSON_DIR: loadtest-1 to loadtest-N, each with
+ * its username as password, hashed as uPortal does with either (MD5) or (SHA256) so that logins
+ * exercise both verifiers.
+ *
+ */
+public class LoadTestUsers {
+    static final String USERNAME_PREFIX = "loadtest-";
+
+    /** Well above the ids uPortal's generator hands out, so seeded rows never collide with them. */
+    private static final long FIRST_ID = 1000000000L;
+
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * @param index 0 based
+     * @return username and password of the load test user
+     */
+    static String username(int index) {
+        return USERNAME_PREFIX + (index + 1);
+    }
+
+    /**
+     * Seeds the users described by the loadtest.* system properties.
+     *
+     * @param args unused
+     */
+    public static void main(String[] args) throws SQLException {
+        final LoadTestConfig config = LoadTestConfig.fromSystemProperties();
+        final long start = System.currentTimeMillis();
+        seed(config);
+        System.out.println(
+                String.format(
+                        Locale.ENGLISH,
+                        "Seeded %d load test users (%.0f%% SHA256) in %dms",
+                        config.getUsers(),
+                        config.getSha256Fraction() * 100,
+                        System.currentTimeMillis() - start));
+    }
+
+    static void seed(LoadTestConfig config) throws SQLException {
+        final ConfigurablePasswordEncryptor md5 = encryptor("MD5", 1);
+        final ConfigurablePasswordEncryptor sha256 = encryptor("SHA-256", 1000);
+
+        try (Connection connection =
+                DriverManager.getConnection(
+                        config.getJdbcUrl(), config.getJdbcUser(), config.getJdbcPassword())) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement delete =
+                    connection.prepareStatement(
+                            "DELETE FROM UP_PERSON_DIR WHERE USER_NAME LIKE ?")) {
+                delete.setString(1, USERNAME_PREFIX + "%");
+                delete.executeUpdate();
+            }
+
+            try (PreparedStatement insert =
+                    connection.prepareStatement(
+                            "INSERT INTO UP_PERSON_DIR "
+                                    + "(USER_DIR_ID, ENTITY_VERSION, USER_NAME, ENCRPTD_PSWD) "
+                                    + "VALUES (?, 0, ?, ?)")) {
+                // every n-th user gets a SHA256 hash, spreading the two formats evenly
+                final double sha256Fraction = config.getSha256Fraction();
+                for (int i = 0; i < config.getUsers(); i++) {
+                    final String username = username(i);
+                    final boolean isSha256 =
+                            Math.floor((i + 1) * sha256Fraction) > Math.floor(i * sha256Fraction);
+                    insert.setLong(1, FIRST_ID + i);
+                    insert.setString(2, username);
+                    insert.setString(
+                            3,
+                            isSha256
+                                    ? "(SHA256)" + sha256.encryptPassword(username)
+                                    : "(MD5)" + md5.encryptPassword(username));
+                    insert.addBatch();
+                    if ((i + 1) % BATCH_SIZE == 0) {
+                        insert.executeBatch();
+                    }
+                }
+                insert.executeBatch();
+            }
+            connection.commit();
+        }
+    }
+
+    private static ConfigurablePasswordEncryptor encryptor(String algorithm, int iterations) {
+        final ConfigurablePasswordEncryptor encryptor = new ConfigurablePasswordEncryptor();
+        final SimpleDigesterConfig config = new SimpleDigesterConfig();
+        config.setIterations(iterations);
+        config.setAlgorithm(algorithm);
+        config.setSaltSizeBytes(8);
+        encryptor.setConfig(config);
+        return encryptor;
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One simulated browser and service: fetches the CAS login form, submits the credentials for a
+ * service ticket, and validates the ticket as the service would. Each flow starts without cookies
+ * so every iteration is a full login. Not thread safe, each load test thread has its own.
+ *
+ */
+final class LoginClient {
+    private static final Pattern LOGIN_TICKET =
+            Pattern.compile("name=\"lt\"\\s+value=\"([^\"]+)\"");
+    private static final Pattern EXECUTION =
+            Pattern.compile("name=\"execution\"\\s+value=\"([^\"]+)\"");
+    private static final Pattern SERVICE_TICKET = Pattern.compile("[?&]ticket=([^&]+)");
+
+    private final LoadTestConfig config;
+    private final LoadTestReport report;
+    private final String encodedService;
+
+    private String sessionCookie;
+
+    LoginClient(LoadTestConfig config, LoadTestReport report) {
+        this.config = config;
+        this.report = report;
+        this.encodedService = encode(config.getService());
+    }
+
+    /**
+     * Runs one login, service ticket and validation flow, recording each step in the report.
+     *
+     * @param username user to log in as, the password is the same
+     * @param measured false during warm up
+     */
+    void login(String username, boolean measured) {
+        this.sessionCookie = null;
+        final long flowStart = System.nanoTime();
+        LoadTestReport.Step step = LoadTestReport.Step.LOGIN_FORM;
+        try {
+            // 1. the login form, for the login ticket and webflow execution key
+            long start = System.nanoTime();
+            HttpURLConnection connection =
+                    this.open(this.config.getCasUrl() + "/login?service=" + this.encodedService);
+            String body = this.read(connection);
+            final Matcher lt = LOGIN_TICKET.matcher(body);
+            final Matcher execution = EXECUTION.matcher(body);
+            if (connection.getResponseCode() != 200 || !lt.find() || !execution.find()) {
+                this.report.fail(LoadTestReport.Step.LOGIN_FORM, measured);
+                return;
+            }
+            this.report.record(LoadTestReport.Step.LOGIN_FORM, System.nanoTime() - start, measured);
+
+            // 2. the credentials, answered with a redirect to the service carrying a ticket
+            step = LoadTestReport.Step.LOGIN;
+            start = System.nanoTime();
+            connection =
+                    this.open(this.config.getCasUrl() + "/login?service=" + this.encodedService);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            final byte[] form =
+                    ("username="
+                                    + encode(username)
+                                    + "&password="
+                                    + encode(username)
+                                    + "&lt="
+                                    + encode(lt.group(1))
+                                    + "&execution="
+                                    + encode(execution.group(1))
+                                    + "&_eventId=submit")
+                            .getBytes(StandardCharsets.UTF_8);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(form);
+            }
+            this.read(connection);
+            final String location = connection.getHeaderField("Location");
+            final Matcher ticket = location == null ? null : SERVICE_TICKET.matcher(location);
+            if (connection.getResponseCode() != 302 || ticket == null || !ticket.find()) {
+                this.report.fail(LoadTestReport.Step.LOGIN, measured);
+                return;
+            }
+            this.report.record(LoadTestReport.Step.LOGIN, System.nanoTime() - start, measured);
+
+            // 3. the service validating the ticket
+            step = LoadTestReport.Step.VALIDATE;
+            start = System.nanoTime();
+            this.sessionCookie = null;
+            connection =
+                    this.open(
+                            this.config.getCasUrl()
+                                    + "/serviceValidate?service="
+                                    + this.encodedService
+                                    + "&ticket="
+                                    + ticket.group(1));
+            body = this.read(connection);
+            if (connection.getResponseCode() != 200
+                    || !body.contains("<cas:user>" + username + "</cas:user>")) {
+                this.report.fail(LoadTestReport.Step.VALIDATE, measured);
+                return;
+            }
+            this.report.record(LoadTestReport.Step.VALIDATE, System.nanoTime() - start, measured);
+            this.report.record(LoadTestReport.Step.FLOW, System.nanoTime() - flowStart, measured);
+        } catch (IOException e) {
+            this.report.fail(step, measured);
+        }
+    }
+
+    private HttpURLConnection open(String url) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setInstanceFollowRedirects(false);
+        connection.setUseCaches(false);
+        connection.setConnectTimeout(this.config.getTimeout());
+        connection.setReadTimeout(this.config.getTimeout());
+        if (this.sessionCookie != null) {
+            connection.setRequestProperty("Cookie", this.sessionCookie);
+        }
+        return connection;
+    }
+
+    /** @return the response body, keeping the session cookie the login webflow needs */
+    private String read(HttpURLConnection connection) throws IOException {
+        final Map<String, List<String>> headers = connection.getHeaderFields();
+        for (final Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (!"Set-Cookie".equalsIgnoreCase(header.getKey())) {
+                continue;
+            }
+            for (final String cookie : header.getValue()) {
+                if (cookie.startsWith("JSESSIONID=")) {
+                    final int end = cookie.indexOf(';');
+                    this.sessionCookie = end < 0 ? cookie : cookie.substring(0, end);
+                }
+            }
+        }
+
+        final InputStream in =
+                connection.getResponseCode() < 400
+                        ? connection.getInputStream()
+                        : connection.getErrorStream();
+        if (in == null) {
+            return "";
+        }
+        // read to the end so the keep-alive connection can be reused
+        try {
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                body.write(buffer, 0, length);
+            }
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
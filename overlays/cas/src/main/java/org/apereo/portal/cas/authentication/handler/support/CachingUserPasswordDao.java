@@ -0,0 +1,206 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link UserPasswordDao} decorator that keeps a bounded, least-recently-used cache of password
+ * hashes in front of another UserPasswordDao. Entries expire after {@link #setTimeToLive(long)}
+ * milliseconds; lookups for unknown users are remembered for the (usually much shorter) {@link
+ * #setNegativeTimeToLive(long)} so that repeated attempts against a bad username do not reach the
+ * database every time.
+ *
+ * <p>Code that changes a password should call {@link #invalidate(String)} so the next login sees
+ * the new hash immediately rather than after the entry expires.
+ *
+ */
+public class CachingUserPasswordDao implements UserPasswordDao {
+    private UserPasswordDao userPasswordDao;
+
+    private int maxSize = 10000;
+    private long timeToLive = 60000;
+    private long negativeTimeToLive = 10000;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    /** Incremented by every invalidation, guarded by the cache. */
+    private long generation;
+
+    private final Map<String, CacheEntry> cache =
+            new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                    if (size() > maxSize) {
+                        evictions.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    /** @return the userPasswordDao lookups are delegated to on a cache miss */
+    public UserPasswordDao getUserPasswordDao() {
+        return this.userPasswordDao;
+    }
+    /** @param userPasswordDao the userPasswordDao to delegate to on a cache miss */
+    public void setUserPasswordDao(UserPasswordDao userPasswordDao) {
+        this.userPasswordDao = userPasswordDao;
+    }
+
+    /** @param maxSize Maximum number of usernames (found or not) to keep, defaults to 10000. */
+    public void setMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /** @param timeToLive Milliseconds a found password hash is cached for, defaults to 60000. */
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * @param negativeTimeToLive Milliseconds the absence of a user is cached for, defaults to
+     *     10000. Set to 0 to disable negative caching.
+     */
+    public void setNegativeTimeToLive(long negativeTimeToLive) {
+        this.negativeTimeToLive = negativeTimeToLive;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apereo.portal.cas.authentication.handler.support.UserPasswordDao#getPasswordHash(java.lang.String)
+     */
+    public String getPasswordHash(String userName) {
+        final long now = this.currentTimeMillis();
+        final long lookupGeneration;
+
+        synchronized (this.cache) {
+            lookupGeneration = this.generation;
+            final CacheEntry entry = this.cache.get(userName);
+            if (entry != null) {
+                if (entry.expires > now) {
+                    this.hits.incrementAndGet();
+                    return entry.passwordHash;
+                }
+                this.cache.remove(userName);
+                this.expirations.incrementAndGet();
+            }
+        }
+
+        this.misses.incrementAndGet();
+        final String passwordHash = this.userPasswordDao.getPasswordHash(userName);
+
+        final long ttl = passwordHash != null ? this.timeToLive : this.negativeTimeToLive;
+        if (ttl > 0) {
+            synchronized (this.cache) {
+                // a hash read before an invalidation may be the one it was meant to remove
+                if (this.generation == lookupGeneration) {
+                    this.cache.put(userName, new CacheEntry(passwordHash, now + ttl));
+                }
+            }
+        }
+
+        return passwordHash;
+    }
+
+    /**
+     * Remove the cached password hash for a single user, for example after a password change.
+     * Hashes read by lookups already in progress are not cached.
+     *
+     * @param userName Name of the user to evict
+     */
+    public void invalidate(String userName) {
+        synchronized (this.cache) {
+            this.generation++;
+            this.cache.remove(userName);
+        }
+    }
+
+    /** Remove every cached entry. */
+    public void invalidateAll() {
+        synchronized (this.cache) {
+            this.generation++;
+            this.cache.clear();
+        }
+    }
+
+    /** Remove every entry that has already expired, returning the number removed. */
+    public int purgeExpired() {
+        final long now = this.currentTimeMillis();
+        int purged = 0;
+        synchronized (this.cache) {
+            for (final Iterator<CacheEntry> it = this.cache.values().iterator(); it.hasNext(); ) {
+                if (it.next().expires <= now) {
+                    it.remove();
+                    purged++;
+                }
+            }
+        }
+        this.expirations.addAndGet(purged);
+        return purged;
+    }
+
+    /** @return number of entries currently cached, including expired entries not yet removed */
+    public int getSize() {
+        synchronized (this.cache) {
+            return this.cache.size();
+        }
+    }
+
+    /** @return number of lookups answered from the cache */
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    /** @return number of lookups delegated to the wrapped UserPasswordDao */
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    /** @return number of entries dropped because the cache was full */
+    public long getEvictionCount() {
+        return this.evictions.get();
+    }
+
+    /** @return number of entries dropped because they outlived their time to live */
+    public long getExpirationCount() {
+        return this.expirations.get();
+    }
+
+    /** Overridable for tests that need to control entry expiration. */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private static final class CacheEntry {
+        private final String passwordHash;
+        private final long expires;
+
+        CacheEntry(String passwordHash, long expires) {
+            this.passwordHash = passwordHash;
+            this.expires = expires;
+        }
+    }
+}
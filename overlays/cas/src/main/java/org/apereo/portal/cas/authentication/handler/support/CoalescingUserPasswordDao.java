@@ -0,0 +1,121 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link UserPasswordDao} decorator that lets concurrent lookups of the same username share a
+ * single call to the wrapped UserPasswordDao. The first thread to ask for a username performs the
+ * lookup; threads asking for the same username while that lookup is running wait for and return
+ * its result instead of issuing their own query. Nothing is retained once the lookup completes, so
+ * this is typically placed beneath a {@link CachingUserPasswordDao}.
+ *
+ */
+public class CoalescingUserPasswordDao implements UserPasswordDao {
+    private final ConcurrentMap<String, FutureTask<String>> inFlight =
+            new ConcurrentHashMap<String, FutureTask<String>>();
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    private UserPasswordDao userPasswordDao;
+
+    /** @return the userPasswordDao lookups are delegated to */
+    public UserPasswordDao getUserPasswordDao() {
+        return this.userPasswordDao;
+    }
+    /** @param userPasswordDao the userPasswordDao to delegate to */
+    public void setUserPasswordDao(UserPasswordDao userPasswordDao) {
+        this.userPasswordDao = userPasswordDao;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apereo.portal.cas.authentication.handler.support.UserPasswordDao#getPasswordHash(java.lang.String)
+     */
+    public String getPasswordHash(final String userName) {
+        final FutureTask<String> task =
+                new FutureTask<String>(
+                        new Callable<String>() {
+                            public String call() {
+                                return userPasswordDao.getPasswordHash(userName);
+                            }
+                        });
+
+        final FutureTask<String> existing = this.inFlight.putIfAbsent(userName, task);
+        if (existing != null) {
+            this.coalesced.incrementAndGet();
+            return this.await(existing);
+        }
+
+        this.lookups.incrementAndGet();
+        try {
+            task.run();
+        } finally {
+            this.inFlight.remove(userName, task);
+        }
+        return this.await(task);
+    }
+
+    /** @return number of lookups actually delegated to the wrapped UserPasswordDao */
+    public long getLookupCount() {
+        return this.lookups.get();
+    }
+
+    /** @return number of lookups that were answered by another thread's in-flight lookup */
+    public long getCoalescedCount() {
+        return this.coalesced.get();
+    }
+
+    /** @return number of usernames currently being looked up */
+    public int getInFlightCount() {
+        return this.inFlight.size();
+    }
+
+    /**
+     * Wait for the lookup to complete, rethrowing whatever it threw. Interrupts are deferred until
+     * the lookup finishes since the caller has no way to handle an interrupted password check.
+     */
+    private String await(FutureTask<String> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
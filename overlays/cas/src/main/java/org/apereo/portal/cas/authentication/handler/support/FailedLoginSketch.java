@@ -0,0 +1,171 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Approximate count of recent events per key in a fixed amount of memory: a count-min sketch split
+ * into time slices that are reused in turn, so counts fade out of the window a slice at a time.
+ * The estimate for a key is never lower than its true count within the window, and is higher only
+ * when other keys collide with it in every row.
+ *
+ * <p>Updates and estimates are lock free and allocate nothing. Counters are bumped with
+ * conservative update, raising only the rows that hold the key's current minimum, which keeps
+ * overestimates small when many distinct keys are counted. Keys are hashed case-insensitively with
+ * a random seed, so colliding keys cannot be chosen in advance.
+ *
+ */
+final class FailedLoginSketch {
+    private static final int DEPTH = 4;
+
+    private final int width;
+    private final int slices;
+    private final long sliceMillis;
+    private final long seed = ThreadLocalRandom.current().nextLong();
+
+    /**
+     * DEPTH rows of width cells, each cell holding a counter per slice side by side so that an
+     * estimate reads one cache line per row.
+     */
+    private final AtomicIntegerArray counts;
+
+    /** The period, time / sliceMillis, each slice currently counts. */
+    private final AtomicLongArray periods;
+
+    /**
+     * @param width Counters per row, rounded up to a power of two
+     * @param slices Number of slices the window is split into, at most 31
+     * @param windowMillis Length of the window counts are kept for
+     */
+    FailedLoginSketch(int width, int slices, long windowMillis) {
+        if (width < 1 || windowMillis < slices) {
+            throw new IllegalArgumentException("width and window must be positive");
+        }
+        if (slices < 1 || slices > 31) {
+            throw new IllegalArgumentException("slices must be between 1 and 31");
+        }
+        this.width = width == 1 ? 1 : Integer.highestOneBit(width - 1) << 1;
+        this.slices = slices;
+        this.sliceMillis = windowMillis / slices;
+        this.counts = new AtomicIntegerArray(DEPTH * this.width * this.slices);
+        this.periods = new AtomicLongArray(this.slices);
+        for (int i = 0; i < this.slices; i++) {
+            this.periods.set(i, Long.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Count one event for the key.
+     *
+     * @return the key's estimated count in the window, including this event
+     */
+    int add(String key, long now) {
+        final long period = now / this.sliceMillis;
+        final int slice = this.currentSlice(period);
+        final long hash = this.hash(key);
+
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            min = Math.min(min, this.counts.get(this.index(slice, row, hash)));
+        }
+        final int target = min < Integer.MAX_VALUE ? min + 1 : min;
+        for (int row = 0; row < DEPTH; row++) {
+            final int index = this.index(slice, row, hash);
+            int count = this.counts.get(index);
+            while (count < target && !this.counts.compareAndSet(index, count, target)) {
+                count = this.counts.get(index);
+            }
+        }
+
+        return this.estimate(hash, period);
+    }
+
+    /** @return the key's estimated count in the window */
+    int estimate(String key, long now) {
+        return this.estimate(this.hash(key), now / this.sliceMillis);
+    }
+
+    /** @return bytes of counters held by the sketch */
+    long getFootprint() {
+        return this.counts.length() * 4L + this.slices * 8L;
+    }
+
+    private int estimate(long hash, long period) {
+        int live = 0;
+        for (int slice = 0; slice < this.slices; slice++) {
+            final long slicePeriod = this.periods.get(slice);
+            if (slicePeriod > period - this.slices && slicePeriod <= period) {
+                live |= 1 << slice;
+            }
+        }
+
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            final int cell = this.index(0, row, hash);
+            long sum = 0;
+            for (int slice = 0; slice < this.slices; slice++) {
+                if ((live & (1 << slice)) != 0) {
+                    sum += this.counts.get(cell + slice);
+                }
+            }
+            min = (int) Math.min(min, sum);
+        }
+        return min;
+    }
+
+    /*
+     * Returns the slice counting the period, clearing it first if it last counted an earlier one.
+     * An event counted by another thread while the slice is cleared may be lost, which only ever
+     * lowers an estimate by that event.
+     */
+    private int currentSlice(long period) {
+        final int slice = (int) Math.floorMod(period, (long) this.slices);
+        long current = this.periods.get(slice);
+        while (current < period) {
+            if (this.periods.compareAndSet(slice, current, period)) {
+                for (int i = slice; i < this.counts.length(); i += this.slices) {
+                    this.counts.set(i, 0);
+                }
+                break;
+            }
+            current = this.periods.get(slice);
+        }
+        return slice;
+    }
+
+    private int index(int slice, int row, long hash) {
+        // double hashing: row i uses h1 + i * h2
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32) | 1;
+        return (row * this.width + ((h1 + row * h2) & (this.width - 1))) * this.slices + slice;
+    }
+
+    private long hash(String key) {
+        // FNV-1a over the lower-cased characters, finished with the MurmurHash3 mixer
+        long hash = this.seed;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ Character.toLowerCase(key.charAt(i))) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Tracks recent failed logins per username and per client address, so that credential stuffing
+ * can be refused before it costs a password lookup or a hash. A login is blocked once either its
+ * username or its address has failed threshold times within the window; the block lifts as the
+ * failures age out of the window.
+ *
+ * <p>Failures are counted in two {@link FailedLoginSketch}es of fixed size, so memory does not
+ * grow with the number of usernames or addresses an attack uses. Counts are approximate: they are
+ * never low, and with the default width stay exact for almost every key until a window holds
+ * several hundred thousand failures. The window moves in steps of window / slices, so a failure is
+ * forgotten between (slices - 1) / slices of the window and the whole window after it happened.
+ * Successful logins do not clear earlier failures.
+ *
+ */
+public class FailedLoginThrottle implements InitializingBean {
+    protected final Logger log = LoggerFactory.getLogger(getClass());
+
+    private long window = 300000;
+    private int slices = 5;
+    private int width = 32768;
+    private int usernameThreshold = 10;
+    private int addressThreshold = 100;
+
+    private FailedLoginSketch usernames;
+    private FailedLoginSketch addresses;
+
+    private final LongAdder blocked = new LongAdder();
+
+    /** @param window Milliseconds failed logins are remembered for, defaults to 300000. */
+    public void setWindow(long window) {
+        this.window = window;
+    }
+
+    /** @param slices Number of steps the window moves in, at most 31, defaults to 5. */
+    public void setSlices(int slices) {
+        this.slices = slices;
+    }
+
+    /**
+     * @param width Counters per sketch row, rounded up to a power of two, defaults to 32768. Each
+     *     sketch holds 16 * width * slices bytes.
+     */
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    /**
+     * @param usernameThreshold Failures within the window that block a username, defaults to 10.
+     */
+    public void setUsernameThreshold(int usernameThreshold) {
+        this.usernameThreshold = usernameThreshold;
+    }
+
+    /**
+     * @param addressThreshold Failures within the window that block a client address, defaults to
+     *     100. Set it with NAT and proxies in mind, 0 or less disables blocking by address.
+     */
+    public void setAddressThreshold(int addressThreshold) {
+        this.addressThreshold = addressThreshold;
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+     */
+    public void afterPropertiesSet() {
+        this.usernames = new FailedLoginSketch(this.width, this.slices, this.window);
+        this.addresses = new FailedLoginSketch(this.width, this.slices, this.window);
+    }
+
+    /**
+     * @param username Username being logged in to, may be null
+     * @param address Address of the client, may be null
+     * @return true if the login should be refused without checking the password
+     */
+    public boolean isBlocked(String username, String address) {
+        final long now = System.currentTimeMillis();
+        if ((username != null && this.usernames.estimate(username, now) >= this.usernameThreshold)
+                || (address != null
+                        && this.addressThreshold > 0
+                        && this.addresses.estimate(address, now) >= this.addressThreshold)) {
+            this.blocked.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param username Username that failed to log in, may be null
+     * @param address Address of the client, may be null
+     */
+    public void recordFailure(String username, String address) {
+        final long now = System.currentTimeMillis();
+        if (username != null && this.usernames.add(username, now) == this.usernameThreshold) {
+            this.log.debug(
+                    "Blocking logins to '{}' after {} failures", username, this.usernameThreshold);
+        }
+        if (address != null && this.addresses.add(address, now) == this.addressThreshold) {
+            this.log.debug(
+                    "Blocking logins from {} after {} failures", address, this.addressThreshold);
+        }
+    }
+
+    /** @return number of logins refused since startup */
+    public long getBlockedCount() {
+        return this.blocked.sum();
+    }
+
+    /** @return bytes held by the failure counts */
+    public long getFootprint() {
+        return this.usernames.getFootprint() + this.addresses.getFootprint();
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Immutable, open-addressed table of username to password hash. Usernames are held as UTF-8 byte
+ * arrays and the hashes as the Strings read from the database, so a lookup returns the stored
+ * String without allocating anything for it and an entry costs a byte array and a String rather
+ * than two Strings plus a map node.
+ *
+ */
+final class PasswordHashIndex {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Approximate per-array overhead used when estimating the footprint. */
+    private static final int ARRAY_HEADER_BYTES = 16;
+    /** Approximate per-String overhead, excluding its character array. */
+    private static final int STRING_HEADER_BYTES = 24;
+
+    private final byte[][] keys;
+    private final String[] values;
+    private final int size;
+    private final long footprint;
+
+    private PasswordHashIndex(byte[][] keys, String[] values, int size) {
+        this.keys = keys;
+        this.values = values;
+        this.size = size;
+
+        // The two reference tables plus every key array and value String
+        long bytes = 2L * (ARRAY_HEADER_BYTES + 8L * keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                bytes += ARRAY_HEADER_BYTES + keys[i].length;
+                bytes += STRING_HEADER_BYTES + ARRAY_HEADER_BYTES + 2L * values[i].length();
+            }
+        }
+        this.footprint = bytes;
+    }
+
+    /** @return the hash for the user, null if the user is not in the index */
+    public String get(String userName) {
+        final byte[] key = userName.getBytes(UTF8);
+        final int mask = this.keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            final byte[] candidate = this.keys[i];
+            if (candidate == null) {
+                return null;
+            }
+            if (Arrays.equals(candidate, key)) {
+                return this.values[i];
+            }
+        }
+    }
+
+    /** @return number of users in the index */
+    public int size() {
+        return this.size;
+    }
+
+    /** @return estimated number of heap bytes retained by the index */
+    public long getFootprint() {
+        return this.footprint;
+    }
+
+    static PasswordHashIndex.Builder builder(int expectedSize) {
+        return new Builder(expectedSize);
+    }
+
+    private static int hash(byte[] key) {
+        final int h = Arrays.hashCode(key);
+        return h ^ (h >>> 16);
+    }
+
+    /** Accumulates entries for a new index; not thread safe. */
+    static final class Builder {
+        private byte[][] keys;
+        private String[] values;
+        private int size;
+
+        private Builder(int expectedSize) {
+            this.keys = new byte[tableSize(expectedSize)][];
+            this.values = new String[this.keys.length];
+        }
+
+        /** Add or replace the hash for a user. */
+        Builder put(String userName, String passwordHash) {
+            if (userName == null || passwordHash == null) {
+                return this;
+            }
+            if ((this.size + 1) * 2 > this.keys.length) {
+                this.resize(this.keys.length * 2);
+            }
+            if (this.insert(userName.getBytes(UTF8), passwordHash)) {
+                this.size++;
+            }
+            return this;
+        }
+
+        PasswordHashIndex build() {
+            return new PasswordHashIndex(this.keys, this.values, this.size);
+        }
+
+        private boolean insert(byte[] key, String value) {
+            final int mask = this.keys.length - 1;
+            for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+                if (this.keys[i] == null) {
+                    this.keys[i] = key;
+                    this.values[i] = value;
+                    return true;
+                }
+                if (Arrays.equals(this.keys[i], key)) {
+                    this.values[i] = value;
+                    return false;
+                }
+            }
+        }
+
+        private void resize(int newLength) {
+            final byte[][] oldKeys = this.keys;
+            final String[] oldValues = this.values;
+            this.keys = new byte[newLength][];
+            this.values = new String[newLength];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    this.insert(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        /** Smallest power of two that keeps the table at most half full. */
+        private static int tableSize(int expectedSize) {
+            int length = 16;
+            while (length < expectedSize * 2 && length < (1 << 30)) {
+                length <<= 1;
+            }
+            return length;
+        }
+    }
+}
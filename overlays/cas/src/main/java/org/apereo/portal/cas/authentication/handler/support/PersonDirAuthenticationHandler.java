@@ -14,50 +14,62 @@
  */
 package org.apereo.portal.cas.authentication.handler.support;
 
+import com.github.inspektr.common.web.ClientInfo;
+import com.github.inspektr.common.web.ClientInfoHolder;
+import org.apereo.portal.cas.monitor.AuthenticationMetrics;
+import org.apereo.portal.cas.monitor.AuthenticationMetrics.FailureReason;
+import org.apereo.portal.cas.monitor.AuthenticationMetrics.HashAlgorithm;
+import org.apereo.portal.cas.monitor.AuthenticationMetrics.Stage;
+import org.apereo.portal.cas.warmup.WarmUpTarget;
 import org.jasig.cas.authentication.handler.AuthenticationException;
+import org.jasig.cas.authentication.handler.BlockedCredentialsAuthenticationException;
 import org.jasig.cas.authentication.handler.support.AbstractUsernamePasswordAuthenticationHandler;
 import org.jasig.cas.authentication.principal.UsernamePasswordCredentials;
-import org.jasypt.digest.config.SimpleDigesterConfig;
-import org.jasypt.util.password.ConfigurablePasswordEncryptor;
 
 /**
  * Impl of the uPortal MD5 password checking algorithm
  *
  */
-public class PersonDirAuthenticationHandler extends AbstractUsernamePasswordAuthenticationHandler {
+public class PersonDirAuthenticationHandler extends AbstractUsernamePasswordAuthenticationHandler
+        implements WarmUpTarget {
     private static final String MD5_PREFIX = "(MD5)";
 
     private static final String SHA256_PREFIX = "(SHA256)";
 
+    /*
+     * Synthetic hashes of WARM_UP_PASSWORD, made by the encryptors the verifiers below check
+     * against, that warmUp() verifies.
+     */
+    private static final String WARM_UP_PASSWORD = "warm-up";
+
+    private static final String WARM_UP_MD5_HASH = "(MD5)RLitOrwxrKg4IFwmnhRpO6/EiYh6RZfV";
+
+    private static final String WARM_UP_SHA256_HASH =
+            "(SHA256)O0TX94xuUktINx9F/8QV/nUHNuRefN8iuEAbuGqAFZxJ0EidyhFiUQ==";
+
     private UserPasswordDao userPasswordDao;
 
-    private ConfigurablePasswordEncryptor md5Encryptor;
-    private ConfigurablePasswordEncryptor sha256Encryptor;
-
-    public PersonDirAuthenticationHandler() {
-        /*
-         * Create an MD5 password encryptor that uses an 8-byte salt with one
-         * hash iteration.  This encryptor should be  capable of validating
-         * legacy uPortal passwords.
-         */
-        md5Encryptor = new ConfigurablePasswordEncryptor();
-        SimpleDigesterConfig md5Config = new SimpleDigesterConfig();
-        md5Config.setIterations(1);
-        md5Config.setAlgorithm("MD5");
-        md5Config.setSaltSizeBytes(8);
-        md5Encryptor.setConfig(md5Config);
-
-        /*
-         * Create a stronger SHA-256 password encryptor for setting and
-         * validating new passwords.
-         */
-        sha256Encryptor = new ConfigurablePasswordEncryptor();
-        SimpleDigesterConfig shaConfig = new SimpleDigesterConfig();
-        shaConfig.setIterations(1000);
-        shaConfig.setAlgorithm("SHA-256");
-        shaConfig.setSaltSizeBytes(8);
-        sha256Encryptor.setConfig(shaConfig);
-    }
+    private AuthenticationMetrics authenticationMetrics;
+
+    private VerificationLimiter verificationLimiter;
+
+    private FailedLoginThrottle failedLoginThrottle;
+
+    private int warmUpIterations = 500;
+
+    /*
+     * Verifies hashes made by an MD5 encryptor that uses an 8-byte salt with
+     * one hash iteration.  This is capable of validating legacy uPortal
+     * passwords.
+     */
+    private final SaltedDigestVerifier md5Verifier = new SaltedDigestVerifier("MD5", 1, 8);
+
+    /*
+     * Verifies hashes made by the stronger SHA-256 encryptor used for setting
+     * new passwords.
+     */
+    private final SaltedDigestVerifier sha256Verifier =
+            new SaltedDigestVerifier("SHA-256", 1000, 8);
 
     /** @return the userPasswordDao */
     public UserPasswordDao getUserPasswordDao() {
@@ -68,37 +80,183 @@ public class PersonDirAuthenticationHandler extends AbstractUsernamePasswordAuth
         this.userPasswordDao = userPasswordDao;
     }
 
+    /** @param authenticationMetrics where stage latencies and outcomes are recorded, optional */
+    public void setAuthenticationMetrics(AuthenticationMetrics authenticationMetrics) {
+        this.authenticationMetrics = authenticationMetrics;
+    }
+
+    /** @param verificationLimiter bounds how many passwords are hashed at once, optional */
+    public void setVerificationLimiter(VerificationLimiter verificationLimiter) {
+        this.verificationLimiter = verificationLimiter;
+    }
+
+    /** @param failedLoginThrottle refuses logins after repeated failures, optional */
+    public void setFailedLoginThrottle(FailedLoginThrottle failedLoginThrottle) {
+        this.failedLoginThrottle = failedLoginThrottle;
+    }
+
+    /**
+     * Number of times {@link #warmUp()} verifies each synthetic hash, defaults to 500. The first
+     * verifications after startup run interpreted and are some hundred times slower than they are
+     * once the JIT has compiled the digest code.
+     *
+     * @param warmUpIterations
+     */
+    public void setWarmUpIterations(int warmUpIterations) {
+        this.warmUpIterations = warmUpIterations;
+    }
+
+    /**
+     * Verifies synthetic MD5 and SHA-256 hashes until the digest code is compiled, without the
+     * verification limiter, throttle or metrics.
+     *
+     * @throws IllegalStateException if a verifier rejects its synthetic hash
+     */
+    public void warmUp() {
+        for (int i = 0; i < this.warmUpIterations; i++) {
+            if (!this.md5Verifier.matches(
+                            WARM_UP_PASSWORD, WARM_UP_MD5_HASH, MD5_PREFIX.length())
+                    || !this.sha256Verifier.matches(
+                            WARM_UP_PASSWORD, WARM_UP_SHA256_HASH, SHA256_PREFIX.length())) {
+                throw new IllegalStateException("Password verifiers rejected the warm-up hashes");
+            }
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.jasig.cas.authentication.handler.support.AbstractUsernamePasswordAuthenticationHandler#authenticateUsernamePasswordInternal(org.jasig.cas.authentication.principal.UsernamePasswordCredentials)
      */
     @Override
     protected boolean authenticateUsernamePasswordInternal(UsernamePasswordCredentials credentials)
             throws AuthenticationException {
+        final long start = this.startTimer();
+        try {
+            if (this.failedLoginThrottle == null) {
+                return this.authenticate(credentials, null);
+            }
+
+            // refuse a blocked username or address before any database or hashing work
+            final String clientAddress = clientAddress();
+            if (this.failedLoginThrottle.isBlocked(credentials.getUsername(), clientAddress)) {
+                this.countFailure(FailureReason.THROTTLED);
+                throw BlockedCredentialsAuthenticationException.ERROR;
+            }
+            return this.authenticate(credentials, clientAddress);
+        } catch (RuntimeException e) {
+            this.countFailure(FailureReason.ERROR);
+            throw e;
+        } finally {
+            this.stopTimer(Stage.AUTHENTICATION, start);
+        }
+    }
+
+    private boolean authenticate(UsernamePasswordCredentials credentials, String clientAddress)
+            throws AuthenticationException {
         final String username = credentials.getUsername();
         final String cleartextPassword = credentials.getPassword();
 
+        final long lookupStart = this.startTimer();
         final String expectedFullHash = this.userPasswordDao.getPasswordHash(username);
+        this.stopTimer(Stage.PASSWORD_LOOKUP, lookupStart);
 
         if (expectedFullHash == null) {
+            this.countFailure(FailureReason.UNKNOWN_USER);
+            this.recordFailure(username, clientAddress);
             return false;
         }
 
+        final boolean matches;
         if (expectedFullHash.startsWith(MD5_PREFIX)) {
 
-            String hashWithoutAlgorithmPrefix = expectedFullHash.substring(5);
-            return md5Encryptor.checkPassword(cleartextPassword, hashWithoutAlgorithmPrefix);
+            this.countHashAlgorithm(HashAlgorithm.MD5);
+            matches =
+                    this.verify(
+                            md5Verifier, cleartextPassword, expectedFullHash, MD5_PREFIX.length());
 
         } else if (expectedFullHash.startsWith(SHA256_PREFIX)) {
 
-            String hashWithoutAlgorithmPrefix = expectedFullHash.substring(8);
-            return sha256Encryptor.checkPassword(cleartextPassword, hashWithoutAlgorithmPrefix);
+            this.countHashAlgorithm(HashAlgorithm.SHA256);
+            matches =
+                    this.verify(
+                            sha256Verifier,
+                            cleartextPassword,
+                            expectedFullHash,
+                            SHA256_PREFIX.length());
 
         } else {
             this.log.error(
                     "Existing password hash for user '"
                             + username
                             + "' is not a valid hash. It does not start with a supported algorithm prefix");
+            this.countHashAlgorithm(HashAlgorithm.UNSUPPORTED);
+            this.countFailure(FailureReason.UNSUPPORTED_HASH);
             return false;
         }
+
+        if (!matches) {
+            this.countFailure(FailureReason.BAD_PASSWORD);
+            this.recordFailure(username, clientAddress);
+        }
+        return matches;
+    }
+
+    /*
+     * Hashes the password, waiting for a turn first if verifications are limited.  Refuses the
+     * login rather than queueing indefinitely when the node is overloaded.
+     */
+    private boolean verify(SaltedDigestVerifier verifier, String password, String hash, int offset)
+            throws VerificationOverloadedException {
+        if (this.verificationLimiter != null) {
+            final long waitStart = this.startTimer();
+            final boolean admitted = this.verificationLimiter.acquire();
+            this.stopTimer(Stage.VERIFICATION_WAIT, waitStart);
+            if (!admitted) {
+                this.countFailure(FailureReason.OVERLOADED);
+                throw VerificationOverloadedException.ERROR;
+            }
+        }
+        try {
+            final long hashStart = this.startTimer();
+            final boolean matches = verifier.matches(password, hash, offset);
+            this.stopTimer(Stage.PASSWORD_HASH, hashStart);
+            return matches;
+        } finally {
+            if (this.verificationLimiter != null) {
+                this.verificationLimiter.release();
+            }
+        }
+    }
+
+    private void recordFailure(String username, String clientAddress) {
+        if (this.failedLoginThrottle != null) {
+            this.failedLoginThrottle.recordFailure(username, clientAddress);
+        }
+    }
+
+    private static String clientAddress() {
+        final ClientInfo clientInfo = ClientInfoHolder.getClientInfo();
+        return clientInfo != null ? clientInfo.getClientIpAddress() : null;
+    }
+
+    private long startTimer() {
+        return this.authenticationMetrics != null ? System.nanoTime() : 0;
+    }
+
+    private void stopTimer(Stage stage, long start) {
+        if (this.authenticationMetrics != null) {
+            this.authenticationMetrics.recordSince(stage, start);
+        }
+    }
+
+    private void countHashAlgorithm(HashAlgorithm algorithm) {
+        if (this.authenticationMetrics != null) {
+            this.authenticationMetrics.countHashAlgorithm(algorithm);
+        }
+    }
+
+    private void countFailure(FailureReason reason) {
+        if (this.authenticationMetrics != null) {
+            this.authenticationMetrics.countFailure(reason);
+        }
     }
 }
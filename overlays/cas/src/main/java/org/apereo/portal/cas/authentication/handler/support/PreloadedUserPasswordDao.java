@@ -0,0 +1,192 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+/**
+ * Answers password hash lookups from an in-memory copy of UP_PERSON_DIR. The whole table is
+ * streamed into a {@link PasswordHashIndex} at startup and again on every {@link #reload()};
+ * between reloads {@link #refresh()} picks up rows whose password changed since the previous
+ * refresh. Usernames that are not in memory are looked up through the fallback UserPasswordDao,
+ * so accounts created since the last reload can still log in.
+ *
+ * <p>Deleted accounts are only noticed by {@link #reload()}, so its interval bounds how long a
+ * removed local account can keep authenticating.
+ *
+ */
+public class PreloadedUserPasswordDao implements UserPasswordDao, InitializingBean {
+    private static final String FULL_QUERY = "SELECT USER_NAME, ENCRPTD_PSWD FROM UP_PERSON_DIR";
+
+    private static final String CHANGED_QUERY =
+            "SELECT USER_NAME, ENCRPTD_PSWD FROM UP_PERSON_DIR WHERE LST_PSWD_CGH_DT >= ?";
+
+    protected final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Object loadLock = new Object();
+
+    private final ConcurrentMap<String, String> changes = new ConcurrentHashMap<String, String>();
+
+    private volatile PasswordHashIndex index = PasswordHashIndex.builder(0).build();
+
+    private UserPasswordDao userPasswordDao;
+    private JdbcTemplate jdbcTemplate;
+    private int fetchSize = 1000;
+    private long clockSkew = 60000;
+
+    private volatile long lastChangeCheck;
+    private volatile long lastLoadTime;
+    private volatile long lastLoadDuration;
+
+    /** @param dataSource the dataSource to read UP_PERSON_DIR from */
+    public void setDataSource(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    /** @return the userPasswordDao used for usernames not held in memory */
+    public UserPasswordDao getUserPasswordDao() {
+        return this.userPasswordDao;
+    }
+    /** @param userPasswordDao the userPasswordDao used for usernames not held in memory */
+    public void setUserPasswordDao(UserPasswordDao userPasswordDao) {
+        this.userPasswordDao = userPasswordDao;
+    }
+
+    /** @param fetchSize JDBC fetch size used while streaming the table, defaults to 1000. */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * @param clockSkew Milliseconds of overlap between successive {@link #refresh()} windows to
+     *     allow for clock differences with the database, defaults to 60000.
+     */
+    public void setClockSkew(long clockSkew) {
+        this.clockSkew = clockSkew;
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+     */
+    public void afterPropertiesSet() {
+        if (this.jdbcTemplate == null) {
+            throw new IllegalStateException("dataSource must be set");
+        }
+        this.jdbcTemplate.setFetchSize(this.fetchSize);
+        this.reload();
+    }
+
+    /* (non-Javadoc)
+     * @see org.apereo.portal.cas.authentication.handler.support.UserPasswordDao#getPasswordHash(java.lang.String)
+     */
+    public String getPasswordHash(String userName) {
+        final String changed = this.changes.get(userName);
+        if (changed != null) {
+            return changed;
+        }
+
+        final String passwordHash = this.index.get(userName);
+        if (passwordHash != null || this.userPasswordDao == null) {
+            return passwordHash;
+        }
+
+        return this.userPasswordDao.getPasswordHash(userName);
+    }
+
+    /** Replace the in-memory index with a fresh copy of the whole UP_PERSON_DIR table. */
+    public void reload() {
+        synchronized (this.loadLock) {
+            final long start = System.currentTimeMillis();
+
+            final PasswordHashIndex.Builder builder =
+                    PasswordHashIndex.builder(Math.max(this.index.size(), 1024));
+            this.jdbcTemplate.query(
+                    FULL_QUERY,
+                    new RowCallbackHandler() {
+                        public void processRow(ResultSet rs) throws SQLException {
+                            builder.put(rs.getString(1), rs.getString(2));
+                        }
+                    });
+
+            this.index = builder.build();
+            this.changes.clear();
+            this.lastChangeCheck = start;
+
+            this.lastLoadTime = start;
+            this.lastLoadDuration = System.currentTimeMillis() - start;
+            this.log.info(
+                    "Loaded {} password hashes from UP_PERSON_DIR in {}ms using ~{} bytes",
+                    this.index.size(),
+                    this.lastLoadDuration,
+                    this.index.getFootprint());
+        }
+    }
+
+    /** Pick up rows whose password was changed since the previous refresh or reload. */
+    public void refresh() {
+        synchronized (this.loadLock) {
+            final long start = System.currentTimeMillis();
+            final Timestamp since = new Timestamp(this.lastChangeCheck - this.clockSkew);
+
+            final int[] count = new int[1];
+            this.jdbcTemplate.query(
+                    CHANGED_QUERY,
+                    new RowCallbackHandler() {
+                        public void processRow(ResultSet rs) throws SQLException {
+                            final String userName = rs.getString(1);
+                            final String passwordHash = rs.getString(2);
+                            if (userName != null && passwordHash != null) {
+                                changes.put(userName, passwordHash);
+                                count[0]++;
+                            }
+                        }
+                    },
+                    since);
+
+            this.lastChangeCheck = start;
+            this.log.debug("Refreshed {} changed password hashes", count[0]);
+        }
+    }
+
+    /** @return number of users held in memory */
+    public int getSize() {
+        return this.index.size() + this.changes.size();
+    }
+
+    /** @return estimated heap bytes retained by the in-memory index, excluding recent changes */
+    public long getMemoryFootprint() {
+        return this.index.getFootprint();
+    }
+
+    /** @return time in milliseconds when the last full reload started */
+    public long getLastLoadTime() {
+        return this.lastLoadTime;
+    }
+
+    /** @return duration in milliseconds of the last full reload */
+    public long getLastLoadDuration() {
+        return this.lastLoadDuration;
+    }
+}
@@ -0,0 +1,533 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+import org.apereo.portal.cas.monitor.AuthenticationMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.QueryTimeoutException;
+
+/**
+ * Looks up password hashes in whichever of several copies of UP_PERSON_DIR, a primary and its
+ * read replicas, is answering fastest, so that one slow database does not stall every login.
+ *
+ * <ul>
+ *   <li>The latency of the last sampleSize queries to each database is kept, and lookups go to the
+ *       healthy database with the lowest median. A database not queried for probeInterval ms is
+ *       tried next so its latency stays current.
+ *   <li>A lookup still running after the chosen database's 95th percentile latency (but at least
+ *       minHedgeDelay ms) is also sent to the next database. The first answer wins and the other
+ *       queries are cancelled, without counting against their databases.
+ *   <li>A lookup that fails is retried on the next database at once.
+ *   <li>After failureThreshold consecutive failed or timed out queries, each counted once, a
+ *       database's circuit opens and it is left alone for openInterval ms, then a single trial
+ *       lookup decides whether it is used again.
+ * </ul>
+ *
+ * <p>Queries run on a bounded pool of maxThreads daemon threads.
+ *
+ */
+public class RoutingUserPasswordDao implements UserPasswordDao, InitializingBean, DisposableBean {
+    protected final Logger log = LoggerFactory.getLogger(getClass());
+
+    private List<DataSource> dataSources;
+    private int sampleSize = 64;
+    private long minHedgeDelay = 10;
+    private long timeout = 5000;
+    private long probeInterval = 10000;
+    private int failureThreshold = 5;
+    private long openInterval = 10000;
+    private int maxThreads = 32;
+    private AuthenticationMetrics authenticationMetrics;
+
+    private Target[] targets;
+    private ThreadPoolExecutor executor;
+
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong failovers = new AtomicLong();
+
+    /** @param dataSources the primary database followed by its read replicas */
+    public void setDataSources(List<DataSource> dataSources) {
+        this.dataSources = dataSources;
+    }
+
+    /** @param sampleSize Number of recent query latencies kept per database, defaults to 64. */
+    public void setSampleSize(int sampleSize) {
+        this.sampleSize = sampleSize;
+    }
+
+    /** @param minHedgeDelay Minimum milliseconds before a lookup is hedged, defaults to 10. */
+    public void setMinHedgeDelay(long minHedgeDelay) {
+        this.minHedgeDelay = minHedgeDelay;
+    }
+
+    /** @param timeout Milliseconds a lookup may take over all databases, defaults to 5000. */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @param probeInterval Milliseconds after which a database that has not been queried is tried
+     *     first, defaults to 10000.
+     */
+    public void setProbeInterval(long probeInterval) {
+        this.probeInterval = probeInterval;
+    }
+
+    /** @param failureThreshold Consecutive failures that open a circuit, defaults to 5. */
+    public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    /** @param openInterval Milliseconds an open circuit stays open, defaults to 10000. */
+    public void setOpenInterval(long openInterval) {
+        this.openInterval = openInterval;
+    }
+
+    /** @param maxThreads Maximum number of queries running at once, defaults to 32. */
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    /** @param authenticationMetrics where every database's query latency is recorded, optional */
+    public void setAuthenticationMetrics(AuthenticationMetrics authenticationMetrics) {
+        this.authenticationMetrics = authenticationMetrics;
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+     */
+    public void afterPropertiesSet() {
+        if (this.dataSources == null || this.dataSources.isEmpty()) {
+            throw new IllegalStateException("at least one dataSource must be set");
+        }
+
+        this.targets = new Target[this.dataSources.size()];
+        for (int i = 0; i < this.targets.length; i++) {
+            final PortalPersonDirUserPasswordDao userPasswordDao =
+                    new PortalPersonDirUserPasswordDao();
+            userPasswordDao.setDataSource(this.dataSources.get(i));
+            userPasswordDao.setAuthenticationMetrics(this.authenticationMetrics);
+            this.targets[i] =
+                    new Target(
+                            i == 0 ? "primary" : "replica " + i, userPasswordDao, this.sampleSize);
+        }
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor =
+                new ThreadPoolExecutor(
+                        0,
+                        this.maxThreads,
+                        60,
+                        TimeUnit.SECONDS,
+                        new SynchronousQueue<Runnable>(),
+                        new ThreadFactory() {
+                            public Thread newThread(Runnable r) {
+                                final Thread thread =
+                                        new Thread(
+                                                r,
+                                                "RoutingUserPasswordDao-"
+                                                        + threadCount.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+    }
+
+    /* (non-Javadoc)
+     * @see org.springframework.beans.factory.DisposableBean#destroy()
+     */
+    public void destroy() {
+        this.executor.shutdownNow();
+    }
+
+    /* (non-Javadoc)
+     * @see org.apereo.portal.cas.authentication.handler.support.UserPasswordDao#getPasswordHash(java.lang.String)
+     */
+    public String getPasswordHash(String userName) {
+        final long start = System.currentTimeMillis();
+        final List<Target> ranked = this.rank(start);
+        if (ranked.isEmpty()) {
+            throw new DataAccessResourceFailureException(
+                    "No database is available for password lookups, every circuit is open");
+        }
+
+        final CompletionService<String> completion =
+                new ExecutorCompletionService<String>(this.executor);
+        final List<Attempt> attempts = new ArrayList<Attempt>(ranked.size());
+        RuntimeException failure = null;
+        int outstanding = 0;
+        int next = 0;
+
+        boolean interrupted = false;
+        try {
+            while (true) {
+                if (outstanding == 0) {
+                    if (next == ranked.size()) {
+                        throw failure;
+                    }
+                    if (next > 0) {
+                        this.failovers.incrementAndGet();
+                    }
+                    final Attempt attempt = this.submit(completion, ranked.get(next++), userName);
+                    if (attempt == null) {
+                        if (failure == null) {
+                            failure = this.unavailable();
+                        }
+                        continue;
+                    }
+                    attempts.add(attempt);
+                    outstanding++;
+                }
+
+                final long now = System.currentTimeMillis();
+                final long remaining = start + this.timeout - now;
+                if (remaining <= 0) {
+                    break;
+                }
+                final Attempt latest = attempts.get(attempts.size() - 1);
+                final long hedgeAt =
+                        latest.startMillis + latest.target.hedgeDelay(this.minHedgeDelay);
+                final long wait =
+                        next < ranked.size() ? Math.min(remaining, hedgeAt - now) : remaining;
+
+                final Future<String> done;
+                try {
+                    done = completion.poll(Math.max(0, wait), TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    continue;
+                }
+
+                if (done == null) {
+                    if (next < ranked.size()) {
+                        // the latest attempt is slow, ask the next database as well
+                        latest.target.recordSlow(System.currentTimeMillis() - latest.startMillis);
+                        final Attempt hedge = this.submit(completion, ranked.get(next++), userName);
+                        if (hedge != null) {
+                            this.hedges.incrementAndGet();
+                            attempts.add(hedge);
+                            outstanding++;
+                        }
+                    }
+                    continue;
+                }
+
+                outstanding--;
+                try {
+                    final String passwordHash = done.get();
+                    this.abandon(attempts);
+                    return passwordHash;
+                } catch (ExecutionException e) {
+                    failure = asRuntimeException(e.getCause());
+                } catch (InterruptedException e) {
+                    // the future is done so get() does not wait, but may still see the interrupt
+                    interrupted = true;
+                    failure = new DataAccessResourceFailureException("Interrupted", e);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // every outstanding attempt outlived the timeout
+        for (final Attempt attempt : attempts) {
+            if (!attempt.future.isDone()) {
+                if (attempt.settle()) {
+                    attempt.target.recordFailure(System.currentTimeMillis(), this);
+                }
+                attempt.future.cancel(true);
+            }
+        }
+        throw new QueryTimeoutException(
+                "Password lookup for '" + userName + "' took over " + this.timeout + "ms");
+    }
+
+    /** @return number of lookups sent to a second database because the first was slow */
+    public long getHedgeCount() {
+        return this.hedges.get();
+    }
+
+    /** @return number of lookups retried on another database after a failure */
+    public long getFailoverCount() {
+        return this.failovers.get();
+    }
+
+    /** @return one line per database with its latency, circuit state and query count */
+    public List<String> getTargetStatus() {
+        final List<String> status = new ArrayList<String>(this.targets.length);
+        for (final Target target : this.targets) {
+            status.add(target.toString());
+        }
+        return status;
+    }
+
+    /** @return number of queries the database at the index in dataSources has answered */
+    long getQueryCount(int target) {
+        return this.targets[target].queries.get();
+    }
+
+    /** @return true if the circuit of the database at the index in dataSources is closed */
+    boolean isAvailable(int target) {
+        return this.targets[target].openUntil == 0;
+    }
+
+    /** @return the healthy targets, stale ones first and then by median latency */
+    private List<Target> rank(final long now) {
+        final List<Target> ranked = new ArrayList<Target>(this.targets.length);
+        for (final Target target : this.targets) {
+            if (target.allow(now)) {
+                ranked.add(target);
+            }
+        }
+        if (ranked.size() > 1) {
+            Collections.sort(
+                    ranked,
+                    new Comparator<Target>() {
+                        public int compare(Target a, Target b) {
+                            return Long.compare(rankKey(a, now), rankKey(b, now));
+                        }
+                    });
+        }
+        return ranked;
+    }
+
+    private long rankKey(Target target, long now) {
+        return now - target.lastQueried > this.probeInterval ? -1 : target.median;
+    }
+
+    /** @return the running lookup, null if the target's circuit or every thread is busy */
+    private Attempt submit(
+            CompletionService<String> completion, final Target target, final String userName) {
+        final long startMillis = System.currentTimeMillis();
+        if (!target.begin(startMillis)) {
+            return null;
+        }
+        target.lastQueried = startMillis;
+        final Attempt attempt = new Attempt(target, startMillis);
+        try {
+            attempt.future =
+                    completion.submit(
+                            new Callable<String>() {
+                                public String call() {
+                                    return target.lookup(
+                                            userName, attempt, RoutingUserPasswordDao.this);
+                                }
+                            });
+            return attempt;
+        } catch (RejectedExecutionException e) {
+            target.end();
+            return null;
+        }
+    }
+
+    /** Cancel the attempts still running once another has answered, recording nothing for them. */
+    private void abandon(List<Attempt> attempts) {
+        for (final Attempt attempt : attempts) {
+            if (!attempt.future.isDone()) {
+                if (attempt.settle()) {
+                    // a trial that was cut short says nothing about the database, allow another
+                    attempt.target.end();
+                }
+                attempt.future.cancel(true);
+            }
+        }
+    }
+
+    private RuntimeException unavailable() {
+        return new DataAccessResourceFailureException(
+                "No database could take the password lookup, all "
+                        + this.maxThreads
+                        + " threads are busy or the circuits are being tested");
+    }
+
+    private static RuntimeException asRuntimeException(Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IllegalStateException(cause);
+    }
+
+    private static final class Attempt {
+        private final Target target;
+        private final long startMillis;
+        private final AtomicBoolean settled = new AtomicBoolean();
+        private volatile Future<String> future;
+
+        Attempt(Target target, long startMillis) {
+            this.target = target;
+            this.startMillis = startMillis;
+        }
+
+        /**
+         * @return true the first time only, so the query's outcome is recorded once, by whichever
+         *     of the query, the timeout or the cancellation settles it first
+         */
+        boolean settle() {
+            return this.settled.compareAndSet(false, true);
+        }
+    }
+
+    /** One database: its recent latencies and circuit breaker. */
+    private static final class Target {
+        private final String name;
+        private final UserPasswordDao userPasswordDao;
+        private final long[] samples;
+        private int sampleCount;
+        private int nextSample;
+
+        private final AtomicLong queries = new AtomicLong();
+
+        private volatile long median;
+        private volatile long p95;
+        private volatile long lastQueried;
+
+        private int consecutiveFailures;
+        /** 0 while the circuit is closed, else when it may next be tried. */
+        private volatile long openUntil;
+
+        private boolean trialRunning;
+
+        Target(String name, UserPasswordDao userPasswordDao, int sampleSize) {
+            this.name = name;
+            this.userPasswordDao = userPasswordDao;
+            this.samples = new long[sampleSize];
+        }
+
+        String lookup(String userName, Attempt attempt, RoutingUserPasswordDao router) {
+            final long start = System.currentTimeMillis();
+            try {
+                final String passwordHash = this.userPasswordDao.getPasswordHash(userName);
+                if (attempt.settle()) {
+                    this.recordSuccess(System.currentTimeMillis() - start, router);
+                }
+                return passwordHash;
+            } catch (RuntimeException e) {
+                if (attempt.settle()) {
+                    this.recordFailure(System.currentTimeMillis(), router);
+                }
+                throw e;
+            }
+        }
+
+        long hedgeDelay(long minHedgeDelay) {
+            return Math.max(minHedgeDelay, this.p95);
+        }
+
+        /** @return true if the circuit is closed, or open long enough to try again */
+        synchronized boolean allow(long now) {
+            return this.openUntil == 0 || (now >= this.openUntil && !this.trialRunning);
+        }
+
+        /** @return false if the circuit is open, or half open with a trial already running */
+        synchronized boolean begin(long now) {
+            if (!this.allow(now)) {
+                return false;
+            }
+            if (this.openUntil != 0) {
+                // half open, let this one lookup through to see whether the database has recovered
+                this.trialRunning = true;
+            }
+            return true;
+        }
+
+        /** Gives up a trial that was never run. */
+        synchronized void end() {
+            this.trialRunning = false;
+        }
+
+        synchronized void recordSuccess(long millis, RoutingUserPasswordDao router) {
+            this.queries.incrementAndGet();
+            this.addSample(millis);
+            this.consecutiveFailures = 0;
+            if (this.openUntil != 0) {
+                router.log.warn("Closing the circuit of the {} database, it recovered", this.name);
+                this.openUntil = 0;
+                this.trialRunning = false;
+            }
+        }
+
+        synchronized void recordFailure(long now, RoutingUserPasswordDao router) {
+            this.consecutiveFailures++;
+            if (this.trialRunning || this.consecutiveFailures >= router.failureThreshold) {
+                if (this.openUntil == 0) {
+                    router.log.warn(
+                            "Opening the circuit of the {} database after {} failures",
+                            this.name,
+                            this.consecutiveFailures);
+                }
+                this.openUntil = now + router.openInterval;
+                this.trialRunning = false;
+            }
+        }
+
+        /** Counts a lookup that has run for millis without answering, a lower bound on its time. */
+        synchronized void recordSlow(long millis) {
+            if (millis > this.median) {
+                this.addSample(millis);
+            }
+        }
+
+        private void addSample(long millis) {
+            this.samples[this.nextSample] = millis;
+            this.nextSample = (this.nextSample + 1) % this.samples.length;
+            this.sampleCount = Math.min(this.sampleCount + 1, this.samples.length);
+
+            final long[] sorted = Arrays.copyOf(this.samples, this.sampleCount);
+            Arrays.sort(sorted);
+            this.median = sorted[sorted.length / 2];
+            this.p95 = sorted[(int) (sorted.length * 0.95)];
+        }
+
+        @Override
+        public synchronized String toString() {
+            return this.name
+                    + ": median="
+                    + this.median
+                    + "ms p95="
+                    + this.p95
+                    + "ms queries="
+                    + this.queries.get()
+                    + (this.openUntil == 0 ? " closed" : " open");
+        }
+    }
+}
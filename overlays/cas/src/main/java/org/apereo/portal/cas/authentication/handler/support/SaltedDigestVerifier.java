@@ -0,0 +1,217 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.Arrays;
+
+/**
+ * Checks passwords against the salted, iterated digests produced by jasypt's {@code
+ * ConfigurablePasswordEncryptor}: Base64 of {@code salt + digest}, where the digest is {@code
+ * H(salt + utf8(NFC(password)))} re-hashed {@code iterations - 1} times.
+ *
+ * <p>Unlike the jasypt encryptor this keeps a {@link MessageDigest} and scratch buffers per thread,
+ * decodes the stored hash in place rather than through substrings, and compares digests in
+ * constant time. Once a thread's buffers have grown to fit its passwords, a check allocates nothing
+ * unless the password needs Unicode normalization.
+ *
+ */
+final class SaltedDigestVerifier {
+    private static final byte[] BASE64_VALUES = new byte[128];
+
+    static {
+        final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        Arrays.fill(BASE64_VALUES, (byte) -1);
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_VALUES[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    private final String algorithm;
+    private final int iterations;
+    private final int saltSizeBytes;
+    private final int digestLength;
+
+    private final ThreadLocal<State> state =
+            new ThreadLocal<State>() {
+                @Override
+                protected State initialValue() {
+                    return new State(createDigest());
+                }
+            };
+
+    /**
+     * @param algorithm {@link MessageDigest} algorithm name
+     * @param iterations Number of times the digest is applied, at least 1
+     * @param saltSizeBytes Length of the salt that prefixes the digest in the stored hash
+     */
+    SaltedDigestVerifier(String algorithm, int iterations, int saltSizeBytes) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("iterations must be at least 1");
+        }
+        this.algorithm = algorithm;
+        this.iterations = iterations;
+        this.saltSizeBytes = saltSizeBytes;
+        this.digestLength = this.createDigest().getDigestLength();
+    }
+
+    /**
+     * @param password Cleartext password to check
+     * @param hash String containing the Base64 encoded salt and digest
+     * @param offset Index in hash where the Base64 data starts, i.e. the length of any prefix
+     * @return true if the password produces the stored digest
+     */
+    boolean matches(String password, String hash, int offset) {
+        if (password == null || hash == null) {
+            return false;
+        }
+
+        final State s = this.state.get();
+
+        // salt followed by the expected digest
+        final int decodedLength = s.decodeBase64(hash, offset);
+        if (decodedLength != this.saltSizeBytes + this.digestLength) {
+            return false;
+        }
+
+        if (!Normalizer.isNormalized(password, Normalizer.Form.NFC)) {
+            password = Normalizer.normalize(password, Normalizer.Form.NFC);
+        }
+        final int passwordLength = s.encodeUtf8(password);
+
+        final MessageDigest md = s.md;
+        final byte[] digest = s.digest;
+        try {
+            md.reset();
+            md.update(s.decoded, 0, this.saltSizeBytes);
+            md.update(s.utf8, 0, passwordLength);
+            md.digest(digest, 0, this.digestLength);
+            for (int i = 1; i < this.iterations; i++) {
+                md.update(digest, 0, this.digestLength);
+                md.digest(digest, 0, this.digestLength);
+            }
+        } catch (DigestException e) {
+            throw new IllegalStateException("Digest buffer too small for " + this.algorithm, e);
+        } finally {
+            // don't leave the cleartext lying around in the per-thread buffer
+            Arrays.fill(s.utf8, 0, passwordLength, (byte) 0);
+        }
+
+        int difference = 0;
+        for (int i = 0; i < this.digestLength; i++) {
+            difference |= digest[i] ^ s.decoded[this.saltSizeBytes + i];
+        }
+        return difference == 0;
+    }
+
+    private MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(this.algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported digest algorithm " + this.algorithm, e);
+        }
+    }
+
+    /** Per-thread digest and scratch buffers. */
+    private final class State {
+        private final MessageDigest md;
+        private final byte[] digest;
+        private final byte[] decoded;
+        private byte[] utf8 = new byte[64];
+
+        State(MessageDigest md) {
+            this.md = md;
+            this.digest = new byte[digestLength];
+            this.decoded = new byte[saltSizeBytes + digestLength];
+        }
+
+        /**
+         * Decode standard, padded Base64 from hash into {@link #decoded}, skipping whitespace.
+         *
+         * @return number of decoded bytes, or -1 if the data is malformed or longer than expected
+         */
+        int decodeBase64(String hash, int offset) {
+            int length = 0;
+            int bits = 0;
+            int bitCount = 0;
+            boolean padded = false;
+            for (int i = offset; i < hash.length(); i++) {
+                final char c = hash.charAt(i);
+                if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+                    continue;
+                }
+                if (c == '=') {
+                    padded = true;
+                    continue;
+                }
+                if (padded || c >= 128 || BASE64_VALUES[c] < 0) {
+                    return -1;
+                }
+                bits = (bits << 6) | BASE64_VALUES[c];
+                bitCount += 6;
+                if (bitCount >= 8) {
+                    bitCount -= 8;
+                    if (length == this.decoded.length) {
+                        return -1;
+                    }
+                    this.decoded[length++] = (byte) (bits >> bitCount);
+                }
+            }
+            return length;
+        }
+
+        /**
+         * Encode the password as UTF-8 into {@link #utf8}, replacing unpaired surrogates with '?'
+         * the same way {@link String#getBytes(String)} does.
+         *
+         * @return number of bytes written
+         */
+        int encodeUtf8(String password) {
+            final int maxLength = password.length() * 3;
+            if (this.utf8.length < maxLength) {
+                this.utf8 = new byte[Math.max(maxLength, this.utf8.length * 2)];
+            }
+            final byte[] out = this.utf8;
+            int length = 0;
+            for (int i = 0; i < password.length(); i++) {
+                final char c = password.charAt(i);
+                if (c < 0x80) {
+                    out[length++] = (byte) c;
+                } else if (c < 0x800) {
+                    out[length++] = (byte) (0xc0 | (c >> 6));
+                    out[length++] = (byte) (0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c)
+                        && i + 1 < password.length()
+                        && Character.isLowSurrogate(password.charAt(i + 1))) {
+                    final int cp = Character.toCodePoint(c, password.charAt(++i));
+                    out[length++] = (byte) (0xf0 | (cp >> 18));
+                    out[length++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                    out[length++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                    out[length++] = (byte) (0x80 | (cp & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    out[length++] = (byte) '?';
+                } else {
+                    out[length++] = (byte) (0xe0 | (c >> 12));
+                    out[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    out[length++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+            return length;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds how many password hashes are verified at once. During a login storm every request thread
+ * could otherwise be running an iterated SHA-256 digest at the same time, starving service
+ * validation and everything else on the node of CPU.
+ *
+ * <p>Up to maxConcurrent verifications run at once, by default one per core. Up to maxQueued more
+ * wait at most maxWait milliseconds for a turn; anything beyond that is refused straight away so
+ * the login can be retried rather than pile up behind the others.
+ *
+ */
+public class VerificationLimiter {
+    private Semaphore permits;
+    private int maxConcurrent;
+    private int maxQueued = 64;
+    private long maxWait = 200;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    public VerificationLimiter() {
+        this.setMaxConcurrent(0);
+    }
+
+    /**
+     * @param maxConcurrent Number of verifications that may run at once, 0 or less for the number
+     *     of available processors.
+     */
+    public void setMaxConcurrent(int maxConcurrent) {
+        this.maxConcurrent =
+                maxConcurrent > 0 ? maxConcurrent : Runtime.getRuntime().availableProcessors();
+        this.permits = new Semaphore(this.maxConcurrent);
+    }
+
+    /** @param maxQueued Number of verifications that may wait for a turn, defaults to 64. */
+    public void setMaxQueued(int maxQueued) {
+        this.maxQueued = maxQueued;
+    }
+
+    /** @param maxWait Milliseconds a verification waits for a turn, defaults to 200. */
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Wait for a turn to verify a password. Each successful call must be paired with a call to
+     * {@link #release()}.
+     *
+     * @return false if the queue is full or no turn came up within maxWait
+     */
+    public boolean acquire() {
+        if (this.permits.tryAcquire()) {
+            return true;
+        }
+
+        if (this.queued.incrementAndGet() > this.maxQueued) {
+            this.queued.decrementAndGet();
+            this.rejected.increment();
+            return false;
+        }
+        try {
+            if (this.permits.tryAcquire(this.maxWait, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+            this.timedOut.increment();
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.timedOut.increment();
+            return false;
+        } finally {
+            this.queued.decrementAndGet();
+        }
+    }
+
+    /** Give back a turn taken by {@link #acquire()}. */
+    public void release() {
+        this.permits.release();
+    }
+
+    /** @return the number of verifications that may run at once */
+    public int getMaxConcurrent() {
+        return this.maxConcurrent;
+    }
+
+    /** @return the number of verifications running now */
+    public int getActiveCount() {
+        return this.maxConcurrent - this.permits.availablePermits();
+    }
+
+    /** @return the number of verifications waiting for a turn now */
+    public int getQueueDepth() {
+        return this.queued.get();
+    }
+
+    /** @return the number of verifications refused because the queue was full */
+    public long getRejectedCount() {
+        return this.rejected.sum();
+    }
+
+    /** @return the number of verifications refused because no turn came up within maxWait */
+    public long getTimedOutCount() {
+        return this.timedOut.sum();
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import org.jasig.cas.authentication.handler.AuthenticationException;
+
+/**
+ * Thrown when a password could not be checked because too many logins were being verified at once.
+ * The credentials may well be good, the user should try again shortly.
+ *
+ */
+public class VerificationOverloadedException extends AuthenticationException {
+    /** Static instance, refusing logins under load should be as cheap as possible. */
+    public static final VerificationOverloadedException ERROR =
+            new VerificationOverloadedException();
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String CODE = "error.authentication.overloaded";
+
+    public VerificationOverloadedException() {
+        super(CODE);
+    }
+}
@@ -0,0 +1,490 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.extension.clearpass;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * ClearPass credentials cache, the Map of username to password read by CAS's
+ * CacheCredentialsMetaDataPopulator and ClearPassController, that keeps every password AES-GCM
+ * encrypted in a fixed-size slot of one direct buffer allocated at startup. It never holds more
+ * than {@link #setCapacity(int)} passwords and never keeps one in cleartext, on or off the heap;
+ * the key is generated at startup and never leaves the JVM, so a restart invalidates everything.
+ *
+ * <p>A password is kept for as long as its user has a ticket granting ticket. The {@link
+ * CredentialCacheTicketRegistry} reports each TGT added and deleted, including the ones the
+ * registry cleaner deletes once expired, and a password goes with its user's last TGT. A password
+ * that no TGT follows, e.g. because the login failed after authentication, is dropped after {@link
+ * #setPendingTimeToLive(long)} milliseconds. When every slot is taken by a password that has not
+ * expired, the pending password stored longest ago is evicted, or if there is none the password
+ * stored longest ago.
+ *
+ * <p>{@link #put(String, String)} and {@link #remove(Object)} return null rather than the previous
+ * password. The Map views and {@link #containsValue(Object)} are not supported.
+ *
+ */
+public class CredentialCache implements Map<String, String>, InitializingBean {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int LENGTH_BYTES = 2;
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BYTES = 16;
+
+    protected final Logger log = LoggerFactory.getLogger(getClass());
+
+    private int capacity = 100000;
+    private int maxPasswordLength = 128;
+    private long pendingTimeToLive = 60000;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+    private final AtomicLong ivCounter = new AtomicLong();
+
+    private final Object lock = new Object();
+
+    /** Slot of each cached user's password, oldest first. */
+    private final LinkedHashMap<String, Integer> slots = new LinkedHashMap<String, Integer>();
+    /** Slot of each password whose user has no TGT, oldest, so first to expire, first. */
+    private final LinkedHashMap<String, Integer> pending = new LinkedHashMap<String, Integer>();
+    /** Username of each live TGT. */
+    private final Map<String, String> ticketUsers = new HashMap<String, String>();
+    /** Number of live TGTs of each user. */
+    private final Map<String, Integer> userTickets = new HashMap<String, Integer>();
+
+    private int[] freeSlots;
+    private int freeSlotCount;
+    private long[] storedAt;
+    private ByteBuffer store;
+    private int slotSize;
+    private byte[] emptySlot;
+    private SecretKey key;
+    private byte[] ivPrefix;
+
+    private final ThreadLocal<Cipher> ciphers =
+            new ThreadLocal<Cipher>() {
+                @Override
+                protected Cipher initialValue() {
+                    try {
+                        return Cipher.getInstance(TRANSFORMATION);
+                    } catch (GeneralSecurityException e) {
+                        throw new IllegalStateException(TRANSFORMATION + " is not available", e);
+                    }
+                }
+            };
+
+    /** @param capacity Maximum number of passwords cached, defaults to 100000. */
+    public void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Longest password, in UTF-8 bytes, that can be cached, defaults to 128. Every slot is sized
+     * for it; longer passwords are not cached and ClearPass is unavailable to their users.
+     *
+     * @param maxPasswordLength
+     */
+    public void setMaxPasswordLength(int maxPasswordLength) {
+        if (maxPasswordLength < 1 || maxPasswordLength > 0xFFFF - TAG_BYTES) {
+            throw new IllegalArgumentException("maxPasswordLength must be from 1 to 65519");
+        }
+        this.maxPasswordLength = maxPasswordLength;
+    }
+
+    /**
+     * Milliseconds a password is kept while its user has no TGT, defaults to 60000. Passwords are
+     * cached during authentication, just before the TGT is created.
+     *
+     * @param pendingTimeToLive
+     */
+    public void setPendingTimeToLive(long pendingTimeToLive) {
+        this.pendingTimeToLive = pendingTimeToLive;
+    }
+
+    /**
+     * Allocates the store and generates the key.
+     *
+     * @throws GeneralSecurityException if AES is not available
+     */
+    public void afterPropertiesSet() throws GeneralSecurityException {
+        this.slotSize = LENGTH_BYTES + IV_BYTES + this.maxPasswordLength + TAG_BYTES;
+        if ((long) this.slotSize * this.capacity > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "capacity * maxPasswordLength must fit a single 2GB buffer");
+        }
+
+        final SecureRandom random = new SecureRandom();
+        final KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(128, random);
+        final byte[] ivPrefix = new byte[IV_BYTES - 8];
+        random.nextBytes(ivPrefix);
+
+        synchronized (this.lock) {
+            this.key = keyGenerator.generateKey();
+            this.ivPrefix = ivPrefix;
+            this.store = ByteBuffer.allocateDirect(this.slotSize * this.capacity);
+            this.emptySlot = new byte[this.slotSize];
+            this.storedAt = new long[this.capacity];
+            this.freeSlots = new int[this.capacity];
+            for (int slot = 0; slot < this.capacity; slot++) {
+                this.freeSlots[slot] = this.capacity - 1 - slot;
+            }
+            this.freeSlotCount = this.capacity;
+            this.slots.clear();
+            this.pending.clear();
+        }
+    }
+
+    /**
+     * Caches the user's password. It is kept for {@link #setPendingTimeToLive(long)} milliseconds
+     * unless the user has, or is given within that time, a TGT.
+     *
+     * @param username the user whose password it is
+     * @param password the password, not cached if longer than {@link #setMaxPasswordLength(int)}
+     * @return null
+     */
+    public String put(String username, String password) {
+        if (username == null || password == null) {
+            throw new IllegalArgumentException("username and password cannot be null");
+        }
+        final byte[] plaintext = password.getBytes(UTF_8);
+        if (plaintext.length > this.maxPasswordLength) {
+            Arrays.fill(plaintext, (byte) 0);
+            this.rejections.incrementAndGet();
+            this.log.warn(
+                    "Password of {} is longer than {} bytes and was not cached for ClearPass",
+                    username,
+                    this.maxPasswordLength);
+            return null;
+        }
+
+        final byte[] iv = this.nextIv();
+        final byte[] ciphertext;
+        try {
+            final Cipher cipher = this.ciphers.get();
+            cipher.init(Cipher.ENCRYPT_MODE, this.key, new GCMParameterSpec(TAG_BYTES * 8, iv));
+            cipher.updateAAD(username.getBytes(UTF_8));
+            ciphertext = cipher.doFinal(plaintext);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to encrypt the password of " + username, e);
+        } finally {
+            Arrays.fill(plaintext, (byte) 0);
+        }
+
+        final long now = this.currentTimeMillis();
+        synchronized (this.lock) {
+            this.expirePending(now);
+            Integer slot = this.removeSlot(username);
+            if (slot == null && this.freeSlotCount > 0) {
+                slot = this.freeSlots[--this.freeSlotCount];
+            }
+            if (slot == null) {
+                // a login that has not got its TGT yet, rather than a live session, if possible
+                final String eldest =
+                        (this.pending.isEmpty() ? this.slots : this.pending)
+                                .keySet()
+                                .iterator()
+                                .next();
+                slot = this.removeSlot(eldest);
+                this.evictions.incrementAndGet();
+            }
+            this.store.position(slot * this.slotSize);
+            this.store.putShort((short) ciphertext.length);
+            this.store.put(iv);
+            this.store.put(ciphertext);
+            this.storedAt[slot] = now;
+            this.slots.put(username, slot);
+            if (!this.userTickets.containsKey(username)) {
+                this.pending.put(username, slot);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param username user to look up
+     * @return the user's password, or null if none is cached
+     */
+    public String get(Object username) {
+        final byte[] iv = new byte[IV_BYTES];
+        final byte[] ciphertext;
+        final long now = this.currentTimeMillis();
+        synchronized (this.lock) {
+            final Integer slot = this.liveSlot(username, now);
+            if (slot == null) {
+                this.misses.incrementAndGet();
+                return null;
+            }
+            this.store.position(slot * this.slotSize);
+            ciphertext = new byte[this.store.getShort() & 0xFFFF];
+            this.store.get(iv);
+            this.store.get(ciphertext);
+        }
+
+        final byte[] plaintext;
+        try {
+            final Cipher cipher = this.ciphers.get();
+            cipher.init(Cipher.DECRYPT_MODE, this.key, new GCMParameterSpec(TAG_BYTES * 8, iv));
+            cipher.updateAAD(((String) username).getBytes(UTF_8));
+            plaintext = cipher.doFinal(ciphertext);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to decrypt the password of " + username, e);
+        }
+        this.hits.incrementAndGet();
+        final String password = new String(plaintext, UTF_8);
+        Arrays.fill(plaintext, (byte) 0);
+        return password;
+    }
+
+    /**
+     * Drops the user's password.
+     *
+     * @param username user whose password to drop
+     * @return null
+     */
+    public String remove(Object username) {
+        synchronized (this.lock) {
+            this.free(this.removeSlot(username));
+        }
+        return null;
+    }
+
+    /**
+     * Records that a TGT was granted to the user, keeping the user's password until it is deleted.
+     *
+     * @param ticketId id of the TGT
+     * @param username user the TGT was granted to
+     */
+    public void addTicket(String ticketId, String username) {
+        synchronized (this.lock) {
+            final Integer count = this.userTickets.get(username);
+            this.userTickets.put(username, count == null ? 1 : count + 1);
+            this.pending.remove(username);
+            final String previous = this.ticketUsers.put(ticketId, username);
+            if (previous != null) {
+                this.releaseTicket(previous);
+            }
+        }
+    }
+
+    /**
+     * Records that a ticket was deleted. The password of the user it was granted to is dropped if
+     * that was the user's last TGT; ids of other tickets are ignored.
+     *
+     * @param ticketId id of the ticket
+     */
+    public void removeTicket(String ticketId) {
+        synchronized (this.lock) {
+            final String username = this.ticketUsers.remove(ticketId);
+            if (username != null) {
+                this.releaseTicket(username);
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Map#containsKey(java.lang.Object)
+     */
+    public boolean containsKey(Object username) {
+        synchronized (this.lock) {
+            return this.liveSlot(username, this.currentTimeMillis()) != null;
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Map#putAll(java.util.Map)
+     */
+    public void putAll(Map<? extends String, ? extends String> passwords) {
+        for (final Map.Entry<? extends String, ? extends String> entry : passwords.entrySet()) {
+            this.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /** Drops every password and forgets every TGT. */
+    public void clear() {
+        synchronized (this.lock) {
+            for (final Integer slot : this.slots.values()) {
+                this.free(slot);
+            }
+            this.slots.clear();
+            this.pending.clear();
+            this.ticketUsers.clear();
+            this.userTickets.clear();
+        }
+    }
+
+    /** @return number of passwords cached */
+    public int size() {
+        synchronized (this.lock) {
+            this.expirePending(this.currentTimeMillis());
+            return this.slots.size();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Map#isEmpty()
+     */
+    public boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    /** @throws UnsupportedOperationException always, passwords are only looked up by username */
+    public boolean containsValue(Object value) {
+        throw new UnsupportedOperationException();
+    }
+
+    /** @throws UnsupportedOperationException always, passwords are only looked up by username */
+    public Set<String> keySet() {
+        throw new UnsupportedOperationException();
+    }
+
+    /** @throws UnsupportedOperationException always, passwords are only looked up by username */
+    public Collection<String> values() {
+        throw new UnsupportedOperationException();
+    }
+
+    /** @throws UnsupportedOperationException always, passwords are only looked up by username */
+    public Set<Map.Entry<String, String>> entrySet() {
+        throw new UnsupportedOperationException();
+    }
+
+    /** @return maximum number of passwords cached */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /** @return bytes of direct memory the store takes */
+    public long getStoreSize() {
+        return (long) this.slotSize * this.capacity;
+    }
+
+    /** @return number of live TGTs the cache knows about */
+    public int getTicketCount() {
+        synchronized (this.lock) {
+            return this.ticketUsers.size();
+        }
+    }
+
+    /** @return number of lookups that found a password */
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    /** @return number of lookups that found no password */
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    /** @return number of passwords dropped, before their TGTs, because the cache was full */
+    public long getEvictionCount() {
+        return this.evictions.get();
+    }
+
+    /** @return number of passwords dropped because no TGT followed them in time */
+    public long getExpirationCount() {
+        return this.expirations.get();
+    }
+
+    /** @return number of passwords not cached because they were too long */
+    public long getRejectionCount() {
+        return this.rejections.get();
+    }
+
+    /** Overridable for tests that need to control the expiration of pending passwords. */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /** @return the user's slot, or null if there is none or it is pending and too old */
+    private Integer liveSlot(Object username, long now) {
+        final Integer slot = this.slots.get(username);
+        if (slot == null
+                || !this.pending.containsKey(username)
+                || now - this.storedAt[slot] < this.pendingTimeToLive) {
+            return slot;
+        }
+        this.free(this.removeSlot(username));
+        this.expirations.incrementAndGet();
+        return null;
+    }
+
+    /** Drops the pending passwords that are past their time to live. */
+    private void expirePending(long now) {
+        final Iterator<Map.Entry<String, Integer>> oldest = this.pending.entrySet().iterator();
+        while (oldest.hasNext()) {
+            final Map.Entry<String, Integer> entry = oldest.next();
+            if (now - this.storedAt[entry.getValue()] < this.pendingTimeToLive) {
+                break;
+            }
+            oldest.remove();
+            this.slots.remove(entry.getKey());
+            this.free(entry.getValue());
+            this.expirations.incrementAndGet();
+        }
+    }
+
+    /** @return the user's slot, no longer in use, or null if the user had none */
+    private Integer removeSlot(Object username) {
+        this.pending.remove(username);
+        return this.slots.remove(username);
+    }
+
+    private void releaseTicket(String username) {
+        final int count = this.userTickets.remove(username) - 1;
+        if (count > 0) {
+            this.userTickets.put(username, count);
+        } else {
+            this.free(this.removeSlot(username));
+        }
+    }
+
+    private void free(Integer slot) {
+        if (slot != null) {
+            this.store.position(slot * this.slotSize);
+            this.store.put(this.emptySlot);
+            this.freeSlots[this.freeSlotCount++] = slot;
+        }
+    }
+
+    /** @return a unique IV, the random prefix followed by a counter */
+    private byte[] nextIv() {
+        final ByteBuffer iv = ByteBuffer.allocate(IV_BYTES);
+        iv.put(this.ivPrefix).putLong(this.ivCounter.incrementAndGet());
+        return iv.array();
+    }
+}
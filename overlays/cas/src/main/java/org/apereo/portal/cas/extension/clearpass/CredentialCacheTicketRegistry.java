@@ -0,0 +1,96 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.extension.clearpass;
+
+import java.util.Collection;
+import javax.validation.constraints.NotNull;
+import org.jasig.cas.monitor.TicketRegistryState;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.AbstractTicketRegistry;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+
+/**
+ * Ticket registry decorator that tells a {@link CredentialCache} about every ticket granting ticket
+ * added and deleted, so each cached password lives exactly as long as its user's TGTs. It
+ * replaces the ClearPass TicketRegistryDecorator, which drops a user's password with whichever TGT
+ * is deleted first, even if the user has logged in again since. Expired TGTs must be deleted
+ * through this registry, not the one it wraps, for their passwords to go with them.
+ *
+ * <p>Session and service ticket counts are passed through from the wrapped registry.
+ *
+ */
+public class CredentialCacheTicketRegistry extends AbstractTicketRegistry {
+    @NotNull private TicketRegistry ticketRegistry;
+    @NotNull private CredentialCache credentialCache;
+
+    /** @param ticketRegistry registry that holds the tickets */
+    public void setTicketRegistry(TicketRegistry ticketRegistry) {
+        this.ticketRegistry = ticketRegistry;
+    }
+
+    /** @param credentialCache cache to report TGTs to */
+    public void setCredentialCache(CredentialCache credentialCache) {
+        this.credentialCache = credentialCache;
+    }
+
+    public void addTicket(Ticket ticket) {
+        this.ticketRegistry.addTicket(ticket);
+        // proxy granting tickets are TGTs too, but ClearPass only caches the user's own login
+        if (ticket instanceof TicketGrantingTicket && ticket.getGrantingTicket() == null) {
+            final TicketGrantingTicket ticketGrantingTicket = (TicketGrantingTicket) ticket;
+            this.credentialCache.addTicket(
+                    ticket.getId(),
+                    ticketGrantingTicket.getAuthentication().getPrincipal().getId());
+        }
+    }
+
+    public Ticket getTicket(String ticketId) {
+        return this.ticketRegistry.getTicket(ticketId);
+    }
+
+    public boolean deleteTicket(String ticketId) {
+        if (ticketId != null) {
+            this.credentialCache.removeTicket(ticketId);
+        }
+        return this.ticketRegistry.deleteTicket(ticketId);
+    }
+
+    public Collection<Ticket> getTickets() {
+        return this.ticketRegistry.getTickets();
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.cas.ticket.registry.AbstractTicketRegistry#sessionCount()
+     */
+    @Override
+    public int sessionCount() {
+        if (this.ticketRegistry instanceof TicketRegistryState) {
+            return ((TicketRegistryState) this.ticketRegistry).sessionCount();
+        }
+        return super.sessionCount();
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.cas.ticket.registry.AbstractTicketRegistry#serviceTicketCount()
+     */
+    @Override
+    public int serviceTicketCount() {
+        if (this.ticketRegistry instanceof TicketRegistryState) {
+            return ((TicketRegistryState) this.ticketRegistry).serviceTicketCount();
+        }
+        return super.serviceTicketCount();
+    }
+}
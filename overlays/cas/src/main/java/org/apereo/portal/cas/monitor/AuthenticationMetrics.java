@@ -0,0 +1,353 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.monitor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import org.apereo.portal.cas.authentication.handler.support.VerificationLimiter;
+
+/**
+ * Latency histograms and counters for the stages of a CAS login, shared by the beans that do the
+ * work: the authentication handler, the password lookups and the dataSource. Recording is lock
+ * free and costs a few tens of nanoseconds, so it stays on in production.
+ *
+ * <p>The histograms accumulate from startup, and are published that way in the Prometheus text
+ * format by {@link AuthenticationMetricsRequestHandler} for the scraper to rate. The {@link
+ * #getSummary() summary} reported to the HealthCheckMonitor by {@link
+ * AuthenticationMetricsMonitor} covers recent logins only: the latencies recorded since the
+ * start of the previous {@link #setWindow(long) window}, so between one and two windows when it
+ * is observed at least once a window.
+ *
+ */
+public class AuthenticationMetrics {
+    /** Upper bounds, in seconds, of the latency buckets exported to Prometheus. */
+    private static final String[] BUCKET_BOUNDS = {
+        "0.0001", "0.00025", "0.0005", "0.001", "0.0025", "0.005", "0.01", "0.025", "0.05", "0.1",
+        "0.25", "0.5", "1", "2.5", "5", "10"
+    };
+
+    /** Timed stages of a login. */
+    public enum Stage {
+        /** The whole of the authentication handler's check. */
+        AUTHENTICATION,
+        /** Finding the user's password hash, through any caches. */
+        PASSWORD_LOOKUP,
+        /** The UP_PERSON_DIR query behind the password lookup. */
+        PASSWORD_QUERY,
+        /** Waiting for a connection from the dataSource pool. */
+        POOL_WAIT,
+        /** Waiting for a turn to hash the password while verifications are limited. */
+        VERIFICATION_WAIT,
+        /** Hashing the presented password and comparing it. */
+        PASSWORD_HASH
+    }
+
+    /** Hash algorithms of the stored passwords that logins were checked against. */
+    public enum HashAlgorithm {
+        MD5,
+        SHA256,
+        UNSUPPORTED
+    }
+
+    /** Why a login was refused. */
+    public enum FailureReason {
+        UNKNOWN_USER,
+        BAD_PASSWORD,
+        UNSUPPORTED_HASH,
+        /** Too many passwords were being verified, the user was asked to try again. */
+        OVERLOADED,
+        /** The username or client address had failed too often recently. */
+        THROTTLED,
+        ERROR
+    }
+
+    private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+    private final LongAdder[] hashAlgorithms = adders(HashAlgorithm.values().length);
+    private final LongAdder[] failures = adders(FailureReason.values().length);
+
+    private VerificationLimiter verificationLimiter;
+
+    private long window = 60000;
+
+    private final Object windowLock = new Object();
+    /** Snapshots at the start of the previous and of the current window, by stage ordinal. */
+    private LatencyHistogram.Snapshot[] previousWindowStart;
+    private LatencyHistogram.Snapshot[] windowStart;
+    private long windowStartTime;
+
+    public AuthenticationMetrics() {
+        for (int i = 0; i < this.stages.length; i++) {
+            this.stages[i] = new LatencyHistogram();
+        }
+    }
+
+    /** @param verificationLimiter limiter whose queue and rejections are reported, optional */
+    public void setVerificationLimiter(VerificationLimiter verificationLimiter) {
+        this.verificationLimiter = verificationLimiter;
+    }
+
+    /**
+     * Milliseconds of recent latencies the summary reports on, defaults to 60000.
+     *
+     * @param window
+     */
+    public void setWindow(long window) {
+        this.window = window;
+    }
+
+    /**
+     * @param stage the stage that ran
+     * @param startNanos {@link System#nanoTime()} when it started
+     */
+    public void recordSince(Stage stage, long startNanos) {
+        this.stages[stage.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @param stage the stage that ran
+     * @param nanos how long it took
+     */
+    public void record(Stage stage, long nanos) {
+        this.stages[stage.ordinal()].record(nanos);
+    }
+
+    /** @param algorithm algorithm of a stored hash a password was checked against */
+    public void countHashAlgorithm(HashAlgorithm algorithm) {
+        this.hashAlgorithms[algorithm.ordinal()].increment();
+    }
+
+    /** @param reason why a login was refused */
+    public void countFailure(FailureReason reason) {
+        this.failures[reason.ordinal()].increment();
+    }
+
+    /** @return the histogram of the stage, accumulated since startup */
+    public LatencyHistogram getHistogram(Stage stage) {
+        return this.stages[stage.ordinal()];
+    }
+
+    /** @return the stage's latencies since the start of the previous window */
+    public LatencyHistogram.Snapshot getRecentSnapshot(Stage stage) {
+        return this.recentSnapshots()[stage.ordinal()];
+    }
+
+    /** @return number of passwords checked against hashes of the algorithm */
+    public long getHashAlgorithmCount(HashAlgorithm algorithm) {
+        return this.hashAlgorithms[algorithm.ordinal()].sum();
+    }
+
+    /** @return number of logins refused for the reason */
+    public long getFailureCount(FailureReason reason) {
+        return this.failures[reason.ordinal()].sum();
+    }
+
+    /**
+     * Write every metric in the Prometheus text exposition format. Latencies are histograms in
+     * seconds accumulated since startup, with buckets from 100us to 10s; a value within about 3%
+     * of a bucket's bound may be counted in the next bucket up.
+     *
+     * @param out where to write
+     */
+    public void writeText(Writer out) throws IOException {
+        out.write("# HELP cas_authentication_stage_seconds Latency of the stages of a login.\n");
+        out.write("# TYPE cas_authentication_stage_seconds histogram\n");
+        for (final Stage stage : Stage.values()) {
+            final LatencyHistogram.Snapshot snapshot = this.getHistogram(stage).snapshot();
+            final String label = "stage=\"" + name(stage) + "\"";
+            for (final String bound : BUCKET_BOUNDS) {
+                final long nanos = Math.round(Double.parseDouble(bound) * 1e9);
+                out.write("cas_authentication_stage_seconds_bucket{");
+                out.write(label);
+                out.write(",le=\"" + bound + "\"} ");
+                out.write(Long.toString(snapshot.getCountAtOrBelow(nanos)));
+                out.write('\n');
+            }
+            out.write("cas_authentication_stage_seconds_bucket{" + label + ",le=\"+Inf\"} ");
+            out.write(Long.toString(snapshot.getCount()));
+            out.write('\n');
+            out.write("cas_authentication_stage_seconds_sum{" + label + "} ");
+            out.write(seconds(snapshot.getSum()));
+            out.write('\n');
+            out.write("cas_authentication_stage_seconds_count{" + label + "} ");
+            out.write(Long.toString(snapshot.getCount()));
+            out.write('\n');
+        }
+
+        out.write(
+                "# HELP cas_authentication_hash_algorithm_total Passwords checked by hash type.\n");
+        out.write("# TYPE cas_authentication_hash_algorithm_total counter\n");
+        for (final HashAlgorithm algorithm : HashAlgorithm.values()) {
+            out.write("cas_authentication_hash_algorithm_total{algorithm=\"" + name(algorithm));
+            out.write("\"} " + this.getHashAlgorithmCount(algorithm) + "\n");
+        }
+
+        out.write("# HELP cas_authentication_failures_total Refused logins by reason.\n");
+        out.write("# TYPE cas_authentication_failures_total counter\n");
+        for (final FailureReason reason : FailureReason.values()) {
+            out.write("cas_authentication_failures_total{reason=\"" + name(reason));
+            out.write("\"} " + this.getFailureCount(reason) + "\n");
+        }
+
+        final VerificationLimiter limiter = this.verificationLimiter;
+        if (limiter != null) {
+            writeMetric(
+                    out,
+                    "cas_authentication_verification_active",
+                    "gauge",
+                    "Passwords being hashed now.",
+                    limiter.getActiveCount());
+            writeMetric(
+                    out,
+                    "cas_authentication_verification_queue_depth",
+                    "gauge",
+                    "Passwords waiting for a turn to be hashed.",
+                    limiter.getQueueDepth());
+            writeMetric(
+                    out,
+                    "cas_authentication_verification_rejected_total",
+                    "counter",
+                    "Verifications refused because the queue was full.",
+                    limiter.getRejectedCount());
+            writeMetric(
+                    out,
+                    "cas_authentication_verification_timed_out_total",
+                    "counter",
+                    "Verifications refused after waiting too long for a turn.",
+                    limiter.getTimedOutCount());
+        }
+    }
+
+    /**
+     * @return one line summary of the recent stage latencies, and the hash mix and failures since
+     *     startup
+     */
+    public String getSummary() {
+        final StringBuilder summary = new StringBuilder();
+        final LatencyHistogram.Snapshot[] recent = this.recentSnapshots();
+        for (final Stage stage : Stage.values()) {
+            final LatencyHistogram.Snapshot snapshot = recent[stage.ordinal()];
+            if (snapshot.getCount() == 0) {
+                continue;
+            }
+            summary.append(name(stage))
+                    .append(" p50=")
+                    .append(millis(snapshot.getValueAtQuantile(0.5)))
+                    .append(" p99=")
+                    .append(millis(snapshot.getValueAtQuantile(0.99)))
+                    .append(" max=")
+                    .append(millis(snapshot.getMax()))
+                    .append(" n=")
+                    .append(snapshot.getCount())
+                    .append("; ");
+        }
+        summary.append("hashes");
+        for (final HashAlgorithm algorithm : HashAlgorithm.values()) {
+            summary.append(' ')
+                    .append(name(algorithm))
+                    .append('=')
+                    .append(this.getHashAlgorithmCount(algorithm));
+        }
+        summary.append("; failures");
+        for (final FailureReason reason : FailureReason.values()) {
+            summary.append(' ')
+                    .append(name(reason))
+                    .append('=')
+                    .append(this.getFailureCount(reason));
+        }
+
+        final VerificationLimiter limiter = this.verificationLimiter;
+        if (limiter != null) {
+            summary.append("; verification active=")
+                    .append(limiter.getActiveCount())
+                    .append('/')
+                    .append(limiter.getMaxConcurrent())
+                    .append(" queued=")
+                    .append(limiter.getQueueDepth())
+                    .append(" rejected=")
+                    .append(limiter.getRejectedCount())
+                    .append(" timedout=")
+                    .append(limiter.getTimedOutCount());
+        }
+        return summary.toString();
+    }
+
+    /** Overridable for tests that need to control the window. */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /** @return each stage's latencies since the start of the previous window, by ordinal */
+    private LatencyHistogram.Snapshot[] recentSnapshots() {
+        final long now = this.currentTimeMillis();
+        final LatencyHistogram.Snapshot[] current =
+                new LatencyHistogram.Snapshot[this.stages.length];
+        for (int i = 0; i < current.length; i++) {
+            current[i] = this.stages[i].snapshot();
+        }
+
+        final LatencyHistogram.Snapshot[] start;
+        synchronized (this.windowLock) {
+            if (this.windowStart == null) {
+                // the first window starts at startup
+                this.windowStart = new LatencyHistogram.Snapshot[current.length];
+                for (int i = 0; i < current.length; i++) {
+                    this.windowStart[i] = LatencyHistogram.emptySnapshot();
+                }
+                this.previousWindowStart = this.windowStart;
+                this.windowStartTime = now;
+            } else if (now - this.windowStartTime >= this.window) {
+                this.previousWindowStart = this.windowStart;
+                this.windowStart = current;
+                this.windowStartTime = now;
+            }
+            start = this.previousWindowStart;
+        }
+
+        final LatencyHistogram.Snapshot[] recent = new LatencyHistogram.Snapshot[current.length];
+        for (int i = 0; i < current.length; i++) {
+            recent[i] = current[i].since(start[i]);
+        }
+        return recent;
+    }
+
+    private static void writeMetric(
+            Writer out, String metric, String type, String help, long value) throws IOException {
+        out.write("# HELP " + metric + " " + help + "\n");
+        out.write("# TYPE " + metric + " " + type + "\n");
+        out.write(metric + " " + value + "\n");
+    }
+
+    private static LongAdder[] adders(int size) {
+        final LongAdder[] adders = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static String name(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ENGLISH);
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ENGLISH, "%.2fms", nanos / 1e6);
+    }
+}
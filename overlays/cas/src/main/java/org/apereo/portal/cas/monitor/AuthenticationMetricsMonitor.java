@@ -0,0 +1,71 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.monitor;
+
+import javax.validation.constraints.NotNull;
+import org.jasig.cas.monitor.AbstractNamedMonitor;
+import org.jasig.cas.monitor.Status;
+import org.jasig.cas.monitor.StatusCode;
+
+/**
+ * Reports the login stage latencies, hash algorithm mix and failure reasons recorded in {@link
+ * AuthenticationMetrics} to the HealthCheckMonitor, and so on the /status page, warning when the
+ * 99th percentile of the authentication handler's recent latency exceeds a threshold. The WARN
+ * clears once a slow period has left the metrics' window.
+ *
+ */
+public class AuthenticationMetricsMonitor extends AbstractNamedMonitor<Status> {
+    @NotNull private AuthenticationMetrics authenticationMetrics;
+
+    private long authenticationLatencyWarnThreshold = -1;
+
+    /** @param authenticationMetrics metrics to report */
+    public void setAuthenticationMetrics(AuthenticationMetrics authenticationMetrics) {
+        this.authenticationMetrics = authenticationMetrics;
+    }
+
+    /**
+     * 99th percentile authentication latency, in milliseconds, above which the status is WARN,
+     * defaults to -1 (never warn).
+     *
+     * @param authenticationLatencyWarnThreshold
+     */
+    public void setAuthenticationLatencyWarnThreshold(long authenticationLatencyWarnThreshold) {
+        this.authenticationLatencyWarnThreshold = authenticationLatencyWarnThreshold;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.jasig.cas.monitor.Monitor#observe()
+     */
+    public Status observe() {
+        final String summary = this.authenticationMetrics.getSummary();
+        if (this.authenticationLatencyWarnThreshold >= 0) {
+            final long p99 =
+                    this.authenticationMetrics
+                            .getRecentSnapshot(AuthenticationMetrics.Stage.AUTHENTICATION)
+                            .getValueAtQuantile(0.99);
+            if (p99 > this.authenticationLatencyWarnThreshold * 1000000) {
+                return new Status(
+                        StatusCode.WARN,
+                        summary
+                                + ". Authentication p99 exceeds "
+                                + this.authenticationLatencyWarnThreshold
+                                + "ms.");
+            }
+        }
+        return new Status(StatusCode.OK, summary);
+    }
+}
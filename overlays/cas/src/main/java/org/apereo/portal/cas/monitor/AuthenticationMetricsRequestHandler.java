@@ -0,0 +1,105 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.monitor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.constraints.NotNull;
+import org.springframework.web.HttpRequestHandler;
+
+/**
+ * Serves {@link AuthenticationMetrics} in the Prometheus text exposition format for scrapers. It is
+ * exposed through an HttpRequestHandlerServlet named after this bean, and only answers clients in
+ * the allowed subnet, the same one the /status page is restricted to.
+ *
+ */
+public class AuthenticationMetricsRequestHandler implements HttpRequestHandler {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    @NotNull private AuthenticationMetrics authenticationMetrics;
+
+    private byte[] allowedNetwork;
+    private int allowedPrefixLength;
+
+    /** @param authenticationMetrics metrics to serve */
+    public void setAuthenticationMetrics(AuthenticationMetrics authenticationMetrics) {
+        this.authenticationMetrics = authenticationMetrics;
+    }
+
+    /**
+     * IP address or CIDR subnet, e.g. 127.0.0.1 or 10.1.0.0/16, allowed to read the metrics.
+     * Defaults to the loopback address only.
+     *
+     * @param allowedSubnet
+     */
+    public void setAllowedSubnet(String allowedSubnet) throws UnknownHostException {
+        final int slash = allowedSubnet.indexOf('/');
+        final String address = slash < 0 ? allowedSubnet : allowedSubnet.substring(0, slash);
+        this.allowedNetwork = InetAddress.getByName(address.trim()).getAddress();
+        this.allowedPrefixLength =
+                slash < 0
+                        ? this.allowedNetwork.length * 8
+                        : Integer.parseInt(allowedSubnet.substring(slash + 1).trim());
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.springframework.web.HttpRequestHandler#handleRequest(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    public void handleRequest(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        if (!this.isAllowed(request.getRemoteAddr())) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        response.setContentType(CONTENT_TYPE);
+        response.setHeader("Cache-Control", "no-cache");
+        final Writer out = response.getWriter();
+        this.authenticationMetrics.writeText(out);
+        out.flush();
+    }
+
+    boolean isAllowed(String remoteAddress) {
+        final InetAddress remote;
+        try {
+            // the remote address is numeric, so this does not go to DNS
+            remote = InetAddress.getByName(remoteAddress);
+        } catch (UnknownHostException e) {
+            return false;
+        }
+        if (this.allowedNetwork == null) {
+            return remote.isLoopbackAddress();
+        }
+        final byte[] address = remote.getAddress();
+        if (address.length != this.allowedNetwork.length) {
+            return false;
+        }
+
+        int bits = this.allowedPrefixLength;
+        for (int i = 0; i < address.length && bits > 0; i++, bits -= 8) {
+            final int mask = bits >= 8 ? 0xFF : (0xFF << (8 - bits)) & 0xFF;
+            if ((address[i] & mask) != (this.allowedNetwork[i] & mask)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import javax.validation.constraints.NotNull;
+import org.apereo.portal.cas.extension.clearpass.CredentialCache;
+import org.jasig.cas.monitor.AbstractNamedMonitor;
+import org.jasig.cas.monitor.Status;
+import org.jasig.cas.monitor.StatusCode;
+
+/**
+ * Reports the occupancy of the ClearPass {@link CredentialCache} to the HealthCheckMonitor, warning
+ * when it is nearly full or has had to evict passwords to make room since the previous observation.
+ *
+ */
+public class CredentialCacheMonitor extends AbstractNamedMonitor<Status> {
+    @NotNull private CredentialCache credentialCache;
+
+    private int occupancyWarnThreshold = 90;
+
+    /** Eviction count at the previous observation. */
+    private final AtomicLong observedEvictions = new AtomicLong();
+
+    /** @param credentialCache cache to report on */
+    public void setCredentialCache(CredentialCache credentialCache) {
+        this.credentialCache = credentialCache;
+    }
+
+    /**
+     * Percentage of the capacity in use above which the status is WARN, defaults to 90.
+     *
+     * @param occupancyWarnThreshold
+     */
+    public void setOccupancyWarnThreshold(int occupancyWarnThreshold) {
+        this.occupancyWarnThreshold = occupancyWarnThreshold;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.jasig.cas.monitor.Monitor#observe()
+     */
+    public Status observe() {
+        final int size = this.credentialCache.size();
+        final int capacity = this.credentialCache.getCapacity();
+        final int occupancy = (int) (100L * size / capacity);
+        final long evictions = this.credentialCache.getEvictionCount();
+        final long newEvictions = evictions - this.observedEvictions.getAndSet(evictions);
+
+        final StringBuilder desc = new StringBuilder();
+        desc.append(size).append(" of ").append(capacity).append(" credentials cached (");
+        desc.append(occupancy).append("%) for ");
+        desc.append(this.credentialCache.getTicketCount()).append(" TGTs, ");
+        desc.append(this.credentialCache.getHitCount()).append(" hits, ");
+        desc.append(this.credentialCache.getMissCount()).append(" misses, ");
+        desc.append(evictions).append(" evicted, ");
+        desc.append(this.credentialCache.getExpirationCount()).append(" expired, ");
+        desc.append(this.credentialCache.getRejectionCount()).append(" too long.");
+
+        StatusCode code = StatusCode.OK;
+        if (occupancy > this.occupancyWarnThreshold) {
+            code = StatusCode.WARN;
+            desc.append(" Occupancy exceeds ").append(this.occupancyWarnThreshold).append("%.");
+        }
+        if (newEvictions > 0) {
+            code = StatusCode.WARN;
+            desc.append(' ').append(newEvictions);
+            desc.append(" credentials were evicted because the cache was full.");
+        }
+        return new Status(code, desc.toString());
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.monitor;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * Records how long callers wait for a connection from the target dataSource, which for a pooled
+ * dataSource is the pool wait time, as the {@link AuthenticationMetrics.Stage#POOL_WAIT} stage.
+ *
+ */
+public class InstrumentedDataSource extends DelegatingDataSource {
+    private AuthenticationMetrics authenticationMetrics;
+
+    public InstrumentedDataSource() {}
+
+    /** @param targetDataSource the dataSource to instrument */
+    public InstrumentedDataSource(DataSource targetDataSource) {
+        super(targetDataSource);
+    }
+
+    /** @param authenticationMetrics where the wait times are recorded */
+    public void setAuthenticationMetrics(AuthenticationMetrics authenticationMetrics) {
+        this.authenticationMetrics = authenticationMetrics;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        final long start = System.nanoTime();
+        try {
+            return super.getConnection();
+        } finally {
+            this.record(start);
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        final long start = System.nanoTime();
+        try {
+            return super.getConnection(username, password);
+        } finally {
+            this.record(start);
+        }
+    }
+
+    private void record(long start) {
+        if (this.authenticationMetrics != null) {
+            this.authenticationMetrics.recordSince(AuthenticationMetrics.Stage.POOL_WAIT, start);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds with log-linear buckets in the style of HdrHistogram: each
+ * power of two is split into 32 equal buckets, so a recorded value is reported to within about 3%.
+ * Values from 1ns to about 68s are tracked, longer ones are counted in the last bucket.
+ *
+ * <p>{@link #record(long)} is lock and allocation free, an atomic increment of the value's bucket
+ * plus two {@link LongAdder} updates, so it can be called on every request.
+ *
+ */
+public final class LatencyHistogram {
+    /** log2 of the number of buckets per power of two. */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Largest tracked value is 2^(MAX_EXPONENT + 1) - 1 ns. */
+    private static final int MAX_EXPONENT = 35;
+
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /** @param nanos duration to record, negative values are recorded as 0 */
+    public void record(long nanos) {
+        final long value = nanos < 0 ? 0 : nanos;
+        this.counts.incrementAndGet(bucket(value));
+        this.count.increment();
+        this.sum.add(value);
+
+        long current = this.max.get();
+        while (value > current && !this.max.compareAndSet(current, value)) {
+            current = this.max.get();
+        }
+    }
+
+    /** @return a consistent copy of the bucket counts for reporting */
+    public Snapshot snapshot() {
+        final long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = this.counts.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total, this.sum.sum(), this.max.get());
+    }
+
+    /** @return a snapshot with no values, as of a histogram's creation */
+    public static Snapshot emptySnapshot() {
+        return new Snapshot(new long[BUCKETS], 0, 0, 0);
+    }
+
+    /** @return number of recorded values */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /** @return the largest value that falls into the bucket */
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = bucket / SUB_BUCKETS - 1;
+        final long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /** Point in time copy of a {@link LatencyHistogram}. */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /** @return number of values in the snapshot */
+        public long getCount() {
+            return this.count;
+        }
+
+        /** @return sum of the recorded values in nanoseconds */
+        public long getSum() {
+            return this.sum;
+        }
+
+        /** @return largest recorded value in nanoseconds */
+        public long getMax() {
+            return this.max;
+        }
+
+        /**
+         * @param earlier snapshot of the same histogram taken before this one
+         * @return the values recorded between the two snapshots; its max is the upper bound of
+         *     the highest bucket that gained values, or this snapshot's max if that is lower
+         */
+        public Snapshot since(Snapshot earlier) {
+            final long[] difference = new long[this.counts.length];
+            long total = 0;
+            long highest = 0;
+            for (int i = 0; i < difference.length; i++) {
+                difference[i] = this.counts[i] - earlier.counts[i];
+                total += difference[i];
+                if (difference[i] > 0) {
+                    highest = Math.min(highestValue(i), this.max);
+                }
+            }
+            return new Snapshot(difference, total, this.sum - earlier.sum, highest);
+        }
+
+        /**
+         * @param nanos upper bound
+         * @return number of values in buckets that lie wholly at or below the bound, so values
+         *     within about 3% of it may be left out
+         */
+        public long getCountAtOrBelow(long nanos) {
+            long total = 0;
+            for (int i = 0; i < this.counts.length && highestValue(i) <= nanos; i++) {
+                total += this.counts[i];
+            }
+            return total;
+        }
+
+        /** @return mean of the recorded values in nanoseconds, 0 if there are none */
+        public double getMean() {
+            return this.count == 0 ? 0 : (double) this.sum / this.count;
+        }
+
+        /**
+         * @param quantile between 0 and 1, e.g. 0.99
+         * @return the value in nanoseconds that the given fraction of recorded values are at or
+         *     below, 0 if there are none
+         */
+        public long getValueAtQuantile(double quantile) {
+            if (this.count == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(quantile * this.count));
+            long seen = 0;
+            for (int i = 0; i < this.counts.length; i++) {
+                seen += this.counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), this.max);
+                }
+            }
+            return this.max;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.monitor;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.validation.constraints.NotNull;
+import org.jasig.cas.monitor.AbstractNamedMonitor;
+import org.jasig.cas.monitor.StatusCode;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+
+/**
+ * Reports the live ticket counts of a {@link TicketCountState} registry to the HealthCheckMonitor,
+ * warning when the total exceeds a threshold. Other registries, such as the stock
+ * DefaultTicketRegistry, don't count their tickets by type and are reported as UNKNOWN.
+ *
+ */
+public class TicketCountMonitor extends AbstractNamedMonitor<TicketCountStatus> {
+    @NotNull private TicketRegistry ticketRegistry;
+
+    private int ticketCountWarnThreshold = -1;
+
+    /** @param ticketRegistry registry to report on */
+    public void setTicketRegistry(TicketRegistry ticketRegistry) {
+        this.ticketRegistry = ticketRegistry;
+    }
+
+    /**
+     * Total number of live tickets above which the status is WARN, defaults to -1 (never warn).
+     *
+     * @param ticketCountWarnThreshold
+     */
+    public void setTicketCountWarnThreshold(int ticketCountWarnThreshold) {
+        this.ticketCountWarnThreshold = ticketCountWarnThreshold;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.jasig.cas.monitor.Monitor#observe()
+     */
+    public TicketCountStatus observe() {
+        if (!(this.ticketRegistry instanceof TicketCountState)) {
+            return new TicketCountStatus(
+                    StatusCode.UNKNOWN,
+                    this.ticketRegistry.getClass().getSimpleName()
+                            + " does not count its tickets by type.",
+                    Collections.<String, Integer>emptyMap());
+        }
+        final Map<String, Integer> counts =
+                new TreeMap<String, Integer>(
+                        ((TicketCountState) this.ticketRegistry).getTicketCounts());
+        int total = 0;
+        final StringBuilder desc = new StringBuilder();
+        for (final Map.Entry<String, Integer> count : counts.entrySet()) {
+            total += count.getValue();
+            desc.append(count.getKey()).append('=').append(count.getValue()).append(", ");
+        }
+        desc.append(total).append(" tickets in total.");
+
+        final StatusCode code;
+        if (this.ticketCountWarnThreshold >= 0 && total > this.ticketCountWarnThreshold) {
+            code = StatusCode.WARN;
+            desc.append(" Ticket count exceeds ").append(this.ticketCountWarnThreshold).append('.');
+        } else {
+            code = StatusCode.OK;
+        }
+        return new TicketCountStatus(code, desc.toString(), counts);
+    }
+}
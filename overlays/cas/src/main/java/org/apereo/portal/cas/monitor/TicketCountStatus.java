@@ -0,0 +1,43 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.monitor;
+
+import java.util.Collections;
+import java.util.Map;
+import org.jasig.cas.monitor.Status;
+import org.jasig.cas.monitor.StatusCode;
+
+/**
+ * Status of a ticket registry that includes its live ticket counts by type.
+ *
+ */
+public class TicketCountStatus extends Status {
+    private final Map<String, Integer> ticketCounts;
+
+    /**
+     * @param code status code
+     * @param desc human readable description
+     * @param ticketCounts live ticket count keyed by ticket type
+     */
+    public TicketCountStatus(StatusCode code, String desc, Map<String, Integer> ticketCounts) {
+        super(code, desc);
+        this.ticketCounts = Collections.unmodifiableMap(ticketCounts);
+    }
+
+    /** @return live ticket count keyed by ticket type */
+    public Map<String, Integer> getTicketCounts() {
+        return this.ticketCounts;
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.monitor;
+
+import java.util.Map;
+import javax.validation.constraints.NotNull;
+import org.apereo.portal.cas.warmup.StartupWarmUp;
+import org.jasig.cas.monitor.AbstractNamedMonitor;
+import org.jasig.cas.monitor.Status;
+import org.jasig.cas.monitor.StatusCode;
+
+/**
+ * Reports the {@link StartupWarmUp} to the HealthCheckMonitor: ERROR, and so an unhealthy /status,
+ * until the warm-up has completed, then how long each bean took and WARN if any of them failed.
+ *
+ */
+public class WarmUpMonitor extends AbstractNamedMonitor<Status> {
+    @NotNull private StartupWarmUp startupWarmUp;
+
+    /** @param startupWarmUp warm-up to report */
+    public void setStartupWarmUp(StartupWarmUp startupWarmUp) {
+        this.startupWarmUp = startupWarmUp;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.jasig.cas.monitor.Monitor#observe()
+     */
+    public Status observe() {
+        if (!this.startupWarmUp.isComplete()) {
+            return new Status(StatusCode.ERROR, "Warming up.");
+        }
+
+        final StringBuilder desc = new StringBuilder("Warmed up ");
+        final Map<String, Long> durations = this.startupWarmUp.getDurations();
+        if (durations.isEmpty()) {
+            desc.append("nothing");
+        }
+        String separator = "";
+        for (final Map.Entry<String, Long> duration : durations.entrySet()) {
+            desc.append(separator).append(duration.getKey());
+            desc.append(" (").append(duration.getValue()).append("ms)");
+            separator = ", ";
+        }
+        desc.append('.');
+
+        final Map<String, String> failures = this.startupWarmUp.getFailures();
+        if (failures.isEmpty()) {
+            return new Status(StatusCode.OK, desc.toString());
+        }
+        for (final Map.Entry<String, String> failure : failures.entrySet()) {
+            desc.append(' ').append(failure.getKey()).append(" failed: ");
+            desc.append(failure.getValue()).append('.');
+        }
+        return new Status(StatusCode.WARN, desc.toString());
+    }
+}
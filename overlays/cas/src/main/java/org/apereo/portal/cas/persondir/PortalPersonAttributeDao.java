@@ -0,0 +1,410 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.persondir;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+import org.apereo.portal.cas.authentication.handler.support.UserPasswordDao;
+import org.apereo.portal.cas.monitor.AuthenticationMetrics;
+import org.jasig.services.persondir.IPersonAttributes;
+import org.jasig.services.persondir.support.AbstractDefaultAttributePersonAttributeDao;
+import org.jasig.services.persondir.support.NamedPersonImpl;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+/**
+ * Person attributes of uPortal local accounts, read from UP_PERSON_DIR, UP_PERSON_ATTR and
+ * UP_PERSON_ATTR_VALUES with one query per user, and kept in a bounded cache so that principal
+ * resolution does not go back to the database on every login.
+ *
+ * <p>The same query returns the account's password hash, so this is also a {@link
+ * UserPasswordDao}: when the authentication handler looks up a password through it, the principal
+ * resolver that follows finds the person's attributes already cached, and a login costs one
+ * database round trip. Password hashes are never answered from this cache, every password lookup
+ * queries the database, so how long a changed password takes to be seen is up to whatever caches
+ * in front of this DAO.
+ *
+ * <p>Entries expire after {@link #setTimeToLive(long)} milliseconds. {@link #refresh()}, run on a
+ * schedule more often than that, reloads every user looked up since the previous refresh in
+ * batches of {@link #setBatchSize(int)}, so active users keep finding their entries cached.
+ *
+ */
+public class PortalPersonAttributeDao extends AbstractDefaultAttributePersonAttributeDao
+        implements UserPasswordDao {
+    private static final String PERSON_QUERY =
+            "SELECT D.USER_NAME, D.ENCRPTD_PSWD, A.ATTR_NAME, V.ATTR_VALUE "
+                    + "FROM UP_PERSON_DIR D "
+                    + "LEFT OUTER JOIN UP_PERSON_ATTR A ON A.USER_DIR_ID = D.USER_DIR_ID "
+                    + "LEFT OUTER JOIN UP_PERSON_ATTR_VALUES V ON V.USER_ATTR_ID = A.USER_ATTR_ID "
+                    + "WHERE D.USER_NAME ";
+
+    private static final String PERSON_ORDER = " ORDER BY V.VALUE_ORDER";
+
+    private static final String ATTRIBUTE_NAMES_QUERY =
+            "SELECT DISTINCT ATTR_NAME FROM UP_PERSON_ATTR";
+
+    private JdbcTemplate jdbcTemplate;
+    private AuthenticationMetrics authenticationMetrics;
+
+    private int maxSize = 10000;
+    private long timeToLive = 300000;
+    private long negativeTimeToLive = 10000;
+    private int batchSize = 100;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private volatile long lastRefresh;
+
+    /** Incremented by every invalidation, guarded by the cache. */
+    private long generation;
+
+    private final Map<String, CacheEntry> cache =
+            new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                    return size() > maxSize;
+                }
+            };
+
+    /** @param dataSource the dataSource holding the uPortal person directory tables */
+    public void setDataSource(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    /** @param authenticationMetrics where query latencies are recorded, optional */
+    public void setAuthenticationMetrics(AuthenticationMetrics authenticationMetrics) {
+        this.authenticationMetrics = authenticationMetrics;
+    }
+
+    /** @param maxSize Maximum number of usernames (found or not) to keep, defaults to 10000. */
+    public void setMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /** @param timeToLive Milliseconds a found person is cached for, defaults to 300000. */
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * @param negativeTimeToLive Milliseconds the absence of a user is cached for, defaults to
+     *     10000. Set to 0 to disable negative caching.
+     */
+    public void setNegativeTimeToLive(long negativeTimeToLive) {
+        this.negativeTimeToLive = negativeTimeToLive;
+    }
+
+    /** @param batchSize Number of users {@link #refresh()} loads per query, defaults to 100. */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apereo.portal.cas.authentication.handler.support.UserPasswordDao#getPasswordHash(java.lang.String)
+     */
+    public String getPasswordHash(String userName) {
+        final Map<String, String> passwordHashes = new HashMap<String, String>(2);
+        this.query(userName, this.currentTimeMillis(), passwordHashes);
+        return passwordHashes.get(userName);
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.services.persondir.IPersonAttributeDao#getPeopleWithMultivaluedAttributes(java.util.Map)
+     */
+    public Set<IPersonAttributes> getPeopleWithMultivaluedAttributes(
+            Map<String, List<Object>> query) {
+        final String userName = this.getUsernameAttributeProvider().getUsernameFromQuery(query);
+        if (userName == null) {
+            // only lookups by username are supported
+            return null;
+        }
+
+        final IPersonAttributes person = this.lookup(userName).person;
+        if (person == null) {
+            return Collections.emptySet();
+        }
+        return Collections.singleton(person);
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.services.persondir.IPersonAttributeDao#getPossibleUserAttributeNames()
+     */
+    public Set<String> getPossibleUserAttributeNames() {
+        final Set<String> names = new LinkedHashSet<String>();
+        names.add(this.getUsernameAttributeProvider().getUsernameAttribute());
+        names.addAll(this.jdbcTemplate.queryForList(ATTRIBUTE_NAMES_QUERY, String.class));
+        return names;
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.services.persondir.IPersonAttributeDao#getAvailableQueryAttributes()
+     */
+    public Set<String> getAvailableQueryAttributes() {
+        return Collections.singleton(this.getUsernameAttributeProvider().getUsernameAttribute());
+    }
+
+    /**
+     * Reload every user looked up since the previous refresh, in batches, so that their entries
+     * are replaced before they expire. Schedule this more often than the time to live.
+     */
+    public void refresh() {
+        final long now = this.currentTimeMillis();
+        final long since = this.lastRefresh;
+        this.lastRefresh = now;
+
+        final List<String> active = new ArrayList<String>();
+        long refreshGeneration;
+        synchronized (this.cache) {
+            refreshGeneration = this.generation;
+            for (final Map.Entry<String, CacheEntry> entry : this.cache.entrySet()) {
+                if (entry.getValue().lastAccess >= since) {
+                    active.add(entry.getKey());
+                }
+            }
+        }
+
+        for (int i = 0; i < active.size(); i += this.batchSize) {
+            final List<String> batch =
+                    active.subList(i, Math.min(active.size(), i + this.batchSize));
+            final Map<String, CacheEntry> loaded = this.load(batch, now, null);
+            synchronized (this.cache) {
+                if (this.generation != refreshGeneration) {
+                    // the batch may hold a user invalidated since it was read, leave it to expire
+                    refreshGeneration = this.generation;
+                    continue;
+                }
+                for (final Map.Entry<String, CacheEntry> entry : loaded.entrySet()) {
+                    if (entry.getValue().expires <= now) {
+                        this.cache.remove(entry.getKey());
+                        continue;
+                    }
+                    final CacheEntry current = this.cache.get(entry.getKey());
+                    if (current != null) {
+                        // keep the entry live only while it is still being used
+                        entry.getValue().lastAccess = current.lastAccess;
+                    }
+                    this.cache.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        if (this.logger.isDebugEnabled()) {
+            this.logger.debug(
+                    "Refreshed "
+                            + active.size()
+                            + " recently active users in "
+                            + (this.currentTimeMillis() - now)
+                            + "ms");
+        }
+    }
+
+    /**
+     * Remove the cached person for a single user, for example after their attributes change.
+     * People read by lookups or a refresh already in progress are not cached.
+     *
+     * @param userName Name of the user to evict
+     */
+    public void invalidate(String userName) {
+        synchronized (this.cache) {
+            this.cache.remove(userName);
+            this.generation++;
+        }
+    }
+
+    /** @return number of entries currently cached, including expired entries not yet removed */
+    public int getSize() {
+        synchronized (this.cache) {
+            return this.cache.size();
+        }
+    }
+
+    /** @return number of lookups answered from the cache */
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    /** @return number of lookups that queried the database */
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    /** Overridable for tests that need to control entry expiration. */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private CacheEntry lookup(String userName) {
+        final long now = this.currentTimeMillis();
+
+        synchronized (this.cache) {
+            final CacheEntry entry = this.cache.get(userName);
+            if (entry != null) {
+                if (entry.expires > now) {
+                    entry.lastAccess = now;
+                    this.hits.incrementAndGet();
+                    return entry;
+                }
+                this.cache.remove(userName);
+            }
+        }
+
+        return this.query(userName, now, null);
+    }
+
+    /**
+     * Query a single user and cache the result, unless the user was invalidated meanwhile.
+     *
+     * @param passwordHashes if not null, receives the user's password hash
+     */
+    private CacheEntry query(String userName, long now, Map<String, String> passwordHashes) {
+        final long lookupGeneration;
+        synchronized (this.cache) {
+            lookupGeneration = this.generation;
+        }
+
+        this.misses.incrementAndGet();
+        final long start = System.nanoTime();
+        final CacheEntry entry =
+                this.load(Collections.singletonList(userName), now, passwordHashes).get(userName);
+        if (this.authenticationMetrics != null) {
+            this.authenticationMetrics.recordSince(
+                    AuthenticationMetrics.Stage.PASSWORD_QUERY, start);
+        }
+        entry.lastAccess = now;
+        if (entry.expires > now) {
+            synchronized (this.cache) {
+                // a person read before an invalidation may be the one it was meant to remove
+                if (this.generation == lookupGeneration) {
+                    this.cache.put(userName, entry);
+                }
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * @param passwordHashes if not null, receives the password hash of every requested username
+     *     that was found
+     * @return an entry for every requested username, with a null person for unknown users
+     */
+    private Map<String, CacheEntry> load(
+            List<String> userNames, long now, Map<String, String> passwordHashes) {
+        final StringBuilder sql = new StringBuilder(PERSON_QUERY);
+        if (userNames.size() == 1) {
+            sql.append("= ?");
+        } else {
+            sql.append("IN (?");
+            for (int i = 1; i < userNames.size(); i++) {
+                sql.append(", ?");
+            }
+            sql.append(')');
+        }
+        sql.append(PERSON_ORDER);
+
+        final Map<String, String> foundHashes = new HashMap<String, String>();
+        final Map<String, Map<String, List<Object>>> attributes =
+                new HashMap<String, Map<String, List<Object>>>();
+        this.jdbcTemplate.query(
+                sql.toString(),
+                new RowCallbackHandler() {
+                    public void processRow(ResultSet rs) throws SQLException {
+                        final String userName = rs.getString(1);
+                        Map<String, List<Object>> personAttributes = attributes.get(userName);
+                        if (personAttributes == null) {
+                            personAttributes = new LinkedHashMap<String, List<Object>>();
+                            personAttributes.put(
+                                    getUsernameAttributeProvider().getUsernameAttribute(),
+                                    Collections.<Object>singletonList(userName));
+                            attributes.put(userName, personAttributes);
+                            foundHashes.put(userName, rs.getString(2));
+                        }
+
+                        final String name = rs.getString(3);
+                        if (name != null) {
+                            List<Object> values = personAttributes.get(name);
+                            if (values == null) {
+                                values = new ArrayList<Object>();
+                                personAttributes.put(name, values);
+                            }
+                            final String value = rs.getString(4);
+                            if (value != null) {
+                                values.add(value);
+                            }
+                        }
+                    }
+                },
+                userNames.toArray());
+
+        final Map<String, CacheEntry> entries = new HashMap<String, CacheEntry>();
+        for (final String userName : new HashSet<String>(userNames)) {
+            String found = userName;
+            if (!attributes.containsKey(found)) {
+                // the database may match usernames case-insensitively
+                for (final String name : attributes.keySet()) {
+                    if (name.equalsIgnoreCase(userName)) {
+                        found = name;
+                        break;
+                    }
+                }
+            }
+
+            final Map<String, List<Object>> personAttributes = attributes.get(found);
+            if (personAttributes == null) {
+                entries.put(userName, new CacheEntry(null, now + this.negativeTimeToLive));
+            } else {
+                entries.put(
+                        userName,
+                        new CacheEntry(
+                                new NamedPersonImpl(userName, personAttributes),
+                                now + this.timeToLive));
+                if (passwordHashes != null) {
+                    passwordHashes.put(userName, foundHashes.get(found));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static final class CacheEntry {
+        private final IPersonAttributes person;
+        private final long expires;
+        private volatile long lastAccess;
+
+        CacheEntry(IPersonAttributes person, long expires) {
+            this.person = person;
+            this.expires = expires;
+        }
+    }
+}
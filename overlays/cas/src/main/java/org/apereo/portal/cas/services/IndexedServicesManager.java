@@ -0,0 +1,173 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.services;
+
+import com.github.inspektr.audit.annotation.Audit;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.validation.constraints.NotNull;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.services.RegisteredService;
+import org.jasig.cas.services.RegisteredServiceImpl;
+import org.jasig.cas.services.ReloadableServicesManager;
+import org.jasig.cas.services.ServiceRegistryDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Drop-in replacement for CAS's DefaultServicesManagerImpl that answers {@link
+ * #findServiceBy(Service)} from a {@link RegisteredServiceIndex} instead of sorting and scanning
+ * every registered service on each call. The service returned is always the one
+ * DefaultServicesManagerImpl would return: the first, in evaluation order, whose {@code matches}
+ * accepts the service. The index is rebuilt whenever a service is saved or deleted and on reload.
+ *
+ */
+public class IndexedServicesManager implements ReloadableServicesManager {
+    protected final Logger log = LoggerFactory.getLogger(getClass());
+
+    @NotNull private final ServiceRegistryDao serviceRegistryDao;
+
+    private ConcurrentHashMap<Long, RegisteredService> services =
+            new ConcurrentHashMap<Long, RegisteredService>();
+
+    private volatile RegisteredServiceIndex index =
+            new RegisteredServiceIndex(Collections.<RegisteredService>emptyList());
+
+    /** Returned when no services are registered, which allows every service. */
+    private final RegisteredService disabledRegisteredService;
+
+    /** @param serviceRegistryDao where the registered services are stored */
+    public IndexedServicesManager(ServiceRegistryDao serviceRegistryDao) {
+        this(serviceRegistryDao, null);
+    }
+
+    /**
+     * @param serviceRegistryDao where the registered services are stored
+     * @param defaultAttributes attributes released to services when none are registered
+     */
+    public IndexedServicesManager(
+            ServiceRegistryDao serviceRegistryDao, List<String> defaultAttributes) {
+        this.serviceRegistryDao = serviceRegistryDao;
+        this.disabledRegisteredService = constructDefaultRegisteredService(defaultAttributes);
+        this.load();
+    }
+
+    @Transactional(readOnly = false)
+    @Audit(
+            action = "DELETE_SERVICE",
+            actionResolverName = "DELETE_SERVICE_ACTION_RESOLVER",
+            resourceResolverName = "DELETE_SERVICE_RESOURCE_RESOLVER")
+    public synchronized RegisteredService delete(long id) {
+        final RegisteredService r = this.findServiceBy(id);
+        if (r == null) {
+            return null;
+        }
+        this.serviceRegistryDao.delete(r);
+        this.services.remove(id);
+        this.rebuildIndex();
+        return r;
+    }
+
+    @Transactional(readOnly = false)
+    @Audit(
+            action = "SAVE_SERVICE",
+            actionResolverName = "SAVE_SERVICE_ACTION_RESOLVER",
+            resourceResolverName = "SAVE_SERVICE_RESOURCE_RESOLVER")
+    public synchronized RegisteredService save(RegisteredService registeredService) {
+        final RegisteredService r = this.serviceRegistryDao.save(registeredService);
+        this.services.put(r.getId(), r);
+        this.rebuildIndex();
+        return r;
+    }
+
+    public RegisteredService findServiceBy(Service service) {
+        final RegisteredServiceIndex currentIndex = this.index;
+        if (currentIndex.isEmpty()) {
+            return this.disabledRegisteredService;
+        }
+        return currentIndex.findServiceBy(service);
+    }
+
+    public RegisteredService findServiceBy(long id) {
+        final RegisteredService r = this.services.get(id);
+        try {
+            return r == null ? null : (RegisteredService) r.clone();
+        } catch (final CloneNotSupportedException e) {
+            return r;
+        }
+    }
+
+    public Collection<RegisteredService> getAllServices() {
+        return Collections.unmodifiableCollection(this.index.getServices());
+    }
+
+    public boolean matchesExistingService(Service service) {
+        return this.findServiceBy(service) != null;
+    }
+
+    public synchronized void reload() {
+        this.log.info("Reloading registered services.");
+        this.load();
+    }
+
+    /** @return number of registered services located through the URL prefix index */
+    public int getIndexedServiceCount() {
+        return this.index.getIndexedCount();
+    }
+
+    /** @return number of registered services whose pattern is evaluated for every lookup */
+    public int getUnindexedServiceCount() {
+        return this.index.getUnindexedCount();
+    }
+
+    private void load() {
+        final ConcurrentHashMap<Long, RegisteredService> localServices =
+                new ConcurrentHashMap<Long, RegisteredService>();
+        for (final RegisteredService r : this.serviceRegistryDao.load()) {
+            this.log.debug("Adding registered service " + r.getServiceId());
+            localServices.put(r.getId(), r);
+        }
+        this.services = localServices;
+        this.rebuildIndex();
+        this.log.info(
+                "Loaded "
+                        + this.services.size()
+                        + " services, "
+                        + this.index.getUnindexedCount()
+                        + " of which are evaluated for every lookup.");
+    }
+
+    private void rebuildIndex() {
+        this.index = new RegisteredServiceIndex(this.services.values());
+    }
+
+    private static RegisteredService constructDefaultRegisteredService(List<String> attributes) {
+        final RegisteredServiceImpl r = new RegisteredServiceImpl();
+        r.setAllowedToProxy(true);
+        r.setAnonymousAccess(false);
+        r.setEnabled(true);
+        r.setSsoEnabled(true);
+        r.setAllowedAttributes(attributes);
+
+        if (attributes == null || attributes.isEmpty()) {
+            r.setIgnoreAttributes(true);
+        }
+
+        return r;
+    }
+}
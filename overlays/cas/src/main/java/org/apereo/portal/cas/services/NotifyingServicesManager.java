@@ -0,0 +1,123 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.services;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.apereo.portal.cas.warmup.WarmUpTarget;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl;
+import org.jasig.cas.services.RegisteredService;
+import org.jasig.cas.services.ReloadableServicesManager;
+import org.jasig.cas.services.ServicesManager;
+
+/**
+ * {@link ReloadableServicesManager} decorator that tells its {@link ServicesManagerListener}s
+ * whenever a service is saved or deleted or the registry is reloaded. Lookups are passed straight
+ * through to the wrapped ServicesManager.
+ *
+ * <p>As a {@link WarmUpTarget} it compiles the registered services' patterns at startup.
+ *
+ */
+public class NotifyingServicesManager implements ReloadableServicesManager, WarmUpTarget {
+    /** Matched against every registered service to compile its pattern. */
+    private static final Service WARM_UP_SERVICE =
+            new SimpleWebApplicationServiceImpl("https://warm-up.invalid/");
+
+    private final ServicesManager servicesManager;
+
+    private final List<ServicesManagerListener> listeners =
+            new CopyOnWriteArrayList<ServicesManagerListener>();
+
+    /** @param servicesManager the ServicesManager to delegate to */
+    public NotifyingServicesManager(ServicesManager servicesManager) {
+        this.servicesManager = servicesManager;
+    }
+
+    /** @param listeners the listeners to notify of changes, replacing any already registered */
+    public void setListeners(List<ServicesManagerListener> listeners) {
+        this.listeners.clear();
+        if (listeners != null) {
+            this.listeners.addAll(listeners);
+        }
+    }
+
+    /** @param listener an additional listener to notify of changes */
+    public void addListener(ServicesManagerListener listener) {
+        this.listeners.add(listener);
+    }
+
+    public RegisteredService save(RegisteredService registeredService) {
+        try {
+            return this.servicesManager.save(registeredService);
+        } finally {
+            this.fireServicesChanged();
+        }
+    }
+
+    public RegisteredService delete(long id) {
+        try {
+            return this.servicesManager.delete(id);
+        } finally {
+            this.fireServicesChanged();
+        }
+    }
+
+    public RegisteredService findServiceBy(Service service) {
+        return this.servicesManager.findServiceBy(service);
+    }
+
+    public RegisteredService findServiceBy(long id) {
+        return this.servicesManager.findServiceBy(id);
+    }
+
+    public Collection<RegisteredService> getAllServices() {
+        return this.servicesManager.getAllServices();
+    }
+
+    public boolean matchesExistingService(Service service) {
+        return this.servicesManager.matchesExistingService(service);
+    }
+
+    /** Reload the wrapped ServicesManager, if it supports reloading, and notify the listeners. */
+    public void reload() {
+        try {
+            if (this.servicesManager instanceof ReloadableServicesManager) {
+                ((ReloadableServicesManager) this.servicesManager).reload();
+                this.warmUp();
+            }
+        } finally {
+            this.fireServicesChanged();
+        }
+    }
+
+    /**
+     * Compiles the pattern of every registered service, which CAS's RegexRegisteredService does on
+     * its first match, so that the first login to each service does not pay for it. Also run after
+     * every reload, which may replace the registered services.
+     */
+    public void warmUp() {
+        for (final RegisteredService registeredService : this.getAllServices()) {
+            registeredService.matches(WARM_UP_SERVICE);
+        }
+    }
+
+    protected void fireServicesChanged() {
+        for (final ServicesManagerListener listener : this.listeners) {
+            listener.servicesChanged();
+        }
+    }
+}
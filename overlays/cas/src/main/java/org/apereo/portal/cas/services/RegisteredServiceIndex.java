@@ -0,0 +1,421 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.services.RegexRegisteredService;
+import org.jasig.cas.services.RegisteredService;
+
+/**
+ * Immutable lookup structure over a set of registered services that finds the same service as
+ * walking them in their natural (evaluation order) ordering and returning the first that matches.
+ *
+ * <p>The literal text every {@link RegexRegisteredService} pattern must start with, usually its
+ * scheme, host and leading path, is extracted and stored in a character trie, so services for
+ * different schemes and hosts never see each other's requests. Walking the trie along a service URL
+ * yields the few services whose prefix it starts with; those are merged, by rank, with the
+ * services that have no usable prefix and each candidate's own {@link RegisteredService#matches}
+ * makes the final decision. Services of any other type are always candidates.
+ *
+ */
+final class RegisteredServiceIndex {
+    /** Upper bound on the literal prefixes expanded from a single pattern. */
+    private static final int MAX_PREFIXES = 32;
+
+    private static final String REGEX_META = "\\^$.|?*+()[]{}";
+
+    private static final int[] NO_RANKS = new int[0];
+
+    private final SortedSet<RegisteredService> services;
+    private final RegisteredService[] ordered;
+    private final Node root;
+
+    /** Ranks of the services that must be tried for every service URL, ascending. */
+    private final int[] unindexed;
+
+    /**
+     * @param services the registered services; ordered and de-duplicated by their natural ordering
+     *     exactly as {@code DefaultServicesManagerImpl} does
+     */
+    RegisteredServiceIndex(Collection<RegisteredService> services) {
+        this.services = new TreeSet<RegisteredService>(services);
+        this.ordered = this.services.toArray(new RegisteredService[this.services.size()]);
+
+        final NodeBuilder rootBuilder = new NodeBuilder();
+        final List<Integer> unindexedRanks = new ArrayList<Integer>();
+        for (int rank = 0; rank < this.ordered.length; rank++) {
+            final List<String> prefixes = prefixesOf(this.ordered[rank]);
+            if (prefixes == null) {
+                unindexedRanks.add(rank);
+                continue;
+            }
+            for (final String prefix : prefixes) {
+                NodeBuilder node = rootBuilder;
+                for (int c = 0; c < prefix.length(); c++) {
+                    node = node.child(prefix.charAt(c));
+                }
+                node.ranks.add(rank);
+            }
+        }
+        this.root = rootBuilder.build();
+        this.unindexed = toArray(unindexedRanks);
+    }
+
+    /** @return the first service in evaluation order that matches, null if none do */
+    RegisteredService findServiceBy(Service service) {
+        final String id = service != null ? service.getId() : null;
+        if (id == null) {
+            // nothing to index on, let the services decide exactly as a linear scan would
+            for (final RegisteredService registeredService : this.ordered) {
+                if (registeredService.matches(service)) {
+                    return registeredService;
+                }
+            }
+            return null;
+        }
+
+        final int[] candidates = this.indexedCandidates(id);
+        int c = 0;
+        int u = 0;
+        int lastRank = -1;
+        while (c < candidates.length || u < this.unindexed.length) {
+            final int rank;
+            if (u == this.unindexed.length
+                    || (c < candidates.length && candidates[c] < this.unindexed[u])) {
+                rank = candidates[c++];
+            } else {
+                rank = this.unindexed[u++];
+            }
+            if (rank == lastRank) {
+                continue;
+            }
+            lastRank = rank;
+            if (this.ordered[rank].matches(service)) {
+                return this.ordered[rank];
+            }
+        }
+        return null;
+    }
+
+    /** @return the services in evaluation order */
+    SortedSet<RegisteredService> getServices() {
+        return this.services;
+    }
+
+    /** @return number of services found through the prefix trie */
+    int getIndexedCount() {
+        return this.ordered.length - this.unindexed.length;
+    }
+
+    /** @return number of services tried for every lookup */
+    int getUnindexedCount() {
+        return this.unindexed.length;
+    }
+
+    boolean isEmpty() {
+        return this.ordered.length == 0;
+    }
+
+    /** Ranks of every service whose literal prefix the id starts with, ascending. */
+    private int[] indexedCandidates(String id) {
+        int[] found = NO_RANKS;
+        int count = 0;
+        Node node = this.root;
+        for (int i = 0; node != null; i++) {
+            if (node.ranks.length > 0) {
+                if (count + node.ranks.length > found.length) {
+                    found = Arrays.copyOf(found, Math.max(8, 2 * (count + node.ranks.length)));
+                }
+                System.arraycopy(node.ranks, 0, found, count, node.ranks.length);
+                count += node.ranks.length;
+            }
+            node = i < id.length() ? node.child(id.charAt(i)) : null;
+        }
+        if (count == 0) {
+            return NO_RANKS;
+        }
+        final int[] candidates = count == found.length ? found : Arrays.copyOf(found, count);
+        Arrays.sort(candidates);
+        return candidates;
+    }
+
+    private static List<String> prefixesOf(RegisteredService registeredService) {
+        // a subclass may match differently, only the stock regex service is indexed
+        if (registeredService.getClass() != RegexRegisteredService.class
+                || registeredService.getServiceId() == null) {
+            return null;
+        }
+        return literalPrefixes(registeredService.getServiceId());
+    }
+
+    /**
+     * Literal strings, at least one of which starts every string the regular expression matches in
+     * its entirety. Expansion handles plain and escaped literal characters, optional characters and
+     * groups of literal alternatives such as {@code (https?|imaps?)} or {@code (www\.)?}; it stops
+     * at the first construct it does not understand.
+     *
+     * @return the prefixes, or null if the pattern has no non-empty literal prefix
+     */
+    static List<String> literalPrefixes(String regex) {
+        if (hasTopLevelAlternation(regex)) {
+            return null;
+        }
+
+        List<String> prefixes = Arrays.asList("");
+        int i = regex.startsWith("^") ? 1 : 0;
+        while (i < regex.length()) {
+            final int[] next = new int[1];
+            final List<String> terms;
+            if (regex.charAt(i) == '(') {
+                terms = literalGroup(regex, i, next);
+            } else {
+                final int c = literalAt(regex, i, next);
+                terms = c < 0 ? null : Arrays.asList(String.valueOf((char) c));
+            }
+            if (terms == null) {
+                break;
+            }
+
+            // apply the quantifier following the character or group, if any
+            int j = next[0];
+            final char quantifier = j < regex.length() ? regex.charAt(j) : 0;
+            boolean last = false;
+            final List<String> options = new ArrayList<String>(terms);
+            if (quantifier == '?') {
+                options.add("");
+                j = skipQuantifierMode(regex, j + 1);
+            } else if (quantifier == '+') {
+                last = true;
+            } else if (quantifier == '*' || quantifier == '{') {
+                break;
+            }
+
+            final List<String> expanded = cross(prefixes, options);
+            if (expanded.size() > MAX_PREFIXES) {
+                break;
+            }
+            prefixes = expanded;
+            if (last) {
+                break;
+            }
+            i = j;
+        }
+
+        for (final String prefix : prefixes) {
+            if (prefix.isEmpty()) {
+                return null;
+            }
+        }
+        return prefixes;
+    }
+
+    /**
+     * Expand a {@code (...)} or {@code (?:...)} group made only of literal alternatives.
+     *
+     * @return the alternatives, null if the group holds anything else
+     */
+    private static List<String> literalGroup(String regex, int start, int[] next) {
+        int i;
+        if (regex.startsWith("(?:", start)) {
+            i = start + 3;
+        } else if (start + 1 < regex.length() && regex.charAt(start + 1) == '?') {
+            return null;
+        } else {
+            i = start + 1;
+        }
+
+        final Set<String> alternatives = new LinkedHashSet<String>();
+        List<String> current = Arrays.asList("");
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == ')' || c == '|') {
+                alternatives.addAll(current);
+                if (alternatives.size() > MAX_PREFIXES) {
+                    return null;
+                }
+                current = Arrays.asList("");
+                i++;
+                if (c == ')') {
+                    next[0] = i;
+                    return new ArrayList<String>(alternatives);
+                }
+                continue;
+            }
+
+            final int[] end = new int[1];
+            final int literal = literalAt(regex, i, end);
+            if (literal < 0) {
+                return null;
+            }
+            i = end[0];
+            final List<String> options = new ArrayList<String>(2);
+            options.add(String.valueOf((char) literal));
+            if (i < regex.length() && regex.charAt(i) == '?') {
+                options.add("");
+                i = skipQuantifierMode(regex, i + 1);
+            } else if (i < regex.length() && "*+{".indexOf(regex.charAt(i)) >= 0) {
+                return null;
+            }
+            current = cross(current, options);
+            if (current.size() > MAX_PREFIXES) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /** @return the literal character at i, -1 if there is none; next[0] is set past it */
+    private static int literalAt(String regex, int i, int[] next) {
+        char c = regex.charAt(i);
+        int end = i + 1;
+        if (c == '\\') {
+            if (end >= regex.length()) {
+                return -1;
+            }
+            c = regex.charAt(end++);
+            // \d, \Q, \1 and friends are not literals
+            if (Character.isLetterOrDigit(c)) {
+                return -1;
+            }
+        } else if (REGEX_META.indexOf(c) >= 0) {
+            return -1;
+        }
+        // a quantifier after half of a surrogate pair applies to the whole code point
+        if (Character.isSurrogate(c)) {
+            return -1;
+        }
+        next[0] = end;
+        return c;
+    }
+
+    /** Lazy and possessive variants of {@code ?} match the same strings. */
+    private static int skipQuantifierMode(String regex, int i) {
+        if (i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+            return i + 1;
+        }
+        return i;
+    }
+
+    /** Whether the pattern has a | outside any group, or is too unusual to tell. */
+    private static boolean hasTopLevelAlternation(String regex) {
+        int depth = 0;
+        int classDepth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+                    return true;
+                }
+                i++;
+            } else if (classDepth > 0) {
+                if (c == '[') {
+                    classDepth++;
+                } else if (c == ']') {
+                    classDepth--;
+                }
+            } else if (c == '[') {
+                classDepth = 1;
+                // a ] straight after [ or [^ is a literal
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == '^') {
+                    i++;
+                }
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == ']') {
+                    i++;
+                }
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                return true;
+            }
+        }
+        return depth != 0 || classDepth != 0;
+    }
+
+    private static List<String> cross(List<String> prefixes, List<String> options) {
+        final Set<String> result = new LinkedHashSet<String>();
+        for (final String prefix : prefixes) {
+            for (final String option : options) {
+                result.add(prefix + option);
+            }
+        }
+        return new ArrayList<String>(result);
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        final int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    /** Trie node with its children's labels sorted for binary search. */
+    private static final class Node {
+        private final char[] labels;
+        private final Node[] children;
+        private final int[] ranks;
+
+        private Node(char[] labels, Node[] children, int[] ranks) {
+            this.labels = labels;
+            this.children = children;
+            this.ranks = ranks;
+        }
+
+        private Node child(char c) {
+            final int i = Arrays.binarySearch(this.labels, c);
+            return i >= 0 ? this.children[i] : null;
+        }
+    }
+
+    private static final class NodeBuilder {
+        private final Map<Character, NodeBuilder> children = new TreeMap<Character, NodeBuilder>();
+        private final List<Integer> ranks = new ArrayList<Integer>(1);
+
+        private NodeBuilder child(char c) {
+            NodeBuilder child = this.children.get(c);
+            if (child == null) {
+                child = new NodeBuilder();
+                this.children.put(c, child);
+            }
+            return child;
+        }
+
+        private Node build() {
+            final char[] labels = new char[this.children.size()];
+            final Node[] nodes = new Node[this.children.size()];
+            int i = 0;
+            for (final Map.Entry<Character, NodeBuilder> child : this.children.entrySet()) {
+                labels[i] = child.getKey();
+                nodes[i] = child.getValue().build();
+                i++;
+            }
+            final int[] sortedRanks = this.ranks.isEmpty() ? NO_RANKS : toArray(this.ranks);
+            Arrays.sort(sortedRanks);
+            return new Node(labels, nodes, sortedRanks);
+        }
+    }
+}
@@ -14,14 +14,18 @@
  */
 package org.apereo.portal.cas.services.web;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.apereo.portal.cas.services.NotifyingServicesManager;
+import org.apereo.portal.cas.services.ServicesManagerListener;
+import org.apereo.portal.cas.warmup.WarmUpTarget;
 import org.jasig.cas.authentication.principal.Service;
 import org.jasig.cas.services.RegisteredService;
 import org.jasig.cas.services.ServicesManager;
@@ -41,15 +45,52 @@ import org.springframework.web.servlet.theme.AbstractThemeResolver;
  * to determine if an alternate theme name is configured for the current user agent. This class is
  * designed to allow us to define alternate themes for mobile devices on a per-service basis.
  *
+ * <p>The theme resolved for each service URL is kept in a bounded LRU cache so the services
+ * registry is not scanned on every request. The cache is keyed by the whole URL, query string
+ * included, as registered service patterns may match on the query. It is cleared whenever the
+ * registry changes;
+ * when the ServicesManager is a {@link NotifyingServicesManager} this resolver registers itself
+ * for those notifications.
+ *
+ * <p>As a {@link WarmUpTarget} it matches a list of common user agents against every theme's
+ * override rules at startup, so the first requests find the rules compiled and their results
+ * cached.
+ *
  */
-public class ConfigurableUserAgentOverrideThemeResolver extends AbstractThemeResolver {
+public class ConfigurableUserAgentOverrideThemeResolver extends AbstractThemeResolver
+        implements ServicesManagerListener, WarmUpTarget {
 
     /** The ServiceRegistry to look up the service. */
     private ServicesManager servicesManager;
 
     private List<ArgumentExtractor> argumentExtractors;
 
-    private Map<String, Map<Pattern, String>> overrides;
+    private Map<String, Map<String, String>> overrideRules =
+            new HashMap<String, Map<String, String>>();
+
+    private Map<String, UserAgentOverrideMatcher> overrides =
+            new HashMap<String, UserAgentOverrideMatcher>();
+
+    private int userAgentCacheSize = 1000;
+
+    private Map<String, String> serviceThemeCache = createServiceThemeCache(1000);
+
+    /** Incremented on every invalidation so lookups racing a reload don't cache stale themes. */
+    private long serviceThemeCacheGeneration;
+
+    private final AtomicLong serviceThemeHitCount = new AtomicLong();
+    private final AtomicLong serviceThemeMissCount = new AtomicLong();
+
+    private List<String> warmUpUserAgents =
+            Arrays.asList(
+                    "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36"
+                            + " (KHTML, like Gecko) Chrome/70.0.3538.77 Safari/537.36",
+                    "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_14) AppleWebKit/605.1.15"
+                            + " (KHTML, like Gecko) Version/12.0 Safari/605.1.15",
+                    "Mozilla/5.0 (iPhone; CPU iPhone OS 12_0 like Mac OS X) AppleWebKit/605.1.15"
+                            + " (KHTML, like Gecko) Version/12.0 Mobile/15E148 Safari/604.1",
+                    "Mozilla/5.0 (Linux; Android 9; Pixel 2) AppleWebKit/537.36"
+                            + " (KHTML, like Gecko) Chrome/70.0.3538.80 Mobile Safari/537.36");
 
     /*
      * (non-Javadoc)
@@ -61,20 +102,22 @@ public class ConfigurableUserAgentOverrideThemeResolver extends AbstractThemeRes
         String themeName = resolveServiceThemeName(request);
 
         /*
-         * If the overrides map contains overrides for this theme name, iterate
-         * through the mapped user agent regexes for this theme name.  If we
-         * find a matching regex, set the theme name to the one mapped to that
-         * regex.
+         * If the overrides map contains overrides for this theme name, find
+         * the first of its user agent regexes that matches.  If we find one,
+         * set the theme name to the one mapped to that regex.  Requests
+         * without a user agent keep the service theme.
          */
 
-        if (overrides.containsKey(themeName)) {
+        final UserAgentOverrideMatcher matcher = overrides.get(themeName);
+        if (matcher != null) {
 
             // retrieve the user agent string from the request
             String userAgent = request.getHeader("User-Agent");
 
-            for (Entry<Pattern, String> entry : overrides.get(themeName).entrySet()) {
-                if (entry.getKey().matcher(userAgent).matches()) {
-                    return entry.getValue();
+            if (userAgent != null) {
+                String overrideThemeName = matcher.match(userAgent);
+                if (overrideThemeName != null) {
+                    return overrideThemeName;
                 }
             }
         }
@@ -105,22 +148,137 @@ public class ConfigurableUserAgentOverrideThemeResolver extends AbstractThemeRes
         }
 
         final Service service = WebUtils.getService(this.argumentExtractors, request);
+        if (service == null || service.getId() == null) {
+            return getDefaultThemeName();
+        }
+
+        // the service id has already been stripped of its jsessionid by the argument extractor
+        final String serviceId = service.getId();
+        final Map<String, String> cache = this.serviceThemeCache;
+        final long generation;
+        if (cache != null) {
+            final String cached;
+            synchronized (cache) {
+                cached = cache.get(serviceId);
+                generation = this.serviceThemeCacheGeneration;
+            }
+            if (cached != null) {
+                this.serviceThemeHitCount.incrementAndGet();
+                return cached;
+            }
+            this.serviceThemeMissCount.incrementAndGet();
+        } else {
+            generation = 0;
+        }
 
         final RegisteredService rService = this.servicesManager.findServiceBy(service);
 
-        return service != null && rService != null && StringUtils.hasText(rService.getTheme())
-                ? rService.getTheme()
-                : getDefaultThemeName();
+        final String themeName =
+                rService != null && StringUtils.hasText(rService.getTheme())
+                        ? rService.getTheme()
+                        : getDefaultThemeName();
+
+        if (cache != null) {
+            synchronized (cache) {
+                if (generation == this.serviceThemeCacheGeneration) {
+                    cache.put(serviceId, themeName);
+                }
+            }
+        }
+        return themeName;
+    }
+
+    /** Match the warm-up user agents against the override rules of every theme. */
+    public void warmUp() {
+        for (final UserAgentOverrideMatcher matcher : this.overrides.values()) {
+            for (final String userAgent : this.warmUpUserAgents) {
+                matcher.match(userAgent);
+            }
+        }
+    }
+
+    /** Discard every cached service theme, called when the services registry changes. */
+    public void servicesChanged() {
+        final Map<String, String> cache = this.serviceThemeCache;
+        if (cache != null) {
+            synchronized (cache) {
+                this.serviceThemeCacheGeneration++;
+                cache.clear();
+            }
+        }
+    }
+
+    /** @return number of service theme lookups answered from the cache */
+    public long getServiceThemeHitCount() {
+        return this.serviceThemeHitCount.get();
+    }
+
+    /** @return number of service theme lookups that had to search the services registry */
+    public long getServiceThemeMissCount() {
+        return this.serviceThemeMissCount.get();
+    }
+
+    /** @return fraction of cacheable service theme lookups answered from the cache */
+    public double getServiceThemeHitRate() {
+        final long hits = this.serviceThemeHitCount.get();
+        final long total = hits + this.serviceThemeMissCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /** @return number of service URLs currently in the theme cache */
+    public int getServiceThemeCacheSize() {
+        final Map<String, String> cache = this.serviceThemeCache;
+        if (cache == null) {
+            return 0;
+        }
+        synchronized (cache) {
+            return cache.size();
+        }
     }
 
     public void setServicesManager(final ServicesManager servicesManager) {
         this.servicesManager = servicesManager;
+        if (servicesManager instanceof NotifyingServicesManager) {
+            ((NotifyingServicesManager) servicesManager).addListener(this);
+        }
+        this.servicesChanged();
+    }
+
+    /**
+     * Set the maximum number of service URLs whose resolved theme is remembered, defaults to 1000.
+     * Set to 0 to search the services registry on every request.
+     *
+     * @param serviceThemeCacheSize
+     */
+    public void setServiceThemeCacheSize(int serviceThemeCacheSize) {
+        this.serviceThemeCache = createServiceThemeCache(serviceThemeCacheSize);
+    }
+
+    /**
+     * Set the user agents matched against the override rules at startup, defaults to recent
+     * desktop and mobile browsers.
+     *
+     * @param warmUpUserAgents
+     */
+    public void setWarmUpUserAgents(List<String> warmUpUserAgents) {
+        this.warmUpUserAgents = warmUpUserAgents;
     }
 
     public void setArgumentExtractors(final List<ArgumentExtractor> argumentExtractors) {
         this.argumentExtractors = argumentExtractors;
     }
 
+    /**
+     * Set the maximum number of distinct user agents whose override result is remembered for each
+     * overridden theme, defaults to 1000. Set to 0 to evaluate the regexes on every request.
+     *
+     * @param userAgentCacheSize
+     */
+    public void setUserAgentCacheSize(int userAgentCacheSize) {
+        this.userAgentCacheSize = userAgentCacheSize;
+        this.compileOverrides();
+    }
+
     /**
      * Set the map of theme name overrides. This map is of the format { service theme name -> { user
      * agent regular expression -> override theme name } }
@@ -128,17 +286,37 @@ public class ConfigurableUserAgentOverrideThemeResolver extends AbstractThemeRes
      * @param overrides
      */
     public void setOverrides(Map<String, Map<String, String>> overrides) {
+        this.overrideRules = overrides;
+        this.compileOverrides();
+    }
+
+    private void compileOverrides() {
         // initialize the overrides variable to an empty map
-        this.overrides = new HashMap<String, Map<Pattern, String>>();
-
-        // convert the provided map's regular expressions to Pattern objects
-        for (Entry<String, Map<String, String>> themeMapping : overrides.entrySet()) {
-            Map<Pattern, String> mappings = new LinkedHashMap<Pattern, String>();
-            for (Entry<String, String> browserMapping : themeMapping.getValue().entrySet()) {
-                Pattern p = Pattern.compile(browserMapping.getKey());
-                mappings.put(p, browserMapping.getValue());
-            }
-            this.overrides.put(themeMapping.getKey(), mappings);
+        Map<String, UserAgentOverrideMatcher> matchers =
+                new HashMap<String, UserAgentOverrideMatcher>();
+
+        // compile each theme's regular expressions, keeping their order
+        for (Entry<String, Map<String, String>> themeMapping : this.overrideRules.entrySet()) {
+            Map<String, String> mappings =
+                    new LinkedHashMap<String, String>(themeMapping.getValue());
+            matchers.put(
+                    themeMapping.getKey(),
+                    new UserAgentOverrideMatcher(mappings, this.userAgentCacheSize));
         }
+        this.overrides = matchers;
+    }
+
+    private static Map<String, String> createServiceThemeCache(final int maxSize) {
+        if (maxSize <= 0) {
+            return null;
+        }
+        return new LinkedHashMap<String, String>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Entry<String, String> eldest) {
+                return size() > maxSize;
+            }
+        };
     }
 }
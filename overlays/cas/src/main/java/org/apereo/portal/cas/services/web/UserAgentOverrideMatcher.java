@@ -0,0 +1,158 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.services.web;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The ordered user agent override rules for one service theme. All of the rules are joined into a
+ * single alternation, {@code (rule1)|(rule2)|...}, so one {@link Matcher#matches()} call finds the
+ * first rule, in configured order, that matches the whole user agent. Rules that use back
+ * references, named groups, quoting or comments cannot safely be joined; in that case each rule is
+ * tried in turn as before.
+ *
+ * <p>Results are remembered in a small LRU cache keyed by user agent, since real traffic carries
+ * a limited set of distinct user agent strings.
+ *
+ */
+final class UserAgentOverrideMatcher {
+    /** User agents longer than this are matched but never cached. */
+    private static final int MAX_CACHED_USER_AGENT_LENGTH = 512;
+
+    /** Cached marker for "no rule matched". */
+    private static final String NO_OVERRIDE = new String();
+
+    /** Back references, named groups, quoting and comment mode don't survive being joined. */
+    private static final Pattern UNSAFE_TO_COMBINE =
+            Pattern.compile("\\\\[1-9]|\\\\k<|\\\\Q|\\(\\?<[a-zA-Z]|\\(\\?[a-zA-Z]*x");
+
+    private final Pattern[] patterns;
+    private final String[] themes;
+
+    /** Joined pattern and the group number of each rule within it, null if not combinable. */
+    private final Pattern combined;
+    private final int[] ruleGroups;
+
+    private final Map<String, String> cache;
+
+    /**
+     * @param rules Map of user agent regular expression to override theme name, in priority order
+     * @param cacheSize Maximum number of user agents to remember results for, 0 to disable
+     */
+    UserAgentOverrideMatcher(Map<String, String> rules, final int cacheSize) {
+        this.patterns = new Pattern[rules.size()];
+        this.themes = new String[rules.size()];
+
+        final StringBuilder joined = new StringBuilder();
+        final List<Integer> groups = new ArrayList<Integer>();
+        boolean combinable = true;
+        int group = 1;
+        int i = 0;
+        for (final Entry<String, String> rule : rules.entrySet()) {
+            this.patterns[i] = Pattern.compile(rule.getKey());
+            this.themes[i] = rule.getValue();
+
+            if (UNSAFE_TO_COMBINE.matcher(rule.getKey()).find()) {
+                combinable = false;
+            }
+            if (i > 0) {
+                joined.append('|');
+            }
+            joined.append('(').append(rule.getKey()).append(')');
+            groups.add(group);
+            group += 1 + this.patterns[i].matcher("").groupCount();
+            i++;
+        }
+
+        Pattern combinedPattern = null;
+        if (combinable && this.patterns.length > 1) {
+            try {
+                combinedPattern = Pattern.compile(joined.toString());
+            } catch (PatternSyntaxException e) {
+                combinedPattern = null;
+            }
+        }
+        this.combined = combinedPattern;
+        this.ruleGroups = new int[groups.size()];
+        for (int g = 0; g < this.ruleGroups.length; g++) {
+            this.ruleGroups[g] = groups.get(g);
+        }
+
+        this.cache =
+                cacheSize > 0
+                        ? new LinkedHashMap<String, String>(16, 0.75f, true) {
+                            private static final long serialVersionUID = 1L;
+
+                            @Override
+                            protected boolean removeEldestEntry(Entry<String, String> eldest) {
+                                return size() > cacheSize;
+                            }
+                        }
+                        : null;
+    }
+
+    /** @return the override theme for the user agent, null if no rule matches */
+    String match(String userAgent) {
+        final boolean cacheable =
+                this.cache != null && userAgent.length() <= MAX_CACHED_USER_AGENT_LENGTH;
+        if (cacheable) {
+            final String cached;
+            synchronized (this.cache) {
+                cached = this.cache.get(userAgent);
+            }
+            if (cached != null) {
+                return cached == NO_OVERRIDE ? null : cached;
+            }
+        }
+
+        final String theme = this.evaluate(userAgent);
+
+        if (cacheable) {
+            synchronized (this.cache) {
+                this.cache.put(userAgent, theme != null ? theme : NO_OVERRIDE);
+            }
+        }
+        return theme;
+    }
+
+    private String evaluate(String userAgent) {
+        if (this.combined != null) {
+            final Matcher m = this.combined.matcher(userAgent);
+            if (!m.matches()) {
+                return null;
+            }
+            for (int i = 0; i < this.ruleGroups.length; i++) {
+                if (m.start(this.ruleGroups[i]) != -1) {
+                    return this.themes[i];
+                }
+            }
+            return null;
+        }
+
+        for (int i = 0; i < this.patterns.length; i++) {
+            if (this.patterns[i].matcher(userAgent).matches()) {
+                return this.themes[i];
+            }
+        }
+        return null;
+    }
+}
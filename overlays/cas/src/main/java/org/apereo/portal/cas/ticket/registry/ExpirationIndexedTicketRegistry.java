@@ -0,0 +1,329 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.ticket.registry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apereo.portal.cas.monitor.TicketCountState;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.TicketState;
+import org.jasig.cas.ticket.registry.AbstractTicketRegistry;
+import org.jasig.cas.ticket.registry.RegistryCleaner;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.springframework.util.Assert;
+
+/**
+ * In-memory ticket registry that also acts as its own {@link RegistryCleaner}. Alongside the map of
+ * tickets it keeps a {@link TicketExpirationIndex} of when each ticket should next be checked, so
+ * {@link #clean()} only looks at tickets that may have expired instead of walking every ticket the
+ * way DefaultTicketRegistryCleaner does. Run it every second or so and each run stays small.
+ *
+ * <p>CAS expiration policies only answer "is this ticket expired now?", so the check time is
+ * estimated from the ticket's last use plus the time-to-kill configured here for its type, which
+ * should match ticketExpirationPolicies.xml. A ticket found still valid, because it was used since
+ * or its policy is longer, is simply rescheduled; estimates that are too long only delay eviction.
+ *
+ * <p>Live ticket counts are maintained as tickets come and go, so {@link #sessionCount()}, {@link
+ * #serviceTicketCount()} and {@link #getTicketCounts()} are constant time.
+ *
+ */
+public class ExpirationIndexedTicketRegistry extends AbstractTicketRegistry
+        implements RegistryCleaner, TicketCountState {
+
+    private final ConcurrentMap<String, Ticket> cache = new ConcurrentHashMap<String, Ticket>();
+
+    private TicketExpirationIndex expirationIndex = new TicketExpirationIndex(1000);
+
+    private long ticketGrantingTicketTimeToKill = 7200000;
+    private long serviceTicketTimeToKill = 10000;
+    private int maxTicketsPerClean = 10000;
+    private boolean logUserOutOfServices = true;
+
+    private final ConcurrentMap<String, AtomicInteger> ticketCounts =
+            new ConcurrentHashMap<String, AtomicInteger>();
+    private final AtomicInteger sessionCount = new AtomicInteger();
+    private final AtomicInteger serviceTicketCount = new AtomicInteger();
+
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong rescheduledCount = new AtomicLong();
+
+    /**
+     * Time-to-kill of ticket granting (and proxy granting) tickets in milliseconds, defaults to
+     * 7200000 to match the stock grantingTicketExpirationPolicy.
+     *
+     * @param ticketGrantingTicketTimeToKill
+     */
+    public void setTicketGrantingTicketTimeToKill(long ticketGrantingTicketTimeToKill) {
+        this.ticketGrantingTicketTimeToKill = ticketGrantingTicketTimeToKill;
+    }
+
+    /**
+     * Time-to-kill of service and proxy tickets in milliseconds, defaults to 10000 to match the
+     * stock serviceTicketExpirationPolicy.
+     *
+     * @param serviceTicketTimeToKill
+     */
+    public void setServiceTicketTimeToKill(long serviceTicketTimeToKill) {
+        this.serviceTicketTimeToKill = serviceTicketTimeToKill;
+    }
+
+    /**
+     * Granularity, in milliseconds, of the expiration index, defaults to 1000. Tickets are evicted
+     * by the first {@link #clean()} at least this long after they expire.
+     *
+     * @param resolution
+     */
+    public void setResolution(long resolution) {
+        Assert.isTrue(this.cache.isEmpty(), "resolution cannot be changed once tickets are added");
+        this.expirationIndex = new TicketExpirationIndex(resolution);
+    }
+
+    /**
+     * Maximum number of tickets checked by one {@link #clean()}, defaults to 10000. Any remaining
+     * due tickets are left for the next run.
+     *
+     * @param maxTicketsPerClean
+     */
+    public void setMaxTicketsPerClean(int maxTicketsPerClean) {
+        this.maxTicketsPerClean = maxTicketsPerClean;
+    }
+
+    /**
+     * Whether to expire ticket granting tickets before deleting them so single sign-out
+     * notifications are sent to their services, defaults to true.
+     *
+     * @param logUserOutOfServices
+     */
+    public void setLogUserOutOfServices(boolean logUserOutOfServices) {
+        this.logUserOutOfServices = logUserOutOfServices;
+    }
+
+    public void addTicket(Ticket ticket) {
+        Assert.notNull(ticket, "ticket cannot be null");
+
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("Added ticket [" + ticket.getId() + "] to registry.");
+        }
+        final Ticket previous = this.cache.put(ticket.getId(), ticket);
+        if (previous != null) {
+            this.countRemoved(previous);
+        }
+        this.countAdded(ticket);
+        this.expirationIndex.schedule(
+                ticket.getId(), this.nextCheckTime(ticket, this.currentTimeMillis()));
+    }
+
+    public Ticket getTicket(String ticketId) {
+        if (ticketId == null) {
+            return null;
+        }
+
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("Attempting to retrieve ticket [" + ticketId + "]");
+        }
+        return this.cache.get(ticketId);
+    }
+
+    public boolean deleteTicket(String ticketId) {
+        if (ticketId == null) {
+            return false;
+        }
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("Removing ticket [" + ticketId + "] from registry");
+        }
+        // the expiration index entry is left behind and skipped when it comes due
+        final Ticket removed = this.cache.remove(ticketId);
+        if (removed == null) {
+            return false;
+        }
+        this.countRemoved(removed);
+        return true;
+    }
+
+    public Collection<Ticket> getTickets() {
+        return Collections.unmodifiableCollection(this.cache.values());
+    }
+
+    /**
+     * Evict the tickets that are due for an expiry check and have expired, and reschedule the ones
+     * that turn out to still be valid.
+     */
+    public void clean() {
+        this.clean(this);
+    }
+
+    /**
+     * As {@link #clean()}, deleting expired tickets through the given registry. Use this when the
+     * registry is wrapped by a decorator, such as the ClearPass TicketRegistryDecorator, that must
+     * see deletions.
+     *
+     * @param ticketRegistry the registry to delete expired tickets through
+     */
+    public synchronized void clean(TicketRegistry ticketRegistry) {
+        final long now = this.currentTimeMillis();
+        final List<String> due = new ArrayList<String>();
+        this.expirationIndex.pollDue(now, this.maxTicketsPerClean, due);
+
+        int evicted = 0;
+        for (final String ticketId : due) {
+            final Ticket ticket = this.cache.get(ticketId);
+            if (ticket == null) {
+                // deleted since it was scheduled
+                continue;
+            }
+            if (!ticket.isExpired()) {
+                this.expirationIndex.schedule(ticketId, this.nextCheckTime(ticket, now));
+                this.rescheduledCount.incrementAndGet();
+                continue;
+            }
+
+            if (this.logUserOutOfServices && ticket instanceof TicketGrantingTicket) {
+                this.log.debug("Logging user out of services for ticket [" + ticketId + "]");
+                try {
+                    ((TicketGrantingTicket) ticket).expire();
+                } catch (RuntimeException e) {
+                    // the ticket has already left the index, it must still be deleted
+                    this.log.warn("Failed to log user out of services for [" + ticketId + "]", e);
+                }
+            }
+            if (ticketRegistry.deleteTicket(ticketId)) {
+                evicted++;
+            }
+        }
+        this.evictedCount.addAndGet(evicted);
+
+        if (evicted > 0 || due.size() >= this.maxTicketsPerClean) {
+            this.log.info(
+                    "Checked "
+                            + due.size()
+                            + " tickets and evicted "
+                            + evicted
+                            + " expired tickets; "
+                            + this.cache.size()
+                            + " tickets remain.");
+        }
+    }
+
+    @Override
+    public int sessionCount() {
+        return this.sessionCount.get();
+    }
+
+    @Override
+    public int serviceTicketCount() {
+        return this.serviceTicketCount.get();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apereo.portal.cas.monitor.TicketCountState#getTicketCounts()
+     */
+    public Map<String, Integer> getTicketCounts() {
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (final Map.Entry<String, AtomicInteger> count : this.ticketCounts.entrySet()) {
+            counts.put(count.getKey(), count.getValue().get());
+        }
+        return counts;
+    }
+
+    /** @return number of tickets in the registry */
+    public int size() {
+        return this.cache.size();
+    }
+
+    /** @return number of scheduled expiry checks, including stale ones for deleted tickets */
+    public long getScheduledCheckCount() {
+        return this.expirationIndex.size();
+    }
+
+    /** @return number of expired tickets evicted by {@link #clean()} */
+    public long getEvictedCount() {
+        return this.evictedCount.get();
+    }
+
+    /** @return number of expiry checks that found the ticket still valid */
+    public long getRescheduledCount() {
+        return this.rescheduledCount.get();
+    }
+
+    /** Overridable clock so tests can control time. */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /** The earliest time the ticket could have expired under its type's time-to-kill. */
+    private long nextCheckTime(Ticket ticket, long now) {
+        final long timeToKill =
+                ticket instanceof ServiceTicket
+                        ? this.serviceTicketTimeToKill
+                        : this.ticketGrantingTicketTimeToKill;
+        final long lastUsed =
+                ticket instanceof TicketState
+                        ? ((TicketState) ticket).getLastTimeUsed()
+                        : ticket.getCreationTime();
+        final long deadline = lastUsed + timeToKill;
+        // a longer policy than configured here: look again after another time-to-kill
+        return deadline > now ? deadline : now + timeToKill;
+    }
+
+    private void countAdded(Ticket ticket) {
+        final String type = ticketType(ticket);
+        AtomicInteger count = this.ticketCounts.get(type);
+        if (count == null) {
+            final AtomicInteger created = new AtomicInteger();
+            count = this.ticketCounts.putIfAbsent(type, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+
+        if (ticket instanceof TicketGrantingTicket) {
+            this.sessionCount.incrementAndGet();
+        } else if (ticket instanceof ServiceTicket) {
+            this.serviceTicketCount.incrementAndGet();
+        }
+    }
+
+    private void countRemoved(Ticket ticket) {
+        final AtomicInteger count = this.ticketCounts.get(ticketType(ticket));
+        if (count != null) {
+            count.decrementAndGet();
+        }
+
+        if (ticket instanceof TicketGrantingTicket) {
+            this.sessionCount.decrementAndGet();
+        } else if (ticket instanceof ServiceTicket) {
+            this.serviceTicketCount.decrementAndGet();
+        }
+    }
+
+    /** The id prefix, e.g. TGT, ST, PGT or PT. */
+    private static String ticketType(Ticket ticket) {
+        final String id = ticket.getId();
+        final int dash = id.indexOf('-');
+        return dash > 0 ? id.substring(0, dash) : ticket.getClass().getSimpleName();
+    }
+}
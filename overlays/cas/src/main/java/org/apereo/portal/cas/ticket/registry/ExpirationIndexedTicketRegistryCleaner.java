@@ -0,0 +1,45 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.ticket.registry;
+
+import javax.validation.constraints.NotNull;
+import org.jasig.cas.ticket.registry.RegistryCleaner;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+
+/**
+ * Cleans an {@link ExpirationIndexedTicketRegistry} that is wrapped by a decorator, deleting the
+ * expired tickets through the decorator so it sees them go.
+ *
+ */
+public final class ExpirationIndexedTicketRegistryCleaner implements RegistryCleaner {
+    @NotNull private ExpirationIndexedTicketRegistry expirationIndexedTicketRegistry;
+
+    @NotNull private TicketRegistry ticketRegistry;
+
+    public void clean() {
+        this.expirationIndexedTicketRegistry.clean(this.ticketRegistry);
+    }
+
+    /** @param expirationIndexedTicketRegistry the registry whose expired tickets are found */
+    public void setExpirationIndexedTicketRegistry(
+            ExpirationIndexedTicketRegistry expirationIndexedTicketRegistry) {
+        this.expirationIndexedTicketRegistry = expirationIndexedTicketRegistry;
+    }
+
+    /** @param ticketRegistry the outermost registry, which expired tickets are deleted through */
+    public void setTicketRegistry(TicketRegistry ticketRegistry) {
+        this.ticketRegistry = ticketRegistry;
+    }
+}
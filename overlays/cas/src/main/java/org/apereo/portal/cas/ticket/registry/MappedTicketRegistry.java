@@ -0,0 +1,585 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.ticket.registry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apereo.portal.cas.monitor.TicketCountState;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.AbstractDistributedTicketRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * Ticket registry that keeps serialized tickets in append-only, memory-mapped segment files under
+ * {@link #setDirectory(File) directory}, so tickets survive a restart and don't occupy the heap.
+ * Only a map of ticket id to record location is held in memory; every add or update appends a new
+ * record and every delete appends a tombstone. On startup the segments are replayed in order to
+ * rebuild that map, stopping at the first torn record in each.
+ *
+ * <p>Replaced and deleted records leave dead space behind. {@link #compact()}, run periodically,
+ * copies the live records out of mostly-dead segments into the current one and deletes the old
+ * files.
+ *
+ * <p>Like CAS's other serializing registries this extends AbstractDistributedTicketRegistry, so
+ * tickets handed out are proxies that write themselves back when they change. Records are in the
+ * page cache as soon as an append returns, which is enough to survive the process being killed;
+ * set {@link #setForceWrites(boolean) forceWrites} to also survive the machine going down, at the
+ * cost of an msync per write.
+ *
+ */
+public class MappedTicketRegistry extends AbstractDistributedTicketRegistry
+        implements TicketCountState, InitializingBean, DisposableBean {
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("tickets-(\\d{10})\\.seg");
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock readLock = this.lock.readLock();
+    private final Lock writeLock = this.lock.writeLock();
+
+    /** Ticket id to segment number in the high and offset in the low 32 bits. */
+    private final Map<String, Long> index = new HashMap<String, Long>();
+
+    private final TreeMap<Integer, TicketSegment> segments = new TreeMap<Integer, TicketSegment>();
+    private TicketSegment activeSegment;
+
+    private final Map<String, Integer> ticketCounts = new HashMap<String, Integer>();
+    private int sessionCount;
+    private int serviceTicketCount;
+
+    private File directory;
+    private int segmentSize = 64 * 1024 * 1024;
+    private double compactionThreshold = 0.5;
+    private boolean forceWrites = false;
+
+    /**
+     * Directory the segment files are kept in, created if needed. It must not be shared with
+     * another registry.
+     *
+     * @param directory
+     */
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Size in bytes of each segment file, defaults to 64MB. A ticket larger than this gets a
+     * segment of its own.
+     *
+     * @param segmentSize
+     */
+    public void setSegmentSize(int segmentSize) {
+        Assert.isTrue(segmentSize > 0, "segmentSize must be positive");
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Fraction of a segment that must be dead, replaced or deleted tickets, before {@link
+     * #compact()} rewrites it, defaults to 0.5.
+     *
+     * @param compactionThreshold
+     */
+    public void setCompactionThreshold(double compactionThreshold) {
+        Assert.isTrue(
+                compactionThreshold >= 0 && compactionThreshold <= 1,
+                "compactionThreshold must be between 0 and 1");
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Whether every write is flushed to disk before it returns, defaults to false.
+     *
+     * @param forceWrites
+     */
+    public void setForceWrites(boolean forceWrites) {
+        this.forceWrites = forceWrites;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+     */
+    public void afterPropertiesSet() throws IOException {
+        Assert.notNull(this.directory, "directory must be set");
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Could not create ticket directory " + this.directory);
+        }
+
+        final long start = System.currentTimeMillis();
+        final TreeMap<Integer, File> files = new TreeMap<Integer, File>();
+        final File[] children = this.directory.listFiles();
+        if (children != null) {
+            for (final File file : children) {
+                final Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+                if (matcher.matches()) {
+                    files.put(Integer.valueOf(matcher.group(1)), file);
+                }
+            }
+        }
+
+        this.writeLock.lock();
+        try {
+            final TicketSegment.RecordVisitor replay =
+                    new TicketSegment.RecordVisitor() {
+                        public void visit(
+                                TicketSegment segment, int offset, byte operation, String id) {
+                            replay(segment, offset, operation, id);
+                        }
+                    };
+            for (final Map.Entry<Integer, File> file : files.entrySet()) {
+                final TicketSegment segment =
+                        TicketSegment.open(file.getKey(), file.getValue(), 0);
+                this.segments.put(segment.getNumber(), segment);
+                if (segment.recover(replay)) {
+                    this.log.warn(
+                            "Discarded a partially written ticket at the end of "
+                                    + segment.getFile()
+                                    + ", it was being written when CAS stopped.");
+                }
+            }
+            this.activeSegment =
+                    this.segments.isEmpty()
+                            ? this.createSegment(0, this.segmentSize)
+                            : this.segments.lastEntry().getValue();
+        } finally {
+            this.writeLock.unlock();
+        }
+
+        this.log.info(
+                "Recovered "
+                        + this.index.size()
+                        + " tickets from "
+                        + files.size()
+                        + " segments in "
+                        + this.directory
+                        + " in "
+                        + (System.currentTimeMillis() - start)
+                        + "ms.");
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.springframework.beans.factory.DisposableBean#destroy()
+     */
+    public void destroy() throws IOException {
+        this.writeLock.lock();
+        try {
+            for (final TicketSegment segment : this.segments.values()) {
+                segment.force();
+                segment.close();
+            }
+            this.segments.clear();
+            this.index.clear();
+            this.activeSegment = null;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    public void addTicket(Ticket ticket) {
+        Assert.notNull(ticket, "ticket cannot be null");
+
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("Added ticket [" + ticket.getId() + "] to registry.");
+        }
+        this.write(ticket, false);
+    }
+
+    public Ticket getTicket(String ticketId) {
+        if (ticketId == null) {
+            return null;
+        }
+
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("Attempting to retrieve ticket [" + ticketId + "]");
+        }
+        final byte[] serialized;
+        this.readLock.lock();
+        try {
+            final Long location = this.index.get(ticketId);
+            if (location == null) {
+                return null;
+            }
+            serialized = this.segment(location).ticketAt(offset(location));
+        } finally {
+            this.readLock.unlock();
+        }
+
+        final Ticket ticket = this.deserialize(ticketId, serialized);
+        return ticket == null ? null : this.getProxiedTicketInstance(ticket);
+    }
+
+    public boolean deleteTicket(String ticketId) {
+        if (ticketId == null) {
+            return false;
+        }
+        if (this.log.isDebugEnabled()) {
+            this.log.debug("Removing ticket [" + ticketId + "] from registry");
+        }
+
+        this.writeLock.lock();
+        try {
+            final Long location = this.index.remove(ticketId);
+            if (location == null) {
+                return false;
+            }
+            // the tombstone is dead from the start, it only masks the earlier record on replay
+            this.append(TicketSegment.DELETE, TicketSegment.KIND_OTHER, ticketId, new byte[0]);
+            this.released(ticketId, location);
+            return true;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    public Collection<Ticket> getTickets() {
+        final Map<String, byte[]> serialized = new HashMap<String, byte[]>();
+        this.readLock.lock();
+        try {
+            for (final Map.Entry<String, Long> entry : this.index.entrySet()) {
+                final long location = entry.getValue();
+                serialized.put(entry.getKey(), this.segment(location).ticketAt(offset(location)));
+            }
+        } finally {
+            this.readLock.unlock();
+        }
+
+        final List<Ticket> tickets = new ArrayList<Ticket>(serialized.size());
+        for (final Map.Entry<String, byte[]> entry : serialized.entrySet()) {
+            final Ticket ticket = this.deserialize(entry.getKey(), entry.getValue());
+            if (ticket != null) {
+                tickets.add(this.getProxiedTicketInstance(ticket));
+            }
+        }
+        return tickets;
+    }
+
+    @Override
+    protected void updateTicket(Ticket ticket) {
+        // only write back tickets that have not been deleted in the meantime
+        this.write(ticket, true);
+    }
+
+    @Override
+    protected boolean needsCallback() {
+        return true;
+    }
+
+    /**
+     * Rewrite the live records of every segment, other than the one being appended to, whose dead
+     * fraction is at or above the compaction threshold, then delete the old segment files. Each
+     * segment is rewritten under the write lock, so requests wait for at most one segment copy.
+     */
+    public void compact() {
+        final List<Integer> candidates = new ArrayList<Integer>();
+        this.readLock.lock();
+        try {
+            for (final TicketSegment segment : this.segments.values()) {
+                if (segment != this.activeSegment
+                        && segment.getLiveBytes()
+                                <= (1 - this.compactionThreshold) * segment.getWritePosition()) {
+                    candidates.add(segment.getNumber());
+                }
+            }
+        } finally {
+            this.readLock.unlock();
+        }
+
+        for (final Integer number : candidates) {
+            this.writeLock.lock();
+            try {
+                final TicketSegment segment = this.segments.get(number);
+                if (segment != null && segment != this.activeSegment) {
+                    this.compact(segment);
+                }
+            } catch (IOException e) {
+                this.log.error("Failed to compact ticket segment " + number, e);
+            } finally {
+                this.writeLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public int sessionCount() {
+        this.readLock.lock();
+        try {
+            return this.sessionCount;
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    @Override
+    public int serviceTicketCount() {
+        this.readLock.lock();
+        try {
+            return this.serviceTicketCount;
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apereo.portal.cas.monitor.TicketCountState#getTicketCounts()
+     */
+    public Map<String, Integer> getTicketCounts() {
+        this.readLock.lock();
+        try {
+            return new HashMap<String, Integer>(this.ticketCounts);
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    /** @return number of tickets in the registry */
+    public int size() {
+        this.readLock.lock();
+        try {
+            return this.index.size();
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    /** @return number of segment files */
+    public int getSegmentCount() {
+        this.readLock.lock();
+        try {
+            return this.segments.size();
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    /** @return bytes used by records in all segments, live or dead */
+    public long getUsedBytes() {
+        this.readLock.lock();
+        try {
+            long used = 0;
+            for (final TicketSegment segment : this.segments.values()) {
+                used += segment.getWritePosition();
+            }
+            return used;
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    /** @return bytes used by the current version of every ticket */
+    public long getLiveBytes() {
+        this.readLock.lock();
+        try {
+            long live = 0;
+            for (final TicketSegment segment : this.segments.values()) {
+                live += segment.getLiveBytes();
+            }
+            return live;
+        } finally {
+            this.readLock.unlock();
+        }
+    }
+
+    private void write(Ticket ticket, boolean onlyIfPresent) {
+        final byte[] serialized = serialize(ticket);
+        final byte kind =
+                ticket instanceof TicketGrantingTicket
+                        ? TicketSegment.KIND_TICKET_GRANTING
+                        : ticket instanceof ServiceTicket
+                                ? TicketSegment.KIND_SERVICE
+                                : TicketSegment.KIND_OTHER;
+
+        this.writeLock.lock();
+        try {
+            if (onlyIfPresent && !this.index.containsKey(ticket.getId())) {
+                return;
+            }
+            final long location = this.append(TicketSegment.PUT, kind, ticket.getId(), serialized);
+            this.stored(ticket.getId(), location);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /** Point the index at a new PUT record, releasing whatever it replaced. */
+    private void stored(String ticketId, long location) {
+        final TicketSegment segment = this.segment(location);
+        segment.addLiveBytes(segment.recordSizeAt(offset(location)));
+        final Long previous = this.index.put(ticketId, location);
+        if (previous != null) {
+            this.released(ticketId, previous);
+        }
+        this.count(ticketId, segment.kindAt(offset(location)), 1);
+    }
+
+    /** Account for a record that is no longer the current version of its ticket. */
+    private void released(String ticketId, long location) {
+        final TicketSegment segment = this.segment(location);
+        final int offset = offset(location);
+        segment.addLiveBytes(-segment.recordSizeAt(offset));
+        this.count(ticketId, segment.kindAt(offset), -1);
+    }
+
+    private void replay(TicketSegment segment, int offset, byte operation, String id) {
+        if (operation == TicketSegment.PUT) {
+            this.stored(id, location(segment.getNumber(), offset));
+        } else {
+            final Long location = this.index.remove(id);
+            if (location != null) {
+                this.released(id, location);
+            }
+        }
+    }
+
+    private void count(String ticketId, byte kind, int delta) {
+        final String type = ticketType(ticketId);
+        final Integer count = this.ticketCounts.get(type);
+        this.ticketCounts.put(type, (count == null ? 0 : count) + delta);
+
+        if (kind == TicketSegment.KIND_TICKET_GRANTING) {
+            this.sessionCount += delta;
+        } else if (kind == TicketSegment.KIND_SERVICE) {
+            this.serviceTicketCount += delta;
+        }
+    }
+
+    /** Append to the active segment, rolling over to a new one when it is full. */
+    private long append(byte operation, byte kind, String ticketId, byte[] serialized) {
+        Assert.state(this.activeSegment != null, "registry is not open");
+
+        int offset = this.activeSegment.append(operation, kind, ticketId, serialized);
+        if (offset < 0) {
+            final int size =
+                    Math.max(this.segmentSize, TicketSegment.recordSize(ticketId, serialized));
+            try {
+                this.activeSegment.force();
+                this.activeSegment = this.createSegment(this.activeSegment.getNumber() + 1, size);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not create a new ticket segment", e);
+            }
+            offset = this.activeSegment.append(operation, kind, ticketId, serialized);
+        }
+        if (this.forceWrites) {
+            this.activeSegment.force();
+        }
+        return location(this.activeSegment.getNumber(), offset);
+    }
+
+    private void compact(TicketSegment segment) throws IOException {
+        final int number = segment.getNumber();
+        // a tombstone only matters while an older segment may still hold the ticket it deletes
+        final boolean keepTombstones = this.segments.firstKey() < number;
+        int moved = 0;
+        for (int offset = 0;
+                offset < segment.getWritePosition();
+                offset += segment.recordSizeAt(offset)) {
+            final String ticketId = segment.idAt(offset);
+            final byte kind = segment.kindAt(offset);
+            if (segment.operationAt(offset) == TicketSegment.PUT) {
+                final Long current = this.index.get(ticketId);
+                if (current != null && current == location(number, offset)) {
+                    final byte[] serialized = segment.ticketAt(offset);
+                    this.stored(
+                            ticketId, this.append(TicketSegment.PUT, kind, ticketId, serialized));
+                    moved++;
+                }
+            } else if (keepTombstones && !this.index.containsKey(ticketId)) {
+                this.append(TicketSegment.DELETE, kind, ticketId, new byte[0]);
+            }
+        }
+
+        // make sure the copies are on disk before the originals go
+        this.activeSegment.force();
+        this.segments.remove(number);
+        segment.close();
+        if (!segment.getFile().delete()) {
+            this.log.warn("Could not delete compacted ticket segment " + segment.getFile());
+        }
+        this.log.info("Compacted " + segment.getFile() + ", moved " + moved + " live tickets.");
+    }
+
+    private TicketSegment createSegment(int number, int size) throws IOException {
+        final File file = new File(this.directory, String.format("tickets-%010d.seg", number));
+        final TicketSegment segment = TicketSegment.open(number, file, size);
+        this.segments.put(number, segment);
+        return segment;
+    }
+
+    private TicketSegment segment(long location) {
+        return this.segments.get((int) (location >>> 32));
+    }
+
+    private Ticket deserialize(String ticketId, byte[] serialized) {
+        try {
+            final ObjectInputStream in =
+                    new ObjectInputStream(new ByteArrayInputStream(serialized));
+            try {
+                return (Ticket) in.readObject();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            this.log.warn("Could not read stored ticket [" + ticketId + "]", e);
+        } catch (ClassNotFoundException e) {
+            this.log.warn("Could not read stored ticket [" + ticketId + "]", e);
+        }
+        return null;
+    }
+
+    private static byte[] serialize(Ticket ticket) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(2048);
+        try {
+            final ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(ticket);
+            out.close();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not serialize ticket " + ticket.getId(), e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static long location(int segment, int offset) {
+        return ((long) segment << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int offset(long location) {
+        return (int) location;
+    }
+
+    /** The id prefix, e.g. TGT, ST, PGT or PT. */
+    private static String ticketType(String ticketId) {
+        final int dash = ticketId.indexOf('-');
+        return dash > 0 ? ticketId.substring(0, dash) : "other";
+    }
+}
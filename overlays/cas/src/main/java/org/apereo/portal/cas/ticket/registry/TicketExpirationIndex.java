@@ -0,0 +1,117 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.ticket.registry;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ticket ids grouped into buckets by the time they should next be checked for expiry. Buckets are
+ * {@code resolution} milliseconds wide and kept in deadline order, so taking the due ids costs time
+ * proportional to the number of ids taken, no matter how many are scheduled later. An id is never
+ * handed out before its deadline and may be handed out more than once; callers re-check the ticket.
+ *
+ */
+final class TicketExpirationIndex {
+    private final long resolution;
+
+    private final ConcurrentSkipListMap<Long, ConcurrentLinkedQueue<String>> buckets =
+            new ConcurrentSkipListMap<Long, ConcurrentLinkedQueue<String>>();
+
+    private final AtomicLong size = new AtomicLong();
+
+    /** @param resolution width of a bucket in milliseconds */
+    TicketExpirationIndex(long resolution) {
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("resolution must be positive: " + resolution);
+        }
+        this.resolution = resolution;
+    }
+
+    /** Schedule the id to be handed out by {@link #pollDue} once the deadline has passed. */
+    void schedule(String id, long deadline) {
+        // round up so the bucket is only due once the whole of it has passed
+        final Long key = (deadline + this.resolution - 1) / this.resolution;
+        while (true) {
+            ConcurrentLinkedQueue<String> bucket = this.buckets.get(key);
+            if (bucket == null) {
+                final ConcurrentLinkedQueue<String> created = new ConcurrentLinkedQueue<String>();
+                bucket = this.buckets.putIfAbsent(key, created);
+                if (bucket == null) {
+                    bucket = created;
+                }
+            }
+            bucket.add(id);
+            // if the bucket was retired meanwhile the id may have been missed, add it again
+            if (this.buckets.get(key) == bucket) {
+                this.size.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Move ids whose deadline is at or before now into the sink, stopping once it holds about max
+     * ids. Must not be called concurrently with itself.
+     *
+     * @return number of ids added to the sink
+     */
+    int pollDue(long now, int max, Collection<String> sink) {
+        final long nowKey = now / this.resolution;
+        int polled = 0;
+        while (polled < max) {
+            final Map.Entry<Long, ConcurrentLinkedQueue<String>> first = this.buckets.firstEntry();
+            if (first == null || first.getKey() > nowKey) {
+                break;
+            }
+            final ConcurrentLinkedQueue<String> bucket = first.getValue();
+            polled += drain(bucket, max - polled, sink);
+            if (polled >= max) {
+                break;
+            }
+            if (this.buckets.remove(first.getKey(), bucket)) {
+                // ids added before schedule() saw the bucket go are only reachable from here
+                polled += drain(bucket, Integer.MAX_VALUE, sink);
+            }
+        }
+        this.size.addAndGet(-polled);
+        return polled;
+    }
+
+    /** @return number of scheduled ids, including any for tickets since deleted */
+    long size() {
+        return Math.max(0, this.size.get());
+    }
+
+    /** @return deadline bucket of the earliest scheduled id, -1 if none */
+    long getEarliestDeadline() {
+        final Map.Entry<Long, ConcurrentLinkedQueue<String>> first = this.buckets.firstEntry();
+        return first != null ? first.getKey() * this.resolution : -1;
+    }
+
+    private static int drain(
+            ConcurrentLinkedQueue<String> bucket, int max, Collection<String> sink) {
+        int drained = 0;
+        String id;
+        while (drained < max && (id = bucket.poll()) != null) {
+            sink.add(id);
+            drained++;
+        }
+        return drained;
+    }
+}
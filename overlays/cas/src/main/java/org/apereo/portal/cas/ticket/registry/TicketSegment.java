@@ -0,0 +1,267 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.ticket.registry;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * One append-only, memory-mapped file of ticket records. Each record is
+ *
+ * <pre>
+ * int  length of the body
+ * int  CRC-32 of the body
+ * body: byte operation, byte kind, short id length, id (UTF-8), serialized ticket
+ * </pre>
+ *
+ * <p>The body is written before the CRC and the length, so a process killed part way through an
+ * append leaves either a zero length or a body that fails its CRC, and {@link #recover} stops
+ * there. The unused tail of the file is zero filled, which also ends the scan.
+ *
+ * <p>Not thread safe, the registry serializes access.
+ *
+ */
+final class TicketSegment implements Closeable {
+    static final byte PUT = 1;
+    static final byte DELETE = 2;
+
+    static final byte KIND_OTHER = 0;
+    static final byte KIND_TICKET_GRANTING = 1;
+    static final byte KIND_SERVICE = 2;
+
+    /** Length and CRC. */
+    static final int HEADER_SIZE = 8;
+
+    /** Operation, kind and id length. */
+    private static final int BODY_PREFIX_SIZE = 4;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Receives the records found by {@link TicketSegment#recover}. */
+    interface RecordVisitor {
+        void visit(TicketSegment segment, int offset, byte operation, String id);
+    }
+
+    private final int number;
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final MappedByteBuffer buffer;
+    private final CRC32 crc = new CRC32();
+
+    private int writePosition;
+    private long liveBytes;
+
+    private TicketSegment(int number, File file, int size) throws IOException {
+        this.number = number;
+        this.file = file;
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            if (this.randomAccessFile.length() < size) {
+                this.randomAccessFile.setLength(size);
+            }
+            this.buffer =
+                    this.randomAccessFile
+                            .getChannel()
+                            .map(FileChannel.MapMode.READ_WRITE, 0, this.randomAccessFile.length());
+        } catch (IOException e) {
+            this.randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Create or open the segment file and map all of it.
+     *
+     * @param number position of the segment in the log, later segments override earlier ones
+     * @param file the segment file
+     * @param size minimum file size, a larger existing file is mapped in full
+     */
+    static TicketSegment open(int number, File file, int size) throws IOException {
+        return new TicketSegment(number, file, size);
+    }
+
+    /** @return the number of bytes a record for the id and serialized ticket takes */
+    static int recordSize(String id, byte[] ticket) {
+        return HEADER_SIZE + BODY_PREFIX_SIZE + id.getBytes(UTF8).length + ticket.length;
+    }
+
+    /** @return position of the segment in the log */
+    public int getNumber() {
+        return this.number;
+    }
+
+    /** @return the segment file */
+    public File getFile() {
+        return this.file;
+    }
+
+    /** @return bytes used by records */
+    public int getWritePosition() {
+        return this.writePosition;
+    }
+
+    /** @return bytes used by records that are still the current version of a ticket */
+    public long getLiveBytes() {
+        return this.liveBytes;
+    }
+
+    /** @param delta change in bytes used by current records */
+    void addLiveBytes(long delta) {
+        this.liveBytes += delta;
+    }
+
+    /**
+     * Append a record.
+     *
+     * @return offset of the new record, or -1 if the segment does not have room for it
+     */
+    int append(byte operation, byte kind, String id, byte[] ticket) {
+        final byte[] idBytes = id.getBytes(UTF8);
+        if (idBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Ticket id is too long: " + id);
+        }
+        final int bodyLength = BODY_PREFIX_SIZE + idBytes.length + ticket.length;
+        final int offset = this.writePosition;
+        if ((long) offset + HEADER_SIZE + bodyLength > this.buffer.capacity()) {
+            return -1;
+        }
+
+        final ByteBuffer body = this.buffer.duplicate();
+        body.position(offset + HEADER_SIZE);
+        body.put(operation).put(kind).putShort((short) idBytes.length).put(idBytes).put(ticket);
+
+        this.crc.reset();
+        this.crc.update(this.body(offset, bodyLength));
+        this.buffer.putInt(offset + 4, (int) this.crc.getValue());
+        // the length goes last, it is what makes the record visible to recovery
+        this.buffer.putInt(offset, bodyLength);
+
+        this.writePosition = offset + HEADER_SIZE + bodyLength;
+        return offset;
+    }
+
+    /** @return size, header included, of the record at the offset */
+    int recordSizeAt(int offset) {
+        return HEADER_SIZE + this.buffer.getInt(offset);
+    }
+
+    /** @return operation of the record at the offset */
+    byte operationAt(int offset) {
+        return this.buffer.get(offset + HEADER_SIZE);
+    }
+
+    /** @return kind of ticket in the record at the offset */
+    byte kindAt(int offset) {
+        return this.buffer.get(offset + HEADER_SIZE + 1);
+    }
+
+    /** @return ticket id of the record at the offset */
+    String idAt(int offset) {
+        final int idLength = this.buffer.getShort(offset + HEADER_SIZE + 2) & 0xFFFF;
+        final byte[] id = new byte[idLength];
+        final ByteBuffer body = this.buffer.duplicate();
+        body.position(offset + HEADER_SIZE + BODY_PREFIX_SIZE);
+        body.get(id);
+        return new String(id, UTF8);
+    }
+
+    /** @return a copy of the serialized ticket in the record at the offset */
+    byte[] ticketAt(int offset) {
+        final int bodyLength = this.buffer.getInt(offset);
+        final int idLength = this.buffer.getShort(offset + HEADER_SIZE + 2) & 0xFFFF;
+        final byte[] ticket = new byte[bodyLength - BODY_PREFIX_SIZE - idLength];
+        final ByteBuffer body = this.buffer.duplicate();
+        body.position(offset + HEADER_SIZE + BODY_PREFIX_SIZE + idLength);
+        body.get(ticket);
+        return ticket;
+    }
+
+    /**
+     * Scan the records from the start of the segment, stopping at the first empty or damaged one,
+     * and make that the append position.
+     *
+     * @return true if the scan stopped at a damaged record
+     */
+    boolean recover(RecordVisitor visitor) {
+        int offset = 0;
+        boolean damaged = false;
+        while (offset + HEADER_SIZE <= this.buffer.capacity()) {
+            final int bodyLength = this.buffer.getInt(offset);
+            if (bodyLength == 0) {
+                break;
+            }
+            if (bodyLength < BODY_PREFIX_SIZE
+                    || (long) offset + HEADER_SIZE + bodyLength > this.buffer.capacity()) {
+                damaged = true;
+                break;
+            }
+            this.crc.reset();
+            this.crc.update(this.body(offset, bodyLength));
+            final int idLength = this.buffer.getShort(offset + HEADER_SIZE + 2) & 0xFFFF;
+            if ((int) this.crc.getValue() != this.buffer.getInt(offset + 4)
+                    || BODY_PREFIX_SIZE + idLength > bodyLength) {
+                damaged = true;
+                break;
+            }
+            visitor.visit(this, offset, this.operationAt(offset), this.idAt(offset));
+            offset += HEADER_SIZE + bodyLength;
+        }
+
+        if (damaged) {
+            // a torn append; clear its header so the next append is not mistaken for it
+            this.buffer.putLong(offset, 0);
+        }
+        this.writePosition = offset;
+        return damaged;
+    }
+
+    /** Flush written records to the file. */
+    void force() {
+        this.buffer.force();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.io.Closeable#close()
+     */
+    public void close() throws IOException {
+        // the mapping itself is released when the buffer is garbage collected
+        this.randomAccessFile.close();
+    }
+
+    @Override
+    public String toString() {
+        return this.file.getName()
+                + ": "
+                + this.liveBytes
+                + " of "
+                + this.writePosition
+                + " bytes live";
+    }
+
+    private ByteBuffer body(int offset, int bodyLength) {
+        final ByteBuffer body = this.buffer.duplicate();
+        body.position(offset + HEADER_SIZE);
+        body.limit(offset + HEADER_SIZE + bodyLength);
+        return body;
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.warmup;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sql.DataSource;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Opens connections of a pool at startup, so the first logins do not wait for the driver to load
+ * and connect. The connections are all held at once and then returned; how many of them the pool
+ * keeps open afterwards depends on its own settings, e.g. maxIdle of a commons-dbcp pool.
+ *
+ */
+public class ConnectionPoolWarmUp implements WarmUpTarget {
+    @NotNull private DataSource dataSource;
+
+    private int connections = 1;
+
+    /** @param dataSource pool to open connections of */
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /** @param connections number of connections to open, defaults to 1 */
+    public void setConnections(int connections) {
+        this.connections = connections;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apereo.portal.cas.warmup.WarmUpTarget#warmUp()
+     */
+    public void warmUp() throws SQLException {
+        final List<Connection> opened = new ArrayList<Connection>(this.connections);
+        try {
+            for (int i = 0; i < this.connections; i++) {
+                opened.add(this.dataSource.getConnection());
+            }
+        } finally {
+            for (final Connection connection : opened) {
+                connection.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.warmup;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+
+/**
+ * Warms up every {@link WarmUpTarget} singleton of a context as soon as the context has been
+ * refreshed, before the servlet container starts taking requests. Refresh events of child contexts
+ * are passed on to their parent, so a single instance of this bean in the root context also warms
+ * up the targets of the cas servlet's context, such as its theme resolver.
+ *
+ * <p>Targets are warmed up one after another on the thread refreshing the context. A target that
+ * fails is logged and reported by {@link #getFailures()}, the others are still warmed up.
+ *
+ */
+public class StartupWarmUp implements ApplicationListener<ContextRefreshedEvent> {
+    protected final Logger log = LoggerFactory.getLogger(getClass());
+
+    private boolean enabled = true;
+
+    private final Map<String, Long> durations = new LinkedHashMap<String, Long>();
+    private final Map<String, String> failures = new LinkedHashMap<String, String>();
+    private int running;
+    private boolean complete;
+
+    /** @param enabled false to skip warming up, defaults to true */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.springframework.context.ApplicationListener#onApplicationEvent(org.springframework.context.ApplicationEvent)
+     */
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        if (!this.enabled) {
+            synchronized (this) {
+                this.complete = true;
+            }
+            return;
+        }
+
+        final ApplicationContext context = event.getApplicationContext();
+        final Map<String, WarmUpTarget> targets =
+                context.getBeansOfType(WarmUpTarget.class, false, false);
+        synchronized (this) {
+            this.running++;
+        }
+        final long start = System.nanoTime();
+        try {
+            for (final Map.Entry<String, WarmUpTarget> target : targets.entrySet()) {
+                this.warmUp(target.getKey(), target.getValue());
+            }
+        } finally {
+            synchronized (this) {
+                this.running--;
+                this.complete = this.running == 0;
+            }
+        }
+        this.log.info(
+                "Warmed up {} beans of {} in {}ms",
+                targets.size(),
+                context.getDisplayName(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void warmUp(String name, WarmUpTarget target) {
+        final long start = System.nanoTime();
+        String failure = null;
+        try {
+            target.warmUp();
+        } catch (Exception e) {
+            this.log.warn("Warm-up of " + name + " failed", e);
+            failure = e.toString();
+        }
+        final long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        this.log.debug("Warmed up {} in {}ms", name, duration);
+        synchronized (this) {
+            this.durations.put(name, duration);
+            if (failure != null) {
+                this.failures.put(name, failure);
+            } else {
+                this.failures.remove(name);
+            }
+        }
+    }
+
+    /** @return true once a context has been warmed up and no warm-up is in progress */
+    public synchronized boolean isComplete() {
+        return this.complete;
+    }
+
+    /** @return milliseconds each target's last warm-up took, by bean name, in warm-up order */
+    public synchronized Map<String, Long> getDurations() {
+        return Collections.unmodifiableMap(new LinkedHashMap<String, Long>(this.durations));
+    }
+
+    /** @return the exception of each target whose last warm-up failed, by bean name */
+    public synchronized Map<String, String> getFailures() {
+        return Collections.unmodifiableMap(new LinkedHashMap<String, String>(this.failures));
+    }
+}
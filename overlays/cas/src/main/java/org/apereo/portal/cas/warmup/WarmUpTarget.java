@@ -0,0 +1,32 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.warmup;
+
+/**
+ * A bean with lazily initialized state, such as JIT compiled code, pool connections or compiled
+ * patterns, that it can bring up before the first request needs it. {@link StartupWarmUp} calls
+ * {@link #warmUp()} on every such bean in a context once the context has been refreshed.
+ *
+ */
+public interface WarmUpTarget {
+
+    /**
+     * Initializes whatever the first request would otherwise pay for. Must not change the bean's
+     * observable behavior.
+     *
+     * @throws Exception if the warm-up failed, which is reported but does not stop the startup
+     */
+    void warmUp() throws Exception;
+}
@@ -0,0 +1,143 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ */
+public class CachingUserPasswordDaoTest {
+    private UserPasswordDao target;
+    private long now;
+    private CachingUserPasswordDao cachingDao;
+
+    @Before
+    public void setUp() {
+        this.target = EasyMock.createMock(UserPasswordDao.class);
+        this.now = 1000;
+        this.cachingDao =
+                new CachingUserPasswordDao() {
+                    @Override
+                    long currentTimeMillis() {
+                        return now;
+                    }
+                };
+        this.cachingDao.setUserPasswordDao(this.target);
+        this.cachingDao.setTimeToLive(100);
+        this.cachingDao.setNegativeTimeToLive(10);
+    }
+
+    @Test
+    public void testRepeatedLookupIsCached() {
+        EasyMock.expect(this.target.getPasswordHash("admin")).andReturn("(MD5)hash").once();
+        EasyMock.replay(this.target);
+
+        assertEquals("(MD5)hash", this.cachingDao.getPasswordHash("admin"));
+        assertEquals("(MD5)hash", this.cachingDao.getPasswordHash("admin"));
+
+        EasyMock.verify(this.target);
+        assertEquals(1, this.cachingDao.getHitCount());
+        assertEquals(1, this.cachingDao.getMissCount());
+    }
+
+    @Test
+    public void testEntryExpires() {
+        EasyMock.expect(this.target.getPasswordHash("admin")).andReturn("(MD5)old");
+        EasyMock.expect(this.target.getPasswordHash("admin")).andReturn("(MD5)new");
+        EasyMock.replay(this.target);
+
+        assertEquals("(MD5)old", this.cachingDao.getPasswordHash("admin"));
+        this.now += 100;
+        assertEquals("(MD5)new", this.cachingDao.getPasswordHash("admin"));
+
+        EasyMock.verify(this.target);
+        assertEquals(1, this.cachingDao.getExpirationCount());
+    }
+
+    @Test
+    public void testUnknownUserUsesNegativeTimeToLive() {
+        EasyMock.expect(this.target.getPasswordHash("nobody")).andReturn(null).times(2);
+        EasyMock.replay(this.target);
+
+        assertNull(this.cachingDao.getPasswordHash("nobody"));
+        this.now += 9;
+        assertNull(this.cachingDao.getPasswordHash("nobody"));
+        this.now += 1;
+        assertNull(this.cachingDao.getPasswordHash("nobody"));
+
+        EasyMock.verify(this.target);
+        assertEquals(1, this.cachingDao.getHitCount());
+    }
+
+    @Test
+    public void testInvalidate() {
+        EasyMock.expect(this.target.getPasswordHash("admin")).andReturn("(MD5)old");
+        EasyMock.expect(this.target.getPasswordHash("admin")).andReturn("(MD5)new");
+        EasyMock.replay(this.target);
+
+        assertEquals("(MD5)old", this.cachingDao.getPasswordHash("admin"));
+        this.cachingDao.invalidate("admin");
+        assertEquals("(MD5)new", this.cachingDao.getPasswordHash("admin"));
+
+        EasyMock.verify(this.target);
+    }
+
+    @Test
+    public void testInvalidateDuringLookupIsNotUndone() {
+        // the password changes while the old hash is being read
+        EasyMock.expect(this.target.getPasswordHash("admin"))
+                .andAnswer(
+                        new IAnswer<String>() {
+                            public String answer() {
+                                cachingDao.invalidate("admin");
+                                return "(MD5)old";
+                            }
+                        });
+        EasyMock.expect(this.target.getPasswordHash("admin")).andReturn("(MD5)new");
+        EasyMock.replay(this.target);
+
+        assertEquals("(MD5)old", this.cachingDao.getPasswordHash("admin"));
+        assertEquals("(MD5)new", this.cachingDao.getPasswordHash("admin"));
+        assertEquals("(MD5)new", this.cachingDao.getPasswordHash("admin"));
+
+        EasyMock.verify(this.target);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        this.cachingDao.setMaxSize(2);
+        EasyMock.expect(this.target.getPasswordHash("a")).andReturn("(MD5)a").times(2);
+        EasyMock.expect(this.target.getPasswordHash("b")).andReturn("(MD5)b").once();
+        EasyMock.expect(this.target.getPasswordHash("c")).andReturn("(MD5)c").once();
+        EasyMock.replay(this.target);
+
+        this.cachingDao.getPasswordHash("a");
+        this.cachingDao.getPasswordHash("b");
+        this.cachingDao.getPasswordHash("b");
+        this.cachingDao.getPasswordHash("c");
+        this.cachingDao.getPasswordHash("b");
+        this.cachingDao.getPasswordHash("a");
+
+        EasyMock.verify(this.target);
+        assertEquals(2, this.cachingDao.getEvictionCount());
+        assertEquals(2, this.cachingDao.getSize());
+    }
+}
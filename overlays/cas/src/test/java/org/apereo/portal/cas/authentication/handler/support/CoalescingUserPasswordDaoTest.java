@@ -0,0 +1,154 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ */
+public class CoalescingUserPasswordDaoTest {
+    private static final int CALLERS = 16;
+
+    private final AtomicInteger queries = new AtomicInteger();
+    private final CountDownLatch queryStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseQuery = new CountDownLatch(1);
+
+    private ExecutorService executor;
+    private CoalescingUserPasswordDao coalescingDao;
+
+    @Before
+    public void setUp() {
+        this.executor = Executors.newFixedThreadPool(CALLERS);
+        this.coalescingDao = new CoalescingUserPasswordDao();
+        this.coalescingDao.setUserPasswordDao(
+                new UserPasswordDao() {
+                    public String getPasswordHash(String userName) {
+                        queries.incrementAndGet();
+                        queryStarted.countDown();
+                        try {
+                            releaseQuery.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        if ("broken".equals(userName)) {
+                            throw new IllegalStateException("database unavailable");
+                        }
+                        return "(MD5)" + userName;
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneQuery() throws Exception {
+        final List<Future<String>> results = this.submitCallers("admin");
+
+        this.awaitCoalescedCallers();
+        this.releaseQuery.countDown();
+
+        for (final Future<String> result : results) {
+            assertEquals("(MD5)admin", result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, this.queries.get());
+        assertEquals(1, this.coalescingDao.getLookupCount());
+        assertEquals(CALLERS - 1, this.coalescingDao.getCoalescedCount());
+        assertEquals(0, this.coalescingDao.getInFlightCount());
+    }
+
+    @Test
+    public void testFailureIsSharedAndNotRetained() throws Exception {
+        final List<Future<String>> results = this.submitCallers("broken");
+
+        this.awaitCoalescedCallers();
+        this.releaseQuery.countDown();
+
+        for (final Future<String> result : results) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                fail("expected IllegalStateException");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        assertEquals(1, this.queries.get());
+
+        // a later lookup issues a fresh query
+        try {
+            this.coalescingDao.getPasswordHash("broken");
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(2, this.queries.get());
+    }
+
+    @Test
+    public void testSequentialLookupsAreNotCoalesced() {
+        this.releaseQuery.countDown();
+
+        assertEquals("(MD5)a", this.coalescingDao.getPasswordHash("a"));
+        assertEquals("(MD5)a", this.coalescingDao.getPasswordHash("a"));
+        assertEquals("(MD5)b", this.coalescingDao.getPasswordHash("b"));
+
+        assertEquals(3, this.queries.get());
+        assertEquals(0, this.coalescingDao.getCoalescedCount());
+    }
+
+    private List<Future<String>> submitCallers(final String userName) {
+        final List<Future<String>> results = new ArrayList<Future<String>>();
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(
+                    this.executor.submit(
+                            new Callable<String>() {
+                                public String call() {
+                                    return coalescingDao.getPasswordHash(userName);
+                                }
+                            }));
+        }
+        return results;
+    }
+
+    /** Wait until one caller is running the query and every other caller has joined it. */
+    private void awaitCoalescedCallers() throws InterruptedException {
+        assertTrue(this.queryStarted.await(5, TimeUnit.SECONDS));
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (this.coalescingDao.getCoalescedCount() < CALLERS - 1) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("only " + this.coalescingDao.getCoalescedCount() + " callers coalesced");
+            }
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ */
+public class FailedLoginThrottleTest {
+
+    @Test
+    public void testUsernameThreshold() {
+        final FailedLoginThrottle throttle = throttle(3, 5);
+        for (int i = 0; i < 2; i++) {
+            throttle.recordFailure("student", "10.0.0." + i);
+        }
+        assertFalse(throttle.isBlocked("student", "10.0.0.9"));
+
+        // usernames are counted case-insensitively
+        throttle.recordFailure("Student", "10.0.0.2");
+        assertTrue(throttle.isBlocked("student", "10.0.0.9"));
+        assertTrue(throttle.isBlocked("STUDENT", null));
+        assertFalse(throttle.isBlocked("staff", "10.0.0.9"));
+        assertEquals(2, throttle.getBlockedCount());
+    }
+
+    @Test
+    public void testAddressThreshold() {
+        final FailedLoginThrottle throttle = throttle(3, 5);
+        for (int i = 0; i < 5; i++) {
+            throttle.recordFailure("user" + i, "192.168.1.10");
+        }
+        assertTrue(throttle.isBlocked("staff", "192.168.1.10"));
+        assertFalse(throttle.isBlocked("staff", "192.168.1.11"));
+        assertFalse(throttle.isBlocked("staff", null));
+
+        throttle.setAddressThreshold(0);
+        assertFalse(throttle.isBlocked("staff", "192.168.1.10"));
+    }
+
+    @Test
+    public void testWindow() {
+        final FailedLoginSketch sketch = new FailedLoginSketch(1024, 4, 4000);
+        sketch.add("student", 0);
+        sketch.add("student", 1500);
+        assertEquals(3, sketch.add("student", 2500));
+        assertEquals(0, sketch.estimate("staff", 2500));
+
+        // failures leave the window a slice at a time
+        assertEquals(3, sketch.estimate("student", 3999));
+        assertEquals(2, sketch.estimate("student", 4000));
+        assertEquals(1, sketch.estimate("student", 5000));
+        assertEquals(0, sketch.estimate("student", 6000));
+
+        // a reused slice starts from zero
+        assertEquals(1, sketch.add("student", 6000));
+    }
+
+    @Test
+    public void testDistinctUsernameAttack() {
+        final FailedLoginThrottle throttle = throttle(10, 0);
+        final long footprint = throttle.getFootprint();
+
+        // 100k usernames failing twice each, well under the threshold
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 100000; i++) {
+                throttle.recordFailure("attack" + i, "203.0.113.7");
+            }
+        }
+        assertEquals(footprint, throttle.getFootprint());
+
+        // neither the attacked nor untouched usernames are blocked by collisions
+        int blocked = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (throttle.isBlocked("attack" + i, null) || throttle.isBlocked("user" + i, null)) {
+                blocked++;
+            }
+        }
+        assertEquals(0, blocked);
+    }
+
+    private static FailedLoginThrottle throttle(int usernameThreshold, int addressThreshold) {
+        final FailedLoginThrottle throttle = new FailedLoginThrottle();
+        throttle.setUsernameThreshold(usernameThreshold);
+        throttle.setAddressThreshold(addressThreshold);
+        throttle.afterPropertiesSet();
+        return throttle;
+    }
+}
@@ -14,12 +14,21 @@
  */
 package org.apereo.portal.cas.authentication.handler.support;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.util.Locale;
+import org.apereo.portal.cas.monitor.AuthenticationMetrics;
+import org.apereo.portal.cas.monitor.AuthenticationMetrics.FailureReason;
+import org.apereo.portal.cas.monitor.AuthenticationMetrics.HashAlgorithm;
+import org.apereo.portal.cas.monitor.AuthenticationMetrics.Stage;
 import org.easymock.EasyMock;
+import org.jasig.cas.authentication.handler.BlockedCredentialsAuthenticationException;
 import org.jasig.cas.authentication.principal.UsernamePasswordCredentials;
 import org.junit.Test;
+import org.springframework.context.support.ReloadableResourceBundleMessageSource;
 
 /**
  */
@@ -143,4 +152,155 @@ public class PersonDirAuthenticationHandlerTest {
 
         assertFalse(auth);
     }
+
+    @Test
+    public void testMetrics() throws Exception {
+        final UserPasswordDao userPasswordDao = EasyMock.createMock(UserPasswordDao.class);
+        EasyMock.expect(userPasswordDao.getPasswordHash("admin"))
+                .andReturn("(MD5)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16Vt")
+                .times(2);
+        EasyMock.expect(userPasswordDao.getPasswordHash("nobody")).andReturn(null);
+
+        final AuthenticationMetrics metrics = new AuthenticationMetrics();
+        final PersonDirAuthenticationHandler authenticationHandler =
+                new PersonDirAuthenticationHandler();
+        authenticationHandler.setUserPasswordDao(userPasswordDao);
+        authenticationHandler.setAuthenticationMetrics(metrics);
+
+        EasyMock.replay(userPasswordDao);
+
+        assertTrue(
+                authenticationHandler.authenticateUsernamePasswordInternal(
+                        credentials("admin", "admin")));
+        assertFalse(
+                authenticationHandler.authenticateUsernamePasswordInternal(
+                        credentials("admin", "wrong")));
+        assertFalse(
+                authenticationHandler.authenticateUsernamePasswordInternal(
+                        credentials("nobody", "admin")));
+
+        EasyMock.verify(userPasswordDao);
+
+        assertEquals(3, metrics.getHistogram(Stage.AUTHENTICATION).getCount());
+        assertEquals(3, metrics.getHistogram(Stage.PASSWORD_LOOKUP).getCount());
+        assertEquals(2, metrics.getHistogram(Stage.PASSWORD_HASH).getCount());
+        assertEquals(2, metrics.getHashAlgorithmCount(HashAlgorithm.MD5));
+        assertEquals(1, metrics.getFailureCount(FailureReason.BAD_PASSWORD));
+        assertEquals(1, metrics.getFailureCount(FailureReason.UNKNOWN_USER));
+    }
+
+    @Test
+    public void testOverloaded() throws Exception {
+        final UserPasswordDao userPasswordDao = EasyMock.createMock(UserPasswordDao.class);
+        EasyMock.expect(userPasswordDao.getPasswordHash("admin"))
+                .andReturn("(MD5)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16Vt")
+                .times(2);
+
+        final AuthenticationMetrics metrics = new AuthenticationMetrics();
+        final VerificationLimiter limiter = VerificationLimiterTest.limiter(1, 0, 0);
+        final PersonDirAuthenticationHandler authenticationHandler =
+                new PersonDirAuthenticationHandler();
+        authenticationHandler.setUserPasswordDao(userPasswordDao);
+        authenticationHandler.setAuthenticationMetrics(metrics);
+        authenticationHandler.setVerificationLimiter(limiter);
+
+        EasyMock.replay(userPasswordDao);
+
+        // another login is hashing and nothing may queue
+        assertTrue(limiter.acquire());
+        try {
+            authenticationHandler.authenticateUsernamePasswordInternal(
+                    credentials("admin", "admin"));
+            fail("expected VerificationOverloadedException");
+        } catch (VerificationOverloadedException e) {
+            assertEquals("error.authentication.overloaded", e.getCode());
+            // as the login form shows it, from the bundle cas-servlet.xml reads first
+            final ReloadableResourceBundleMessageSource messageSource =
+                    new ReloadableResourceBundleMessageSource();
+            messageSource.setBasename("classpath:custom_messages");
+            messageSource.setDefaultEncoding("UTF-8");
+            assertTrue(
+                    messageSource
+                            .getMessage(e.getCode(), null, Locale.ENGLISH)
+                            .startsWith("Too many people are signing in"));
+        }
+        limiter.release();
+
+        assertTrue(
+                authenticationHandler.authenticateUsernamePasswordInternal(
+                        credentials("admin", "admin")));
+
+        EasyMock.verify(userPasswordDao);
+
+        assertEquals(0, limiter.getActiveCount());
+        assertEquals(1, limiter.getRejectedCount());
+        assertEquals(1, metrics.getFailureCount(FailureReason.OVERLOADED));
+        assertEquals(1, metrics.getHistogram(Stage.PASSWORD_HASH).getCount());
+    }
+
+    @Test
+    public void testThrottled() throws Exception {
+        final UserPasswordDao userPasswordDao = EasyMock.createMock(UserPasswordDao.class);
+        EasyMock.expect(userPasswordDao.getPasswordHash("admin"))
+                .andReturn("(MD5)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16Vt")
+                .times(2);
+
+        final AuthenticationMetrics metrics = new AuthenticationMetrics();
+        final FailedLoginThrottle throttle = new FailedLoginThrottle();
+        throttle.setUsernameThreshold(2);
+        throttle.afterPropertiesSet();
+        final PersonDirAuthenticationHandler authenticationHandler =
+                new PersonDirAuthenticationHandler();
+        authenticationHandler.setUserPasswordDao(userPasswordDao);
+        authenticationHandler.setAuthenticationMetrics(metrics);
+        authenticationHandler.setFailedLoginThrottle(throttle);
+
+        EasyMock.replay(userPasswordDao);
+
+        for (int i = 0; i < 2; i++) {
+            assertFalse(
+                    authenticationHandler.authenticateUsernamePasswordInternal(
+                            credentials("admin", "wrong")));
+        }
+        // blocked without looking up the password, even when it is right
+        try {
+            authenticationHandler.authenticateUsernamePasswordInternal(
+                    credentials("admin", "admin"));
+            fail("expected BlockedCredentialsAuthenticationException");
+        } catch (BlockedCredentialsAuthenticationException e) {
+            // expected
+        }
+
+        EasyMock.verify(userPasswordDao);
+
+        assertEquals(1, metrics.getFailureCount(FailureReason.THROTTLED));
+        assertEquals(2, metrics.getFailureCount(FailureReason.BAD_PASSWORD));
+    }
+
+    private static UsernamePasswordCredentials credentials(String username, String password) {
+        final UsernamePasswordCredentials credentials = new UsernamePasswordCredentials();
+        credentials.setUsername(username);
+        credentials.setPassword(password);
+        return credentials;
+    }
+
+    @Test
+    public void testWarmUp() throws Exception {
+        final UserPasswordDao userPasswordDao = EasyMock.createMock(UserPasswordDao.class);
+        final AuthenticationMetrics metrics = new AuthenticationMetrics();
+
+        final PersonDirAuthenticationHandler authenticationHandler =
+                new PersonDirAuthenticationHandler();
+        authenticationHandler.setUserPasswordDao(userPasswordDao);
+        authenticationHandler.setAuthenticationMetrics(metrics);
+        authenticationHandler.setWarmUpIterations(3);
+
+        EasyMock.replay(userPasswordDao);
+
+        // the synthetic hashes verify, without looking anything up or recording metrics
+        authenticationHandler.warmUp();
+
+        EasyMock.verify(userPasswordDao);
+        assertEquals(0, metrics.getHistogram(Stage.PASSWORD_HASH).getCount());
+    }
 }
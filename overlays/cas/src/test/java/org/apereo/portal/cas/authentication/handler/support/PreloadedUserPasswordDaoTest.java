@@ -0,0 +1,151 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import java.sql.Timestamp;
+import javax.sql.DataSource;
+import junit.framework.TestCase;
+import org.easymock.EasyMock;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+
+/**
+ */
+public class PreloadedUserPasswordDaoTest extends TestCase {
+    private static final String MD5_HASH = "(MD5)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16Vt";
+    private static final String SHA256_HASH =
+            "(SHA256)KwAQC001SoQq/CjHMLSz2o0aAqx7WrKeRFgWOeM2GEyLXGZd+1/XkA==";
+
+    private JdbcTemplate jdbcTemplate;
+    private DataSource dataSource;
+    private UserPasswordDao fallbackDao;
+    private PreloadedUserPasswordDao userPasswordDao;
+
+    /* (non-Javadoc)
+     * @see junit.framework.TestCase#setUp()
+     */
+    @Override
+    protected void setUp() throws Exception {
+        this.dataSource =
+                new SimpleDriverDataSource(
+                        new org.hsqldb.jdbcDriver(), "jdbc:hsqldb:mem:CasPreloadTest", "sa", "");
+
+        this.jdbcTemplate = new JdbcTemplate(this.dataSource);
+        this.jdbcTemplate.execute(
+                "CREATE TABLE UP_PERSON_DIR (USER_NAME VARCHAR(1000), ENCRPTD_PSWD VARCHAR(1000), "
+                        + "LST_PSWD_CGH_DT TIMESTAMP)");
+        this.insert("admin", MD5_HASH);
+        this.insert("student", SHA256_HASH);
+        this.insert("legacy", "not-a-known-format");
+
+        this.fallbackDao = EasyMock.createMock(UserPasswordDao.class);
+
+        this.userPasswordDao = new PreloadedUserPasswordDao();
+        this.userPasswordDao.setDataSource(this.dataSource);
+        this.userPasswordDao.setUserPasswordDao(this.fallbackDao);
+        this.userPasswordDao.setFetchSize(2);
+        this.userPasswordDao.afterPropertiesSet();
+    }
+
+    /* (non-Javadoc)
+     * @see junit.framework.TestCase#tearDown()
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        this.jdbcTemplate.execute("SHUTDOWN");
+
+        this.dataSource = null;
+        this.jdbcTemplate = null;
+        this.userPasswordDao = null;
+    }
+
+    public void testLoadedUsersNeedNoQuery() {
+        EasyMock.replay(this.fallbackDao);
+        this.jdbcTemplate.execute("DROP TABLE UP_PERSON_DIR");
+
+        assertEquals(MD5_HASH, this.userPasswordDao.getPasswordHash("admin"));
+        assertEquals(SHA256_HASH, this.userPasswordDao.getPasswordHash("student"));
+        assertEquals("not-a-known-format", this.userPasswordDao.getPasswordHash("legacy"));
+        assertEquals(3, this.userPasswordDao.getSize());
+        assertTrue(this.userPasswordDao.getMemoryFootprint() > 0);
+
+        EasyMock.verify(this.fallbackDao);
+    }
+
+    public void testUnknownUserFallsBack() {
+        EasyMock.expect(this.fallbackDao.getPasswordHash("newuser")).andReturn("(MD5)x");
+        EasyMock.replay(this.fallbackDao);
+
+        assertEquals("(MD5)x", this.userPasswordDao.getPasswordHash("newuser"));
+
+        EasyMock.verify(this.fallbackDao);
+    }
+
+    public void testRefreshPicksUpChangedPasswords() {
+        EasyMock.replay(this.fallbackDao);
+        this.jdbcTemplate.update(
+                "UPDATE UP_PERSON_DIR SET ENCRPTD_PSWD = ?, LST_PSWD_CGH_DT = ? WHERE USER_NAME = ?",
+                SHA256_HASH,
+                new Timestamp(System.currentTimeMillis()),
+                "admin");
+
+        assertEquals(MD5_HASH, this.userPasswordDao.getPasswordHash("admin"));
+        this.userPasswordDao.refresh();
+        assertEquals(SHA256_HASH, this.userPasswordDao.getPasswordHash("admin"));
+
+        EasyMock.verify(this.fallbackDao);
+    }
+
+    public void testReloadDropsDeletedUsers() {
+        EasyMock.expect(this.fallbackDao.getPasswordHash("legacy")).andReturn(null);
+        EasyMock.replay(this.fallbackDao);
+        this.jdbcTemplate.update("DELETE FROM UP_PERSON_DIR WHERE USER_NAME = 'legacy'");
+
+        this.userPasswordDao.reload();
+
+        assertNull(this.userPasswordDao.getPasswordHash("legacy"));
+        assertEquals(2, this.userPasswordDao.getSize());
+        EasyMock.verify(this.fallbackDao);
+    }
+
+    public void testIndexGrowsPastInitialSize() {
+        final PasswordHashIndex.Builder builder = PasswordHashIndex.builder(0);
+        for (int i = 0; i < 5000; i++) {
+            builder.put("user" + i, "(MD5)" + i);
+        }
+        final PasswordHashIndex index = builder.build();
+
+        assertEquals(5000, index.size());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals("(MD5)" + i, index.get("user" + i));
+        }
+        assertNull(index.get("user5000"));
+    }
+
+    public void testIndexReturnsStoredHash() {
+        final String hash = "(SHA256)O0TX94xuUktINx9F/8QV/nUHNuRefN8iuEAbuGqAFZxJ0EidyhFiUQ==";
+        final PasswordHashIndex index = PasswordHashIndex.builder(1).put("admin", hash).build();
+
+        assertSame(hash, index.get("admin"));
+    }
+
+    private void insert(String userName, String passwordHash) {
+        this.jdbcTemplate.update(
+                "INSERT INTO UP_PERSON_DIR VALUES (?, ?, ?)",
+                userName,
+                passwordHash,
+                new Timestamp(System.currentTimeMillis() - 3600000L));
+    }
+}
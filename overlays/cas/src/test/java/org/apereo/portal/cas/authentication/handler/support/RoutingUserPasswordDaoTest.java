@@ -0,0 +1,233 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+
+/**
+ */
+public class RoutingUserPasswordDaoTest {
+    private static final int DATABASES = 3;
+
+    private final List<FaultyDataSource> dataSources = new ArrayList<FaultyDataSource>();
+    private RoutingUserPasswordDao routingDao;
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < DATABASES; i++) {
+            final FaultyDataSource dataSource =
+                    new FaultyDataSource(
+                            new SimpleDriverDataSource(
+                                    new org.hsqldb.jdbcDriver(),
+                                    "jdbc:hsqldb:mem:RoutingTest" + i,
+                                    "sa",
+                                    ""));
+            final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource.getTargetDataSource());
+            jdbcTemplate.execute(
+                    "CREATE TABLE UP_PERSON_DIR (USER_NAME VARCHAR(1000), ENCRPTD_PSWD VARCHAR(1000))");
+            jdbcTemplate.update("INSERT INTO UP_PERSON_DIR VALUES ('admin', '(MD5)hash')");
+            this.dataSources.add(dataSource);
+        }
+
+        this.routingDao = new RoutingUserPasswordDao();
+        this.routingDao.setDataSources(new ArrayList<DataSource>(this.dataSources));
+        this.routingDao.setMinHedgeDelay(1000);
+        this.routingDao.setProbeInterval(Long.MAX_VALUE);
+    }
+
+    @After
+    public void tearDown() {
+        this.routingDao.destroy();
+        for (final FaultyDataSource dataSource : this.dataSources) {
+            new JdbcTemplate(dataSource.getTargetDataSource()).execute("SHUTDOWN");
+        }
+    }
+
+    @Test
+    public void testRoutesToFastestDatabase() {
+        this.dataSources.get(0).delay = 50;
+        this.routingDao.afterPropertiesSet();
+
+        // the primary is tried first, then avoided once its latency is known
+        for (int i = 0; i < 10; i++) {
+            assertEquals("(MD5)hash", this.routingDao.getPasswordHash("admin"));
+        }
+
+        assertEquals(1, this.routingDao.getQueryCount(0));
+        assertEquals(9, this.routingDao.getQueryCount(1) + this.routingDao.getQueryCount(2));
+        assertEquals(0, this.routingDao.getHedgeCount());
+    }
+
+    @Test
+    public void testHedgesSlowLookup() throws Exception {
+        this.dataSources.get(0).delay = 2000;
+        this.routingDao.setMinHedgeDelay(20);
+        this.routingDao.setFailureThreshold(1);
+        this.routingDao.afterPropertiesSet();
+
+        final long start = System.currentTimeMillis();
+        assertEquals("(MD5)hash", this.routingDao.getPasswordHash("admin"));
+
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(1, this.routingDao.getHedgeCount());
+        assertEquals(1, this.routingDao.getQueryCount(1));
+        assertEquals(1, this.dataSources.get(0).connections.get());
+
+        // the slow query is cancelled, and that is not a failure of the primary
+        this.dataSources.get(0).awaitInterrupts(1);
+        assertTrue(this.routingDao.isAvailable(0));
+    }
+
+    @Test
+    public void testFailedDatabaseIsSkippedUntilItRecovers() throws Exception {
+        this.dataSources.get(0).fail = true;
+        this.routingDao.setFailureThreshold(2);
+        this.routingDao.setOpenInterval(200);
+        this.routingDao.afterPropertiesSet();
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals("(MD5)hash", this.routingDao.getPasswordHash("admin"));
+        }
+        assertFalse(this.routingDao.isAvailable(0));
+        assertEquals(2, this.dataSources.get(0).connections.get());
+        assertEquals(2, this.routingDao.getFailoverCount());
+
+        // after the open interval a single lookup is let through, and it closes the circuit
+        this.dataSources.get(0).fail = false;
+        Thread.sleep(250);
+        this.routingDao.setProbeInterval(0);
+        assertEquals("(MD5)hash", this.routingDao.getPasswordHash("admin"));
+        assertTrue(this.routingDao.isAvailable(0));
+        assertEquals(1, this.routingDao.getQueryCount(0));
+    }
+
+    @Test
+    public void testAllDatabasesFailing() {
+        for (final FaultyDataSource dataSource : this.dataSources) {
+            dataSource.fail = true;
+        }
+        this.routingDao.afterPropertiesSet();
+
+        try {
+            this.routingDao.getPasswordHash("admin");
+            fail("should have thrown DataAccessException");
+        } catch (DataAccessException e) {
+            //expected
+        }
+        for (final FaultyDataSource dataSource : this.dataSources) {
+            assertEquals(1, dataSource.connections.get());
+        }
+    }
+
+    @Test
+    public void testTimeout() {
+        for (final FaultyDataSource dataSource : this.dataSources) {
+            dataSource.delay = 1000;
+        }
+        this.routingDao.setTimeout(100);
+        this.routingDao.afterPropertiesSet();
+
+        try {
+            this.routingDao.getPasswordHash("admin");
+            fail("should have thrown QueryTimeoutException");
+        } catch (QueryTimeoutException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testTimeoutCountsOnce() throws Exception {
+        this.dataSources.get(0).delay = 1000;
+        this.routingDao.setDataSources(
+                Collections.<DataSource>singletonList(this.dataSources.get(0)));
+        this.routingDao.setTimeout(100);
+        this.routingDao.setFailureThreshold(2);
+        this.routingDao.afterPropertiesSet();
+
+        for (int i = 1; i <= 2; i++) {
+            try {
+                this.routingDao.getPasswordHash("admin");
+                fail("should have thrown QueryTimeoutException");
+            } catch (QueryTimeoutException e) {
+                //expected
+            }
+            // the cancelled query fails too, but it is the same failure
+            this.dataSources.get(0).awaitInterrupts(i);
+            assertEquals(i < 2, this.routingDao.isAvailable(0));
+        }
+    }
+
+    /** Test database that can be made slow or broken. */
+    private static final class FaultyDataSource extends DelegatingDataSource {
+        private final AtomicInteger connections = new AtomicInteger();
+        private final AtomicInteger interrupts = new AtomicInteger();
+        private volatile long delay;
+        private volatile boolean fail;
+
+        FaultyDataSource(DataSource targetDataSource) {
+            super(targetDataSource);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            this.connections.incrementAndGet();
+            if (this.fail) {
+                throw new SQLException("database unavailable");
+            }
+            try {
+                Thread.sleep(this.delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                synchronized (this.interrupts) {
+                    this.interrupts.incrementAndGet();
+                    this.interrupts.notifyAll();
+                }
+                throw new SQLException("interrupted");
+            }
+            return super.getConnection();
+        }
+
+        /** Wait until count queries were interrupted, and a moment for them to be handled. */
+        void awaitInterrupts(int count) throws InterruptedException {
+            synchronized (this.interrupts) {
+                final long until = System.currentTimeMillis() + 5000;
+                while (this.interrupts.get() < count && System.currentTimeMillis() < until) {
+                    this.interrupts.wait(100);
+                }
+            }
+            assertEquals(count, this.interrupts.get());
+            Thread.sleep(50);
+        }
+    }
+}
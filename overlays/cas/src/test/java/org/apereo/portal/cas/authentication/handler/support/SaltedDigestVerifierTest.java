@@ -0,0 +1,110 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.jasypt.digest.config.SimpleDigesterConfig;
+import org.jasypt.util.password.ConfigurablePasswordEncryptor;
+import org.junit.Test;
+
+/**
+ * Cross-validates {@link SaltedDigestVerifier} against the jasypt encryptor configuration
+ * PersonDirAuthenticationHandler used to use.
+ *
+ */
+public class SaltedDigestVerifierTest {
+    private static final String[] PASSWORDS = {
+        "",
+        "admin",
+        "correct horse battery staple",
+        "p\u00e4ssw\u00f6rd",
+        // decomposed form, normalized to NFC before hashing
+        "pa\u0308ssw\u0308ord",
+        "\u65e5\u672c\u8a9e\u30d1\u30b9\u30ef\u30fc\u30c9",
+        "emoji\ud83d\udd11key",
+        "unpaired\ud800surrogate",
+        "a very long password that is longer than the initial sixty-four byte scratch buffer "
+                + "so the per-thread buffer has to grow"
+    };
+
+    @Test
+    public void testMd5MatchesJasypt() {
+        this.crossValidate(this.jasypt("MD5", 1), new SaltedDigestVerifier("MD5", 1, 8));
+    }
+
+    @Test
+    public void testSha256MatchesJasypt() {
+        this.crossValidate(
+                this.jasypt("SHA-256", 1000), new SaltedDigestVerifier("SHA-256", 1000, 8));
+    }
+
+    @Test
+    public void testRandomPasswordsMatchJasypt() {
+        final ConfigurablePasswordEncryptor encryptor = this.jasypt("SHA-256", 1000);
+        final SaltedDigestVerifier verifier = new SaltedDigestVerifier("SHA-256", 1000, 8);
+        final Random random = new Random(42);
+
+        for (int i = 0; i < 50; i++) {
+            final char[] chars = new char[random.nextInt(40)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = (char) random.nextInt(0x3000);
+            }
+            final String password = new String(chars);
+            final String hash = encryptor.encryptPassword(password);
+
+            assertTrue(verifier.matches(password, hash, 0));
+            assertFalse(verifier.matches(password + "x", hash, 0));
+        }
+    }
+
+    @Test
+    public void testMalformedHashes() {
+        final SaltedDigestVerifier verifier = new SaltedDigestVerifier("MD5", 1, 8);
+
+        assertFalse(verifier.matches("admin", "", 0));
+        assertFalse(verifier.matches("admin", "(MD5)", 5));
+        assertFalse(verifier.matches("admin", "(MD5)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16", 5));
+        assertFalse(verifier.matches("admin", "(MD5)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16VtAAAA", 5));
+        assertFalse(verifier.matches("admin", "(MD5)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16V!", 5));
+        assertFalse(verifier.matches(null, "(MD5)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16Vt", 5));
+        assertTrue(verifier.matches("admin", "(MD5)OP2Z89LDMIY6gHAwfoFPRSQWDl5Z16Vt", 5));
+    }
+
+    private void crossValidate(
+            ConfigurablePasswordEncryptor encryptor, SaltedDigestVerifier verifier) {
+        for (final String password : PASSWORDS) {
+            final String hash = "(X)" + encryptor.encryptPassword(password);
+
+            assertTrue(password, verifier.matches(password, hash, 3));
+            assertFalse(password, verifier.matches(password + " ", hash, 3));
+            if (password.length() > 0) {
+                assertFalse(password, verifier.matches(password.substring(1), hash, 3));
+            }
+        }
+    }
+
+    private ConfigurablePasswordEncryptor jasypt(String algorithm, int iterations) {
+        final ConfigurablePasswordEncryptor encryptor = new ConfigurablePasswordEncryptor();
+        final SimpleDigesterConfig config = new SimpleDigesterConfig();
+        config.setIterations(iterations);
+        config.setAlgorithm(algorithm);
+        config.setSaltSizeBytes(8);
+        encryptor.setConfig(config);
+        return encryptor;
+    }
+}
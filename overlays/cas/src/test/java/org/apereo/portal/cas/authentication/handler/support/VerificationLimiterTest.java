@@ -0,0 +1,117 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.authentication.handler.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ */
+public class VerificationLimiterTest {
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        this.executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void testTimeout() {
+        final VerificationLimiter limiter = limiter(2, 4, 50);
+        assertTrue(limiter.acquire());
+        assertTrue(limiter.acquire());
+        assertEquals(2, limiter.getActiveCount());
+
+        final long start = System.nanoTime();
+        assertFalse(limiter.acquire());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(1, limiter.getTimedOutCount());
+        assertEquals(0, limiter.getQueueDepth());
+
+        limiter.release();
+        assertTrue(limiter.acquire());
+        assertEquals(0, limiter.getRejectedCount());
+    }
+
+    @Test
+    public void testQueueFull() throws Exception {
+        final VerificationLimiter limiter = limiter(1, 2, 10000);
+        assertTrue(limiter.acquire());
+
+        // two waiters fill the queue, the third is refused without waiting
+        final CountDownLatch started = new CountDownLatch(2);
+        final Future<?>[] waiters = new Future<?>[2];
+        for (int i = 0; i < waiters.length; i++) {
+            waiters[i] =
+                    this.executor.submit(
+                            new Runnable() {
+                                public void run() {
+                                    started.countDown();
+                                    if (limiter.acquire()) {
+                                        limiter.release();
+                                    }
+                                }
+                            });
+        }
+        started.await();
+        while (limiter.getQueueDepth() < 2) {
+            Thread.sleep(1);
+        }
+
+        final long start = System.nanoTime();
+        assertFalse(limiter.acquire());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(1, limiter.getRejectedCount());
+
+        // the queued verifications go ahead once the running one finishes
+        limiter.release();
+        for (final Future<?> waiter : waiters) {
+            waiter.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(0, limiter.getQueueDepth());
+        assertEquals(0, limiter.getActiveCount());
+        assertEquals(0, limiter.getTimedOutCount());
+    }
+
+    @Test
+    public void testDefaultConcurrency() {
+        assertEquals(
+                Runtime.getRuntime().availableProcessors(),
+                new VerificationLimiter().getMaxConcurrent());
+    }
+
+    static VerificationLimiter limiter(int maxConcurrent, int maxQueued, long maxWait) {
+        final VerificationLimiter limiter = new VerificationLimiter();
+        limiter.setMaxConcurrent(maxConcurrent);
+        limiter.setMaxQueued(maxQueued);
+        limiter.setMaxWait(maxWait);
+        return limiter;
+    }
+}
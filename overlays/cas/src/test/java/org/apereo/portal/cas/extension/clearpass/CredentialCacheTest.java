@@ -0,0 +1,218 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.extension.clearpass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ */
+public class CredentialCacheTest {
+    private long now;
+    private CredentialCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        this.now = 1000;
+        this.cache =
+                new CredentialCache() {
+                    @Override
+                    long currentTimeMillis() {
+                        return now;
+                    }
+                };
+        this.cache.setCapacity(3);
+        this.cache.setMaxPasswordLength(16);
+        this.cache.setPendingTimeToLive(100);
+        this.cache.afterPropertiesSet();
+    }
+
+    @Test
+    public void testPutAndGet() {
+        assertNull(this.cache.put("alice", "s\u00e9cret"));
+        this.cache.put("bob", "hunter2");
+
+        assertEquals("s\u00e9cret", this.cache.get("alice"));
+        assertEquals("hunter2", this.cache.get("bob"));
+        assertNull(this.cache.get("carol"));
+        assertEquals(2, this.cache.size());
+        assertEquals(2, this.cache.getHitCount());
+        assertEquals(1, this.cache.getMissCount());
+    }
+
+    @Test
+    public void testPutReplacesPassword() {
+        this.cache.put("alice", "a-much-longer-pw");
+        this.cache.put("alice", "short");
+
+        assertEquals("short", this.cache.get("alice"));
+        assertEquals(1, this.cache.size());
+    }
+
+    @Test
+    public void testTooLongPasswordIsRejected() {
+        this.cache.put("alice", "seventeen-letters");
+
+        assertNull(this.cache.get("alice"));
+        assertEquals(0, this.cache.size());
+        assertEquals(1, this.cache.getRejectionCount());
+    }
+
+    @Test
+    public void testPendingPasswordExpires() {
+        this.cache.put("alice", "secret");
+        this.now += 99;
+        assertTrue(this.cache.containsKey("alice"));
+        this.now += 1;
+
+        assertNull(this.cache.get("alice"));
+        assertEquals(0, this.cache.size());
+        assertEquals(1, this.cache.getExpirationCount());
+    }
+
+    @Test
+    public void testPasswordKeptUntilLastTicketRemoved() {
+        this.cache.put("alice", "secret");
+        this.cache.addTicket("TGT-1", "alice");
+        this.cache.addTicket("TGT-2", "alice");
+        this.now += 1000;
+
+        this.cache.removeTicket("TGT-1");
+        assertEquals("secret", this.cache.get("alice"));
+        this.cache.removeTicket("ST-1");
+        assertEquals("secret", this.cache.get("alice"));
+
+        this.cache.removeTicket("TGT-2");
+        assertFalse(this.cache.containsKey("alice"));
+        assertEquals(0, this.cache.size());
+        assertEquals(0, this.cache.getTicketCount());
+        assertEquals(0, this.cache.getExpirationCount());
+    }
+
+    @Test
+    public void testReloginKeepsPassword() {
+        // the login webflow destroys the old TGT after creating the new one
+        this.cache.put("alice", "old");
+        this.cache.addTicket("TGT-1", "alice");
+        this.cache.put("alice", "new");
+        this.cache.addTicket("TGT-2", "alice");
+        this.cache.removeTicket("TGT-1");
+
+        assertEquals("new", this.cache.get("alice"));
+        assertEquals(1, this.cache.getTicketCount());
+    }
+
+    @Test
+    public void testFullCacheEvictsOldest() {
+        this.cache.put("alice", "a");
+        this.cache.put("bob", "b");
+        this.cache.put("carol", "c");
+        this.cache.put("alice", "a2");
+        this.cache.put("dave", "d");
+
+        assertNull(this.cache.get("bob"));
+        assertEquals("a2", this.cache.get("alice"));
+        assertEquals("c", this.cache.get("carol"));
+        assertEquals("d", this.cache.get("dave"));
+        assertEquals(3, this.cache.size());
+        assertEquals(1, this.cache.getEvictionCount());
+    }
+
+    @Test
+    public void testExpiredPendingPasswordsAreDrained() {
+        this.cache.put("alice", "a");
+        this.cache.put("bob", "b");
+        this.cache.addTicket("TGT-1", "bob");
+        this.now += 100;
+
+        // without looking alice up
+        assertEquals(1, this.cache.size());
+        assertEquals(1, this.cache.getExpirationCount());
+        assertEquals("b", this.cache.get("bob"));
+    }
+
+    @Test
+    public void testFullCacheDrainsExpiredBeforeEvicting() {
+        this.cache.put("alice", "a");
+        this.cache.addTicket("TGT-1", "alice");
+        this.cache.put("bob", "b");
+        this.now += 100;
+        this.cache.put("carol", "c");
+        this.cache.put("dave", "d");
+
+        assertNull(this.cache.get("bob"));
+        assertEquals("a", this.cache.get("alice"));
+        assertEquals("c", this.cache.get("carol"));
+        assertEquals("d", this.cache.get("dave"));
+        assertEquals(0, this.cache.getEvictionCount());
+        assertEquals(1, this.cache.getExpirationCount());
+    }
+
+    @Test
+    public void testFullCacheEvictsPendingBeforeSessions() {
+        this.cache.put("alice", "a");
+        this.cache.addTicket("TGT-1", "alice");
+        this.cache.put("bob", "b");
+        this.cache.put("carol", "c");
+        this.cache.addTicket("TGT-3", "carol");
+        this.cache.put("dave", "d");
+
+        assertNull(this.cache.get("bob"));
+        assertEquals("a", this.cache.get("alice"));
+        assertEquals("c", this.cache.get("carol"));
+        assertEquals("d", this.cache.get("dave"));
+        assertEquals(1, this.cache.getEvictionCount());
+
+        // with nothing pending, the oldest session goes
+        this.cache.addTicket("TGT-4", "dave");
+        this.cache.put("erin", "e");
+        assertNull(this.cache.get("alice"));
+        assertEquals("c", this.cache.get("carol"));
+        assertEquals(2, this.cache.getEvictionCount());
+    }
+
+    @Test
+    public void testFreedSlotsAreReused() {
+        for (int i = 0; i < 10; i++) {
+            this.cache.put("user" + i, "pw" + i);
+            this.cache.addTicket("TGT-" + i, "user" + i);
+            assertEquals("pw" + i, this.cache.get("user" + i));
+            this.cache.removeTicket("TGT-" + i);
+        }
+
+        assertEquals(0, this.cache.size());
+        assertEquals(0, this.cache.getEvictionCount());
+    }
+
+    @Test
+    public void testRemoveAndClear() {
+        this.cache.put("alice", "a");
+        this.cache.put("bob", "b");
+        this.cache.addTicket("TGT-1", "bob");
+
+        this.cache.remove("alice");
+        assertNull(this.cache.get("alice"));
+        assertEquals("b", this.cache.get("bob"));
+
+        this.cache.clear();
+        assertTrue(this.cache.isEmpty());
+        assertEquals(0, this.cache.getTicketCount());
+    }
+}
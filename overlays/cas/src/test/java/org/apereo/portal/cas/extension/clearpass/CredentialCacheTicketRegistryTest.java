@@ -0,0 +1,97 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.extension.clearpass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.jasig.cas.authentication.ImmutableAuthentication;
+import org.jasig.cas.authentication.principal.SimplePrincipal;
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.jasig.cas.ticket.registry.DefaultTicketRegistry;
+import org.jasig.cas.ticket.support.TimeoutExpirationPolicy;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ */
+public class CredentialCacheTicketRegistryTest {
+    private final TimeoutExpirationPolicy expirationPolicy = new TimeoutExpirationPolicy(7200000);
+    private DefaultTicketRegistry ticketRegistryValue;
+    private CredentialCache cache;
+    private CredentialCacheTicketRegistry ticketRegistry;
+
+    @Before
+    public void setUp() throws Exception {
+        this.ticketRegistryValue = new DefaultTicketRegistry();
+        this.cache = new CredentialCache();
+        this.cache.setCapacity(10);
+        this.cache.afterPropertiesSet();
+        this.ticketRegistry = new CredentialCacheTicketRegistry();
+        this.ticketRegistry.setTicketRegistry(this.ticketRegistryValue);
+        this.ticketRegistry.setCredentialCache(this.cache);
+    }
+
+    @Test
+    public void testPasswordGoesWithTicketGrantingTicket() {
+        this.cache.put("alice", "secret");
+        final TicketGrantingTicketImpl tgt = this.newTicketGrantingTicket("TGT-1", "alice");
+        this.ticketRegistry.addTicket(tgt);
+        assertSame(tgt, this.ticketRegistryValue.getTicket("TGT-1"));
+        assertEquals(1, this.cache.getTicketCount());
+
+        final ServiceTicket st =
+                tgt.grantServiceTicket(
+                        "ST-1",
+                        new SimpleWebApplicationServiceImpl("https://portal.example.org/"),
+                        this.expirationPolicy,
+                        false);
+        this.ticketRegistry.addTicket(st);
+        this.ticketRegistry.deleteTicket("ST-1");
+        assertEquals(1, this.ticketRegistry.sessionCount());
+        assertEquals("secret", this.cache.get("alice"));
+
+        this.ticketRegistry.deleteTicket("TGT-1");
+        assertNull(this.ticketRegistryValue.getTicket("TGT-1"));
+        assertNull(this.cache.get("alice"));
+    }
+
+    @Test
+    public void testProxyGrantingTicketIsIgnored() {
+        this.cache.put("alice", "secret");
+        final TicketGrantingTicketImpl tgt = this.newTicketGrantingTicket("TGT-1", "alice");
+        this.ticketRegistry.addTicket(tgt);
+        this.ticketRegistry.addTicket(
+                new TicketGrantingTicketImpl(
+                        "PGT-1",
+                        tgt,
+                        new ImmutableAuthentication(new SimplePrincipal("https://proxy/")),
+                        this.expirationPolicy));
+        assertEquals(1, this.cache.getTicketCount());
+
+        this.ticketRegistry.deleteTicket("PGT-1");
+        assertEquals("secret", this.cache.get("alice"));
+    }
+
+    private TicketGrantingTicketImpl newTicketGrantingTicket(String id, String username) {
+        return new TicketGrantingTicketImpl(
+                id,
+                new ImmutableAuthentication(new SimplePrincipal(username)),
+                this.expirationPolicy);
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import org.apereo.portal.cas.monitor.AuthenticationMetrics.FailureReason;
+import org.apereo.portal.cas.monitor.AuthenticationMetrics.HashAlgorithm;
+import org.apereo.portal.cas.monitor.AuthenticationMetrics.Stage;
+import org.jasig.cas.monitor.StatusCode;
+import org.junit.Test;
+
+/**
+ */
+public class AuthenticationMetricsTest {
+
+    @Test
+    public void testWriteText() throws Exception {
+        final AuthenticationMetrics metrics = new AuthenticationMetrics();
+        metrics.record(Stage.AUTHENTICATION, 2000000);
+        metrics.record(Stage.AUTHENTICATION, 4000000);
+        metrics.countHashAlgorithm(HashAlgorithm.SHA256);
+        metrics.countFailure(FailureReason.BAD_PASSWORD);
+
+        final StringWriter out = new StringWriter();
+        metrics.writeText(out);
+        final String text = out.toString();
+
+        assertTrue(text.contains("# TYPE cas_authentication_stage_seconds histogram\n"));
+        assertTrue(
+                text.contains(
+                        "cas_authentication_stage_seconds_bucket"
+                                + "{stage=\"authentication\",le=\"0.001\"} 0\n"));
+        assertTrue(
+                text.contains(
+                        "cas_authentication_stage_seconds_bucket"
+                                + "{stage=\"authentication\",le=\"0.0025\"} 1\n"));
+        assertTrue(
+                text.contains(
+                        "cas_authentication_stage_seconds_bucket"
+                                + "{stage=\"authentication\",le=\"0.005\"} 2\n"));
+        assertTrue(
+                text.contains(
+                        "cas_authentication_stage_seconds_bucket"
+                                + "{stage=\"authentication\",le=\"+Inf\"} 2\n"));
+        assertTrue(
+                text.contains(
+                        "cas_authentication_stage_seconds_sum{stage=\"authentication\"} 0.006\n"));
+        assertTrue(
+                text.contains(
+                        "cas_authentication_stage_seconds_count{stage=\"authentication\"} 2\n"));
+        assertTrue(
+                text.contains("cas_authentication_stage_seconds_count{stage=\"pool_wait\"} 0\n"));
+        assertTrue(
+                text.contains("cas_authentication_hash_algorithm_total{algorithm=\"sha256\"} 1\n"));
+        assertTrue(text.contains("cas_authentication_failures_total{reason=\"bad_password\"} 1\n"));
+        assertTrue(text.contains("cas_authentication_failures_total{reason=\"error\"} 0\n"));
+    }
+
+    @Test
+    public void testMonitorWarnThreshold() {
+        final AuthenticationMetrics metrics = new AuthenticationMetrics();
+        final AuthenticationMetricsMonitor monitor = new AuthenticationMetricsMonitor();
+        monitor.setAuthenticationMetrics(metrics);
+        monitor.setAuthenticationLatencyWarnThreshold(100);
+
+        metrics.record(Stage.AUTHENTICATION, 50000000);
+        assertEquals(StatusCode.OK, monitor.observe().getCode());
+        assertTrue(monitor.observe().getDescription().startsWith("authentication p50=50."));
+
+        for (int i = 0; i < 10; i++) {
+            metrics.record(Stage.AUTHENTICATION, 500000000);
+        }
+        assertEquals(StatusCode.WARN, monitor.observe().getCode());
+
+        monitor.setAuthenticationLatencyWarnThreshold(-1);
+        assertEquals(StatusCode.OK, monitor.observe().getCode());
+    }
+
+    @Test
+    public void testMonitorWarnClearsAfterWindow() {
+        final long[] now = {0};
+        final AuthenticationMetrics metrics =
+                new AuthenticationMetrics() {
+                    @Override
+                    long currentTimeMillis() {
+                        return now[0];
+                    }
+                };
+        metrics.setWindow(60000);
+        final AuthenticationMetricsMonitor monitor = new AuthenticationMetricsMonitor();
+        monitor.setAuthenticationMetrics(metrics);
+        monitor.setAuthenticationLatencyWarnThreshold(100);
+
+        for (int i = 0; i < 10; i++) {
+            metrics.record(Stage.AUTHENTICATION, 500000000);
+        }
+        assertEquals(StatusCode.WARN, monitor.observe().getCode());
+
+        // the slow logins are still within the previous window
+        now[0] = 60000;
+        assertEquals(StatusCode.WARN, monitor.observe().getCode());
+        metrics.record(Stage.AUTHENTICATION, 50000000);
+
+        now[0] = 120000;
+        assertEquals(StatusCode.OK, monitor.observe().getCode());
+        assertTrue(monitor.observe().getDescription().startsWith("authentication p50=50."));
+        assertEquals(1, metrics.getRecentSnapshot(Stage.AUTHENTICATION).getCount());
+        assertEquals(11, metrics.getHistogram(Stage.AUTHENTICATION).getCount());
+
+        // a later slowdown warns again
+        now[0] = 130000;
+        for (int i = 0; i < 10; i++) {
+            metrics.record(Stage.AUTHENTICATION, 500000000);
+        }
+        assertEquals(StatusCode.WARN, monitor.observe().getCode());
+    }
+
+    @Test
+    public void testAllowedSubnet() throws Exception {
+        final AuthenticationMetricsRequestHandler handler =
+                new AuthenticationMetricsRequestHandler();
+        assertTrue(handler.isAllowed("127.0.0.1"));
+        assertTrue(handler.isAllowed("::1"));
+        assertFalse(handler.isAllowed("10.1.2.3"));
+
+        handler.setAllowedSubnet("10.1.0.0/16");
+        assertTrue(handler.isAllowed("10.1.2.3"));
+        assertFalse(handler.isAllowed("10.2.2.3"));
+        assertFalse(handler.isAllowed("127.0.0.1"));
+        assertFalse(handler.isAllowed("fe80::1"));
+
+        handler.setAllowedSubnet("192.168.1.5");
+        assertTrue(handler.isAllowed("192.168.1.5"));
+        assertFalse(handler.isAllowed("192.168.1.6"));
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apereo.portal.cas.extension.clearpass.CredentialCache;
+import org.jasig.cas.monitor.Status;
+import org.jasig.cas.monitor.StatusCode;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ */
+public class CredentialCacheMonitorTest {
+    private CredentialCache cache;
+    private CredentialCacheMonitor monitor;
+
+    @Before
+    public void setUp() throws Exception {
+        this.cache = new CredentialCache();
+        this.cache.setCapacity(10);
+        this.cache.afterPropertiesSet();
+        this.monitor = new CredentialCacheMonitor();
+        this.monitor.setCredentialCache(this.cache);
+    }
+
+    @Test
+    public void testOccupancyWarnThreshold() {
+        for (int i = 0; i < 9; i++) {
+            this.cache.put("user" + i, "pw");
+        }
+        assertEquals(StatusCode.OK, this.monitor.observe().getCode());
+
+        this.cache.put("user9", "pw");
+        final Status status = this.monitor.observe();
+        assertEquals(StatusCode.WARN, status.getCode());
+        assertTrue(status.getDescription().startsWith("10 of 10 credentials cached (100%)"));
+    }
+
+    @Test
+    public void testEvictionWarningClears() {
+        this.monitor.setOccupancyWarnThreshold(100);
+        for (int i = 0; i < 12; i++) {
+            this.cache.put("user" + i, "pw");
+        }
+        final Status status = this.monitor.observe();
+        assertEquals(StatusCode.WARN, status.getCode());
+        assertTrue(
+                status.getDescription()
+                        .endsWith(" 2 credentials were evicted because the cache was full."));
+
+        // no evictions since the previous observation
+        assertEquals(StatusCode.OK, this.monitor.observe().getCode());
+
+        this.cache.put("user12", "pw");
+        assertEquals(StatusCode.WARN, this.monitor.observe().getCode());
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketBounds() {
+        for (long value = 0; value < 1L << 36; value = value * 3 / 2 + 1) {
+            final int bucket = LatencyHistogram.bucket(value);
+            assertTrue(value <= LatencyHistogram.highestValue(bucket));
+            if (bucket > 0) {
+                assertTrue(value > LatencyHistogram.highestValue(bucket - 1));
+            }
+        }
+    }
+
+    @Test
+    public void testQuantiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        // 1us to 10ms
+        for (long micros = 1; micros <= 10000; micros++) {
+            histogram.record(micros * 1000);
+        }
+
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10000, snapshot.getCount());
+        assertEquals(10000000, snapshot.getMax());
+        assertWithin(5000000, snapshot.getValueAtQuantile(0.5));
+        assertWithin(9900000, snapshot.getValueAtQuantile(0.99));
+        assertWithin(9990000, snapshot.getValueAtQuantile(0.999));
+        assertEquals(10000000, snapshot.getValueAtQuantile(1));
+        assertEquals(5000500.0, snapshot.getMean(), 0.001);
+        assertEquals(0, new LatencyHistogram().snapshot().getValueAtQuantile(0.99));
+    }
+
+    @Test
+    public void testSince() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5000000);
+        histogram.record(7000000);
+        final LatencyHistogram.Snapshot earlier = histogram.snapshot();
+        histogram.record(1000);
+        histogram.record(2000);
+
+        final LatencyHistogram.Snapshot since = histogram.snapshot().since(earlier);
+        assertEquals(2, since.getCount());
+        assertEquals(3000, since.getSum());
+        assertWithin(2000, since.getMax());
+        assertWithin(2000, since.getValueAtQuantile(0.99));
+        assertEquals(0, histogram.snapshot().since(histogram.snapshot()).getCount());
+        assertEquals(
+                4, histogram.snapshot().since(LatencyHistogram.emptySnapshot()).getCount());
+    }
+
+    @Test
+    public void testCountAtOrBelow() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        histogram.record(2000000);
+        histogram.record(4000000);
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.getCountAtOrBelow(500));
+        assertEquals(1, snapshot.getCountAtOrBelow(1000000));
+        assertEquals(2, snapshot.getCountAtOrBelow(2500000));
+        assertEquals(3, snapshot.getCountAtOrBelow(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            final long seed = t;
+            executor.execute(
+                    new Runnable() {
+                        public void run() {
+                            final Random random = new Random(seed);
+                            for (int i = 0; i < 100000; i++) {
+                                histogram.record(random.nextInt(1000000));
+                            }
+                        }
+                    });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(400000, histogram.getCount());
+        assertEquals(400000, histogram.snapshot().getCount());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(
+                expected + " != " + actual, Math.abs(actual - expected) <= expected * 0.032);
+    }
+}
@@ -0,0 +1,267 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.persondir;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import org.jasig.services.persondir.IPersonAttributes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+
+/**
+ */
+public class PortalPersonAttributeDaoTest {
+    private JdbcTemplate jdbcTemplate;
+    private PortalPersonAttributeDao personAttributeDao;
+    private long now = 1000000;
+    /** Run, once, when the next query has read its results, before the DAO caches them. */
+    private Runnable afterQuery;
+
+    @Before
+    public void setUp() {
+        final SimpleDriverDataSource dataSource =
+                new SimpleDriverDataSource(
+                        new org.hsqldb.jdbcDriver(),
+                        "jdbc:hsqldb:mem:PersonAttributeTest",
+                        "sa",
+                        "") {
+                    @Override
+                    public Connection getConnection() throws SQLException {
+                        return runAfterQuery(super.getConnection());
+                    }
+                };
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.execute(
+                "CREATE TABLE UP_PERSON_DIR (USER_DIR_ID BIGINT, USER_NAME VARCHAR(100), "
+                        + "ENCRPTD_PSWD VARCHAR(256))");
+        this.jdbcTemplate.execute(
+                "CREATE TABLE UP_PERSON_ATTR (USER_ATTR_ID BIGINT, USER_DIR_ID BIGINT, "
+                        + "ATTR_NAME VARCHAR(100))");
+        this.jdbcTemplate.execute(
+                "CREATE TABLE UP_PERSON_ATTR_VALUES (USER_ATTR_ID BIGINT, "
+                        + "ATTR_VALUE VARCHAR(1000), VALUE_ORDER INTEGER)");
+
+        this.personAttributeDao =
+                new PortalPersonAttributeDao() {
+                    @Override
+                    long currentTimeMillis() {
+                        return now;
+                    }
+                };
+        this.personAttributeDao.setDataSource(dataSource);
+        this.personAttributeDao.setTimeToLive(60000);
+        this.personAttributeDao.setBatchSize(7);
+    }
+
+    @After
+    public void tearDown() {
+        this.jdbcTemplate.execute("SHUTDOWN");
+    }
+
+    @Test
+    public void testPasswordHashAndAttributesInOneQuery() {
+        this.addUser(1, "student", "(MD5)hash");
+        this.addAttribute(1, 10, "mail", "student@example.org");
+        this.addAttribute(1, 11, "eduPersonAffiliation", "student", "member");
+        this.addUser(2, "staff", "(MD5)other");
+
+        assertEquals("(MD5)hash", this.personAttributeDao.getPasswordHash("student"));
+        final IPersonAttributes person = this.personAttributeDao.getPerson("student");
+        assertEquals(1, this.personAttributeDao.getMissCount());
+        assertEquals(1, this.personAttributeDao.getHitCount());
+
+        assertEquals("student", person.getName());
+        assertEquals(
+                Collections.<Object>singletonList("student"),
+                person.getAttributeValues("username"));
+        assertEquals(
+                Collections.<Object>singletonList("student@example.org"),
+                person.getAttributeValues("mail"));
+        assertEquals(
+                Arrays.<Object>asList("member", "student"),
+                person.getAttributeValues("eduPersonAffiliation"));
+
+        // a person without attributes still resolves
+        assertEquals(
+                Collections.<Object>singletonList("staff"),
+                this.personAttributeDao.getPerson("staff").getAttributeValues("username"));
+        assertTrue(
+                this.personAttributeDao
+                        .getPossibleUserAttributeNames()
+                        .containsAll(Arrays.asList("username", "mail", "eduPersonAffiliation")));
+    }
+
+    @Test
+    public void testPasswordHashIsNotCached() {
+        this.addUser(1, "student", "(MD5)hash");
+        assertEquals("(MD5)hash", this.personAttributeDao.getPasswordHash("student"));
+
+        this.jdbcTemplate.update("UPDATE UP_PERSON_DIR SET ENCRPTD_PSWD = '(MD5)changed'");
+        assertEquals("(MD5)changed", this.personAttributeDao.getPasswordHash("student"));
+        assertEquals(2, this.personAttributeDao.getMissCount());
+
+        // the attributes are still cached for principal resolution
+        assertEquals("student", this.personAttributeDao.getPerson("student").getName());
+        assertEquals(1, this.personAttributeDao.getHitCount());
+    }
+
+    @Test
+    public void testInvalidateDuringLookupIsNotUndone() {
+        this.addUser(1, "student", "(MD5)hash");
+        this.addAttribute(1, 10, "mail", "old@example.org");
+        this.afterQuery = this.changeAndInvalidate("student");
+
+        assertEquals(
+                Collections.<Object>singletonList("old@example.org"),
+                this.personAttributeDao.getPerson("student").getAttributeValues("mail"));
+        assertEquals(0, this.personAttributeDao.getSize());
+        assertEquals(
+                Collections.<Object>singletonList("new@example.org"),
+                this.personAttributeDao.getPerson("student").getAttributeValues("mail"));
+    }
+
+    @Test
+    public void testInvalidateDuringRefreshIsNotUndone() {
+        this.addUser(1, "student", "(MD5)hash");
+        this.addAttribute(1, 10, "mail", "old@example.org");
+        this.personAttributeDao.getPerson("student");
+        this.now += 1;
+        this.afterQuery = this.changeAndInvalidate("student");
+
+        this.personAttributeDao.refresh();
+        assertEquals(0, this.personAttributeDao.getSize());
+        assertEquals(
+                Collections.<Object>singletonList("new@example.org"),
+                this.personAttributeDao.getPerson("student").getAttributeValues("mail"));
+    }
+
+    @Test
+    public void testUnknownUser() {
+        assertNull(this.personAttributeDao.getPasswordHash("nobody"));
+        assertNull(this.personAttributeDao.getPerson("nobody"));
+        assertEquals(1, this.personAttributeDao.getMissCount());
+
+        // the absence is only remembered briefly
+        this.addUser(1, "nobody", "(MD5)hash");
+        this.now += 10000;
+        assertEquals("(MD5)hash", this.personAttributeDao.getPasswordHash("nobody"));
+        assertEquals(2, this.personAttributeDao.getMissCount());
+    }
+
+    @Test
+    public void testRefreshKeepsActiveUsersCached() {
+        for (int i = 0; i < 20; i++) {
+            this.addUser(i, "user" + i, "(MD5)hash" + i);
+            this.addAttribute(i, i, "mail", "user" + i + "@example.org");
+            this.personAttributeDao.getPasswordHash("user" + i);
+        }
+        this.now += 1;
+        this.personAttributeDao.refresh();
+        assertEquals(20, this.personAttributeDao.getMissCount());
+
+        // only half the users stay active
+        this.now += 30000;
+        for (int i = 0; i < 20; i += 2) {
+            this.personAttributeDao.getPerson("user" + i);
+        }
+        this.jdbcTemplate.update("UPDATE UP_PERSON_ATTR_VALUES SET ATTR_VALUE = 'changed'");
+        this.jdbcTemplate.update("DELETE FROM UP_PERSON_DIR WHERE USER_NAME = 'user18'");
+        this.now += 20000;
+        this.personAttributeDao.refresh();
+
+        // active users were reloaded in batches, past their original expiry
+        this.now += 30000;
+        for (int i = 0; i < 18; i += 2) {
+            assertEquals(
+                    Collections.<Object>singletonList("changed"),
+                    this.personAttributeDao.getPerson("user" + i).getAttributeValues("mail"));
+        }
+        assertNull(this.personAttributeDao.getPerson("user18"));
+        assertEquals(21, this.personAttributeDao.getMissCount());
+
+        // idle users expired and are loaded again
+        assertEquals(
+                Collections.<Object>singletonList("changed"),
+                this.personAttributeDao.getPerson("user1").getAttributeValues("mail"));
+        assertEquals(22, this.personAttributeDao.getMissCount());
+    }
+
+    /** @return a hook that changes the user's mail and invalidates the user */
+    private Runnable changeAndInvalidate(final String userName) {
+        return new Runnable() {
+            public void run() {
+                jdbcTemplate.update(
+                        "UPDATE UP_PERSON_ATTR_VALUES SET ATTR_VALUE = ?", "new@example.org");
+                personAttributeDao.invalidate(userName);
+            }
+        };
+    }
+
+    /** @return the connection, running {@link #afterQuery} once it is closed */
+    private Connection runAfterQuery(final Connection connection) {
+        return (Connection)
+                Proxy.newProxyInstance(
+                        Connection.class.getClassLoader(),
+                        new Class<?>[] {Connection.class},
+                        new InvocationHandler() {
+                            public Object invoke(Object proxy, Method method, Object[] args)
+                                    throws Throwable {
+                                final Object result;
+                                try {
+                                    result = method.invoke(connection, args);
+                                } catch (InvocationTargetException e) {
+                                    throw e.getCause();
+                                }
+                                final Runnable hook = afterQuery;
+                                if (hook != null && method.getName().equals("close")) {
+                                    afterQuery = null;
+                                    hook.run();
+                                }
+                                return result;
+                            }
+                        });
+    }
+
+    private void addUser(long id, String userName, String passwordHash) {
+        this.jdbcTemplate.update(
+                "INSERT INTO UP_PERSON_DIR VALUES (?, ?, ?)", id, userName, passwordHash);
+    }
+
+    private void addAttribute(long userId, long attributeId, String name, String... values) {
+        this.jdbcTemplate.update(
+                "INSERT INTO UP_PERSON_ATTR VALUES (?, ?, ?)", attributeId, userId, name);
+        for (int i = 0; i < values.length; i++) {
+            // stored out of order, VALUE_ORDER decides
+            this.jdbcTemplate.update(
+                    "INSERT INTO UP_PERSON_ATTR_VALUES VALUES (?, ?, ?)",
+                    attributeId,
+                    values[i],
+                    values.length - i);
+        }
+    }
+}
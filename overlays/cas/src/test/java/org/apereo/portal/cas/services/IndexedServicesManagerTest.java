@@ -0,0 +1,112 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.services;
+
+import static org.apereo.portal.cas.services.RegisteredServiceIndexTest.regexService;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl;
+import org.jasig.cas.services.InMemoryServiceRegistryDaoImpl;
+import org.jasig.cas.services.RegisteredService;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ */
+public class IndexedServicesManagerTest {
+    private InMemoryServiceRegistryDaoImpl dao;
+    private IndexedServicesManager servicesManager;
+
+    @Before
+    public void setUp() {
+        final List<RegisteredService> services = new ArrayList<RegisteredService>();
+        services.add(regexService(1, "^https://www\\.example\\.org/.*", 10, "www"));
+        services.add(regexService(2, "^https://.*", 100, "any"));
+        this.dao = new InMemoryServiceRegistryDaoImpl();
+        this.dao.setRegisteredServices(services);
+        this.servicesManager = new IndexedServicesManager(this.dao);
+    }
+
+    @Test
+    public void testFindInEvaluationOrder() {
+        assertEquals(1, this.find("https://www.example.org/app").getId());
+        assertEquals(2, this.find("https://other.example.org/").getId());
+        assertNull(this.find("http://www.example.org/"));
+        assertFalse(this.servicesManager.matchesExistingService(service("ftp://example.org/")));
+        assertEquals(2, this.servicesManager.getIndexedServiceCount());
+        assertEquals(0, this.servicesManager.getUnindexedServiceCount());
+
+        final Iterator<RegisteredService> all = this.servicesManager.getAllServices().iterator();
+        assertEquals(1, all.next().getId());
+        assertEquals(2, all.next().getId());
+        assertFalse(all.hasNext());
+    }
+
+    @Test
+    public void testSaveAndDeleteUpdateTheIndex() {
+        this.servicesManager.save(regexService(3, "^https://other\\.example\\.org/.*", 0, "o"));
+        assertEquals(3, this.find("https://other.example.org/").getId());
+
+        assertEquals(3, this.servicesManager.delete(3).getId());
+        assertEquals(2, this.find("https://other.example.org/").getId());
+        assertNull(this.servicesManager.delete(3));
+    }
+
+    @Test
+    public void testReload() {
+        this.dao.save(regexService(4, "^(?i)HTTP://.*", 0, "plain"));
+        assertNull(this.find("http://www.example.org/"));
+
+        this.servicesManager.reload();
+        assertEquals(4, this.find("http://www.example.org/").getId());
+        assertEquals(1, this.servicesManager.getUnindexedServiceCount());
+    }
+
+    @Test
+    public void testFindByIdReturnsCopy() {
+        final RegisteredService r = this.servicesManager.findServiceBy(1);
+        assertEquals(1, r.getId());
+        assertNotSame(r, this.servicesManager.findServiceBy(1));
+        assertNull(this.servicesManager.findServiceBy(99));
+    }
+
+    @Test
+    public void testEmptyRegistryAllowsEverything() {
+        this.dao.setRegisteredServices(new ArrayList<RegisteredService>());
+        this.servicesManager.reload();
+
+        final RegisteredService r = this.find("https://anything/");
+        assertNotNull(r);
+        assertTrue(r.isEnabled());
+        assertTrue(this.servicesManager.matchesExistingService(service("ftp://example.org/")));
+    }
+
+    private RegisteredService find(String url) {
+        return this.servicesManager.findServiceBy(service(url));
+    }
+
+    private static Service service(String url) {
+        return new SimpleWebApplicationServiceImpl(url);
+    }
+}
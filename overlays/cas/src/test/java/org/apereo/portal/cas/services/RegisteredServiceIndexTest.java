@@ -0,0 +1,157 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl;
+import org.jasig.cas.services.DefaultServicesManagerImpl;
+import org.jasig.cas.services.InMemoryServiceRegistryDaoImpl;
+import org.jasig.cas.services.RegexRegisteredService;
+import org.jasig.cas.services.RegisteredService;
+import org.jasig.cas.services.RegisteredServiceImpl;
+import org.junit.Test;
+
+/**
+ */
+public class RegisteredServiceIndexTest {
+
+    @Test
+    public void testLiteralPrefixes() {
+        assertPrefixes("^https://www\\.example\\.org/.*", "https://www.example.org/");
+        assertPrefixes("https://www.example.org/", "https://www");
+        assertPrefixes(
+                "^https?://portal\\.example\\.org/.*",
+                "http://portal.example.org/",
+                "https://portal.example.org/");
+        assertPrefixes("^(https?|imaps?)://.*", "http://", "https://", "imap://", "imaps://");
+        assertPrefixes(
+                "^https://(?:www\\.)?example\\.org/.*",
+                "https://example.org/",
+                "https://www.example.org/");
+        assertPrefixes("^https://a+b", "https://a");
+        assertPrefixes("^https://ab*", "https://a");
+        assertPrefixes("^https://ab{2}", "https://a");
+        assertPrefixes("^https://a\\d", "https://a");
+        assertPrefixes("^https://[a-z]+\\.example\\.org/.*", "https://");
+        assertPrefixes("a?b", "b", "ab");
+
+        assertNull(RegisteredServiceIndex.literalPrefixes("^(?i)https://www\\.example\\.org/.*"));
+        assertNull(RegisteredServiceIndex.literalPrefixes("^https://a.*|^http://b.*"));
+        assertNull(RegisteredServiceIndex.literalPrefixes("\\Qhttps://a\\E.*"));
+        assertNull(RegisteredServiceIndex.literalPrefixes(".*"));
+    }
+
+    @Test
+    public void testSameResultAsLinearScan() {
+        final List<RegisteredService> services = new ArrayList<RegisteredService>();
+        final String[] patterns = {
+            "^https://www\\.example\\.org/.*",
+            "^https://www\\.example\\.org/portal/.*",
+            "^https?://portal\\.example\\.org/.*",
+            "^https://(www\\.)?example\\.com/.*",
+            "^https://([A-Za-z0-9_-]+\\.)*example\\.edu/.*",
+            "^(?i)HTTPS://CASE\\.EXAMPLE\\.ORG/.*",
+            "^https://a.*|^https://b.*",
+            "^https://app[0-9]+\\.example\\.net/.*",
+            "^https://.*",
+            "^(https?|imaps?)://.*"
+        };
+        long id = 0;
+        for (final String pattern : patterns) {
+            // two services per pattern at different evaluation orders, plus ties broken by name
+            services.add(regexService(id++, pattern, (int) (id * 7 % 5), "s" + id));
+            services.add(regexService(id++, pattern, (int) (id * 3 % 5), "s" + id));
+        }
+        final RegisteredServiceImpl antService = new RegisteredServiceImpl();
+        antService.setId(id++);
+        antService.setName("ant");
+        antService.setServiceId("https://ant.example.org/**");
+        antService.setEvaluationOrder(2);
+        services.add(antService);
+
+        final RegisteredServiceIndex index = new RegisteredServiceIndex(services);
+        final InMemoryServiceRegistryDaoImpl dao = new InMemoryServiceRegistryDaoImpl();
+        dao.setRegisteredServices(services);
+        final DefaultServicesManagerImpl linear = new DefaultServicesManagerImpl(dao);
+
+        final String[] urls = {
+            "https://www.example.org/",
+            "https://www.example.org/portal/x",
+            "http://portal.example.org/",
+            "https://portal.example.org/a",
+            "https://example.com/",
+            "https://www.example.com/",
+            "https://x.y.example.edu/",
+            "https://case.example.org/",
+            "https://a",
+            "https://b/",
+            "https://app12.example.net/",
+            "https://ant.example.org/a/b",
+            "imap://mail.example.org/",
+            "ftp://example.org/",
+            "",
+            "h"
+        };
+        for (final String url : urls) {
+            final SimpleWebApplicationServiceImpl service =
+                    new SimpleWebApplicationServiceImpl(url);
+            assertSame(url, linear.findServiceBy(service), index.findServiceBy(service));
+        }
+        assertNull(index.findServiceBy(null));
+
+        // random URLs built from fragments of the patterns
+        final Random random = new Random(42);
+        final String[] fragments = {
+            "http", "https", "imap", "://", "www.", "example", ".org", ".com", ".edu", ".net",
+            "/", "portal", "app7", "a", "b", "CASE", "case."
+        };
+        for (int i = 0; i < 20000; i++) {
+            final StringBuilder url = new StringBuilder();
+            final int parts = random.nextInt(8);
+            for (int p = 0; p < parts; p++) {
+                url.append(fragments[random.nextInt(fragments.length)]);
+            }
+            final SimpleWebApplicationServiceImpl service =
+                    new SimpleWebApplicationServiceImpl(url.toString());
+            assertSame(url.toString(), linear.findServiceBy(service), index.findServiceBy(service));
+        }
+    }
+
+    private static void assertPrefixes(String regex, String... expected) {
+        final List<String> prefixes = RegisteredServiceIndex.literalPrefixes(regex);
+        assertEquals(
+                regex,
+                new HashSet<String>(Arrays.asList(expected)),
+                new HashSet<String>(prefixes));
+    }
+
+    static RegexRegisteredService regexService(
+            long id, String pattern, int evaluationOrder, String name) {
+        final RegexRegisteredService service = new RegexRegisteredService();
+        service.setId(id);
+        service.setName(name);
+        service.setServiceId(pattern);
+        service.setEvaluationOrder(evaluationOrder);
+        return service;
+    }
+}
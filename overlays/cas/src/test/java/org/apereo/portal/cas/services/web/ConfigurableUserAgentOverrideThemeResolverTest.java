@@ -0,0 +1,256 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.services.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import javax.servlet.http.HttpServletRequest;
+import org.apereo.portal.cas.services.NotifyingServicesManager;
+import org.easymock.EasyMock;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl;
+import org.jasig.cas.authentication.principal.WebApplicationService;
+import org.jasig.cas.services.DefaultServicesManagerImpl;
+import org.jasig.cas.services.InMemoryServiceRegistryDaoImpl;
+import org.jasig.cas.services.RegexRegisteredService;
+import org.jasig.cas.services.RegisteredService;
+import org.jasig.cas.web.support.ArgumentExtractor;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ */
+public class ConfigurableUserAgentOverrideThemeResolverTest {
+    private static final String DEFAULT_THEME = "cas-theme-default";
+
+    private static final String[] USER_AGENTS = {
+        "Mozilla/5.0 (iPhone; CPU iPhone OS 12_1 like Mac OS X) AppleWebKit/605.1.15",
+        "Mozilla/5.0 (iPad; CPU OS 12_1 like Mac OS X) AppleWebKit/605.1.15",
+        "Mozilla/5.0 (Linux; Android 9; Pixel 3) AppleWebKit/537.36 Mobile Safari/537.36",
+        "Mozilla/5.0 (Linux; Android 8.1; Nexus 7) AppleWebKit/537.36 Safari/537.36",
+        "Mozilla/5.0 (Windows NT 10.0; Win64; x64; rv:63.0) Gecko/20100101 Firefox/63.0",
+        "",
+        "iphone lowercase"
+    };
+
+    private Map<String, String> rules;
+    private ConfigurableUserAgentOverrideThemeResolver resolver;
+
+    @Before
+    public void setUp() {
+        this.rules = new LinkedHashMap<String, String>();
+        this.rules.put(".*iPhone.*", "cas-theme-mobile");
+        this.rules.put(".*(Android).*(Mobile).*", "cas-theme-mobile");
+        this.rules.put(".*iPad.*|.*Android.*", "cas-theme-tablet");
+        this.rules.put("(?i).*IPHONE.*", "cas-theme-case-insensitive");
+        this.rules.put(".*Mozilla.*", "cas-theme-other");
+
+        this.resolver = new ConfigurableUserAgentOverrideThemeResolver();
+        this.resolver.setDefaultThemeName(DEFAULT_THEME);
+        this.resolver.setOverrides(
+                Collections.<String, Map<String, String>>singletonMap(DEFAULT_THEME, this.rules));
+    }
+
+    @Test
+    public void testFirstMatchingRuleWins() {
+        for (final String userAgent : USER_AGENTS) {
+            assertEquals(userAgent, this.sequentialMatch(userAgent), this.resolve(userAgent));
+            // again, answered from the cache
+            assertEquals(userAgent, this.sequentialMatch(userAgent), this.resolve(userAgent));
+        }
+    }
+
+    @Test
+    public void testRulesThatCannotBeJoined() {
+        this.rules.put("(.)\\1.*", "cas-theme-backreference");
+        this.resolver.setUserAgentCacheSize(0);
+        this.resolver.setOverrides(
+                Collections.<String, Map<String, String>>singletonMap(DEFAULT_THEME, this.rules));
+
+        assertEquals("cas-theme-backreference", this.resolve("xxy"));
+        for (final String userAgent : USER_AGENTS) {
+            assertEquals(userAgent, this.sequentialMatch(userAgent), this.resolve(userAgent));
+        }
+    }
+
+    @Test
+    public void testMissingUserAgentKeepsServiceTheme() {
+        assertEquals(DEFAULT_THEME, this.resolve(null));
+    }
+
+    @Test
+    public void testThemeWithoutOverrides() {
+        this.resolver.setDefaultThemeName("cas-theme-plain");
+        assertEquals("cas-theme-plain", this.resolve(USER_AGENTS[0]));
+    }
+
+    @Test
+    public void testMatcherCacheIsBounded() {
+        final UserAgentOverrideMatcher matcher = new UserAgentOverrideMatcher(this.rules, 2);
+        for (int i = 0; i < 10; i++) {
+            assertNull(matcher.match("agent" + i));
+        }
+        assertEquals("cas-theme-mobile", matcher.match(USER_AGENTS[0]));
+    }
+
+    @Test
+    public void testServiceThemeIsCachedUntilServicesChange() {
+        final AtomicInteger lookups = new AtomicInteger();
+        final NotifyingServicesManager servicesManager =
+                new NotifyingServicesManager(
+                        new DefaultServicesManagerImpl(
+                                this.registry(
+                                        this.service(1, "^https://mobile\\..*", "cas-theme-m"),
+                                        this.service(9, "^https://.*", null)))) {
+                    @Override
+                    public RegisteredService findServiceBy(Service service) {
+                        lookups.incrementAndGet();
+                        return super.findServiceBy(service);
+                    }
+                };
+        this.resolver.setServicesManager(servicesManager);
+        this.resolver.setArgumentExtractors(
+                Collections.<ArgumentExtractor>singletonList(new ServiceParameterExtractor()));
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("cas-theme-m", this.resolveService("https://mobile.example.org/app"));
+            assertEquals(DEFAULT_THEME, this.resolveService("https://www.example.org/"));
+        }
+        assertEquals(DEFAULT_THEME, this.resolveService(null));
+        assertEquals(2, lookups.get());
+        assertEquals(4, this.resolver.getServiceThemeHitCount());
+        assertEquals(2, this.resolver.getServiceThemeMissCount());
+        assertEquals(2, this.resolver.getServiceThemeCacheSize());
+        assertEquals(4 / 6.0, this.resolver.getServiceThemeHitRate(), 0.0001);
+
+        // changing the registry through the ServicesManager clears the cache
+        servicesManager.save(this.service(3, "^https://www\\.example\\.org/.*", "cas-theme-w"));
+        assertEquals(0, this.resolver.getServiceThemeCacheSize());
+        assertEquals("cas-theme-w", this.resolveService("https://www.example.org/"));
+
+        servicesManager.reload();
+        assertEquals(0, this.resolver.getServiceThemeCacheSize());
+        assertEquals("cas-theme-m", this.resolveService("https://mobile.example.org/app"));
+        assertEquals(4, lookups.get());
+    }
+
+    @Test
+    public void testServiceThemeMatchesOnQuery() {
+        final AtomicInteger lookups = new AtomicInteger();
+        this.resolver.setServicesManager(
+                new NotifyingServicesManager(
+                        new DefaultServicesManagerImpl(
+                                this.registry(
+                                        this.service(
+                                                1, "^https://www\\.example\\.org/Login\\?app=x.*", "x"),
+                                        this.service(9, "^https://.*", "other")))) {
+                    @Override
+                    public RegisteredService findServiceBy(Service service) {
+                        lookups.incrementAndGet();
+                        return super.findServiceBy(service);
+                    }
+                });
+        this.resolver.setArgumentExtractors(
+                Collections.<ArgumentExtractor>singletonList(new ServiceParameterExtractor()));
+
+        // the same service CAS authorizes for each URL gives its theme
+        for (int i = 0; i < 2; i++) {
+            assertEquals("x", this.resolveService("https://www.example.org/Login?app=x1"));
+            assertEquals("other", this.resolveService("https://www.example.org/Login?app=y"));
+            assertEquals("other", this.resolveService("https://www.example.org/Login"));
+        }
+        assertEquals(3, lookups.get());
+        assertEquals(3, this.resolver.getServiceThemeCacheSize());
+    }
+
+    @Test
+    public void testServiceThemeCacheCanBeDisabled() {
+        final AtomicInteger lookups = new AtomicInteger();
+        this.resolver.setServiceThemeCacheSize(0);
+        this.resolver.setServicesManager(
+                new NotifyingServicesManager(
+                        new DefaultServicesManagerImpl(
+                                this.registry(this.service(1, "^https://.*", "cas-theme-s")))) {
+                    @Override
+                    public RegisteredService findServiceBy(Service service) {
+                        lookups.incrementAndGet();
+                        return super.findServiceBy(service);
+                    }
+                });
+        this.resolver.setArgumentExtractors(
+                Collections.<ArgumentExtractor>singletonList(new ServiceParameterExtractor()));
+
+        assertEquals("cas-theme-s", this.resolveService("https://www.example.org/"));
+        assertEquals("cas-theme-s", this.resolveService("https://www.example.org/"));
+        assertEquals(2, lookups.get());
+        assertEquals(0, this.resolver.getServiceThemeHitCount());
+    }
+
+    private InMemoryServiceRegistryDaoImpl registry(RegisteredService... services) {
+        final InMemoryServiceRegistryDaoImpl registry = new InMemoryServiceRegistryDaoImpl();
+        registry.setRegisteredServices(new ArrayList<RegisteredService>(Arrays.asList(services)));
+        return registry;
+    }
+
+    private RegisteredService service(long id, String serviceId, String theme) {
+        final RegexRegisteredService service = new RegexRegisteredService();
+        service.setId(id);
+        service.setName("service" + id);
+        service.setServiceId(serviceId);
+        service.setTheme(theme);
+        service.setEvaluationOrder((int) id);
+        return service;
+    }
+
+    private String resolveService(String serviceUrl) {
+        final HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+        EasyMock.expect(request.getParameter("service")).andReturn(serviceUrl).anyTimes();
+        EasyMock.expect(request.getHeader("User-Agent")).andReturn(null).anyTimes();
+        EasyMock.replay(request);
+        return this.resolver.resolveThemeName(request);
+    }
+
+    private static final class ServiceParameterExtractor implements ArgumentExtractor {
+        public WebApplicationService extractService(HttpServletRequest request) {
+            final String serviceUrl = request.getParameter("service");
+            return serviceUrl != null ? new SimpleWebApplicationServiceImpl(serviceUrl) : null;
+        }
+    }
+
+    private String resolve(String userAgent) {
+        final HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+        EasyMock.expect(request.getHeader("User-Agent")).andReturn(userAgent).anyTimes();
+        EasyMock.replay(request);
+        return this.resolver.resolveThemeName(request);
+    }
+
+    /** The original resolver behaviour: try each rule in order. */
+    private String sequentialMatch(String userAgent) {
+        for (final Map.Entry<String, String> rule : this.rules.entrySet()) {
+            if (Pattern.compile(rule.getKey()).matcher(userAgent).matches()) {
+                return rule.getValue();
+            }
+        }
+        return DEFAULT_THEME;
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.ticket.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.junit.Test;
+
+/**
+ * Adds, uses and deletes tickets from several threads while the cleaner evicts them on a simulated
+ * clock, then checks that every ticket was either deleted or evicted after expiring. The ticket
+ * count, 20000 by default, can be raised with -DstressTest.tickets=N; the time clean takes is
+ * measured by ExpirationIndexedTicketRegistryBenchmark.
+ *
+ */
+public class ExpirationIndexedTicketRegistryStressTest {
+    private static final int TICKETS = Integer.getInteger("stressTest.tickets", 20000);
+    private static final int WRITERS = 4;
+    private static final long MAX_TIME_TO_LIVE = 100000;
+
+    private final AtomicLong time = new AtomicLong();
+
+    private final MockTicket.Clock clock =
+            new MockTicket.Clock() {
+                public long now() {
+                    return time.get();
+                }
+            };
+
+    @Test
+    public void testConcurrentAddAndClean() throws Exception {
+        final ExpirationIndexedTicketRegistry registry =
+                new ExpirationIndexedTicketRegistry() {
+                    @Override
+                    long currentTimeMillis() {
+                        return time.get();
+                    }
+                };
+        registry.setTicketGrantingTicketTimeToKill(MAX_TIME_TO_LIVE / 2);
+        registry.setLogUserOutOfServices(false);
+
+        // every eviction must be of an expired ticket
+        final AtomicLong prematureEvictions = new AtomicLong();
+        final AtomicLong evictions = new AtomicLong();
+        final TicketRegistry decorator =
+                new TicketRegistry() {
+                    public void addTicket(Ticket ticket) {
+                        registry.addTicket(ticket);
+                    }
+
+                    public Ticket getTicket(String id, Class<? extends Ticket> clazz) {
+                        return registry.getTicket(id, clazz);
+                    }
+
+                    public Ticket getTicket(String id) {
+                        return registry.getTicket(id);
+                    }
+
+                    public boolean deleteTicket(String id) {
+                        final Ticket ticket = registry.getTicket(id);
+                        if (ticket != null && !ticket.isExpired()) {
+                            prematureEvictions.incrementAndGet();
+                        }
+                        evictions.incrementAndGet();
+                        return registry.deleteTicket(id);
+                    }
+
+                    public Collection<Ticket> getTickets() {
+                        return registry.getTickets();
+                    }
+                };
+
+        final AtomicLong deletions = new AtomicLong();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch writersDone = new CountDownLatch(WRITERS);
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            new Thread("stress-writer-" + w) {
+                @Override
+                public void run() {
+                    try {
+                        final Random random = new Random(writer);
+                        for (int i = writer; i < TICKETS; i += WRITERS) {
+                            final String prefix = i % 3 == 0 ? "TGT-" : "ST-";
+                            final MockTicket ticket =
+                                    new MockTicket(
+                                            prefix + i,
+                                            1 + random.nextInt((int) MAX_TIME_TO_LIVE),
+                                            clock);
+                            registry.addTicket(ticket);
+                            if (i % 10 == 0) {
+                                ticket.use();
+                            }
+                            if (i % 20 == 1 && registry.deleteTicket(ticket.getId())) {
+                                deletions.incrementAndGet();
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    } finally {
+                        writersDone.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        // the cleaner keeps pace while the writers run and the clock moves on
+        while (writersDone.getCount() > 0) {
+            this.time.addAndGet(50);
+            registry.clean(decorator);
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        // catch up with the clock, after which nothing is due and clean must visit no ticket
+        long evictedBefore;
+        long rescheduledBefore;
+        do {
+            evictedBefore = registry.getEvictedCount();
+            rescheduledBefore = registry.getRescheduledCount();
+            registry.clean(decorator);
+        } while (evictedBefore != registry.getEvictedCount()
+                || rescheduledBefore != registry.getRescheduledCount());
+        registry.clean(decorator);
+        assertEquals(evictedBefore, registry.getEvictedCount());
+        assertEquals(rescheduledBefore, registry.getRescheduledCount());
+
+        // run out the clock; each run is bounded by maxTicketsPerClean
+        final long end = this.time.get() + 3 * MAX_TIME_TO_LIVE;
+        while (this.time.get() < end || registry.size() > 0) {
+            this.time.addAndGet(1000);
+            registry.clean(decorator);
+            assertTrue("cleaner fell behind", this.time.get() < end + 1000000);
+        }
+
+        assertEquals(0, prematureEvictions.get());
+        assertEquals(TICKETS, deletions.get() + evictions.get());
+        assertEquals(0, registry.size());
+        assertEquals(0, registry.sessionCount());
+        assertEquals(0, registry.serviceTicketCount());
+        for (final Integer count : registry.getTicketCounts().values()) {
+            assertEquals(Integer.valueOf(0), count);
+        }
+        assertEquals(0, registry.getScheduledCheckCount());
+    }
+}
@@ -0,0 +1,247 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.ticket.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.apereo.portal.cas.monitor.TicketCountMonitor;
+import org.apereo.portal.cas.monitor.TicketCountStatus;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.ImmutableAuthentication;
+import org.jasig.cas.authentication.principal.SimplePrincipal;
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl;
+import org.jasig.cas.monitor.StatusCode;
+import org.jasig.cas.ticket.ExpirationPolicy;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.jasig.cas.ticket.TicketState;
+import org.jasig.cas.ticket.registry.DefaultTicketRegistry;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ */
+public class ExpirationIndexedTicketRegistryTest {
+    private static final long TGT_TTL = 1000;
+    private static final long ST_TTL = 100;
+
+    /** Added to the real clock by both the registry and the expiration policies. */
+    private long offset;
+
+    private ExpirationIndexedTicketRegistry registry;
+    private Authentication authentication;
+
+    @Before
+    public void setUp() {
+        this.registry =
+                new ExpirationIndexedTicketRegistry() {
+                    @Override
+                    long currentTimeMillis() {
+                        return now();
+                    }
+                };
+        this.registry.setResolution(10);
+        this.registry.setTicketGrantingTicketTimeToKill(TGT_TTL);
+        this.registry.setServiceTicketTimeToKill(ST_TTL);
+        this.authentication = new ImmutableAuthentication(new SimplePrincipal("student"));
+    }
+
+    @Test
+    public void testCountsByType() {
+        final TicketGrantingTicketImpl tgt = this.tgt("TGT-1");
+        this.registry.addTicket(tgt);
+        final ServiceTicket st = this.st(tgt, "ST-1");
+        this.registry.addTicket(st);
+        this.registry.addTicket(
+                new TicketGrantingTicketImpl("PGT-1", tgt, this.authentication, policy(TGT_TTL)));
+
+        final Map<String, Integer> counts = this.registry.getTicketCounts();
+        assertEquals(Integer.valueOf(1), counts.get("TGT"));
+        assertEquals(Integer.valueOf(1), counts.get("ST"));
+        assertEquals(Integer.valueOf(1), counts.get("PGT"));
+        assertEquals(2, this.registry.sessionCount());
+        assertEquals(1, this.registry.serviceTicketCount());
+
+        // replacing a ticket doesn't count it twice
+        this.registry.addTicket(st);
+        assertEquals(1, this.registry.serviceTicketCount());
+
+        assertTrue(this.registry.deleteTicket("ST-1"));
+        assertFalse(this.registry.deleteTicket("ST-1"));
+        assertEquals(Integer.valueOf(0), this.registry.getTicketCounts().get("ST"));
+        assertEquals(0, this.registry.serviceTicketCount());
+        assertNull(this.registry.getTicket("ST-1"));
+        assertNotNull(this.registry.getTicket("TGT-1", TicketGrantingTicketImpl.class));
+        assertEquals(2, this.registry.getTickets().size());
+
+        final TicketCountMonitor monitor = new TicketCountMonitor();
+        monitor.setTicketRegistry(this.registry);
+        monitor.setTicketCountWarnThreshold(1);
+        final TicketCountStatus status = monitor.observe();
+        assertEquals(StatusCode.WARN, status.getCode());
+        assertEquals(Integer.valueOf(1), status.getTicketCounts().get("PGT"));
+
+        // the stock registry can stand in, as the rollback in ticketRegistry.xml describes
+        monitor.setTicketRegistry(new DefaultTicketRegistry());
+        assertEquals(StatusCode.UNKNOWN, monitor.observe().getCode());
+    }
+
+    @Test
+    public void testExpiredTicketsAreEvicted() {
+        this.registry.setLogUserOutOfServices(false);
+        final TicketGrantingTicketImpl tgt = this.tgt("TGT-1");
+        this.registry.addTicket(tgt);
+        this.registry.addTicket(this.st(tgt, "ST-1"));
+
+        this.registry.clean();
+        assertEquals(2, this.registry.size());
+
+        this.offset += ST_TTL + 20;
+        this.registry.clean();
+        assertNull(this.registry.getTicket("ST-1"));
+        assertNotNull(this.registry.getTicket("TGT-1"));
+
+        this.offset += TGT_TTL;
+        this.registry.clean();
+        assertEquals(0, this.registry.size());
+        assertEquals(2, this.registry.getEvictedCount());
+        assertEquals(0, this.registry.sessionCount());
+        assertEquals(0, this.registry.getScheduledCheckCount());
+    }
+
+    @Test
+    public void testUsedTicketIsRescheduled() {
+        final MockTicket.Clock clock =
+                new MockTicket.Clock() {
+                    public long now() {
+                        return ExpirationIndexedTicketRegistryTest.this.now();
+                    }
+                };
+        final MockTicket ticket = new MockTicket("TGT-1", TGT_TTL, clock);
+        this.registry.addTicket(ticket);
+
+        // use the ticket part way through its life, extending it
+        this.offset += TGT_TTL / 2;
+        ticket.use();
+        this.offset += TGT_TTL / 2 + 20;
+        this.registry.clean();
+        assertNotNull(this.registry.getTicket("TGT-1"));
+        assertEquals(1, this.registry.getRescheduledCount());
+
+        this.offset += TGT_TTL / 2;
+        this.registry.clean();
+        assertNull(this.registry.getTicket("TGT-1"));
+    }
+
+    @Test
+    public void testEvictionIsIncremental() {
+        this.registry.setMaxTicketsPerClean(3);
+        for (int i = 0; i < 10; i++) {
+            this.registry.addTicket(this.tgt("TGT-" + i));
+        }
+        this.offset += TGT_TTL + 20;
+
+        this.registry.clean();
+        assertEquals(7, this.registry.size());
+        this.registry.clean();
+        this.registry.clean();
+        this.registry.clean();
+        assertEquals(0, this.registry.size());
+    }
+
+    @Test
+    public void testExpiredTicketGrantingTicketsAreExpiredAndDeletedThroughDecorator() {
+        final List<String> deleted = new ArrayList<String>();
+        final TicketRegistry decorator =
+                new TicketRegistry() {
+                    public void addTicket(Ticket ticket) {
+                        registry.addTicket(ticket);
+                    }
+
+                    public Ticket getTicket(String id, Class<? extends Ticket> clazz) {
+                        return registry.getTicket(id, clazz);
+                    }
+
+                    public Ticket getTicket(String id) {
+                        return registry.getTicket(id);
+                    }
+
+                    public boolean deleteTicket(String id) {
+                        deleted.add(id);
+                        return registry.deleteTicket(id);
+                    }
+
+                    public Collection<Ticket> getTickets() {
+                        return registry.getTickets();
+                    }
+                };
+        final TicketGrantingTicketImpl tgt = this.tgt("TGT-1");
+        this.registry.addTicket(tgt);
+
+        this.offset += TGT_TTL + 20;
+        this.registry.clean(decorator);
+        assertTrue(tgt.isExpiredInternal());
+        assertEquals(1, deleted.size());
+        assertEquals(0, this.registry.size());
+    }
+
+    @Test
+    public void testDeletedTicketsAreSkipped() {
+        this.registry.addTicket(this.tgt("TGT-1"));
+        this.registry.deleteTicket("TGT-1");
+        this.registry.addTicket(this.tgt("TGT-2"));
+        this.offset += TGT_TTL + 20;
+        this.registry.clean();
+        assertEquals(1, this.registry.getEvictedCount());
+        assertEquals(0, this.registry.size());
+    }
+
+    private long now() {
+        return System.currentTimeMillis() + this.offset;
+    }
+
+    private TicketGrantingTicketImpl tgt(String id) {
+        return new TicketGrantingTicketImpl(id, this.authentication, this.policy(TGT_TTL));
+    }
+
+    private ServiceTicket st(TicketGrantingTicketImpl tgt, String id) {
+        return tgt.grantServiceTicket(id, service(), this.policy(ST_TTL), false);
+    }
+
+    private static SimpleWebApplicationServiceImpl service() {
+        return new SimpleWebApplicationServiceImpl("https://www.example.org/");
+    }
+
+    /** Expires the ticket a fixed time after its last use, on the offset clock. */
+    private ExpirationPolicy policy(final long timeToLive) {
+        return new ExpirationPolicy() {
+            private static final long serialVersionUID = 1L;
+
+            public boolean isExpired(TicketState ticketState) {
+                return ticketState.getLastTimeUsed() + timeToLive <= now();
+            }
+        };
+    }
+}
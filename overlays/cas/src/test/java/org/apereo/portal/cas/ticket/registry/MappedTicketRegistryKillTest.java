@@ -0,0 +1,122 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.ticket.registry;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Kills a JVM with SIGKILL while it is writing to a {@link MappedTicketRegistry}, then checks a new
+ * registry over the same directory has every write the dead process acknowledged.
+ *
+ */
+public class MappedTicketRegistryKillTest {
+    private static final int ACKNOWLEDGED_WRITES = 5000;
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecoveryAfterKill() throws Exception {
+        final File directory = this.folder.newFolder("tickets");
+        final ProcessBuilder builder =
+                new ProcessBuilder(
+                        new File(System.getProperty("java.home"), "bin/java").getPath(),
+                        "-cp",
+                        System.getProperty("java.class.path"),
+                        Writer.class.getName(),
+                        directory.getPath());
+        builder.redirectErrorStream(true);
+        final Process process = builder.start();
+
+        final Set<String> added = new HashSet<String>();
+        final Set<String> deleted = new HashSet<String>();
+        final StringBuilder other = new StringBuilder();
+        String lastAdded = null;
+        final BufferedReader output =
+                new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+        try {
+            String line;
+            while (added.size() + deleted.size() < ACKNOWLEDGED_WRITES
+                    && (line = output.readLine()) != null) {
+                if (line.startsWith("added ")) {
+                    lastAdded = line.substring(6);
+                    added.add(lastAdded);
+                } else if (line.startsWith("deleted ")) {
+                    final String id = line.substring(8);
+                    added.remove(id);
+                    deleted.add(id);
+                } else {
+                    // logging, or the stack trace of a failure
+                    other.append(line).append('\n');
+                }
+            }
+        } finally {
+            // the writer is still going, kill it mid write
+            process.destroyForcibly();
+            assertTrue(process.waitFor(30, TimeUnit.SECONDS));
+            output.close();
+        }
+        assertTrue(
+                "writer stopped early:\n" + other,
+                added.size() + deleted.size() >= ACKNOWLEDGED_WRITES);
+
+        // the writer keeps going after the last line read and may have deleted that ticket since
+        added.remove(lastAdded);
+
+        final MappedTicketRegistry registry = MappedTicketRegistryTest.open(directory, 64 * 1024);
+        try {
+            for (final String id : added) {
+                assertNotNull(id, registry.getTicket(id));
+            }
+            for (final String id : deleted) {
+                assertNull(id, registry.getTicket(id));
+            }
+        } finally {
+            registry.destroy();
+        }
+    }
+
+    /** Adds tickets and deletes every third one, reporting each completed write, until killed. */
+    public static final class Writer {
+        public static void main(String[] args) throws Exception {
+            final MappedTicketRegistry registry =
+                    MappedTicketRegistryTest.open(new File(args[0]), 64 * 1024);
+            for (int i = 0; ; i++) {
+                final String id = "TGT-" + i;
+                registry.addTicket(MappedTicketRegistryTest.tgt(id));
+                System.out.println("added " + id);
+                if (i % 3 == 2) {
+                    final String victim = "TGT-" + (i - 1);
+                    registry.deleteTicket(victim);
+                    System.out.println("deleted " + victim);
+                }
+                if (i % 50 == 0) {
+                    registry.compact();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.ticket.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import org.jasig.cas.authentication.ImmutableAuthentication;
+import org.jasig.cas.authentication.principal.SimplePrincipal;
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.jasig.cas.ticket.support.TimeoutExpirationPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ */
+public class MappedTicketRegistryTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private MappedTicketRegistry registry;
+
+    @Before
+    public void setUp() throws Exception {
+        this.directory = this.folder.newFolder("tickets");
+        this.registry = open(this.directory, 4096);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.registry.destroy();
+    }
+
+    @Test
+    public void testAddGetDelete() {
+        this.registry.addTicket(tgt("TGT-1"));
+        final TicketGrantingTicket tgt =
+                (TicketGrantingTicket) this.registry.getTicket("TGT-1", TicketGrantingTicket.class);
+        assertEquals("student", tgt.getAuthentication().getPrincipal().getId());
+
+        // changes made through the returned proxy are written back
+        final ServiceTicket st =
+                tgt.grantServiceTicket(
+                        "ST-1",
+                        new SimpleWebApplicationServiceImpl("https://www.example.org/"),
+                        new TimeoutExpirationPolicy(10000),
+                        false);
+        this.registry.addTicket(st);
+        assertEquals(1, ((TicketGrantingTicket) this.registry.getTicket("TGT-1")).getCountOfUses());
+        assertEquals(
+                "TGT-1",
+                ((ServiceTicket) this.registry.getTicket("ST-1")).getGrantingTicket().getId());
+
+        assertEquals(1, this.registry.sessionCount());
+        assertEquals(1, this.registry.serviceTicketCount());
+        assertEquals(Integer.valueOf(1), this.registry.getTicketCounts().get("ST"));
+        assertEquals(2, this.registry.getTickets().size());
+
+        assertTrue(this.registry.deleteTicket("ST-1"));
+        assertFalse(this.registry.deleteTicket("ST-1"));
+        assertNull(this.registry.getTicket("ST-1"));
+        assertEquals(0, this.registry.serviceTicketCount());
+        assertNull(this.registry.getTicket(null));
+    }
+
+    @Test
+    public void testRecoveryAfterRestart() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            this.registry.addTicket(tgt("TGT-" + i));
+        }
+        for (int i = 0; i < 100; i += 3) {
+            this.registry.deleteTicket("TGT-" + i);
+        }
+        // replace a ticket, the latest version must win
+        this.registry.addTicket(tgt("TGT-1", "teacher"));
+        assertTrue(this.registry.getSegmentCount() > 1);
+
+        this.registry.destroy();
+        this.registry = open(this.directory, 4096);
+
+        assertEquals(66, this.registry.size());
+        assertEquals(66, this.registry.sessionCount());
+        assertNull(this.registry.getTicket("TGT-0"));
+        assertNotNull(this.registry.getTicket("TGT-2"));
+        assertEquals(
+                "teacher",
+                ((TicketGrantingTicket) this.registry.getTicket("TGT-1"))
+                        .getAuthentication()
+                        .getPrincipal()
+                        .getId());
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            this.registry.addTicket(tgt("TGT-" + i));
+        }
+        for (int i = 0; i < 200; i++) {
+            if (i % 10 != 0) {
+                this.registry.deleteTicket("TGT-" + i);
+            }
+        }
+        final int segments = this.registry.getSegmentCount();
+        final long used = this.registry.getUsedBytes();
+
+        this.registry.compact();
+        assertTrue(this.registry.getSegmentCount() < segments);
+        assertTrue(this.registry.getUsedBytes() < used / 2);
+        assertEquals(this.registry.getSegmentCount(), this.directory.list().length);
+        assertEquals(20, this.registry.size());
+        assertNotNull(this.registry.getTicket("TGT-190"));
+
+        // tombstones that still matter survive compaction
+        this.registry.destroy();
+        this.registry = open(this.directory, 4096);
+        assertEquals(20, this.registry.size());
+        assertNull(this.registry.getTicket("TGT-1"));
+        assertNotNull(this.registry.getTicket("TGT-10"));
+    }
+
+    @Test
+    public void testTornRecordIsDiscarded() throws Exception {
+        this.registry.setSegmentSize(1024 * 1024);
+        this.registry.addTicket(tgt("TGT-1"));
+        this.registry.addTicket(tgt("TGT-2"));
+        this.registry.destroy();
+
+        // damage the body of the last record, as if the process died while writing it
+        final File[] files = this.directory.listFiles();
+        assertEquals(1, files.length);
+        final RandomAccessFile file = new RandomAccessFile(files[0], "rw");
+        try {
+            int offset = 0;
+            int last = 0;
+            while (true) {
+                file.seek(offset);
+                final int length = file.readInt();
+                if (length == 0) {
+                    break;
+                }
+                last = offset;
+                offset += TicketSegment.HEADER_SIZE + length;
+            }
+            file.seek(last + TicketSegment.HEADER_SIZE + 20);
+            file.write(0x7F);
+        } finally {
+            file.close();
+        }
+
+        this.registry = open(this.directory, 1024 * 1024);
+        assertNotNull(this.registry.getTicket("TGT-1"));
+        assertNull(this.registry.getTicket("TGT-2"));
+
+        this.registry.addTicket(tgt("TGT-3"));
+        this.registry.destroy();
+        this.registry = open(this.directory, 1024 * 1024);
+        assertEquals(2, this.registry.size());
+        assertNotNull(this.registry.getTicket("TGT-3"));
+    }
+
+    static MappedTicketRegistry open(File directory, int segmentSize) throws Exception {
+        final MappedTicketRegistry registry = new MappedTicketRegistry();
+        registry.setDirectory(directory);
+        registry.setSegmentSize(segmentSize);
+        registry.afterPropertiesSet();
+        return registry;
+    }
+
+    static TicketGrantingTicketImpl tgt(String id) {
+        return tgt(id, "student");
+    }
+
+    static TicketGrantingTicketImpl tgt(String id, String principal) {
+        return new TicketGrantingTicketImpl(
+                id,
+                new ImmutableAuthentication(new SimplePrincipal(principal)),
+                new TimeoutExpirationPolicy(7200000));
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.ticket.registry;
+
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.TicketState;
+
+/**
+ * Small ticket that expires a fixed time after its last use according to a caller supplied clock,
+ * for tests that need control over time or millions of tickets.
+ *
+ */
+class MockTicket implements Ticket, TicketState {
+    private static final long serialVersionUID = 1L;
+
+    /** Shared test clock. */
+    interface Clock {
+        long now();
+    }
+
+    private final String id;
+    private final long creationTime;
+    private final long timeToLive;
+    private final transient Clock clock;
+    private volatile long lastTimeUsed;
+    private volatile int countOfUses;
+
+    MockTicket(String id, long timeToLive, Clock clock) {
+        this.id = id;
+        this.clock = clock;
+        this.timeToLive = timeToLive;
+        this.creationTime = clock.now();
+        this.lastTimeUsed = this.creationTime;
+    }
+
+    /** Record a use of the ticket, extending its life. */
+    void use() {
+        this.lastTimeUsed = this.clock.now();
+        this.countOfUses++;
+    }
+
+    /** @return the time after which the ticket is expired */
+    long getExpirationTime() {
+        return this.lastTimeUsed + this.timeToLive;
+    }
+
+    public String getId() {
+        return this.id;
+    }
+
+    public boolean isExpired() {
+        return this.getExpirationTime() <= this.clock.now();
+    }
+
+    public TicketGrantingTicket getGrantingTicket() {
+        return null;
+    }
+
+    public long getCreationTime() {
+        return this.creationTime;
+    }
+
+    public int getCountOfUses() {
+        return this.countOfUses;
+    }
+
+    public long getLastTimeUsed() {
+        return this.lastTimeUsed;
+    }
+
+    public long getPreviousTimeUsed() {
+        return this.creationTime;
+    }
+
+    public Authentication getAuthentication() {
+        return null;
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.cas.warmup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apereo.portal.cas.monitor.WarmUpMonitor;
+import org.jasig.cas.monitor.StatusCode;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.StaticApplicationContext;
+
+/**
+ */
+public class StartupWarmUpTest {
+    private final List<String> warmedUp = new ArrayList<String>();
+
+    private StartupWarmUp startupWarmUp;
+    private WarmUpMonitor monitor;
+    private StaticApplicationContext context;
+
+    @Before
+    public void setUp() {
+        this.startupWarmUp = new StartupWarmUp();
+        this.monitor = new WarmUpMonitor();
+        this.monitor.setStartupWarmUp(this.startupWarmUp);
+
+        this.context = new StaticApplicationContext();
+        this.context.getBeanFactory().registerSingleton("startupWarmUp", this.startupWarmUp);
+    }
+
+    @Test
+    public void testWarmsUpTargetsOnRefresh() {
+        this.context.getBeanFactory().registerSingleton("first", new Target("first", null));
+        this.context.getBeanFactory().registerSingleton("second", new Target("second", null));
+        this.context.getBeanFactory().registerSingleton("other", new Object());
+
+        assertFalse(this.startupWarmUp.isComplete());
+        assertEquals(StatusCode.ERROR, this.monitor.observe().getCode());
+
+        this.context.refresh();
+
+        assertEquals(2, this.warmedUp.size());
+        assertTrue(this.warmedUp.contains("first"));
+        assertTrue(this.warmedUp.contains("second"));
+        assertTrue(this.startupWarmUp.isComplete());
+        assertEquals(2, this.startupWarmUp.getDurations().size());
+        assertTrue(this.startupWarmUp.getFailures().isEmpty());
+        assertEquals(StatusCode.OK, this.monitor.observe().getCode());
+    }
+
+    @Test
+    public void testFailureDoesNotStopOtherTargets() {
+        this.context
+                .getBeanFactory()
+                .registerSingleton("broken", new Target("broken", new IllegalStateException()));
+        this.context.getBeanFactory().registerSingleton("working", new Target("working", null));
+
+        this.context.refresh();
+
+        assertEquals(2, this.warmedUp.size());
+        assertTrue(this.startupWarmUp.isComplete());
+        assertEquals(1, this.startupWarmUp.getFailures().size());
+        assertTrue(this.startupWarmUp.getFailures().containsKey("broken"));
+        assertEquals(StatusCode.WARN, this.monitor.observe().getCode());
+    }
+
+    @Test
+    public void testWarmsUpChildContextTargets() {
+        this.context.getBeanFactory().registerSingleton("parent", new Target("parent", null));
+        this.context.refresh();
+
+        final StaticApplicationContext child = new StaticApplicationContext(this.context);
+        child.getBeanFactory().registerSingleton("child", new Target("child", null));
+        child.refresh();
+
+        // the parent's targets are not warmed up again for the child
+        assertEquals(2, this.warmedUp.size());
+        assertEquals("parent", this.warmedUp.get(0));
+        assertEquals("child", this.warmedUp.get(1));
+        assertTrue(this.startupWarmUp.isComplete());
+    }
+
+    @Test
+    public void testDisabled() {
+        this.startupWarmUp.setEnabled(false);
+        this.context.getBeanFactory().registerSingleton("target", new Target("target", null));
+
+        this.context.refresh();
+
+        assertTrue(this.warmedUp.isEmpty());
+        assertTrue(this.startupWarmUp.isComplete());
+        assertEquals(StatusCode.OK, this.monitor.observe().getCode());
+    }
+
+    private final class Target implements WarmUpTarget {
+        private final String name;
+        private final RuntimeException failure;
+
+        Target(String name, RuntimeException failure) {
+            this.name = name;
+            this.failure = failure;
+        }
+
+        public void warmUp() {
+            StartupWarmUpTest.this.warmedUp.add(this.name);
+            if (this.failure != null) {
+                throw this.failure;
+            }
+        }
+    }
+}